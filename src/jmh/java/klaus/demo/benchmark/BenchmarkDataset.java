@@ -0,0 +1,47 @@
+package klaus.demo.benchmark;
+
+import klaus.demo.tools.DatasetGenerator;
+import org.sqlite.SQLiteDataSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SQLite databases written by {@link DatasetGenerator} with a fixed seed, one file per ratings count.
+ * Ratings are spread over {@link #DAYS} days from {@link #START}.
+ */
+final class BenchmarkDataset {
+    static final LocalDateTime START = LocalDateTime.parse("2019-01-01T00:00:00");
+    static final int DAYS = 365;
+
+    private static final int RATINGS_PER_TICKET = 5;
+
+    private BenchmarkDataset() {
+    }
+
+    static SQLiteDataSource getDataSource(int ratings) throws Exception {
+        Path directory = Paths.get(System.getProperty("benchmark.dataset.dir", "build/jmh-datasets"));
+        Path database = directory.resolve("ratings-" + ratings + ".db");
+        if (!Files.exists(database)) {
+            Map<String, Double> categoryWeights = new LinkedHashMap<>();
+            categoryWeights.put("Spelling", 1.0);
+            categoryWeights.put("Grammar", 0.7);
+            categoryWeights.put("GDPR", 1.2);
+            categoryWeights.put("Randomness", 0.0);
+
+            Path partial = directory.resolve("ratings-" + ratings + ".db.partial");
+            new DatasetGenerator(Math.max(1, ratings / RATINGS_PER_TICKET), RATINGS_PER_TICKET, categoryWeights, START, DAYS, 42)
+                    .generate(partial);
+            Files.move(partial, database, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + database.toAbsolutePath());
+        return dataSource;
+    }
+}
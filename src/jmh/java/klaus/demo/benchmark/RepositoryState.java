@@ -0,0 +1,57 @@
+package klaus.demo.benchmark;
+
+import klaus.demo.ticket.cancellation.CancellationCounters;
+import klaus.demo.ticket.repository.CategoryDimension;
+import klaus.demo.ticket.repository.ColumnarTicketRepository;
+import klaus.demo.ticket.repository.JdbcTicketRepository;
+import klaus.demo.ticket.repository.RatingsSchema;
+import klaus.demo.ticket.repository.TicketRepository;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.sqlite.SQLiteDataSource;
+
+import java.time.LocalDateTime;
+
+/**
+ * A repository over a generated dataset. The queried range is 30 days in the middle of the dataset,
+ * starting and ending mid-day so the JDBC engine also aggregates partial edge days in SQLite.
+ */
+@State(Scope.Benchmark)
+public class RepositoryState {
+    static final LocalDateTime PERIOD_FROM = BenchmarkDataset.START.plusDays(150).plusHours(7);
+    static final LocalDateTime PERIOD_TO = BenchmarkDataset.START.plusDays(180).plusHours(17);
+
+    @Param({"10000", "1000000", "10000000"})
+    public int ratings;
+
+    @Param({"jdbc", "jdbc-without-rollups", "columnar"})
+    public String engine;
+
+    TicketRepository ticketRepository;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SQLiteDataSource dataSource = BenchmarkDataset.getDataSource(ratings);
+        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+        // datasets generated before created_at_epoch existed are migrated in place
+        new RatingsSchema(jdbcTemplate, dataSource.getUrl(), true, 5000);
+        CategoryDimension categoryDimension = new CategoryDimension(jdbcTemplate);
+        switch (engine) {
+            case "jdbc":
+                ticketRepository = new JdbcTicketRepository(jdbcTemplate, categoryDimension, new CancellationCounters(), true, 500, "");
+                break;
+            case "jdbc-without-rollups":
+                ticketRepository = new JdbcTicketRepository(jdbcTemplate, categoryDimension, new CancellationCounters(), false, 500, "");
+                break;
+            case "columnar":
+                ticketRepository = new ColumnarTicketRepository(jdbcTemplate, categoryDimension);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown engine " + engine);
+        }
+    }
+}
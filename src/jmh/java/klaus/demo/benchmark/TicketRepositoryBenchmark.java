@@ -0,0 +1,60 @@
+package klaus.demo.benchmark;
+
+import klaus.demo.ticket.domain.CategoryBucketScore;
+import klaus.demo.ticket.domain.CategoryScoreDistribution;
+import klaus.demo.ticket.domain.Period;
+import klaus.demo.ticket.domain.ScoreTotal;
+import klaus.demo.ticket.domain.TimeBucket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static klaus.demo.benchmark.RepositoryState.PERIOD_FROM;
+import static klaus.demo.benchmark.RepositoryState.PERIOD_TO;
+
+public class TicketRepositoryBenchmark {
+    private static final List<Period> TWELVE_WEEKS = new ArrayList<>();
+
+    static {
+        for (int week = 0; week < 12; week++) {
+            TWELVE_WEEKS.add(new Period(PERIOD_FROM.plusWeeks(week), PERIOD_FROM.plusWeeks(week + 1).minusSeconds(1)));
+        }
+    }
+
+    @Benchmark
+    public void streamCategoryScoresOfTickets(RepositoryState state, Blackhole blackhole) {
+        state.ticketRepository.streamCategoryScoresOfTicketsBetweenDates(PERIOD_FROM, PERIOD_TO, blackhole::consume);
+    }
+
+    @Benchmark
+    public void streamCategoryScoresOfTicketsPage(RepositoryState state, Blackhole blackhole) {
+        state.ticketRepository.streamCategoryScoresOfTicketsPage(PERIOD_FROM, PERIOD_TO, 0, 100, blackhole::consume);
+    }
+
+    @Benchmark
+    public List<CategoryBucketScore> getDailyCategoryBucketScores(RepositoryState state) {
+        return state.ticketRepository.getCategoryBucketScoresBetweenDates(PERIOD_FROM, PERIOD_TO, TimeBucket.DAY);
+    }
+
+    @Benchmark
+    public List<CategoryBucketScore> getWeeklyCategoryBucketScores(RepositoryState state) {
+        return state.ticketRepository.getCategoryBucketScoresBetweenDates(PERIOD_FROM, PERIOD_TO, TimeBucket.WEEK);
+    }
+
+    @Benchmark
+    public ScoreTotal getScoreTotal(RepositoryState state) {
+        return state.ticketRepository.getScoreTotalBetweenDates(PERIOD_FROM, PERIOD_TO);
+    }
+
+    @Benchmark
+    public List<CategoryScoreDistribution> getCategoryScoreDistributions(RepositoryState state) {
+        return state.ticketRepository.getCategoryScoreDistributionsBetweenDates(PERIOD_FROM, PERIOD_TO);
+    }
+
+    @Benchmark
+    public List<ScoreTotal> getScoreTotalsOfTwelveWeeks(RepositoryState state) {
+        return state.ticketRepository.getScoreTotalsOfPeriods(TWELVE_WEEKS);
+    }
+}
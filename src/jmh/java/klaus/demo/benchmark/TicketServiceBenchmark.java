@@ -0,0 +1,113 @@
+package klaus.demo.benchmark;
+
+import com.google.protobuf.Timestamp;
+import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import klaus.demo.DateRange;
+import klaus.demo.DoubleDateRange;
+import klaus.demo.Granularity;
+import klaus.demo.ticket.cache.ResultCache;
+import klaus.demo.ticket.cancellation.CancellationCounters;
+import klaus.demo.ticket.metrics.TicketMetrics;
+import klaus.demo.ticket.service.ResponseBatching;
+import klaus.demo.ticket.service.TicketServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import static klaus.demo.benchmark.RepositoryState.PERIOD_FROM;
+import static klaus.demo.benchmark.RepositoryState.PERIOD_TO;
+
+/**
+ * The RPC implementations called directly, without transport. The result cache holds no entries,
+ * so every call reaches the repository.
+ */
+@State(Scope.Benchmark)
+public class TicketServiceBenchmark {
+    private static final DateRange RANGE = getDateRange(PERIOD_FROM, PERIOD_TO);
+    private static final DateRange WEEKLY_RANGE = RANGE.toBuilder().setGranularity(Granularity.WEEK).build();
+    private static final DoubleDateRange PERIODS = DoubleDateRange.newBuilder()
+            .setPreviousPeriod(getDateRange(PERIOD_FROM.minusDays(30), PERIOD_TO.minusDays(30)))
+            .setSelectedPeriod(RANGE)
+            .build();
+
+    private TicketServiceImpl ticketService;
+
+    @Setup(Level.Trial)
+    public void setUp(RepositoryState state) {
+        ticketService = new TicketServiceImpl(state.ticketRepository, Runnable::run,
+                new ResultCache(0, Duration.ZERO, Duration.ZERO), new CancellationCounters(),
+                new TicketMetrics(new SimpleMeterRegistry()), new ResponseBatching(1000, 262144));
+    }
+
+    @Benchmark
+    public void getAggregatedCategories(Blackhole blackhole) {
+        ticketService.getAggregatedCategories(RANGE, new BlackholeObserver<>(blackhole));
+    }
+
+    @Benchmark
+    public void getWeeklyAggregatedCategories(Blackhole blackhole) {
+        ticketService.getAggregatedCategories(WEEKLY_RANGE, new BlackholeObserver<>(blackhole));
+    }
+
+    @Benchmark
+    public void getAggregatedCategorySeries(Blackhole blackhole) {
+        ticketService.getAggregatedCategorySeries(RANGE, new BlackholeObserver<>(blackhole));
+    }
+
+    @Benchmark
+    public void getScoresByTickets(Blackhole blackhole) {
+        ticketService.getScoresByTickets(RANGE, new BlackholeObserver<>(blackhole));
+    }
+
+    @Benchmark
+    public void getScoresByTicketsBatched(Blackhole blackhole) {
+        ticketService.getScoresByTicketsBatched(RANGE, new BlackholeObserver<>(blackhole));
+    }
+
+    @Benchmark
+    public void getOverallQualityScore(Blackhole blackhole) {
+        ticketService.getOverallQualityScore(RANGE, new BlackholeObserver<>(blackhole));
+    }
+
+    @Benchmark
+    public void getPeriodOverPeriodScoreChange(Blackhole blackhole) {
+        ticketService.getPeriodOverPeriodScoreChange(PERIODS, new BlackholeObserver<>(blackhole));
+    }
+
+    private static DateRange getDateRange(LocalDateTime periodFrom, LocalDateTime periodTo) {
+        return DateRange.newBuilder()
+                .setPeriodFrom(Timestamp.newBuilder().setSeconds(periodFrom.toEpochSecond(ZoneOffset.UTC)))
+                .setPeriodTo(Timestamp.newBuilder().setSeconds(periodTo.toEpochSecond(ZoneOffset.UTC)))
+                .build();
+    }
+
+    private static class BlackholeObserver<T> implements StreamObserver<T> {
+        private final Blackhole blackhole;
+
+        private BlackholeObserver(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void onNext(T value) {
+            blackhole.consume(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            throw new IllegalStateException("Call failed", t);
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+    }
+}
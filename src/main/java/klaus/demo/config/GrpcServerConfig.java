@@ -1,43 +1,161 @@
 package klaus.demo.config;
 
 import io.grpc.Server;
-import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
+import io.grpc.netty.NettyServerBuilder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import klaus.demo.ticket.metrics.MetricsServerInterceptor;
+import klaus.demo.ticket.service.CompressionServerInterceptor;
+import klaus.demo.ticket.service.PartialAggregateServiceImpl;
+import klaus.demo.ticket.service.RatingIngestServiceImpl;
+import klaus.demo.ticket.service.ScoreSubscriptionServiceImpl;
 import klaus.demo.ticket.service.TicketServiceImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.context.annotation.Configuration;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Starts the gRPC server once the application context has been refreshed and drains it on shutdown.
+ * Service methods run on a fixed size executor instead of grpc-java's default cached thread pool.
+ */
 @Configuration
-public class GrpcServerConfig {
-    private static final int PORT = 50051;
-    private Server server;
-
+public class GrpcServerConfig implements SmartLifecycle {
     Logger logger = LoggerFactory.getLogger(GrpcServerConfig.class);
 
     private final TicketServiceImpl ticketService;
+    private final RatingIngestServiceImpl ratingIngestService;
+    private final ScoreSubscriptionServiceImpl scoreSubscriptionService;
+    private final PartialAggregateServiceImpl partialAggregateService;
+    private final MetricsServerInterceptor metricsInterceptor;
+    private final CompressionServerInterceptor compressionInterceptor;
+    private final int port;
+    private final int executorThreads;
+    private final int bossThreads;
+    private final int workerThreads;
+    private final int maxConcurrentCallsPerConnection;
+    private final long keepAliveTimeSeconds;
+    private final long keepAliveTimeoutSeconds;
+    private final long permitKeepAliveTimeSeconds;
+    private final int maxInboundMessageSize;
+    private final long shutdownGracePeriodSeconds;
 
-    public GrpcServerConfig(TicketServiceImpl ticketService) throws IOException, InterruptedException {
+    private Server server;
+    private ExecutorService executor;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+
+    public GrpcServerConfig(TicketServiceImpl ticketService,
+                            RatingIngestServiceImpl ratingIngestService,
+                            ScoreSubscriptionServiceImpl scoreSubscriptionService,
+                            PartialAggregateServiceImpl partialAggregateService,
+                            MetricsServerInterceptor metricsInterceptor,
+                            CompressionServerInterceptor compressionInterceptor,
+                            @Value("${ticket.grpc.port:50051}") int port,
+                            @Value("${ticket.grpc.executor-threads:0}") int executorThreads,
+                            @Value("${ticket.grpc.boss-threads:1}") int bossThreads,
+                            @Value("${ticket.grpc.worker-threads:0}") int workerThreads,
+                            @Value("${ticket.grpc.max-concurrent-calls-per-connection:100}") int maxConcurrentCallsPerConnection,
+                            @Value("${ticket.grpc.keep-alive-time-seconds:60}") long keepAliveTimeSeconds,
+                            @Value("${ticket.grpc.keep-alive-timeout-seconds:20}") long keepAliveTimeoutSeconds,
+                            @Value("${ticket.grpc.permit-keep-alive-time-seconds:30}") long permitKeepAliveTimeSeconds,
+                            @Value("${ticket.grpc.max-inbound-message-size:4194304}") int maxInboundMessageSize,
+                            @Value("${ticket.grpc.shutdown-grace-period-seconds:30}") long shutdownGracePeriodSeconds) {
         this.ticketService = ticketService;
-        start();
+        this.ratingIngestService = ratingIngestService;
+        this.scoreSubscriptionService = scoreSubscriptionService;
+        this.partialAggregateService = partialAggregateService;
+        this.metricsInterceptor = metricsInterceptor;
+        this.compressionInterceptor = compressionInterceptor;
+        this.port = port;
+        this.executorThreads = executorThreads > 0 ? executorThreads : Runtime.getRuntime().availableProcessors();
+        this.bossThreads = bossThreads;
+        this.workerThreads = workerThreads;
+        this.maxConcurrentCallsPerConnection = maxConcurrentCallsPerConnection;
+        this.keepAliveTimeSeconds = keepAliveTimeSeconds;
+        this.keepAliveTimeoutSeconds = keepAliveTimeoutSeconds;
+        this.permitKeepAliveTimeSeconds = permitKeepAliveTimeSeconds;
+        this.maxInboundMessageSize = maxInboundMessageSize;
+        this.shutdownGracePeriodSeconds = shutdownGracePeriodSeconds;
     }
 
-    public void start() throws IOException, InterruptedException {
-        logger.info("Starting server on port: " + PORT);
-        server = ServerBuilder.forPort(PORT)
-                .addService(ticketService)
-                .build()
-                .start();
+    @Override
+    public synchronized void start() {
+        logger.info("Starting server on port: " + port + " with " + executorThreads + " executor threads");
+        executor = Executors.newFixedThreadPool(executorThreads, new DefaultThreadFactory("grpc-executor"));
+        bossGroup = new NioEventLoopGroup(bossThreads, new DefaultThreadFactory("grpc-boss"));
+        // 0 threads lets Netty use twice the number of available processors
+        workerGroup = new NioEventLoopGroup(workerThreads, new DefaultThreadFactory("grpc-worker"));
 
-        blockUntilShutdown();
+        server = NettyServerBuilder.forPort(port)
+                .channelType(NioServerSocketChannel.class)
+                .bossEventLoopGroup(bossGroup)
+                .workerEventLoopGroup(workerGroup)
+                .executor(executor)
+                .maxConcurrentCallsPerConnection(maxConcurrentCallsPerConnection)
+                .keepAliveTime(keepAliveTimeSeconds, TimeUnit.SECONDS)
+                .keepAliveTimeout(keepAliveTimeoutSeconds, TimeUnit.SECONDS)
+                .permitKeepAliveTime(permitKeepAliveTimeSeconds, TimeUnit.SECONDS)
+                .maxInboundMessageSize(maxInboundMessageSize)
+                .addService(ServerInterceptors.intercept(ticketService, metricsInterceptor, compressionInterceptor))
+                .addService(ServerInterceptors.intercept(ratingIngestService, metricsInterceptor, compressionInterceptor))
+                .addService(ServerInterceptors.intercept(scoreSubscriptionService, metricsInterceptor, compressionInterceptor))
+                .addService(ServerInterceptors.intercept(partialAggregateService, metricsInterceptor, compressionInterceptor))
+                .build();
+        try {
+            server.start();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not start gRPC server on port " + port, e);
+        }
+
+        // the event loop threads are daemons, this one keeps the JVM alive until the server terminates
+        Thread awaitThread = new Thread(() -> {
+            try {
+                server.awaitTermination();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "grpc-server-await");
+        awaitThread.setDaemon(false);
+        awaitThread.start();
     }
 
-    public void blockUntilShutdown() throws InterruptedException {
+    @Override
+    public synchronized void stop() {
         if (server == null) {
             return;
         }
 
-        server.awaitTermination();
+        logger.info("Stopping server, waiting up to " + shutdownGracePeriodSeconds + " s for calls in progress");
+        server.shutdown();
+        scoreSubscriptionService.completeSubscriptions();
+        try {
+            if (!server.awaitTermination(shutdownGracePeriodSeconds, TimeUnit.SECONDS)) {
+                logger.warn("Calls did not finish in " + shutdownGracePeriodSeconds + " s, cancelling them");
+                server.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            server.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+            bossGroup.shutdownGracefully();
+            workerGroup.shutdownGracefully();
+            server = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return server != null;
     }
 }
@@ -0,0 +1,40 @@
+package klaus.demo.config;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import klaus.demo.ticket.cache.ResultCache;
+import klaus.demo.ticket.cancellation.CancellationCounters;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public PrometheusMeterRegistry prometheusMeterRegistry(ResultCache resultCache, CancellationCounters cancellationCounters) {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        new JvmMemoryMetrics().bindTo(registry);
+        new JvmGcMetrics().bindTo(registry);
+        new JvmThreadMetrics().bindTo(registry);
+
+        FunctionCounter.builder("ticket.cache.hits", resultCache, ResultCache::getHits).register(registry);
+        FunctionCounter.builder("ticket.cache.misses", resultCache, ResultCache::getMisses).register(registry);
+        FunctionCounter.builder("ticket.cache.evictions", resultCache, ResultCache::getEvictions).register(registry);
+        FunctionCounter.builder("ticket.cache.expirations", resultCache, ResultCache::getExpirations).register(registry);
+        FunctionCounter.builder("ticket.cache.invalidations", resultCache, ResultCache::getInvalidations).register(registry);
+        Gauge.builder("ticket.cache.size", resultCache, ResultCache::size).register(registry);
+
+        FunctionCounter.builder("ticket.cancelled.queries", cancellationCounters, CancellationCounters::getInterruptedQueries)
+                .description("SQLite statements interrupted because their call was cancelled")
+                .register(registry);
+        FunctionCounter.builder("ticket.cancelled.calls", cancellationCounters, CancellationCounters::getAbandonedCalls)
+                .description("Calls that stopped early because they were cancelled or their deadline expired")
+                .register(registry);
+        return registry;
+    }
+}
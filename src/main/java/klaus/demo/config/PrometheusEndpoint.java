@@ -0,0 +1,69 @@
+package klaus.demo.config;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the registry in the Prometheus text format. The service has no web stack, so this is a bare JDK HTTP server.
+ */
+@Component
+public class PrometheusEndpoint implements SmartLifecycle {
+    Logger logger = LoggerFactory.getLogger(PrometheusEndpoint.class);
+
+    private final PrometheusMeterRegistry registry;
+    private final int port;
+    private final String path;
+    private HttpServer server;
+
+    public PrometheusEndpoint(PrometheusMeterRegistry registry,
+                              @Value("${ticket.metrics.port:8081}") int port,
+                              @Value("${ticket.metrics.path:/metrics}") String path) {
+        this.registry = registry;
+        this.port = port;
+        this.path = path;
+    }
+
+    @Override
+    public synchronized void start() {
+        try {
+            server = HttpServer.create(new InetSocketAddress(port), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not start metrics endpoint on port " + port, e);
+        }
+        server.createContext(path, exchange -> {
+            byte[] body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", TextFormat.CONTENT_TYPE_004);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(body);
+            }
+        });
+        server.start();
+        logger.info("Serving metrics on port: " + port + " at " + path);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return server != null;
+    }
+}
@@ -0,0 +1,89 @@
+package klaus.demo.config;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Replaces the default single file datasource with a pool of read-only SQLite connections, so concurrent
+ * queries read in parallel from a WAL database instead of queuing on the file lock.
+ */
+@Configuration
+@ConditionalOnProperty(name = "ticket.datasource.read-optimized", havingValue = "true")
+public class ReadDataSourceConfig {
+    Logger logger = LoggerFactory.getLogger(ReadDataSourceConfig.class);
+
+    @Bean
+    public DataSource dataSource(@Value("${spring.datasource.url}") String url,
+                                 @Value("${ticket.datasource.pool-size:0}") int poolSize,
+                                 @Value("${ticket.datasource.journal-mode:WAL}") String journalMode,
+                                 @Value("${ticket.datasource.mmap-size:268435456}") long mmapSize,
+                                 @Value("${ticket.datasource.cache-size:-65536}") long cacheSize,
+                                 @Value("${ticket.datasource.query-only:true}") boolean queryOnly) throws SQLException {
+        int connections = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+
+        // the journal mode is stored in the database file and can only be changed by a writable connection
+        SQLiteConfig journalConfig = new SQLiteConfig();
+        journalConfig.setJournalMode(SQLiteConfig.JournalMode.valueOf(journalMode.toUpperCase(Locale.ROOT)));
+        journalConfig.createConnection(url).close();
+
+        SQLiteConfig readConfig = new SQLiteConfig();
+        readConfig.setReadOnly(true);
+        SQLiteDataSource sqliteDataSource = new SQLiteDataSource(readConfig);
+        sqliteDataSource.setUrl(url);
+
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName("sqlite-read");
+        hikariConfig.setDataSource(new PragmaDataSource(sqliteDataSource, List.of(
+                "PRAGMA mmap_size = " + mmapSize,
+                "PRAGMA cache_size = " + cacheSize,
+                "PRAGMA query_only = " + queryOnly)));
+        hikariConfig.setMaximumPoolSize(connections);
+        hikariConfig.setMinimumIdle(connections);
+
+        logger.info("SQLite read pool of " + connections + " connections, journal_mode " + journalMode + ", mmap_size " + mmapSize
+                + ", cache_size " + cacheSize + ", query_only " + queryOnly);
+        return new HikariDataSource(hikariConfig);
+    }
+
+    /**
+     * Runs the per-connection pragmas once on every physical connection the pool opens.
+     */
+    private static class PragmaDataSource extends DelegatingDataSource {
+        private final List<String> pragmas;
+
+        private PragmaDataSource(DataSource targetDataSource, List<String> pragmas) {
+            super(targetDataSource);
+            this.pragmas = pragmas;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            Connection connection = super.getConnection();
+            try (Statement statement = connection.createStatement()) {
+                for (String pragma : pragmas) {
+                    statement.execute(pragma);
+                }
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+            return connection;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package klaus.demo.config;
+
+import klaus.demo.ticket.cache.ResultCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.time.Duration;
+
+@Configuration
+@EnableScheduling
+public class ResultCacheConfig {
+
+    @Bean
+    public ResultCache resultCache(@Value("${ticket.cache.max-entries:10000}") int maxEntries,
+                                   @Value("${ticket.cache.time-to-live-seconds:60}") long timeToLiveSeconds,
+                                   @Value("${ticket.cache.closed-range-lag-seconds:86400}") long closedRangeLagSeconds) {
+        return new ResultCache(maxEntries, Duration.ofSeconds(timeToLiveSeconds), Duration.ofSeconds(closedRangeLagSeconds));
+    }
+}
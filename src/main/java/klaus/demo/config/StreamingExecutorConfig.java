@@ -0,0 +1,21 @@
+package klaus.demo.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class StreamingExecutorConfig {
+
+    @Bean
+    public ThreadPoolTaskExecutor ticketStreamingExecutor(@Value("${ticket.streaming.threads:4}") int threads,
+                                                          @Value("${ticket.streaming.queue-capacity:100}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("ticket-stream-");
+        return executor;
+    }
+}
@@ -0,0 +1,27 @@
+package klaus.demo.ticket.cache;
+
+import klaus.demo.ticket.repository.CategoryDimension;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reloads the rating categories and drops every cached result when one of them changed,
+ * the daily rollups keep counts per rating value and need no rebuild.
+ */
+@Component
+public class CategoryChangePoller {
+    private final CategoryDimension categoryDimension;
+    private final ResultCache resultCache;
+
+    public CategoryChangePoller(CategoryDimension categoryDimension, ResultCache resultCache) {
+        this.categoryDimension = categoryDimension;
+        this.resultCache = resultCache;
+    }
+
+    @Scheduled(fixedDelayString = "${ticket.categories.refresh-millis:30000}")
+    public void pollCategories() {
+        if (categoryDimension.refresh()) {
+            resultCache.invalidateAll();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package klaus.demo.ticket.cache;
+
+import klaus.demo.ticket.repository.TicketRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class RatingsWatermarkPoller {
+    Logger logger = LoggerFactory.getLogger(RatingsWatermarkPoller.class);
+
+    private final TicketRepository ticketRepository;
+    private final ResultCache resultCache;
+    private long changeVersion;
+
+    public RatingsWatermarkPoller(TicketRepository ticketRepository, ResultCache resultCache) {
+        this.ticketRepository = ticketRepository;
+        this.resultCache = resultCache;
+    }
+
+    @Scheduled(fixedDelayString = "${ticket.cache.watermark-poll-millis:5000}")
+    public void pollWatermark() {
+        long newChangeVersion = ticketRepository.getRatingsChangeVersion();
+        if (newChangeVersion != changeVersion) {
+            changeVersion = newChangeVersion;
+            resultCache.invalidateAll();
+        }
+        resultCache.advanceWatermark(ticketRepository.getRatingsWatermark());
+        logger.debug("Result cache: " + resultCache.size() + " entries, " + resultCache.getHits() + " hits, "
+                + resultCache.getMisses() + " misses, " + resultCache.getEvictions() + " evictions, "
+                + resultCache.getExpirations() + " expirations, " + resultCache.getInvalidations() + " invalidations");
+    }
+}
@@ -0,0 +1,140 @@
+package klaus.demo.ticket.cache;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache of RPC results. Results of ranges that may still receive ratings expire after a TTL and are
+ * dropped as soon as the ratings watermark advances; results of closed historical ranges are kept until evicted.
+ */
+public class ResultCache {
+    private final int maxEntries;
+    private final long timeToLiveNanos;
+    private final Duration closedRangeLag;
+    private final Map<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private long watermark = -1;
+    // bumped on every invalidation so that results loaded before it are not stored
+    private long generation;
+
+    public ResultCache(int maxEntries, Duration timeToLive, Duration closedRangeLag) {
+        this.maxEntries = maxEntries;
+        this.timeToLiveNanos = timeToLive.toNanos();
+        this.closedRangeLag = closedRangeLag;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > ResultCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * A range is closed once its end is further in the past than the configured lag, no new ratings are expected for it.
+     */
+    public boolean isClosed(long periodToEpochSecond) {
+        return Instant.ofEpochSecond(periodToEpochSecond).isBefore(Instant.now().minus(closedRangeLag));
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, boolean closedRange, Supplier<T> loader) {
+        long loadGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.closedRange || System.nanoTime() - entry.createdAtNanos < timeToLiveNanos) {
+                    hits.incrementAndGet();
+                    return (T) entry.value;
+                }
+                entries.remove(key);
+                expirations.incrementAndGet();
+            }
+            loadGeneration = generation;
+        }
+
+        misses.incrementAndGet();
+        T value = loader.get();
+        synchronized (this) {
+            if (generation == loadGeneration) {
+                entries.put(key, new Entry(value, closedRange));
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Drops every result of an open range when new ratings have been written since the last call.
+     */
+    public synchronized void advanceWatermark(long newWatermark) {
+        if (newWatermark == watermark) {
+            return;
+        }
+        watermark = newWatermark;
+        generation++;
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (!iterator.next().closedRange) {
+                iterator.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops every result including those of closed ranges, for changes that affect all of them such as category weights.
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        invalidations.addAndGet(entries.size());
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final boolean closedRange;
+        private final long createdAtNanos = System.nanoTime();
+
+        private Entry(Object value, boolean closedRange) {
+            this.value = value;
+            this.closedRange = closedRange;
+        }
+    }
+}
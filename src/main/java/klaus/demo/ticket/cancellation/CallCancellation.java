@@ -0,0 +1,34 @@
+package klaus.demo.ticket.cancellation;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Status;
+
+/**
+ * Checks of the current gRPC call's context. The context is cancelled both when the client cancels
+ * and when the call's deadline expires, outside of a call it is never cancelled.
+ */
+public final class CallCancellation {
+
+    private CallCancellation() {
+    }
+
+    public static boolean isCancelled() {
+        return Context.current().isCancelled();
+    }
+
+    public static void throwIfCancelled() {
+        Context context = Context.current();
+        if (context.isCancelled()) {
+            throw getCancelledStatus(context).asRuntimeException();
+        }
+    }
+
+    /**
+     * CANCELLED or DEADLINE_EXCEEDED, depending on why the context was cancelled.
+     */
+    public static Status getCancelledStatus(Context context) {
+        Status status = Contexts.statusFromCancelled(context);
+        return status == null ? Status.CANCELLED : status;
+    }
+}
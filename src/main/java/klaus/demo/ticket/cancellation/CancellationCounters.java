@@ -0,0 +1,36 @@
+package klaus.demo.ticket.cancellation;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Work abandoned because the client cancelled or its deadline expired.
+ */
+@Component
+public class CancellationCounters {
+    private final AtomicLong interruptedQueries = new AtomicLong();
+    private final AtomicLong abandonedCalls = new AtomicLong();
+
+    public void queryInterrupted() {
+        interruptedQueries.incrementAndGet();
+    }
+
+    public void callAbandoned() {
+        abandonedCalls.incrementAndGet();
+    }
+
+    /**
+     * SQLite statements interrupted while running.
+     */
+    public long getInterruptedQueries() {
+        return interruptedQueries.get();
+    }
+
+    /**
+     * Calls that stopped before producing their full response.
+     */
+    public long getAbandonedCalls() {
+        return abandonedCalls.get();
+    }
+}
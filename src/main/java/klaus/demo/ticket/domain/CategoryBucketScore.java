@@ -0,0 +1,44 @@
+package klaus.demo.ticket.domain;
+
+public class CategoryBucketScore {
+    private String categoryName;
+    private long bucketStart;
+    private long scoreSum;
+    private long ratingsCount;
+
+    public String getCategoryName() {
+        return categoryName;
+    }
+
+    public void setCategoryName(String categoryName) {
+        this.categoryName = categoryName;
+    }
+
+    public long getBucketStart() {
+        return bucketStart;
+    }
+
+    public void setBucketStart(long bucketStart) {
+        this.bucketStart = bucketStart;
+    }
+
+    public long getScoreSum() {
+        return scoreSum;
+    }
+
+    public void setScoreSum(long scoreSum) {
+        this.scoreSum = scoreSum;
+    }
+
+    public long getRatingsCount() {
+        return ratingsCount;
+    }
+
+    public void setRatingsCount(long ratingsCount) {
+        this.ratingsCount = ratingsCount;
+    }
+
+    public int getAverageScore() {
+        return ratingsCount == 0 ? 0 : (int) (scoreSum / ratingsCount);
+    }
+}
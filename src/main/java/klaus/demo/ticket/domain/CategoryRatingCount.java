@@ -0,0 +1,40 @@
+package klaus.demo.ticket.domain;
+
+public class CategoryRatingCount {
+    private long categoryId;
+    private long bucketStart;
+    private int rating;
+    private long ratingsCount;
+
+    public long getCategoryId() {
+        return categoryId;
+    }
+
+    public void setCategoryId(long categoryId) {
+        this.categoryId = categoryId;
+    }
+
+    public long getBucketStart() {
+        return bucketStart;
+    }
+
+    public void setBucketStart(long bucketStart) {
+        this.bucketStart = bucketStart;
+    }
+
+    public int getRating() {
+        return rating;
+    }
+
+    public void setRating(int rating) {
+        this.rating = rating;
+    }
+
+    public long getRatingsCount() {
+        return ratingsCount;
+    }
+
+    public void setRatingsCount(long ratingsCount) {
+        this.ratingsCount = ratingsCount;
+    }
+}
@@ -0,0 +1,69 @@
+package klaus.demo.ticket.domain;
+
+/**
+ * Ratings of one category counted per score, a fixed 0-100 histogram that merges by adding counts.
+ */
+public class CategoryScoreDistribution {
+    public static final int MAX_SCORE = 100;
+
+    private String categoryName;
+    private final long[] scoreCounts = new long[MAX_SCORE + 1];
+    private long ratingsCount;
+
+    public String getCategoryName() {
+        return categoryName;
+    }
+
+    public void setCategoryName(String categoryName) {
+        this.categoryName = categoryName;
+    }
+
+    public long getRatingsCount() {
+        return ratingsCount;
+    }
+
+    public long getCount(int score) {
+        return scoreCounts[score];
+    }
+
+    public void add(int score, long count) {
+        scoreCounts[Math.max(0, Math.min(MAX_SCORE, score))] += count;
+        ratingsCount += count;
+    }
+
+    public void add(CategoryScoreDistribution distribution) {
+        for (int score = 0; score <= MAX_SCORE; score++) {
+            scoreCounts[score] += distribution.scoreCounts[score];
+        }
+        ratingsCount += distribution.ratingsCount;
+    }
+
+    public int getAverageScore() {
+        if (ratingsCount == 0) {
+            return 0;
+        }
+        long scoreSum = 0;
+        for (int score = 0; score <= MAX_SCORE; score++) {
+            scoreSum += score * scoreCounts[score];
+        }
+        return (int) (scoreSum / ratingsCount);
+    }
+
+    /**
+     * Nearest rank: the lowest score that at least the given percentage of the ratings are at or below.
+     */
+    public int getPercentileScore(double percentile) {
+        if (ratingsCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * ratingsCount));
+        long cumulativeCount = 0;
+        for (int score = 0; score <= MAX_SCORE; score++) {
+            cumulativeCount += scoreCounts[score];
+            if (cumulativeCount >= rank) {
+                return score;
+            }
+        }
+        return MAX_SCORE;
+    }
+}
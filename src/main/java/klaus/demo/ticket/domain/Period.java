@@ -0,0 +1,21 @@
+package klaus.demo.ticket.domain;
+
+import java.time.LocalDateTime;
+
+public class Period {
+    private final LocalDateTime dateFrom;
+    private final LocalDateTime dateTo;
+
+    public Period(LocalDateTime dateFrom, LocalDateTime dateTo) {
+        this.dateFrom = dateFrom;
+        this.dateTo = dateTo;
+    }
+
+    public LocalDateTime getDateFrom() {
+        return dateFrom;
+    }
+
+    public LocalDateTime getDateTo() {
+        return dateTo;
+    }
+}
@@ -0,0 +1,60 @@
+package klaus.demo.ticket.domain;
+
+import java.time.LocalDateTime;
+
+public class Rating {
+    private long ticketId;
+    private long categoryId;
+    private int rating;
+    private LocalDateTime createdAt;
+    private Long reviewerId;
+    private Long revieweeId;
+
+    public long getTicketId() {
+        return ticketId;
+    }
+
+    public void setTicketId(long ticketId) {
+        this.ticketId = ticketId;
+    }
+
+    public long getCategoryId() {
+        return categoryId;
+    }
+
+    public void setCategoryId(long categoryId) {
+        this.categoryId = categoryId;
+    }
+
+    public int getRating() {
+        return rating;
+    }
+
+    public void setRating(int rating) {
+        this.rating = rating;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Long getReviewerId() {
+        return reviewerId;
+    }
+
+    public void setReviewerId(Long reviewerId) {
+        this.reviewerId = reviewerId;
+    }
+
+    public Long getRevieweeId() {
+        return revieweeId;
+    }
+
+    public void setRevieweeId(Long revieweeId) {
+        this.revieweeId = revieweeId;
+    }
+}
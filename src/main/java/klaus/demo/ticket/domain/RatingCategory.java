@@ -0,0 +1,60 @@
+package klaus.demo.ticket.domain;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A row of rating_categories with the score of every rating value on the 0-5 scale precomputed.
+ */
+public class RatingCategory {
+    public static final int MAX_RATING = 5;
+
+    private final long id;
+    private final String name;
+    private final double weight;
+    private final int[] scores;
+
+    public RatingCategory(long id, String name, double weight, int[] scores) {
+        this.id = id;
+        this.name = name;
+        this.weight = weight;
+        this.scores = Arrays.copyOf(scores, MAX_RATING + 1);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    public int getScore(int rating) {
+        return scores[rating];
+    }
+
+    public static boolean isOnScale(int rating) {
+        return rating >= 0 && rating <= MAX_RATING;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        RatingCategory that = (RatingCategory) o;
+        return id == that.id && Double.compare(that.weight, weight) == 0 && name.equals(that.name) && Arrays.equals(scores, that.scores);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hash(id, name, weight) + Arrays.hashCode(scores);
+    }
+}
@@ -0,0 +1,70 @@
+package klaus.demo.ticket.domain;
+
+public class ScoreTotal {
+    private long scoreSum;
+    private long ratingsCount;
+    private double weightedScoreSum;
+    private double weightSum;
+
+    public long getScoreSum() {
+        return scoreSum;
+    }
+
+    public void setScoreSum(long scoreSum) {
+        this.scoreSum = scoreSum;
+    }
+
+    public long getRatingsCount() {
+        return ratingsCount;
+    }
+
+    public void setRatingsCount(long ratingsCount) {
+        this.ratingsCount = ratingsCount;
+    }
+
+    public double getWeightedScoreSum() {
+        return weightedScoreSum;
+    }
+
+    public double getWeightSum() {
+        return weightSum;
+    }
+
+    public void add(long scoreSum, long ratingsCount) {
+        this.scoreSum += scoreSum;
+        this.ratingsCount += ratingsCount;
+    }
+
+    /**
+     * Adds ratings of one category, every rating counting with the category's weight towards the average.
+     */
+    public void add(long scoreSum, long ratingsCount, double weight) {
+        add(scoreSum, ratingsCount);
+        this.weightedScoreSum += scoreSum * weight;
+        this.weightSum += ratingsCount * weight;
+    }
+
+    public void add(ScoreTotal scoreTotal) {
+        add(scoreTotal.scoreSum, scoreTotal.ratingsCount, scoreTotal.weightedScoreSum, scoreTotal.weightSum);
+    }
+
+    /**
+     * Adds a total summed up elsewhere, such as on another shard.
+     */
+    public void add(long scoreSum, long ratingsCount, double weightedScoreSum, double weightSum) {
+        add(scoreSum, ratingsCount);
+        this.weightedScoreSum += weightedScoreSum;
+        this.weightSum += weightSum;
+    }
+
+    /**
+     * Weighted by category when weights were given, a plain average of the rating scores otherwise
+     * or when every category weighs 0.
+     */
+    public int getAverageScore() {
+        if (weightSum > 0) {
+            return (int) (weightedScoreSum / weightSum);
+        }
+        return ratingsCount == 0 ? 0 : (int) (scoreSum / ratingsCount);
+    }
+}
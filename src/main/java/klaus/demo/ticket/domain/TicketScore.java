@@ -3,7 +3,10 @@ package klaus.demo.ticket.domain;
 public class TicketScore {
     private Long ticketId;
     private String categoryName;
-    private int score;
+    private long scoreSum;
+    private long ratingsCount;
+    // of the category, the score of a ticket over all categories is weighted with it
+    private double weight = 1;
 
     public Long getTicketId() {
         return ticketId;
@@ -21,11 +24,31 @@ public class TicketScore {
         this.categoryName = categoryName;
     }
 
-    public int getScore() {
-        return score;
+    public long getScoreSum() {
+        return scoreSum;
     }
 
-    public void setScore(int score) {
-        this.score = score;
+    public void setScoreSum(long scoreSum) {
+        this.scoreSum = scoreSum;
+    }
+
+    public long getRatingsCount() {
+        return ratingsCount;
+    }
+
+    public void setRatingsCount(long ratingsCount) {
+        this.ratingsCount = ratingsCount;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    public void setWeight(double weight) {
+        this.weight = weight;
+    }
+
+    public int getAverageScore() {
+        return ratingsCount == 0 ? 0 : (int) (scoreSum / ratingsCount);
     }
 }
@@ -0,0 +1,70 @@
+package klaus.demo.ticket.domain;
+
+/**
+ * Calendar buckets computed with integer arithmetic on epoch seconds (UTC), so bucketing a rating
+ * does not parse or allocate anything. Bucket numbers are consecutive, which lets callers index arrays by them.
+ */
+public enum TimeBucket {
+    DAY,
+    WEEK,
+    MONTH;
+
+    public static final long SECONDS_PER_DAY = 86400;
+    // 1970-01-01 was a Thursday, weeks are counted from Monday 1969-12-29
+    private static final long EPOCH_DAY_TO_MONDAY_OFFSET = 3;
+    // Days from 0000-03-01 to 1970-01-01 in the proleptic Gregorian calendar
+    private static final long DAYS_0000_TO_1970 = 719468;
+    private static final long DAYS_PER_400_YEARS = 146097;
+
+    public long getBucketNumber(long epochSecond) {
+        long epochDay = Math.floorDiv(epochSecond, SECONDS_PER_DAY);
+        switch (this) {
+            case WEEK:
+                return Math.floorDiv(epochDay + EPOCH_DAY_TO_MONDAY_OFFSET, 7);
+            case MONTH:
+                return getMonthNumber(epochDay);
+            default:
+                return epochDay;
+        }
+    }
+
+    public long getBucketStart(long bucketNumber) {
+        switch (this) {
+            case WEEK:
+                return (bucketNumber * 7 - EPOCH_DAY_TO_MONDAY_OFFSET) * SECONDS_PER_DAY;
+            case MONTH:
+                return getFirstDayOfMonth(bucketNumber) * SECONDS_PER_DAY;
+            default:
+                return bucketNumber * SECONDS_PER_DAY;
+        }
+    }
+
+    public long getBucketStartOf(long epochSecond) {
+        return getBucketStart(getBucketNumber(epochSecond));
+    }
+
+    /**
+     * Months since January 1970, from the civil-from-days algorithm.
+     */
+    private static long getMonthNumber(long epochDay) {
+        long shiftedDay = epochDay + DAYS_0000_TO_1970;
+        long era = Math.floorDiv(shiftedDay, DAYS_PER_400_YEARS);
+        long dayOfEra = shiftedDay - era * DAYS_PER_400_YEARS;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return (year - 1970) * 12 + month - 1;
+    }
+
+    private static long getFirstDayOfMonth(long monthNumber) {
+        long month = Math.floorMod(monthNumber, 12) + 1;
+        long year = 1970 + Math.floorDiv(monthNumber, 12) - (month <= 2 ? 1 : 0);
+        long era = Math.floorDiv(year, 400);
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * DAYS_PER_400_YEARS + dayOfEra - DAYS_0000_TO_1970;
+    }
+}
@@ -0,0 +1,115 @@
+package klaus.demo.ticket.metrics;
+
+import com.google.protobuf.MessageLite;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Per method call latency by status code, messages in both directions, bytes sent and the time spent
+ * in {@code sendMessage}, which is where the response is serialized and framed.
+ */
+@Component
+public class MetricsServerInterceptor implements ServerInterceptor {
+    private final MeterRegistry meterRegistry;
+    private final Map<String, MethodMeters> methodMeters = new ConcurrentHashMap<>();
+
+    public MetricsServerInterceptor(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        String method = call.getMethodDescriptor().getFullMethodName();
+        MethodMeters meters = methodMeters.computeIfAbsent(method, MethodMeters::new);
+        MetricsServerCall<ReqT, RespT> metricsCall = new MetricsServerCall<>(call, method, meters);
+
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(next.startCall(metricsCall, headers)) {
+            @Override
+            public void onMessage(ReqT message) {
+                meters.messagesReceived.increment();
+                super.onMessage(message);
+            }
+
+            @Override
+            public void onCancel() {
+                metricsCall.finish(Status.Code.CANCELLED);
+                super.onCancel();
+            }
+        };
+    }
+
+    private class MetricsServerCall<ReqT, RespT> extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+        private final String method;
+        private final MethodMeters meters;
+        private final long startedNanos = System.nanoTime();
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        private MetricsServerCall(ServerCall<ReqT, RespT> delegate, String method, MethodMeters meters) {
+            super(delegate);
+            this.method = method;
+            this.meters = meters;
+        }
+
+        @Override
+        public void sendMessage(RespT message) {
+            long sendStarted = System.nanoTime();
+            super.sendMessage(message);
+            meters.serialization.record(System.nanoTime() - sendStarted, TimeUnit.NANOSECONDS);
+            meters.messagesSent.increment();
+            if (message instanceof MessageLite) {
+                // memoized by the serialization that just happened
+                meters.bytesSent.increment(((MessageLite) message).getSerializedSize());
+            }
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            finish(status.getCode());
+            super.close(status, trailers);
+        }
+
+        private void finish(Status.Code code) {
+            if (finished.compareAndSet(false, true)) {
+                Timer.builder("grpc.server.calls")
+                        .description("Call latency from the start of the call until it is closed or cancelled")
+                        .tag("method", method)
+                        .tag("status", code.name())
+                        .publishPercentileHistogram()
+                        .register(meterRegistry)
+                        .record(System.nanoTime() - startedNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private class MethodMeters {
+        private final Counter messagesReceived;
+        private final Counter messagesSent;
+        private final Counter bytesSent;
+        private final Timer serialization;
+
+        private MethodMeters(String method) {
+            messagesReceived = Counter.builder("grpc.server.messages.received").tag("method", method).register(meterRegistry);
+            messagesSent = Counter.builder("grpc.server.messages.sent").tag("method", method).register(meterRegistry);
+            bytesSent = Counter.builder("grpc.server.bytes.sent").tag("method", method).baseUnit("bytes").register(meterRegistry);
+            serialization = Timer.builder("grpc.server.serialization")
+                    .description("Time spent serializing and framing response messages")
+                    .tag("method", method)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+        }
+    }
+}
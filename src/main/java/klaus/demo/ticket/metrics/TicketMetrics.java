@@ -0,0 +1,80 @@
+package klaus.demo.ticket.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Splits the work of an RPC into the repository query and the aggregation of its rows into responses.
+ * Serialization is measured per method by {@link MetricsServerInterceptor}.
+ */
+@Component
+public class TicketMetrics {
+    public static final String QUERY = "query";
+    public static final String AGGREGATION = "aggregation";
+    public static final String ACCEPTED = "accepted";
+    public static final String COMMITTED = "committed";
+    public static final String REJECTED = "rejected";
+
+    private final MeterRegistry meterRegistry;
+
+    public TicketMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T> T recordPhase(String rpc, String phase, Supplier<T> work) {
+        long started = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            Timer.builder("ticket.rpc.phase")
+                    .tag("rpc", rpc)
+                    .tag("phase", phase)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void recordPhase(String rpc, String phase, Runnable work) {
+        recordPhase(rpc, phase, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Rows the repository returned for one call, for the JDBC engine the rows fetched from SQLite.
+     */
+    public void recordRows(String rpc, long rows) {
+        DistributionSummary.builder("ticket.query.rows")
+                .tag("rpc", rpc)
+                .register(meterRegistry)
+                .record(rows);
+    }
+
+    /**
+     * One batch of ingested ratings, the time covers the inserts and the commit.
+     */
+    public void recordIngestBatch(int ratings, long writeNanos) {
+        DistributionSummary.builder("ticket.ingest.batch.ratings")
+                .register(meterRegistry)
+                .record(ratings);
+        Timer.builder("ticket.ingest.batch.write")
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(writeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordIngestedRatings(String outcome, long ratings) {
+        Counter.builder("ticket.ingest.ratings")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment(ratings);
+    }
+}
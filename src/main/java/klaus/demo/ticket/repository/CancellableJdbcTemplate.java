@@ -0,0 +1,102 @@
+package klaus.demo.ticket.repository;
+
+import io.grpc.Context;
+import klaus.demo.ticket.cancellation.CancellationCounters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.StatementCallback;
+
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static klaus.demo.ticket.cancellation.CallCancellation.getCancelledStatus;
+
+/**
+ * Cancels the running statement when the gRPC call it runs for is cancelled or its deadline expires,
+ * which makes SQLite interrupt the query. The listener is removed before the statement is closed,
+ * so a pooled connection is never interrupted on behalf of a call it no longer serves.
+ */
+class CancellableJdbcTemplate extends JdbcTemplate {
+    Logger logger = LoggerFactory.getLogger(CancellableJdbcTemplate.class);
+
+    private final CancellationCounters cancellationCounters;
+
+    CancellableJdbcTemplate(DataSource dataSource, CancellationCounters cancellationCounters) {
+        super(dataSource);
+        this.cancellationCounters = cancellationCounters;
+    }
+
+    @Override
+    public <T> T execute(PreparedStatementCreator psc, PreparedStatementCallback<T> action) throws DataAccessException {
+        Context context = getCallContext();
+        if (context == Context.ROOT) {
+            return super.execute(psc, action);
+        }
+
+        try {
+            return super.execute(psc, (PreparedStatement preparedStatement) ->
+                    runCancellable(context, preparedStatement, () -> action.doInPreparedStatement(preparedStatement)));
+        } catch (DataAccessException e) {
+            throw translateCancellation(context, e);
+        }
+    }
+
+    @Override
+    public <T> T execute(StatementCallback<T> action) throws DataAccessException {
+        Context context = getCallContext();
+        if (context == Context.ROOT) {
+            return super.execute(action);
+        }
+
+        try {
+            return super.execute((Statement statement) ->
+                    runCancellable(context, statement, () -> action.doInStatement(statement)));
+        } catch (DataAccessException e) {
+            throw translateCancellation(context, e);
+        }
+    }
+
+    private static Context getCallContext() {
+        Context context = Context.current();
+        if (context.isCancelled()) {
+            throw getCancelledStatus(context).asRuntimeException();
+        }
+        return context;
+    }
+
+    private <T> T runCancellable(Context context, Statement statement, StatementWork<T> work) throws SQLException {
+        Context.CancellationListener listener = cancelledContext -> cancel(statement);
+        context.addListener(listener, Runnable::run);
+        try {
+            return work.run();
+        } finally {
+            context.removeListener(listener);
+        }
+    }
+
+    private RuntimeException translateCancellation(Context context, DataAccessException e) {
+        if (!context.isCancelled()) {
+            return e;
+        }
+        cancellationCounters.queryInterrupted();
+        return getCancelledStatus(context).withCause(e).asRuntimeException();
+    }
+
+    private void cancel(Statement statement) {
+        try {
+            statement.cancel();
+        } catch (SQLException e) {
+            logger.warn("Could not cancel statement: " + e.getMessage());
+        }
+    }
+
+    private interface StatementWork<T> {
+        T run() throws SQLException;
+    }
+}
@@ -0,0 +1,82 @@
+package klaus.demo.ticket.repository;
+
+import klaus.demo.ticket.domain.RatingCategory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static klaus.demo.util.ResourceReader.getResourceAsString;
+
+/**
+ * In-memory copy of the rating_categories table. Queries return category ids and rating values,
+ * names, weights and scores are looked up here instead of being joined in for every rating.
+ */
+@Component
+public class CategoryDimension {
+    Logger logger = LoggerFactory.getLogger(CategoryDimension.class);
+
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private volatile Map<Long, RatingCategory> categories;
+
+    public CategoryDimension(NamedParameterJdbcTemplate namedParameterJdbcTemplate) {
+        this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+        this.categories = load();
+        logger.info("Loaded " + categories.size() + " rating categories");
+    }
+
+    public RatingCategory get(long categoryId) {
+        return categories.get(categoryId);
+    }
+
+    /**
+     * The category a rating counts towards, null for ratings of an unknown category or outside the 0-5 scale.
+     * Those are left out of every score.
+     */
+    public RatingCategory getScoredCategory(long categoryId, int rating) {
+        return RatingCategory.isOnScale(rating) ? categories.get(categoryId) : null;
+    }
+
+    public Collection<RatingCategory> getAll() {
+        return categories.values();
+    }
+
+    /**
+     * Reloads the table, true when a category was added, removed, renamed or reweighted since the last load.
+     */
+    public synchronized boolean refresh() {
+        Map<Long, RatingCategory> loaded = load();
+        if (loaded.equals(categories)) {
+            return false;
+        }
+        categories = loaded;
+        logger.info("Rating categories changed, " + loaded.size() + " categories loaded");
+        return true;
+    }
+
+    private Map<Long, RatingCategory> load() {
+        Map<Long, String> names = new LinkedHashMap<>();
+        Map<Long, Double> weights = new LinkedHashMap<>();
+        Map<Long, int[]> scores = new LinkedHashMap<>();
+        namedParameterJdbcTemplate.query(
+                getResourceAsString("sql/select_category_score_lookup.sql", this.getClass()),
+                EmptySqlParameterSource.INSTANCE,
+                (RowCallbackHandler) resultSet -> {
+                    long categoryId = resultSet.getLong("category_id");
+                    names.put(categoryId, resultSet.getString("category_name"));
+                    weights.put(categoryId, resultSet.getDouble("weight"));
+                    scores.computeIfAbsent(categoryId, id -> new int[RatingCategory.MAX_RATING + 1])[resultSet.getInt("rating")] = resultSet.getInt("score");
+                });
+
+        Map<Long, RatingCategory> loaded = new LinkedHashMap<>();
+        names.forEach((categoryId, name) -> loaded.put(categoryId, new RatingCategory(categoryId, name, weights.get(categoryId), scores.get(categoryId))));
+        return Collections.unmodifiableMap(loaded);
+    }
+}
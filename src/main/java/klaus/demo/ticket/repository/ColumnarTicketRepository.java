@@ -0,0 +1,604 @@
+package klaus.demo.ticket.repository;
+
+import klaus.demo.ticket.cancellation.CallCancellation;
+import klaus.demo.ticket.domain.CategoryBucketScore;
+import klaus.demo.ticket.domain.CategoryScoreDistribution;
+import klaus.demo.ticket.domain.Period;
+import klaus.demo.ticket.domain.Rating;
+import klaus.demo.ticket.domain.RatingCategory;
+import klaus.demo.ticket.domain.ScoreTotal;
+import klaus.demo.ticket.domain.TicketScore;
+import klaus.demo.ticket.domain.TimeBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.function.Consumer;
+
+import static klaus.demo.ticket.domain.RatingCategory.MAX_RATING;
+import static klaus.demo.util.ResourceReader.getResourceAsString;
+
+/**
+ * Keeps the whole ratings table in memory as primitive columns sorted by creation time and answers
+ * every query with a binary searched range and a loop over it. The table is read once at startup, ratings
+ * ingested afterwards are merged in from {@link #addWrittenRatings}, rows written to the database by other
+ * processes are not seen. Category names and scores are resolved through the {@link CategoryDimension}
+ * on every query, so category changes are picked up without reloading the columns. Categories added after
+ * the load get the next column index when their first rating is ingested.
+ */
+@Repository
+@ConditionalOnProperty(name = "ticket.repository.engine", havingValue = "columnar")
+@DependsOn("ratingsSchema")
+public class ColumnarTicketRepository implements TicketRepository {
+    private static final int RATING_BITS = 3;
+    private static final int CATEGORY_BITS = 16;
+    private static final long RATING_MASK = (1L << RATING_BITS) - 1;
+    private static final long CATEGORY_MASK = (1L << CATEGORY_BITS) - 1;
+    private static final long MAX_TICKET_ID = (1L << (Long.SIZE - 1 - CATEGORY_BITS - RATING_BITS)) - 1;
+    // loops over the columns check for a cancelled call once per this many + 1 ratings
+    private static final int CANCELLATION_CHECK_MASK = (1 << 16) - 1;
+
+    Logger logger = LoggerFactory.getLogger(ColumnarTicketRepository.class);
+
+    private final CategoryDimension categoryDimension;
+    // category id by column index, only ever grows so a query can read the version it started with
+    private volatile long[] categoryIds;
+    // guarded by appendLock once the columns are loaded
+    private final Map<Long, Short> categoryIndexById = new HashMap<>();
+    private volatile Columns columns;
+    private volatile long watermark;
+
+    // ratings added since the columns were last merged, guarded by appendLock
+    private final Object appendLock = new Object();
+    private ColumnBuffer appended;
+    private volatile boolean hasAppended;
+
+    public ColumnarTicketRepository(NamedParameterJdbcTemplate namedParameterJdbcTemplate, CategoryDimension categoryDimension) {
+        this.categoryDimension = categoryDimension;
+        for (RatingCategory category : categoryDimension.getAll()) {
+            categoryIndexById.put(category.getId(), (short) categoryIndexById.size());
+        }
+        if (categoryIndexById.size() > Short.MAX_VALUE) {
+            throw new IllegalStateException("Too many rating categories for the columnar engine: " + categoryIndexById.size());
+        }
+        long[] loadedCategoryIds = new long[categoryIndexById.size()];
+        categoryIndexById.forEach((categoryId, categoryIndex) -> loadedCategoryIds[categoryIndex] = categoryId);
+        categoryIds = loadedCategoryIds;
+
+        Long ratingsCount = namedParameterJdbcTemplate.queryForObject(
+                getResourceAsString("sql/select_ratings_count.sql", this.getClass()),
+                EmptySqlParameterSource.INSTANCE, Long.class);
+        ColumnBuffer buffer = new ColumnBuffer(ratingsCount == null ? 0 : ratingsCount.intValue(), categoryIndexById);
+        namedParameterJdbcTemplate.query(
+                getResourceAsString("sql/select_ratings_columns.sql", this.getClass()),
+                EmptySqlParameterSource.INSTANCE,
+                buffer);
+
+        columns = new Columns(Arrays.copyOf(buffer.createdAt, buffer.size), Arrays.copyOf(buffer.categories, buffer.size),
+                Arrays.copyOf(buffer.ratings, buffer.size), Arrays.copyOf(buffer.ticketIds, buffer.size), buffer.size);
+        watermark = buffer.maxRowId;
+        appended = new ColumnBuffer(0, categoryIndexById);
+
+        if (buffer.skipped > 0) {
+            logger.warn("Skipped " + buffer.skipped + " ratings with an unknown category or a rating outside 0-" + MAX_RATING);
+        }
+        logger.info(getFootprintReport());
+    }
+
+    @Override
+    public void streamCategoryScoresOfTicketsBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo, Consumer<TicketScore> ticketScoreConsumer) {
+        Columns columns = getColumns();
+        int first = columns.lowerBound(dateFrom.toEpochSecond(ZoneOffset.UTC));
+        int last = columns.upperBound(dateTo.toEpochSecond(ZoneOffset.UTC));
+        if (first >= last) {
+            return;
+        }
+
+        RatingCategory[] ratingCategories = getRatingCategories();
+        long[] keys = new long[last - first];
+        for (int i = first; i < last; i++) {
+            if ((i & CANCELLATION_CHECK_MASK) == 0) {
+                CallCancellation.throwIfCancelled();
+            }
+            keys[i - first] = (columns.ticketIds[i] << (CATEGORY_BITS + RATING_BITS)) | ((long) columns.categories[i] << RATING_BITS) | columns.ratings[i];
+        }
+        Arrays.sort(keys);
+        CallCancellation.throwIfCancelled();
+
+        int i = 0;
+        while (i < keys.length) {
+            long ticketCategory = keys[i] >>> RATING_BITS;
+            RatingCategory category = ratingCategories[(int) (ticketCategory & CATEGORY_MASK)];
+            long scoreSum = 0;
+            long count = 0;
+            while (i < keys.length && keys[i] >>> RATING_BITS == ticketCategory) {
+                if (category != null) {
+                    scoreSum += category.getScore((int) (keys[i] & RATING_MASK));
+                }
+                count++;
+                i++;
+            }
+            if (category == null) {
+                continue;
+            }
+
+            TicketScore ticketScore = new TicketScore();
+            ticketScore.setTicketId(ticketCategory >>> CATEGORY_BITS);
+            ticketScore.setCategoryName(category.getName());
+            ticketScore.setWeight(category.getWeight());
+            ticketScore.setScoreSum(scoreSum);
+            ticketScore.setRatingsCount(count);
+            ticketScoreConsumer.accept(ticketScore);
+        }
+    }
+
+    /**
+     * Two passes over the range: the first keeps the smallest {@code ticketLimit} ticket ids above the previous page
+     * in a sorted array, the second sums their ratings into per (ticket, category) cells. Memory depends on the page
+     * size only, not on the number of tickets in the range.
+     */
+    @Override
+    public OptionalLong streamCategoryScoresOfTicketsPage(LocalDateTime dateFrom, LocalDateTime dateTo, long afterTicketId, int ticketLimit,
+                                                          Consumer<TicketScore> ticketScoreConsumer) {
+        Columns columns = getColumns();
+        int first = columns.lowerBound(dateFrom.toEpochSecond(ZoneOffset.UTC));
+        int last = columns.upperBound(dateTo.toEpochSecond(ZoneOffset.UTC));
+        if (ticketLimit <= 0 || first >= last) {
+            return OptionalLong.empty();
+        }
+
+        long[] pageTickets = new long[ticketLimit];
+        int pageSize = 0;
+        for (int i = first; i < last; i++) {
+            if ((i & CANCELLATION_CHECK_MASK) == 0) {
+                CallCancellation.throwIfCancelled();
+            }
+            long ticketId = columns.ticketIds[i];
+            if (ticketId <= afterTicketId || (pageSize == ticketLimit && ticketId >= pageTickets[pageSize - 1])) {
+                continue;
+            }
+            int position = Arrays.binarySearch(pageTickets, 0, pageSize, ticketId);
+            if (position >= 0) {
+                continue;
+            }
+            int insertion = -position - 1;
+            int moved = Math.min(pageSize, ticketLimit - 1) - insertion;
+            System.arraycopy(pageTickets, insertion, pageTickets, insertion + 1, moved);
+            pageTickets[insertion] = ticketId;
+            pageSize = Math.min(pageSize + 1, ticketLimit);
+        }
+        if (pageSize == 0) {
+            return OptionalLong.empty();
+        }
+
+        long lastTicketId = pageTickets[pageSize - 1];
+        RatingCategory[] ratingCategories = getRatingCategories();
+        int categoryCount = ratingCategories.length;
+        int[][] scoreLookup = getScoreLookup(ratingCategories);
+        long[] scoreSums = new long[pageSize * categoryCount];
+        long[] counts = new long[pageSize * categoryCount];
+        for (int i = first; i < last; i++) {
+            if ((i & CANCELLATION_CHECK_MASK) == 0) {
+                CallCancellation.throwIfCancelled();
+            }
+            long ticketId = columns.ticketIds[i];
+            if (ticketId <= afterTicketId || ticketId > lastTicketId) {
+                continue;
+            }
+            int cell = Arrays.binarySearch(pageTickets, 0, pageSize, ticketId) * categoryCount + columns.categories[i];
+            scoreSums[cell] += scoreLookup[columns.categories[i]][columns.ratings[i]];
+            counts[cell]++;
+        }
+
+        for (int ticket = 0; ticket < pageSize; ticket++) {
+            for (int category = 0; category < categoryCount; category++) {
+                int cell = ticket * categoryCount + category;
+                if (counts[cell] == 0 || ratingCategories[category] == null) {
+                    continue;
+                }
+                TicketScore ticketScore = new TicketScore();
+                ticketScore.setTicketId(pageTickets[ticket]);
+                ticketScore.setCategoryName(ratingCategories[category].getName());
+                ticketScore.setWeight(ratingCategories[category].getWeight());
+                ticketScore.setScoreSum(scoreSums[cell]);
+                ticketScore.setRatingsCount(counts[cell]);
+                ticketScoreConsumer.accept(ticketScore);
+            }
+        }
+        return pageSize == ticketLimit ? OptionalLong.of(lastTicketId) : OptionalLong.empty();
+    }
+
+    @Override
+    public List<CategoryBucketScore> getCategoryBucketScoresBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo, TimeBucket bucket) {
+        List<CategoryBucketScore> bucketScores = new ArrayList<>();
+        Columns columns = getColumns();
+        int first = columns.lowerBound(dateFrom.toEpochSecond(ZoneOffset.UTC));
+        int last = columns.upperBound(dateTo.toEpochSecond(ZoneOffset.UTC));
+        if (first >= last) {
+            return bucketScores;
+        }
+
+        RatingCategory[] ratingCategories = getRatingCategories();
+        int[][] scoreLookup = getScoreLookup(ratingCategories);
+        long firstBucket = bucket.getBucketNumber(columns.createdAt[first]);
+        int bucketCount = (int) (bucket.getBucketNumber(columns.createdAt[last - 1]) - firstBucket) + 1;
+        long[] scoreSums = new long[ratingCategories.length * bucketCount];
+        long[] counts = new long[ratingCategories.length * bucketCount];
+        for (int i = first; i < last; i++) {
+            if ((i & CANCELLATION_CHECK_MASK) == 0) {
+                CallCancellation.throwIfCancelled();
+            }
+            int cell = columns.categories[i] * bucketCount + (int) (bucket.getBucketNumber(columns.createdAt[i]) - firstBucket);
+            scoreSums[cell] += scoreLookup[columns.categories[i]][columns.ratings[i]];
+            counts[cell]++;
+        }
+
+        for (int category = 0; category < ratingCategories.length; category++) {
+            if (ratingCategories[category] == null) {
+                continue;
+            }
+            for (int bucketIndex = 0; bucketIndex < bucketCount; bucketIndex++) {
+                int cell = category * bucketCount + bucketIndex;
+                if (counts[cell] == 0) {
+                    continue;
+                }
+                CategoryBucketScore bucketScore = new CategoryBucketScore();
+                bucketScore.setCategoryName(ratingCategories[category].getName());
+                bucketScore.setBucketStart(bucket.getBucketStart(firstBucket + bucketIndex));
+                bucketScore.setScoreSum(scoreSums[cell]);
+                bucketScore.setRatingsCount(counts[cell]);
+                bucketScores.add(bucketScore);
+            }
+        }
+        return bucketScores;
+    }
+
+    @Override
+    public ScoreTotal getScoreTotalBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo) {
+        // ratings are only counted per (category, rating), the category weights are applied once at the end
+        Columns columns = getColumns();
+        RatingCategory[] ratingCategories = getRatingCategories();
+        long[] counts = countRatings(columns, ratingCategories.length, dateFrom, dateTo);
+        ScoreTotal scoreTotal = new ScoreTotal();
+        for (int category = 0; category < ratingCategories.length; category++) {
+            if (ratingCategories[category] == null) {
+                continue;
+            }
+            long scoreSum = 0;
+            long ratingsCount = 0;
+            for (int rating = 0; rating <= MAX_RATING; rating++) {
+                long count = counts[category * (MAX_RATING + 1) + rating];
+                scoreSum += count * ratingCategories[category].getScore(rating);
+                ratingsCount += count;
+            }
+            scoreTotal.add(scoreSum, ratingsCount, ratingCategories[category].getWeight());
+        }
+        return scoreTotal;
+    }
+
+    @Override
+    public List<CategoryScoreDistribution> getCategoryScoreDistributionsBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo) {
+        Columns columns = getColumns();
+        RatingCategory[] ratingCategories = getRatingCategories();
+        long[] counts = countRatings(columns, ratingCategories.length, dateFrom, dateTo);
+        List<CategoryScoreDistribution> distributions = new ArrayList<>();
+        for (int category = 0; category < ratingCategories.length; category++) {
+            if (ratingCategories[category] == null) {
+                continue;
+            }
+            CategoryScoreDistribution distribution = new CategoryScoreDistribution();
+            distribution.setCategoryName(ratingCategories[category].getName());
+            for (int rating = 0; rating <= MAX_RATING; rating++) {
+                distribution.add(ratingCategories[category].getScore(rating), counts[category * (MAX_RATING + 1) + rating]);
+            }
+            if (distribution.getRatingsCount() > 0) {
+                distributions.add(distribution);
+            }
+        }
+        return distributions;
+    }
+
+    @Override
+    public List<ScoreTotal> getScoreTotalsOfPeriods(List<Period> periods) {
+        List<ScoreTotal> scoreTotals = new ArrayList<>();
+        for (Period period : periods) {
+            scoreTotals.add(getScoreTotalBetweenDates(period.getDateFrom(), period.getDateTo()));
+        }
+        return scoreTotals;
+    }
+
+    /**
+     * The highest rowid in the columns, loaded or appended.
+     */
+    @Override
+    public long getRatingsWatermark() {
+        return watermark;
+    }
+
+    /**
+     * The batch is only buffered here, the next query merges it into the columns. Rowids up to the watermark
+     * are already in the columns and are left out.
+     */
+    @Override
+    public void addWrittenRatings(List<Rating> ratings, long lastRowId) {
+        synchronized (appendLock) {
+            long firstRowId = lastRowId - ratings.size() + 1;
+            for (int i = (int) Math.max(0, watermark - firstRowId + 1); i < ratings.size(); i++) {
+                Rating rating = ratings.get(i);
+                indexNewCategory(rating.getCategoryId());
+                if (!appended.isKept(rating.getCategoryId(), rating.getRating())) {
+                    continue;
+                }
+                long epochSecond = rating.getCreatedAt().toEpochSecond(ZoneOffset.UTC);
+                if (!ColumnBuffer.fits(epochSecond, rating.getTicketId())) {
+                    logger.warn("Rating " + (firstRowId + i) + " does not fit the columnar engine and is left out: created_at "
+                            + epochSecond + ", ticket_id " + rating.getTicketId());
+                    continue;
+                }
+                appended.add(rating.getCategoryId(), rating.getRating(), epochSecond, rating.getTicketId());
+            }
+            hasAppended = appended.size > 0;
+            watermark = Math.max(watermark, lastRowId);
+        }
+    }
+
+    /**
+     * Gives a category the dimension learned about since the ratings were loaded the next column index. The index
+     * is published before any rating using it, so a query reading the columns first and then the category ids
+     * always has an id for every index it meets.
+     */
+    private void indexNewCategory(long categoryId) {
+        if (categoryIndexById.containsKey(categoryId) || categoryDimension.get(categoryId) == null) {
+            return;
+        }
+        if (categoryIds.length >= Short.MAX_VALUE) {
+            logger.warn("Too many rating categories for the columnar engine, ratings of category " + categoryId + " are left out");
+            return;
+        }
+        long[] grown = Arrays.copyOf(categoryIds, categoryIds.length + 1);
+        grown[categoryIds.length] = categoryId;
+        categoryIndexById.put(categoryId, (short) categoryIds.length);
+        categoryIds = grown;
+        logger.info("Rating category " + categoryId + " added to the columnar engine as column index " + (grown.length - 1));
+    }
+
+    /**
+     * Merges the appended ratings in before a query reads the columns. Ratings that are not older than the newest
+     * one in the columns go into the spare capacity of the arrays, which versions handed out earlier never read,
+     * older ones make the columns be copied into new arrays.
+     */
+    private Columns getColumns() {
+        if (!hasAppended) {
+            return columns;
+        }
+
+        synchronized (appendLock) {
+            if (appended.size == 0) {
+                return columns;
+            }
+            columns = columns.merge(appended);
+            appended = new ColumnBuffer(0, categoryIndexById);
+            hasAppended = false;
+            return columns;
+        }
+    }
+
+    public long getFootprintBytes() {
+        int size = getColumns().size;
+        long lookupBytes = (long) categoryIds.length * Long.BYTES;
+        return (long) size * (Integer.BYTES + Short.BYTES + Byte.BYTES + Long.BYTES) + lookupBytes;
+    }
+
+    public String getFootprintReport() {
+        int size = getColumns().size;
+        return String.format("Columnar ratings engine holds %d ratings in %d categories: created_at %d B, category %d B, rating %d B, "
+                        + "ticket_id %d B, total %.1f MiB (%d B per rating)",
+                size, categoryIds.length,
+                (long) size * Integer.BYTES, (long) size * Short.BYTES, (long) size * Byte.BYTES, (long) size * Long.BYTES,
+                getFootprintBytes() / (1024.0 * 1024.0), Integer.BYTES + Short.BYTES + Byte.BYTES + Long.BYTES);
+    }
+
+    /**
+     * Ratings in the range counted per (category index, rating) cell.
+     */
+    private static long[] countRatings(Columns columns, int categoryCount, LocalDateTime dateFrom, LocalDateTime dateTo) {
+        int first = columns.lowerBound(dateFrom.toEpochSecond(ZoneOffset.UTC));
+        int last = columns.upperBound(dateTo.toEpochSecond(ZoneOffset.UTC));
+        long[] counts = new long[categoryCount * (MAX_RATING + 1)];
+        for (int i = first; i < last; i++) {
+            if ((i & CANCELLATION_CHECK_MASK) == 0) {
+                CallCancellation.throwIfCancelled();
+            }
+            counts[columns.categories[i] * (MAX_RATING + 1) + columns.ratings[i]]++;
+        }
+        return counts;
+    }
+
+    /**
+     * The current categories by column index, null for categories removed since the ratings were loaded.
+     * Called after {@link #getColumns()}, so every index in the columns read is covered.
+     */
+    private RatingCategory[] getRatingCategories() {
+        long[] categoryIds = this.categoryIds;
+        RatingCategory[] ratingCategories = new RatingCategory[categoryIds.length];
+        for (int category = 0; category < categoryIds.length; category++) {
+            ratingCategories[category] = categoryDimension.get(categoryIds[category]);
+        }
+        return ratingCategories;
+    }
+
+    private static int[][] getScoreLookup(RatingCategory[] ratingCategories) {
+        int[][] scoreLookup = new int[ratingCategories.length][MAX_RATING + 1];
+        for (int category = 0; category < ratingCategories.length; category++) {
+            for (int rating = 0; rating <= MAX_RATING && ratingCategories[category] != null; rating++) {
+                scoreLookup[category][rating] = ratingCategories[category].getScore(rating);
+            }
+        }
+        return scoreLookup;
+    }
+
+    /**
+     * One version of the columns, sorted by creation time. A query reads the version it started with.
+     */
+    private static final class Columns {
+        private final int[] createdAt;
+        private final short[] categories;
+        private final byte[] ratings;
+        private final long[] ticketIds;
+        private final int size;
+
+        private Columns(int[] createdAt, short[] categories, byte[] ratings, long[] ticketIds, int size) {
+            this.createdAt = createdAt;
+            this.categories = categories;
+            this.ratings = ratings;
+            this.ticketIds = ticketIds;
+            this.size = size;
+        }
+
+        private Columns merge(ColumnBuffer buffer) {
+            // sort keys: created_at in the high bits, position in the buffer in the low bits
+            long[] order = new long[buffer.size];
+            for (int i = 0; i < buffer.size; i++) {
+                order[i] = ((long) buffer.createdAt[i] << Integer.SIZE) | i;
+            }
+            Arrays.sort(order);
+
+            int mergedSize = size + buffer.size;
+            boolean inOrder = size == 0 || buffer.createdAt[(int) order[0]] >= createdAt[size - 1];
+            Columns merged = inOrder && mergedSize <= createdAt.length ? this : grow(mergedSize + (mergedSize >> 1));
+            int target = mergedSize - 1;
+            int existing = inOrder ? -1 : size - 1;
+            for (int next = buffer.size - 1; next >= 0; next--) {
+                int appendedIndex = (int) order[next];
+                while (existing >= 0 && createdAt[existing] > buffer.createdAt[appendedIndex]) {
+                    merged.set(target--, createdAt[existing], categories[existing], ratings[existing], ticketIds[existing]);
+                    existing--;
+                }
+                merged.set(target--, buffer.createdAt[appendedIndex], buffer.categories[appendedIndex], buffer.ratings[appendedIndex],
+                        buffer.ticketIds[appendedIndex]);
+            }
+            return new Columns(merged.createdAt, merged.categories, merged.ratings, merged.ticketIds, mergedSize);
+        }
+
+        /**
+         * A copy in new arrays, merging moves the newer part of the columns up from behind.
+         */
+        private Columns grow(int capacity) {
+            Columns grown = new Columns(new int[capacity], new short[capacity], new byte[capacity], new long[capacity], size);
+            System.arraycopy(createdAt, 0, grown.createdAt, 0, size);
+            System.arraycopy(categories, 0, grown.categories, 0, size);
+            System.arraycopy(ratings, 0, grown.ratings, 0, size);
+            System.arraycopy(ticketIds, 0, grown.ticketIds, 0, size);
+            return grown;
+        }
+
+        private void set(int index, int epochSecond, short category, byte rating, long ticketId) {
+            createdAt[index] = epochSecond;
+            categories[index] = category;
+            ratings[index] = rating;
+            ticketIds[index] = ticketId;
+        }
+
+        private int lowerBound(long epochSecond) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (createdAt[middle] < epochSecond) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private int upperBound(long epochSecond) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (createdAt[middle] <= epochSecond) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    private static class ColumnBuffer implements RowCallbackHandler {
+        private final Map<Long, Short> categoryIndexById;
+        private int[] createdAt;
+        private short[] categories;
+        private byte[] ratings;
+        private long[] ticketIds;
+        private int size;
+        private int skipped;
+        private long maxRowId;
+
+        private ColumnBuffer(int expectedSize, Map<Long, Short> categoryIndexById) {
+            this.categoryIndexById = categoryIndexById;
+            createdAt = new int[Math.max(expectedSize, 16)];
+            categories = new short[createdAt.length];
+            ratings = new byte[createdAt.length];
+            ticketIds = new long[createdAt.length];
+        }
+
+        @Override
+        public void processRow(ResultSet resultSet) throws SQLException {
+            maxRowId = Math.max(maxRowId, resultSet.getLong("row_id"));
+            long categoryId = resultSet.getLong("rating_category_id");
+            int rating = resultSet.getInt("rating");
+            if (!isKept(categoryId, rating)) {
+                skipped++;
+                return;
+            }
+            long epochSecond = resultSet.getLong("created_at_epoch");
+            long ticketId = resultSet.getLong("ticket_id");
+            if (!fits(epochSecond, ticketId)) {
+                throw new IllegalStateException("Rating does not fit the columnar engine: created_at " + epochSecond + ", ticket_id " + ticketId);
+            }
+            add(categoryId, rating, epochSecond, ticketId);
+        }
+
+        private boolean isKept(long categoryId, int rating) {
+            return categoryIndexById.containsKey(categoryId) && rating >= 0 && rating <= MAX_RATING;
+        }
+
+        private static boolean fits(long epochSecond, long ticketId) {
+            return epochSecond >= Integer.MIN_VALUE && epochSecond <= Integer.MAX_VALUE && ticketId >= 0 && ticketId <= MAX_TICKET_ID;
+        }
+
+        private void add(long categoryId, int rating, long epochSecond, long ticketId) {
+            if (size == createdAt.length) {
+                int capacity = size + (size >> 1);
+                createdAt = Arrays.copyOf(createdAt, capacity);
+                categories = Arrays.copyOf(categories, capacity);
+                ratings = Arrays.copyOf(ratings, capacity);
+                ticketIds = Arrays.copyOf(ticketIds, capacity);
+            }
+            createdAt[size] = (int) epochSecond;
+            categories[size] = categoryIndexById.get(categoryId);
+            ratings[size] = (byte) rating;
+            ticketIds[size] = ticketId;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package klaus.demo.ticket.repository;
+
+import klaus.demo.ticket.domain.CategoryBucketScore;
+import klaus.demo.ticket.domain.CategoryRatingCount;
+import klaus.demo.ticket.domain.CategoryScoreDistribution;
+import klaus.demo.ticket.domain.RatingCategory;
+import klaus.demo.ticket.domain.ScoreTotal;
+import klaus.demo.ticket.domain.TimeBucket;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static klaus.demo.ticket.domain.RatingCategory.MAX_RATING;
+import static klaus.demo.ticket.domain.TimeBucket.SECONDS_PER_DAY;
+
+/**
+ * In-memory (day, category) -> ratings count per rating value rollups of the ratings table, keyed by epoch day.
+ * Counts are turned into scores when read, so changed category names and weights apply without a rebuild.
+ * New rows are folded in by rowid, so the watermark is the highest ratings rowid already counted, and a
+ * {@link RollupSnapshot} taken at one watermark only needs the rows after it to be current again. Rows below
+ * the watermark that were updated or deleted are caught up by rebuilding their days, the change version is the
+ * last version of {@code rating_changes} already rebuilt.
+ * <p>
+ * Counts of a loaded or written snapshot are read from its mapped file, only the days counted or rebuilt since
+ * are kept on the heap. The counts of a day are those of the snapshot plus those on the heap, except for days
+ * rebuilt since, whose snapshot records are skipped.
+ */
+public class DailyRollupStore {
+    private final NavigableMap<Long, Map<Long, long[]>> days = new TreeMap<>();
+    private final Set<Long> rebuiltDays = new HashSet<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private RollupSnapshot snapshot;
+    private long watermark;
+    private long changeVersion;
+    private long updates;
+
+    public long getWatermark() {
+        lock.readLock().lock();
+        try {
+            return watermark;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getChangeVersion() {
+        lock.readLock().lock();
+        try {
+            return changeVersion;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the rollups with those of the snapshot, rows past its watermark are folded in afterwards as usual.
+     */
+    void load(RollupSnapshot snapshot) {
+        lock.writeLock().lock();
+        try {
+            this.snapshot = snapshot;
+            days.clear();
+            rebuiltDays.clear();
+            watermark = snapshot.getWatermark();
+            changeVersion = snapshot.getChangeVersion();
+            updates++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writers wait for the file to be written, readers do not. The written file then replaces the loaded
+     * snapshot and the heap counts it holds are dropped, unless the rollups changed meanwhile.
+     */
+    void writeSnapshot(Path file, long fingerprint) throws IOException {
+        long writtenUpdates;
+        lock.readLock().lock();
+        try {
+            int[] recordCount = new int[1];
+            forEachDay((epochDay, categoryCounts) -> recordCount[0] += categoryCounts.size());
+            RollupSnapshot.write(file, watermark, changeVersion, fingerprint, recordCount[0], records ->
+                    forEachDay((epochDay, categoryCounts) -> categoryCounts.forEach((categoryId, counts) ->
+                            records.accept(epochDay, categoryId, counts))));
+            writtenUpdates = updates;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        RollupSnapshot written = RollupSnapshot.read(file);
+        lock.writeLock().lock();
+        try {
+            if (updates == writtenUpdates) {
+                snapshot = written;
+                days.clear();
+                rebuiltDays.clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ratings outside the 0-5 scale are not kept, they have no score.
+     */
+    public void addAll(List<CategoryRatingCount> dayCounts, long newWatermark) {
+        lock.writeLock().lock();
+        try {
+            add(dayCounts);
+            watermark = Math.max(watermark, newWatermark);
+            updates++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the counts of the rebuilt days and adds dayCounts, which hold every row up to the new watermark
+     * of the rebuilt days and only the rows past the old watermark of the other days.
+     */
+    public void rebuildDays(Collection<Long> epochDays, List<CategoryRatingCount> dayCounts, long newWatermark, long newChangeVersion) {
+        lock.writeLock().lock();
+        try {
+            days.keySet().removeAll(epochDays);
+            rebuiltDays.addAll(epochDays);
+            add(dayCounts);
+            watermark = Math.max(watermark, newWatermark);
+            changeVersion = Math.max(changeVersion, newChangeVersion);
+            updates++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void add(List<CategoryRatingCount> dayCounts) {
+        for (CategoryRatingCount dayCount : dayCounts) {
+            if (!RatingCategory.isOnScale(dayCount.getRating())) {
+                continue;
+            }
+            days.computeIfAbsent(Math.floorDiv(dayCount.getBucketStart(), SECONDS_PER_DAY), epochDay -> new HashMap<>())
+                    .computeIfAbsent(dayCount.getCategoryId(), categoryId -> new long[MAX_RATING + 1])[dayCount.getRating()]
+                    += dayCount.getRatingsCount();
+        }
+    }
+
+    public List<CategoryBucketScore> getCategoryBucketScores(long epochDayFrom, long epochDayTo, TimeBucket bucket,
+                                                             CategoryDimension categoryDimension) {
+        Map<Long, Map<Long, CategoryBucketScore>> bucketScores = new HashMap<>();
+        if (epochDayFrom > epochDayTo) {
+            return new ArrayList<>();
+        }
+
+        lock.readLock().lock();
+        try {
+            forEachCount(epochDayFrom, epochDayTo, (epochDay, categoryId, counts) -> {
+                RatingCategory category = categoryDimension.get(categoryId);
+                if (category == null) {
+                    return;
+                }
+                long bucketStart = bucket.getBucketStartOf(epochDay * SECONDS_PER_DAY);
+                CategoryBucketScore bucketScore = bucketScores
+                        .computeIfAbsent(categoryId, key -> new HashMap<>())
+                        .computeIfAbsent(bucketStart, key -> {
+                            CategoryBucketScore newBucketScore = new CategoryBucketScore();
+                            newBucketScore.setCategoryName(category.getName());
+                            newBucketScore.setBucketStart(bucketStart);
+                            return newBucketScore;
+                        });
+                for (int rating = 0; rating <= MAX_RATING; rating++) {
+                    bucketScore.setScoreSum(bucketScore.getScoreSum() + counts[rating] * category.getScore(rating));
+                    bucketScore.setRatingsCount(bucketScore.getRatingsCount() + counts[rating]);
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<CategoryBucketScore> result = new ArrayList<>();
+        bucketScores.values().forEach(categoryBuckets -> result.addAll(categoryBuckets.values()));
+        return result;
+    }
+
+    /**
+     * Rating counts are added up per category over the days first, so the cost grows with days times categories.
+     */
+    public List<CategoryScoreDistribution> getCategoryScoreDistributions(long epochDayFrom, long epochDayTo, CategoryDimension categoryDimension) {
+        Map<Long, long[]> categoryCounts = new HashMap<>();
+        if (epochDayFrom > epochDayTo) {
+            return new ArrayList<>();
+        }
+
+        lock.readLock().lock();
+        try {
+            forEachCount(epochDayFrom, epochDayTo, (epochDay, categoryId, counts) -> {
+                long[] sums = categoryCounts.computeIfAbsent(categoryId, key -> new long[MAX_RATING + 1]);
+                for (int rating = 0; rating <= MAX_RATING; rating++) {
+                    sums[rating] += counts[rating];
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<CategoryScoreDistribution> distributions = new ArrayList<>();
+        categoryCounts.forEach((categoryId, counts) -> {
+            RatingCategory category = categoryDimension.get(categoryId);
+            if (category == null) {
+                return;
+            }
+            CategoryScoreDistribution distribution = new CategoryScoreDistribution();
+            distribution.setCategoryName(category.getName());
+            for (int rating = 0; rating <= MAX_RATING; rating++) {
+                distribution.add(category.getScore(rating), counts[rating]);
+            }
+            distributions.add(distribution);
+        });
+        return distributions;
+    }
+
+    public ScoreTotal getScoreTotal(long epochDayFrom, long epochDayTo, CategoryDimension categoryDimension) {
+        ScoreTotal scoreTotal = new ScoreTotal();
+        if (epochDayFrom > epochDayTo) {
+            return scoreTotal;
+        }
+
+        lock.readLock().lock();
+        try {
+            forEachCount(epochDayFrom, epochDayTo, (epochDay, categoryId, counts) -> {
+                RatingCategory category = categoryDimension.get(categoryId);
+                if (category == null) {
+                    return;
+                }
+                long scoreSum = 0;
+                long ratingsCount = 0;
+                for (int rating = 0; rating <= MAX_RATING; rating++) {
+                    scoreSum += counts[rating] * category.getScore(rating);
+                    ratingsCount += counts[rating];
+                }
+                scoreTotal.add(scoreSum, ratingsCount, category.getWeight());
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        return scoreTotal;
+    }
+
+    /**
+     * Hands over the snapshot records of the days, then the heap counts. A (day, category) may come twice, once
+     * from each, and the snapshot counts are read into one reused array, so callers add them up right away.
+     * Callers hold the read lock.
+     */
+    private void forEachCount(long epochDayFrom, long epochDayTo, RollupSnapshot.RecordConsumer consumer) {
+        if (snapshot != null) {
+            long[] counts = new long[MAX_RATING + 1];
+            for (int record = snapshot.findFirstRecord(epochDayFrom); record < snapshot.getRecordCount(); record++) {
+                long epochDay = snapshot.getEpochDay(record);
+                if (epochDay > epochDayTo) {
+                    break;
+                }
+                if (!rebuiltDays.isEmpty() && rebuiltDays.contains(epochDay)) {
+                    continue;
+                }
+                snapshot.readCounts(record, counts);
+                consumer.accept(epochDay, snapshot.getCategoryId(record), counts);
+            }
+        }
+        days.subMap(epochDayFrom, true, epochDayTo, true).forEach((epochDay, categoryCounts) ->
+                categoryCounts.forEach((categoryId, counts) -> consumer.accept(epochDay, categoryId, counts)));
+    }
+
+    /**
+     * Every day in epoch day order with the snapshot and heap counts of each category added up, for writing
+     * a new snapshot. Callers hold the read lock.
+     */
+    private void forEachDay(BiConsumer<Long, Map<Long, long[]>> consumer) {
+        Iterator<Map.Entry<Long, Map<Long, long[]>>> heapDays = days.entrySet().iterator();
+        Map.Entry<Long, Map<Long, long[]>> heapDay = heapDays.hasNext() ? heapDays.next() : null;
+        int recordCount = snapshot == null ? 0 : snapshot.getRecordCount();
+        int record = 0;
+        while (record < recordCount || heapDay != null) {
+            long epochDay = heapDay == null || record < recordCount && snapshot.getEpochDay(record) < heapDay.getKey()
+                    ? snapshot.getEpochDay(record)
+                    : heapDay.getKey();
+            Map<Long, long[]> categoryCounts = new TreeMap<>();
+            for (; record < recordCount && snapshot.getEpochDay(record) == epochDay; record++) {
+                if (!rebuiltDays.contains(epochDay)) {
+                    long[] counts = new long[MAX_RATING + 1];
+                    snapshot.readCounts(record, counts);
+                    addCounts(categoryCounts, snapshot.getCategoryId(record), counts);
+                }
+            }
+            if (heapDay != null && heapDay.getKey() == epochDay) {
+                heapDay.getValue().forEach((categoryId, counts) -> addCounts(categoryCounts, categoryId, counts));
+                heapDay = heapDays.hasNext() ? heapDays.next() : null;
+            }
+            if (!categoryCounts.isEmpty()) {
+                consumer.accept(epochDay, categoryCounts);
+            }
+        }
+    }
+
+    private static void addCounts(Map<Long, long[]> categoryCounts, long categoryId, long[] counts) {
+        long[] sums = categoryCounts.computeIfAbsent(categoryId, key -> new long[MAX_RATING + 1]);
+        for (int rating = 0; rating <= MAX_RATING; rating++) {
+            sums[rating] += counts[rating];
+        }
+    }
+}
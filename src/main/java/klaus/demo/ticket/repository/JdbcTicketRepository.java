@@ -0,0 +1,608 @@
+package klaus.demo.ticket.repository;
+
+import klaus.demo.ticket.cancellation.CancellationCounters;
+import klaus.demo.ticket.domain.CategoryBucketScore;
+import klaus.demo.ticket.domain.CategoryRatingCount;
+import klaus.demo.ticket.domain.CategoryScoreDistribution;
+import klaus.demo.ticket.domain.Period;
+import klaus.demo.ticket.domain.Rating;
+import klaus.demo.ticket.domain.RatingCategory;
+import klaus.demo.ticket.domain.ScoreTotal;
+import klaus.demo.ticket.domain.TicketScore;
+import klaus.demo.ticket.domain.TimeBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import static klaus.demo.ticket.domain.TimeBucket.SECONDS_PER_DAY;
+import static klaus.demo.util.ResourceReader.getResourceAsString;
+import static org.springframework.jdbc.core.BeanPropertyRowMapper.newInstance;
+
+@Repository
+@ConditionalOnProperty(name = "ticket.repository.engine", havingValue = "jdbc", matchIfMissing = true)
+@DependsOn("ratingsSchema")
+public class JdbcTicketRepository implements TicketRepository, DisposableBean {
+    private static final LocalTime LAST_SECOND_OF_DAY = LocalTime.of(23, 59, 59);
+
+    Logger logger = LoggerFactory.getLogger(JdbcTicketRepository.class);
+
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final NamedParameterJdbcTemplate streamingJdbcTemplate;
+    private final CategoryDimension categoryDimension;
+    private final boolean rollupsEnabled;
+    private final DailyRollupStore rollupStore = new DailyRollupStore();
+    private final boolean changesTracked;
+    private final Path snapshotFile;
+    private volatile long snapshotWatermark;
+    private volatile long snapshotChangeVersion;
+
+    public JdbcTicketRepository(NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+                                CategoryDimension categoryDimension,
+                                CancellationCounters cancellationCounters,
+                                @Value("${ticket.repository.rollups-enabled:true}") boolean rollupsEnabled,
+                                @Value("${ticket.repository.stream-fetch-size:500}") int streamFetchSize,
+                                @Value("${ticket.repository.snapshot-file:}") String snapshotFile) {
+        DataSource dataSource = namedParameterJdbcTemplate.getJdbcTemplate().getDataSource();
+        this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(new CancellableJdbcTemplate(dataSource, cancellationCounters));
+        this.categoryDimension = categoryDimension;
+        this.rollupsEnabled = rollupsEnabled;
+
+        JdbcTemplate streamingTemplate = new CancellableJdbcTemplate(dataSource, cancellationCounters);
+        streamingTemplate.setFetchSize(streamFetchSize);
+        this.streamingJdbcTemplate = new NamedParameterJdbcTemplate(streamingTemplate);
+
+        Integer changeTables = this.namedParameterJdbcTemplate.queryForObject(
+                getResourceAsString("sql/select_rating_changes_table_count.sql", this.getClass()),
+                EmptySqlParameterSource.INSTANCE, Integer.class);
+        this.changesTracked = changeTables != null && changeTables > 0;
+        if (!changesTracked) {
+            logger.warn("No rating_changes table, updated or deleted ratings are not picked up by the rollups");
+        }
+
+        this.snapshotFile = rollupsEnabled && !snapshotFile.isEmpty() ? Path.of(snapshotFile) : null;
+        if (this.snapshotFile != null) {
+            loadSnapshot();
+            long started = System.nanoTime();
+            refreshRollups();
+            logger.info("Rollups caught up to rowid " + rollupStore.getWatermark() + " in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+        }
+    }
+
+    /**
+     * A snapshot is only used when the row at its watermark is still the row it was taken after, so one of
+     * a rebuilt or replaced database is not mistaken for a prefix of this one.
+     */
+    private void loadSnapshot() {
+        if (!Files.exists(snapshotFile)) {
+            logger.info("No rollup snapshot at " + snapshotFile + ", building the rollups from the ratings table");
+            return;
+        }
+
+        RollupSnapshot snapshot;
+        try {
+            snapshot = RollupSnapshot.read(snapshotFile);
+        } catch (IOException e) {
+            logger.warn("Could not read rollup snapshot, building the rollups from the ratings table: " + e.getMessage());
+            return;
+        }
+        Long fingerprint = queryRowFingerprint(snapshot.getWatermark());
+        if (fingerprint == null || fingerprint != snapshot.getFingerprint()) {
+            logger.warn("Rollup snapshot " + snapshotFile + " was not taken of this ratings table at rowid " + snapshot.getWatermark()
+                    + ", building the rollups from the ratings table");
+            return;
+        }
+        rollupStore.load(snapshot);
+        snapshotWatermark = snapshot.getWatermark();
+        snapshotChangeVersion = snapshot.getChangeVersion();
+        logger.info("Loaded rollup snapshot " + snapshotFile + " up to rowid " + snapshot.getWatermark());
+    }
+
+    /**
+     * Writes the rollups when they moved on since the last snapshot, the watermarks cannot change meanwhile
+     * because every change to the rollups is made holding the store.
+     */
+    @Scheduled(fixedDelayString = "${ticket.repository.snapshot-interval-millis:300000}",
+            initialDelayString = "${ticket.repository.snapshot-interval-millis:300000}")
+    public void writeSnapshot() {
+        if (snapshotFile == null) {
+            return;
+        }
+
+        synchronized (rollupStore) {
+            long watermark = rollupStore.getWatermark();
+            long changeVersion = rollupStore.getChangeVersion();
+            if (watermark == snapshotWatermark && changeVersion == snapshotChangeVersion) {
+                return;
+            }
+            Long fingerprint = queryRowFingerprint(watermark);
+            if (fingerprint == null) {
+                logger.warn("Rowid " + watermark + " is no longer in the ratings table, rollup snapshot not written");
+                return;
+            }
+            long started = System.nanoTime();
+            try {
+                rollupStore.writeSnapshot(snapshotFile, fingerprint);
+            } catch (IOException e) {
+                logger.error("Could not write rollup snapshot " + snapshotFile, e);
+                return;
+            }
+            snapshotWatermark = watermark;
+            snapshotChangeVersion = changeVersion;
+            logger.info("Wrote rollup snapshot " + snapshotFile + " up to rowid " + watermark + " in "
+                    + (System.nanoTime() - started) / 1_000_000 + " ms");
+        }
+    }
+
+    @Override
+    public void destroy() {
+        writeSnapshot();
+    }
+
+    /**
+     * Rows are handed over while the cursor is still being read, so a consumer that blocks also holds back the query.
+     */
+    @Override
+    public void streamCategoryScoresOfTicketsBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo, Consumer<TicketScore> ticketScoreConsumer) {
+        TicketScoreFolder ticketScoreFolder = new TicketScoreFolder(ticketScoreConsumer);
+        streamingJdbcTemplate.query(
+                getResourceAsString("sql/select_category_scores_of_tickets.sql", this.getClass()),
+                new MapSqlParameterSource()
+                        .addValue("dateFrom", dateFrom.toEpochSecond(ZoneOffset.UTC))
+                        .addValue("dateTo", dateTo.toEpochSecond(ZoneOffset.UTC)),
+                ticketScoreFolder);
+        ticketScoreFolder.flush();
+    }
+
+    /**
+     * Keyset query: the page's tickets are found walking ticket ids upwards from the last one of the previous page.
+     */
+    @Override
+    public OptionalLong streamCategoryScoresOfTicketsPage(LocalDateTime dateFrom, LocalDateTime dateTo, long afterTicketId, int ticketLimit,
+                                                          Consumer<TicketScore> ticketScoreConsumer) {
+        TicketScoreFolder ticketScoreFolder = new TicketScoreFolder(ticketScoreConsumer);
+        streamingJdbcTemplate.query(
+                getResourceAsString("sql/select_category_scores_of_tickets_page.sql", this.getClass()),
+                new MapSqlParameterSource()
+                        .addValue("dateFrom", dateFrom.toEpochSecond(ZoneOffset.UTC))
+                        .addValue("dateTo", dateTo.toEpochSecond(ZoneOffset.UTC))
+                        .addValue("afterTicketId", afterTicketId)
+                        .addValue("ticketLimit", ticketLimit),
+                ticketScoreFolder);
+        ticketScoreFolder.flush();
+        return ticketScoreFolder.tickets == ticketLimit ? OptionalLong.of(ticketScoreFolder.lastTicketId) : OptionalLong.empty();
+    }
+
+    /**
+     * With rollups enabled whole days come from the rollups and only the partial days at the edges
+     * of the range are aggregated by SQLite, otherwise the whole range is.
+     */
+    @Override
+    public List<CategoryBucketScore> getCategoryBucketScoresBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo, TimeBucket bucket) {
+        if (!rollupsEnabled) {
+            return queryCategoryBucketScores(dateFrom, dateTo, bucket);
+        }
+
+        refreshRollups();
+        LocalDate firstFullDay = getFirstFullDay(dateFrom);
+        LocalDate lastFullDay = getLastFullDay(dateTo);
+        if (firstFullDay.isAfter(lastFullDay)) {
+            return queryCategoryBucketScores(dateFrom, dateTo, bucket);
+        }
+
+        List<CategoryBucketScore> bucketScores = rollupStore.getCategoryBucketScores(firstFullDay.toEpochDay(), lastFullDay.toEpochDay(), bucket, categoryDimension);
+        if (dateFrom.isBefore(firstFullDay.atStartOfDay())) {
+            bucketScores.addAll(queryCategoryBucketScores(dateFrom, firstFullDay.minusDays(1).atTime(LocalTime.MAX), bucket));
+        }
+        if (dateTo.isAfter(lastFullDay.atTime(LAST_SECOND_OF_DAY))) {
+            bucketScores.addAll(queryCategoryBucketScores(lastFullDay.plusDays(1).atStartOfDay(), dateTo, bucket));
+        }
+        return mergeCategoryBucketScores(bucketScores);
+    }
+
+    @Override
+    public ScoreTotal getScoreTotalBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo) {
+        if (!rollupsEnabled) {
+            return queryScoreTotal(dateFrom, dateTo);
+        }
+
+        refreshRollups();
+        LocalDate firstFullDay = getFirstFullDay(dateFrom);
+        LocalDate lastFullDay = getLastFullDay(dateTo);
+        if (firstFullDay.isAfter(lastFullDay)) {
+            return queryScoreTotal(dateFrom, dateTo);
+        }
+
+        ScoreTotal scoreTotal = rollupStore.getScoreTotal(firstFullDay.toEpochDay(), lastFullDay.toEpochDay(), categoryDimension);
+        if (dateFrom.isBefore(firstFullDay.atStartOfDay())) {
+            scoreTotal.add(queryScoreTotal(dateFrom, firstFullDay.minusDays(1).atTime(LocalTime.MAX)));
+        }
+        if (dateTo.isAfter(lastFullDay.atTime(LAST_SECOND_OF_DAY))) {
+            scoreTotal.add(queryScoreTotal(lastFullDay.plusDays(1).atStartOfDay(), dateTo));
+        }
+        return scoreTotal;
+    }
+
+    @Override
+    public List<CategoryScoreDistribution> getCategoryScoreDistributionsBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo) {
+        if (!rollupsEnabled) {
+            return queryCategoryScoreDistributions(dateFrom, dateTo);
+        }
+
+        refreshRollups();
+        LocalDate firstFullDay = getFirstFullDay(dateFrom);
+        LocalDate lastFullDay = getLastFullDay(dateTo);
+        if (firstFullDay.isAfter(lastFullDay)) {
+            return queryCategoryScoreDistributions(dateFrom, dateTo);
+        }
+
+        List<CategoryScoreDistribution> distributions = rollupStore.getCategoryScoreDistributions(firstFullDay.toEpochDay(), lastFullDay.toEpochDay(), categoryDimension);
+        if (dateFrom.isBefore(firstFullDay.atStartOfDay())) {
+            distributions.addAll(queryCategoryScoreDistributions(dateFrom, firstFullDay.minusDays(1).atTime(LocalTime.MAX)));
+        }
+        if (dateTo.isAfter(lastFullDay.atTime(LAST_SECOND_OF_DAY))) {
+            distributions.addAll(queryCategoryScoreDistributions(lastFullDay.plusDays(1).atStartOfDay(), dateTo));
+        }
+        return mergeCategoryScoreDistributions(distributions);
+    }
+
+    /**
+     * Whole days of every period come from the rollups, the remaining ranges of all periods go to SQLite
+     * in one statement that reads each rating in them once, see {@link PeriodSegments}.
+     */
+    @Override
+    public List<ScoreTotal> getScoreTotalsOfPeriods(List<Period> periods) {
+        if (rollupsEnabled) {
+            refreshRollups();
+        }
+
+        List<ScoreTotal> scoreTotals = new ArrayList<>();
+        PeriodSegments queriedRanges = new PeriodSegments();
+        for (int periodIndex = 0; periodIndex < periods.size(); periodIndex++) {
+            LocalDateTime dateFrom = periods.get(periodIndex).getDateFrom();
+            LocalDateTime dateTo = periods.get(periodIndex).getDateTo();
+            LocalDate firstFullDay = getFirstFullDay(dateFrom);
+            LocalDate lastFullDay = getLastFullDay(dateTo);
+            if (!rollupsEnabled || firstFullDay.isAfter(lastFullDay)) {
+                scoreTotals.add(new ScoreTotal());
+                queriedRanges.add(periodIndex, dateFrom.toEpochSecond(ZoneOffset.UTC), dateTo.toEpochSecond(ZoneOffset.UTC));
+                continue;
+            }
+
+            scoreTotals.add(rollupStore.getScoreTotal(firstFullDay.toEpochDay(), lastFullDay.toEpochDay(), categoryDimension));
+            if (dateFrom.isBefore(firstFullDay.atStartOfDay())) {
+                queriedRanges.add(periodIndex, dateFrom.toEpochSecond(ZoneOffset.UTC),
+                        firstFullDay.minusDays(1).atTime(LocalTime.MAX).toEpochSecond(ZoneOffset.UTC));
+            }
+            if (dateTo.isAfter(lastFullDay.atTime(LAST_SECOND_OF_DAY))) {
+                queriedRanges.add(periodIndex, lastFullDay.plusDays(1).atStartOfDay().toEpochSecond(ZoneOffset.UTC),
+                        dateTo.toEpochSecond(ZoneOffset.UTC));
+            }
+        }
+        if (queriedRanges.isEmpty()) {
+            return scoreTotals;
+        }
+
+        namedParameterJdbcTemplate.query(
+                getResourceAsString("sql/select_score_totals_of_periods.sql", this.getClass()),
+                new MapSqlParameterSource("segments", queriedRanges.getSegments()),
+                (RowCallbackHandler) resultSet -> {
+                    for (int periodIndex : queriedRanges.getPeriodIndexes(resultSet.getInt("segment_index"))) {
+                        addRatingCount(scoreTotals.get(periodIndex), resultSet);
+                    }
+                });
+        return scoreTotals;
+    }
+
+    @Override
+    public long getRatingsWatermark() {
+        Long maxRowId = queryRatingsWatermark();
+        return maxRowId == null ? 0 : maxRowId;
+    }
+
+    @Override
+    public long getRatingsChangeVersion() {
+        return queryRatingsChangeVersion();
+    }
+
+    /**
+     * The rollups take the batch directly when they are up to date to the rowid before it, otherwise
+     * the next query reads the missing rows from SQLite as usual.
+     */
+    @Override
+    public void addWrittenRatings(List<Rating> ratings, long lastRowId) {
+        if (!rollupsEnabled) {
+            return;
+        }
+        synchronized (rollupStore) {
+            if (rollupStore.getWatermark() != lastRowId - ratings.size()) {
+                return;
+            }
+            List<CategoryRatingCount> dayCounts = new ArrayList<>(ratings.size());
+            for (Rating rating : ratings) {
+                CategoryRatingCount dayCount = new CategoryRatingCount();
+                dayCount.setCategoryId(rating.getCategoryId());
+                dayCount.setBucketStart(rating.getCreatedAt().toEpochSecond(ZoneOffset.UTC));
+                dayCount.setRating(rating.getRating());
+                dayCount.setRatingsCount(1);
+                dayCounts.add(dayCount);
+            }
+            rollupStore.addAll(dayCounts, lastRowId);
+        }
+    }
+
+    private List<CategoryBucketScore> queryCategoryBucketScores(LocalDateTime dateFrom, LocalDateTime dateTo, TimeBucket bucket) {
+        Map<String, CategoryBucketScore> bucketScores = new LinkedHashMap<>();
+        namedParameterJdbcTemplate.query(
+                getResourceAsString("sql/select_category_bucket_scores_between_dates.sql", this.getClass()),
+                new MapSqlParameterSource()
+                        .addValue("dateFrom", dateFrom.toEpochSecond(ZoneOffset.UTC))
+                        .addValue("dateTo", dateTo.toEpochSecond(ZoneOffset.UTC))
+                        .addValue("bucket", bucket.name()),
+                (RowCallbackHandler) resultSet -> {
+                    long categoryId = resultSet.getLong("category_id");
+                    int rating = resultSet.getInt("rating");
+                    RatingCategory category = categoryDimension.getScoredCategory(categoryId, rating);
+                    if (category == null) {
+                        return;
+                    }
+                    long bucketStart = resultSet.getLong("bucket_start");
+                    long ratingsCount = resultSet.getLong("ratings_count");
+                    CategoryBucketScore bucketScore = bucketScores.computeIfAbsent(categoryId + "|" + bucketStart, key -> {
+                        CategoryBucketScore newBucketScore = new CategoryBucketScore();
+                        newBucketScore.setCategoryName(category.getName());
+                        newBucketScore.setBucketStart(bucketStart);
+                        return newBucketScore;
+                    });
+                    bucketScore.setScoreSum(bucketScore.getScoreSum() + ratingsCount * category.getScore(rating));
+                    bucketScore.setRatingsCount(bucketScore.getRatingsCount() + ratingsCount);
+                });
+        return new ArrayList<>(bucketScores.values());
+    }
+
+    private ScoreTotal queryScoreTotal(LocalDateTime dateFrom, LocalDateTime dateTo) {
+        ScoreTotal scoreTotal = new ScoreTotal();
+        namedParameterJdbcTemplate.query(
+                getResourceAsString("sql/select_category_rating_counts_between_dates.sql", this.getClass()),
+                new MapSqlParameterSource()
+                        .addValue("dateFrom", dateFrom.toEpochSecond(ZoneOffset.UTC))
+                        .addValue("dateTo", dateTo.toEpochSecond(ZoneOffset.UTC)),
+                (RowCallbackHandler) resultSet -> addRatingCount(scoreTotal, resultSet));
+        return scoreTotal;
+    }
+
+    private List<CategoryScoreDistribution> queryCategoryScoreDistributions(LocalDateTime dateFrom, LocalDateTime dateTo) {
+        Map<Long, CategoryScoreDistribution> distributions = new LinkedHashMap<>();
+        namedParameterJdbcTemplate.query(
+                getResourceAsString("sql/select_category_rating_counts_between_dates.sql", this.getClass()),
+                new MapSqlParameterSource()
+                        .addValue("dateFrom", dateFrom.toEpochSecond(ZoneOffset.UTC))
+                        .addValue("dateTo", dateTo.toEpochSecond(ZoneOffset.UTC)),
+                (RowCallbackHandler) resultSet -> {
+                    int rating = resultSet.getInt("rating");
+                    RatingCategory category = categoryDimension.getScoredCategory(resultSet.getLong("category_id"), rating);
+                    if (category == null) {
+                        return;
+                    }
+                    CategoryScoreDistribution distribution = distributions.computeIfAbsent(category.getId(), categoryId -> {
+                        CategoryScoreDistribution newDistribution = new CategoryScoreDistribution();
+                        newDistribution.setCategoryName(category.getName());
+                        return newDistribution;
+                    });
+                    distribution.add(category.getScore(rating), resultSet.getLong("ratings_count"));
+                });
+        return new ArrayList<>(distributions.values());
+    }
+
+    private void addRatingCount(ScoreTotal scoreTotal, ResultSet resultSet) throws SQLException {
+        int rating = resultSet.getInt("rating");
+        RatingCategory category = categoryDimension.getScoredCategory(resultSet.getLong("category_id"), rating);
+        if (category != null) {
+            long ratingsCount = resultSet.getLong("ratings_count");
+            scoreTotal.add(ratingsCount * category.getScore(rating), ratingsCount, category.getWeight());
+        }
+    }
+
+    /**
+     * Folds in the rows past the watermark and rebuilds the days of ratings updated or deleted since the change
+     * version. The new rows of a rebuilt day are counted by its rebuild, so they are left out of the folded ones.
+     */
+    private void refreshRollups() {
+        Long maxRowId = queryRatingsWatermark();
+        if ((maxRowId == null || maxRowId <= rollupStore.getWatermark())
+                && queryRatingsChangeVersion() <= rollupStore.getChangeVersion()) {
+            return;
+        }
+
+        synchronized (rollupStore) {
+            long watermark = rollupStore.getWatermark();
+            NavigableMap<Long, Long> changedDays = queryRatingChanges(rollupStore.getChangeVersion());
+            long newWatermark = maxRowId == null ? watermark : Math.max(watermark, maxRowId);
+            List<CategoryRatingCount> dayCounts = new ArrayList<>();
+            if (newWatermark > watermark) {
+                dayCounts.addAll(namedParameterJdbcTemplate.query(
+                        getResourceAsString("sql/select_category_day_scores_by_rowid.sql", this.getClass()),
+                        new MapSqlParameterSource()
+                                .addValue("rowIdFrom", watermark)
+                                .addValue("rowIdTo", newWatermark),
+                        newInstance(CategoryRatingCount.class)));
+            }
+            if (changedDays.isEmpty()) {
+                rollupStore.addAll(dayCounts, newWatermark);
+                return;
+            }
+
+            dayCounts.removeIf(dayCount -> changedDays.containsKey(Math.floorDiv(dayCount.getBucketStart(), SECONDS_PER_DAY)));
+            Long firstDay = changedDays.firstKey();
+            while (firstDay != null) {
+                long lastDay = firstDay;
+                while (changedDays.containsKey(lastDay + 1)) {
+                    lastDay++;
+                }
+                dayCounts.addAll(namedParameterJdbcTemplate.query(
+                        getResourceAsString("sql/select_category_day_scores_between_dates.sql", this.getClass()),
+                        new MapSqlParameterSource()
+                                .addValue("dateFrom", firstDay * SECONDS_PER_DAY)
+                                .addValue("dateTo", (lastDay + 1) * SECONDS_PER_DAY - 1)
+                                .addValue("rowIdTo", newWatermark),
+                        newInstance(CategoryRatingCount.class)));
+                firstDay = changedDays.higherKey(lastDay);
+            }
+            long newChangeVersion = changedDays.values().stream().mapToLong(Long::longValue).max().getAsLong();
+            rollupStore.rebuildDays(changedDays.keySet(), dayCounts, newWatermark, newChangeVersion);
+            logger.debug("Rebuilt rollups of " + changedDays.size() + " changed days up to change version " + newChangeVersion);
+        }
+    }
+
+    /**
+     * Epoch day to the version of its last change, for the days changed after the given version.
+     */
+    private NavigableMap<Long, Long> queryRatingChanges(long changeVersion) {
+        NavigableMap<Long, Long> changedDays = new TreeMap<>();
+        if (!changesTracked) {
+            return changedDays;
+        }
+        namedParameterJdbcTemplate.query(
+                getResourceAsString("sql/select_rating_changes.sql", this.getClass()),
+                new MapSqlParameterSource("changeVersion", changeVersion),
+                (RowCallbackHandler) resultSet -> changedDays.put(resultSet.getLong("epoch_day"), resultSet.getLong("version")));
+        return changedDays;
+    }
+
+    private long queryRatingsChangeVersion() {
+        if (!changesTracked) {
+            return 0;
+        }
+        Long changeVersion = namedParameterJdbcTemplate.queryForObject(
+                getResourceAsString("sql/select_rating_changes_version.sql", this.getClass()),
+                EmptySqlParameterSource.INSTANCE, Long.class);
+        return changeVersion == null ? 0 : changeVersion;
+    }
+
+    private Long queryRowFingerprint(long rowId) {
+        List<Long> fingerprints = namedParameterJdbcTemplate.query(
+                getResourceAsString("sql/select_rating_by_rowid.sql", this.getClass()),
+                new MapSqlParameterSource("rowId", rowId),
+                (resultSet, rowNum) -> ((resultSet.getLong("ticket_id") * 31 + resultSet.getLong("rating_category_id")) * 31
+                        + resultSet.getLong("rating")) * 31 + resultSet.getLong("created_at_epoch"));
+        return fingerprints.isEmpty() ? null : fingerprints.get(0);
+    }
+
+    private Long queryRatingsWatermark() {
+        return namedParameterJdbcTemplate.queryForObject(
+                getResourceAsString("sql/select_ratings_watermark.sql", this.getClass()),
+                EmptySqlParameterSource.INSTANCE, Long.class);
+    }
+
+    private static LocalDate getFirstFullDay(LocalDateTime dateFrom) {
+        return dateFrom.toLocalTime().equals(LocalTime.MIDNIGHT) ? dateFrom.toLocalDate() : dateFrom.toLocalDate().plusDays(1);
+    }
+
+    private static LocalDate getLastFullDay(LocalDateTime dateTo) {
+        return dateTo.toLocalTime().isBefore(LAST_SECOND_OF_DAY) ? dateTo.toLocalDate().minusDays(1) : dateTo.toLocalDate();
+    }
+
+    private static List<CategoryScoreDistribution> mergeCategoryScoreDistributions(List<CategoryScoreDistribution> distributions) {
+        Map<String, CategoryScoreDistribution> mergedDistributions = new LinkedHashMap<>();
+        for (CategoryScoreDistribution distribution : distributions) {
+            mergedDistributions.merge(distribution.getCategoryName(), distribution, (merged, next) -> {
+                merged.add(next);
+                return merged;
+            });
+        }
+        return new ArrayList<>(mergedDistributions.values());
+    }
+
+    private static List<CategoryBucketScore> mergeCategoryBucketScores(List<CategoryBucketScore> bucketScores) {
+        Map<String, CategoryBucketScore> mergedScores = new LinkedHashMap<>();
+        for (CategoryBucketScore bucketScore : bucketScores) {
+            mergedScores.merge(bucketScore.getCategoryName() + '|' + bucketScore.getBucketStart(), bucketScore, (merged, next) -> {
+                merged.setScoreSum(merged.getScoreSum() + next.getScoreSum());
+                merged.setRatingsCount(merged.getRatingsCount() + next.getRatingsCount());
+                return merged;
+            });
+        }
+        return new ArrayList<>(mergedScores.values());
+    }
+
+    /**
+     * Rows arrive as (ticket, category, rating) counts ordered by ticket and category, the counts of one
+     * (ticket, category) are summed into a single score before it is handed on.
+     */
+    private class TicketScoreFolder implements RowCallbackHandler {
+        private final Consumer<TicketScore> ticketScoreConsumer;
+        private TicketScore current;
+        private long currentCategoryId;
+        // every ticket read counts, also those without a scored rating
+        private int tickets;
+        private long lastTicketId;
+
+        private TicketScoreFolder(Consumer<TicketScore> ticketScoreConsumer) {
+            this.ticketScoreConsumer = ticketScoreConsumer;
+        }
+
+        @Override
+        public void processRow(ResultSet resultSet) throws SQLException {
+            long ticketId = resultSet.getLong("ticket_id");
+            if (tickets == 0 || ticketId != lastTicketId) {
+                tickets++;
+                lastTicketId = ticketId;
+            }
+            long categoryId = resultSet.getLong("category_id");
+            int rating = resultSet.getInt("rating");
+            RatingCategory category = categoryDimension.getScoredCategory(categoryId, rating);
+            if (category == null) {
+                return;
+            }
+
+            if (current != null && (current.getTicketId() != ticketId || currentCategoryId != categoryId)) {
+                flush();
+            }
+            if (current == null) {
+                current = new TicketScore();
+                current.setTicketId(ticketId);
+                current.setCategoryName(category.getName());
+                current.setWeight(category.getWeight());
+                currentCategoryId = categoryId;
+            }
+            long ratingsCount = resultSet.getLong("ratings_count");
+            current.setScoreSum(current.getScoreSum() + ratingsCount * category.getScore(rating));
+            current.setRatingsCount(current.getRatingsCount() + ratingsCount);
+        }
+
+        private void flush() {
+            if (current != null) {
+                ticketScoreConsumer.accept(current);
+                current = null;
+            }
+        }
+    }
+}
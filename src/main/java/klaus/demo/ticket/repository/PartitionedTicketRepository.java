@@ -0,0 +1,527 @@
+package klaus.demo.ticket.repository;
+
+import io.grpc.Context;
+import klaus.demo.ticket.cancellation.CancellationCounters;
+import klaus.demo.ticket.domain.CategoryBucketScore;
+import klaus.demo.ticket.domain.CategoryRatingCount;
+import klaus.demo.ticket.domain.CategoryScoreDistribution;
+import klaus.demo.ticket.domain.Period;
+import klaus.demo.ticket.domain.Rating;
+import klaus.demo.ticket.domain.RatingCategory;
+import klaus.demo.ticket.domain.ScoreTotal;
+import klaus.demo.ticket.domain.TicketScore;
+import klaus.demo.ticket.domain.TimeBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static klaus.demo.util.ResourceReader.getResourceAsString;
+import static org.springframework.jdbc.core.BeanPropertyRowMapper.newInstance;
+
+/**
+ * Reads ratings split into one SQLite file per month, {@code ratings-2019-07.db} and so on, from
+ * {@code ticket.partitions.directory}. Partitions outside the requested range are never touched, the others
+ * are queried in parallel on a fork-join pool and their partial counts merged. Partitions are returned as raw
+ * rating counts per category, so whole-partition results of past months stay valid when categories change
+ * and are cached for good. Rating categories still come from the main database. Each partition gets the
+ * same query plan check and migrations as the main database when it is opened.
+ */
+@Repository
+@ConditionalOnProperty(name = "ticket.repository.engine", havingValue = "partitioned")
+public class PartitionedTicketRepository implements TicketRepository, DisposableBean {
+    private static final Pattern PARTITION_FILE = Pattern.compile("ratings-(\\d{4}-\\d{2})\\.db");
+
+    Logger logger = LoggerFactory.getLogger(PartitionedTicketRepository.class);
+
+    private final CategoryDimension categoryDimension;
+    private final CancellationCounters cancellationCounters;
+    private final RatingsSchema ratingsSchema;
+    private final Path directory;
+    private final int poolSize;
+    private final ForkJoinPool forkJoinPool;
+    private final NavigableMap<YearMonth, RatingPartition> partitions = new ConcurrentSkipListMap<>();
+    private final Map<YearMonth, Long> immutableWatermarks = new ConcurrentSkipListMap<>();
+
+    public PartitionedTicketRepository(CategoryDimension categoryDimension,
+                                       CancellationCounters cancellationCounters,
+                                       RatingsSchema ratingsSchema,
+                                       @Value("${ticket.partitions.directory:partitions}") String directory,
+                                       @Value("${ticket.partitions.pool-size:2}") int poolSize,
+                                       @Value("${ticket.partitions.parallelism:0}") int parallelism) {
+        this.categoryDimension = categoryDimension;
+        this.cancellationCounters = cancellationCounters;
+        this.ratingsSchema = ratingsSchema;
+        this.directory = Paths.get(directory);
+        this.poolSize = poolSize;
+        this.forkJoinPool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        openNewPartitions();
+        logger.info("Opened " + partitions.size() + " monthly partitions in " + this.directory.toAbsolutePath());
+    }
+
+    /**
+     * The partitions are queried in parallel, so their rows are collected and merged in ticket order before
+     * the first one is handed on.
+     */
+    @Override
+    public void streamCategoryScoresOfTicketsBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo, Consumer<TicketScore> ticketScoreConsumer) {
+        TicketPage ticketPage = queryPartitions(dateFrom, dateTo, TicketPage::new,
+                (partition, partitionFrom, partitionTo) -> queryTicketScores(partition,
+                        getResourceAsString("sql/select_category_scores_of_tickets.sql", this.getClass()),
+                        new MapSqlParameterSource()
+                                .addValue("dateFrom", partitionFrom.toEpochSecond(ZoneOffset.UTC))
+                                .addValue("dateTo", partitionTo.toEpochSecond(ZoneOffset.UTC)),
+                        Integer.MAX_VALUE),
+                TicketPage::merge);
+        ticketPage.ticketScores.forEach(ticketScore -> ticketScoreConsumer.accept(ticketScore.ticketScore));
+    }
+
+    /**
+     * Every partition returns its own first page, a ticket on the merged page is on the page of every partition
+     * it has ratings in. The merged page ends at the first ticket of a partition that stopped at the limit, tickets
+     * after it may have ratings further down that partition.
+     */
+    @Override
+    public OptionalLong streamCategoryScoresOfTicketsPage(LocalDateTime dateFrom, LocalDateTime dateTo, long afterTicketId, int ticketLimit,
+                                                          Consumer<TicketScore> ticketScoreConsumer) {
+        TicketPage ticketPage = queryPartitions(dateFrom, dateTo, TicketPage::new,
+                (partition, partitionFrom, partitionTo) -> queryTicketScores(partition,
+                        getResourceAsString("sql/select_category_scores_of_tickets_page.sql", this.getClass()),
+                        new MapSqlParameterSource()
+                                .addValue("dateFrom", partitionFrom.toEpochSecond(ZoneOffset.UTC))
+                                .addValue("dateTo", partitionTo.toEpochSecond(ZoneOffset.UTC))
+                                .addValue("afterTicketId", afterTicketId)
+                                .addValue("ticketLimit", ticketLimit),
+                        ticketLimit),
+                TicketPage::merge);
+
+        int tickets = 0;
+        long lastTicketId = afterTicketId;
+        for (PartialTicketScore ticketScore : ticketPage.ticketScores) {
+            if (ticketPage.lastTicketId.isPresent() && ticketScore.ticketId > ticketPage.lastTicketId.getAsLong()) {
+                break;
+            }
+            if (ticketScore.ticketId != lastTicketId) {
+                if (++tickets > ticketLimit) {
+                    return OptionalLong.of(lastTicketId);
+                }
+                lastTicketId = ticketScore.ticketId;
+            }
+            ticketScoreConsumer.accept(ticketScore.ticketScore);
+        }
+        return tickets == ticketLimit ? OptionalLong.of(lastTicketId) : ticketPage.lastTicketId;
+    }
+
+    @Override
+    public List<CategoryBucketScore> getCategoryBucketScoresBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo, TimeBucket bucket) {
+        List<CategoryRatingCount> bucketCounts = queryPartitions(dateFrom, dateTo, Collections::emptyList,
+                (partition, partitionFrom, partitionTo) -> partition.getWholePartitionResult("buckets/" + bucket, partitionFrom, partitionTo,
+                        () -> partition.getJdbcTemplate().query(
+                                getResourceAsString("sql/select_category_bucket_scores_between_dates.sql", this.getClass()),
+                                new MapSqlParameterSource()
+                                        .addValue("dateFrom", partitionFrom.toEpochSecond(ZoneOffset.UTC))
+                                        .addValue("dateTo", partitionTo.toEpochSecond(ZoneOffset.UTC))
+                                        .addValue("bucket", bucket.name()),
+                                newInstance(CategoryRatingCount.class))),
+                PartitionedTicketRepository::concat);
+
+        Map<String, CategoryBucketScore> bucketScores = new LinkedHashMap<>();
+        for (CategoryRatingCount bucketCount : bucketCounts) {
+            RatingCategory category = categoryDimension.getScoredCategory(bucketCount.getCategoryId(), bucketCount.getRating());
+            if (category == null) {
+                continue;
+            }
+            CategoryBucketScore bucketScore = bucketScores.computeIfAbsent(category.getId() + "|" + bucketCount.getBucketStart(), key -> {
+                CategoryBucketScore newBucketScore = new CategoryBucketScore();
+                newBucketScore.setCategoryName(category.getName());
+                newBucketScore.setBucketStart(bucketCount.getBucketStart());
+                return newBucketScore;
+            });
+            bucketScore.setScoreSum(bucketScore.getScoreSum() + bucketCount.getRatingsCount() * category.getScore(bucketCount.getRating()));
+            bucketScore.setRatingsCount(bucketScore.getRatingsCount() + bucketCount.getRatingsCount());
+        }
+        return new ArrayList<>(bucketScores.values());
+    }
+
+    @Override
+    public ScoreTotal getScoreTotalBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo) {
+        ScoreTotal scoreTotal = new ScoreTotal();
+        for (CategoryRatingCount ratingCount : queryCategoryRatingCounts(dateFrom, dateTo)) {
+            RatingCategory category = categoryDimension.getScoredCategory(ratingCount.getCategoryId(), ratingCount.getRating());
+            if (category != null) {
+                scoreTotal.add(ratingCount.getRatingsCount() * category.getScore(ratingCount.getRating()), ratingCount.getRatingsCount(),
+                        category.getWeight());
+            }
+        }
+        return scoreTotal;
+    }
+
+    @Override
+    public List<CategoryScoreDistribution> getCategoryScoreDistributionsBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo) {
+        Map<Long, CategoryScoreDistribution> distributions = new LinkedHashMap<>();
+        for (CategoryRatingCount ratingCount : queryCategoryRatingCounts(dateFrom, dateTo)) {
+            RatingCategory category = categoryDimension.getScoredCategory(ratingCount.getCategoryId(), ratingCount.getRating());
+            if (category == null) {
+                continue;
+            }
+            CategoryScoreDistribution distribution = distributions.computeIfAbsent(category.getId(), categoryId -> {
+                CategoryScoreDistribution newDistribution = new CategoryScoreDistribution();
+                newDistribution.setCategoryName(category.getName());
+                return newDistribution;
+            });
+            distribution.add(category.getScore(ratingCount.getRating()), ratingCount.getRatingsCount());
+        }
+        return new ArrayList<>(distributions.values());
+    }
+
+    /**
+     * Every partition overlapping any of the periods is queried once for all of them, each period clipped to
+     * its month, and the per-period totals of the partitions are added up.
+     */
+    @Override
+    public List<ScoreTotal> getScoreTotalsOfPeriods(List<Period> periods) {
+        LocalDateTime unionFrom = null;
+        LocalDateTime unionTo = null;
+        for (Period period : periods) {
+            if (period.getDateFrom().isAfter(period.getDateTo())) {
+                continue;
+            }
+            unionFrom = unionFrom == null || period.getDateFrom().isBefore(unionFrom) ? period.getDateFrom() : unionFrom;
+            unionTo = unionTo == null || period.getDateTo().isAfter(unionTo) ? period.getDateTo() : unionTo;
+        }
+        Supplier<List<ScoreTotal>> empty = () -> newScoreTotals(periods.size());
+        if (unionFrom == null) {
+            return empty.get();
+        }
+
+        return queryPartitions(unionFrom, unionTo, empty,
+                (partition, partitionFrom, partitionTo) -> queryScoreTotalsOfPeriods(partition, periods, partitionFrom, partitionTo),
+                PartitionedTicketRepository::addScoreTotals);
+    }
+
+    /**
+     * The sum of the highest rowid of every partition, also picks up partition files added since the last call.
+     */
+    @Override
+    public long getRatingsWatermark() {
+        openNewPartitions();
+        long watermark = 0;
+        for (RatingPartition partition : partitions.values()) {
+            Long partitionWatermark = immutableWatermarks.get(partition.getMonth());
+            if (partitionWatermark == null) {
+                partitionWatermark = partition.getJdbcTemplate().queryForObject(
+                        getResourceAsString("sql/select_ratings_watermark.sql", this.getClass()),
+                        EmptySqlParameterSource.INSTANCE, Long.class);
+                partitionWatermark = partitionWatermark == null ? 0 : partitionWatermark;
+                if (partition.isImmutable()) {
+                    immutableWatermarks.put(partition.getMonth(), partitionWatermark);
+                }
+            }
+            watermark += partitionWatermark;
+        }
+        return watermark;
+    }
+
+    /**
+     * Never called, see {@link #acceptsWrittenRatings()}.
+     */
+    @Override
+    public void addWrittenRatings(List<Rating> ratings, long lastRowId) {
+    }
+
+    /**
+     * {@link RatingWriter} writes to the main database, which is never queried for ratings here. The monthly
+     * files are written by whatever produces them, such as DatabasePartitioner.
+     */
+    @Override
+    public boolean acceptsWrittenRatings() {
+        return false;
+    }
+
+    @Override
+    public void destroy() {
+        forkJoinPool.shutdown();
+        partitions.values().forEach(RatingPartition::close);
+    }
+
+    private List<CategoryRatingCount> queryCategoryRatingCounts(LocalDateTime dateFrom, LocalDateTime dateTo) {
+        return queryPartitions(dateFrom, dateTo, Collections::emptyList,
+                (partition, partitionFrom, partitionTo) -> partition.getWholePartitionResult("ratingCounts", partitionFrom, partitionTo,
+                        () -> partition.getJdbcTemplate().query(
+                                getResourceAsString("sql/select_category_rating_counts_between_dates.sql", this.getClass()),
+                                new MapSqlParameterSource()
+                                        .addValue("dateFrom", partitionFrom.toEpochSecond(ZoneOffset.UTC))
+                                        .addValue("dateTo", partitionTo.toEpochSecond(ZoneOffset.UTC)),
+                                newInstance(CategoryRatingCount.class))),
+                PartitionedTicketRepository::concat);
+    }
+
+    /**
+     * Runs the query on every partition overlapping the range, each with the range clipped to its month.
+     * The calling thread waits for the merged result, the call's context travels along so that cancelling
+     * the call interrupts the partition queries.
+     */
+    private <T> T queryPartitions(LocalDateTime dateFrom, LocalDateTime dateTo, Supplier<T> empty,
+                                  PartitionQuery<T> query, BinaryOperator<T> merge) {
+        if (dateFrom.isAfter(dateTo)) {
+            return empty.get();
+        }
+        List<RatingPartition> overlapping = new ArrayList<>(
+                partitions.subMap(YearMonth.from(dateFrom), true, YearMonth.from(dateTo), true).values());
+        if (overlapping.isEmpty()) {
+            return empty.get();
+        }
+
+        Context context = Context.current();
+        Function<RatingPartition, T> partitionQuery = partition -> {
+            Context previous = context.attach();
+            try {
+                LocalDateTime partitionFrom = dateFrom.isAfter(partition.getStart()) ? dateFrom : partition.getStart();
+                LocalDateTime partitionTo = dateTo.isBefore(partition.getEnd()) ? dateTo : partition.getEnd();
+                return query.query(partition, partitionFrom, partitionTo);
+            } finally {
+                context.detach(previous);
+            }
+        };
+        return forkJoinPool.invoke(new PartitionQueryTask<>(overlapping, partitionQuery, merge));
+    }
+
+    /**
+     * Periods not overlapping the partition are left out of the query, their totals stay empty.
+     */
+    private List<ScoreTotal> queryScoreTotalsOfPeriods(RatingPartition partition, List<Period> periods,
+                                                       LocalDateTime partitionFrom, LocalDateTime partitionTo) {
+        List<ScoreTotal> scoreTotals = newScoreTotals(periods.size());
+        PeriodSegments clippedPeriods = new PeriodSegments();
+        for (int periodIndex = 0; periodIndex < periods.size(); periodIndex++) {
+            Period period = periods.get(periodIndex);
+            LocalDateTime dateFrom = period.getDateFrom().isAfter(partitionFrom) ? period.getDateFrom() : partitionFrom;
+            LocalDateTime dateTo = period.getDateTo().isBefore(partitionTo) ? period.getDateTo() : partitionTo;
+            clippedPeriods.add(periodIndex, dateFrom.toEpochSecond(ZoneOffset.UTC), dateTo.toEpochSecond(ZoneOffset.UTC));
+        }
+        if (clippedPeriods.isEmpty()) {
+            return scoreTotals;
+        }
+
+        partition.getJdbcTemplate().query(
+                getResourceAsString("sql/select_score_totals_of_periods.sql", this.getClass()),
+                new MapSqlParameterSource("segments", clippedPeriods.getSegments()),
+                (RowCallbackHandler) resultSet -> {
+                    int rating = resultSet.getInt("rating");
+                    RatingCategory category = categoryDimension.getScoredCategory(resultSet.getLong("category_id"), rating);
+                    if (category != null) {
+                        long ratingsCount = resultSet.getLong("ratings_count");
+                        for (int periodIndex : clippedPeriods.getPeriodIndexes(resultSet.getInt("segment_index"))) {
+                            scoreTotals.get(periodIndex).add(ratingsCount * category.getScore(rating), ratingsCount, category.getWeight());
+                        }
+                    }
+                });
+        return scoreTotals;
+    }
+
+    private TicketPage queryTicketScores(RatingPartition partition, String sql, MapSqlParameterSource parameters, int ticketLimit) {
+        List<PartialTicketScore> ticketScores = new ArrayList<>();
+        // tickets read and the last of them, also those without a scored rating
+        long[] scannedTickets = new long[2];
+        partition.getJdbcTemplate().query(sql, parameters, (RowCallbackHandler) resultSet -> {
+            long ticketId = resultSet.getLong("ticket_id");
+            if (scannedTickets[0] == 0 || ticketId != scannedTickets[1]) {
+                scannedTickets[0]++;
+                scannedTickets[1] = ticketId;
+            }
+            long categoryId = resultSet.getLong("category_id");
+            int rating = resultSet.getInt("rating");
+            RatingCategory category = categoryDimension.getScoredCategory(categoryId, rating);
+            if (category == null) {
+                return;
+            }
+            PartialTicketScore last = ticketScores.isEmpty() ? null : ticketScores.get(ticketScores.size() - 1);
+            if (last == null || last.ticketId != ticketId || last.categoryId != categoryId) {
+                TicketScore ticketScore = new TicketScore();
+                ticketScore.setTicketId(ticketId);
+                ticketScore.setCategoryName(category.getName());
+                ticketScore.setWeight(category.getWeight());
+                last = new PartialTicketScore(ticketId, categoryId, ticketScore);
+                ticketScores.add(last);
+            }
+            long ratingsCount = resultSet.getLong("ratings_count");
+            last.ticketScore.setScoreSum(last.ticketScore.getScoreSum() + ratingsCount * category.getScore(rating));
+            last.ticketScore.setRatingsCount(last.ticketScore.getRatingsCount() + ratingsCount);
+        });
+        return new TicketPage(ticketScores, scannedTickets[0] == ticketLimit ? OptionalLong.of(scannedTickets[1]) : OptionalLong.empty());
+    }
+
+    private synchronized void openNewPartitions() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "ratings-*.db")) {
+            for (Path file : files) {
+                Matcher matcher = PARTITION_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    YearMonth month = YearMonth.parse(matcher.group(1));
+                    if (!partitions.containsKey(month)) {
+                        RatingPartition partition = new RatingPartition(month, file, poolSize, cancellationCounters);
+                        ratingsSchema.ensureRangeScans("jdbc:sqlite:" + file.toAbsolutePath(), partition.getJdbcTemplate());
+                        partitions.put(month, partition);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not list partitions in " + directory.toAbsolutePath(), e);
+        }
+    }
+
+    private static <T> List<T> concat(List<T> first, List<T> second) {
+        List<T> merged = new ArrayList<>(first.size() + second.size());
+        merged.addAll(first);
+        merged.addAll(second);
+        return merged;
+    }
+
+    private static List<ScoreTotal> newScoreTotals(int size) {
+        List<ScoreTotal> scoreTotals = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            scoreTotals.add(new ScoreTotal());
+        }
+        return scoreTotals;
+    }
+
+    private static List<ScoreTotal> addScoreTotals(List<ScoreTotal> first, List<ScoreTotal> second) {
+        for (int i = 0; i < first.size(); i++) {
+            first.get(i).add(second.get(i));
+        }
+        return first;
+    }
+
+    /**
+     * Both lists are ordered by ticket and category, scores of the same (ticket, category) are summed.
+     */
+    private static List<PartialTicketScore> mergeTicketScores(List<PartialTicketScore> first, List<PartialTicketScore> second) {
+        List<PartialTicketScore> merged = new ArrayList<>(first.size() + second.size());
+        int i = 0;
+        int j = 0;
+        while (i < first.size() || j < second.size()) {
+            int order = i == first.size() ? 1 : j == second.size() ? -1 : first.get(i).compareTo(second.get(j));
+            if (order < 0) {
+                merged.add(first.get(i++));
+            } else if (order > 0) {
+                merged.add(second.get(j++));
+            } else {
+                merged.add(first.get(i++).plus(second.get(j++)));
+            }
+        }
+        return merged;
+    }
+
+    private interface PartitionQuery<T> {
+        T query(RatingPartition partition, LocalDateTime partitionFrom, LocalDateTime partitionTo);
+    }
+
+    /**
+     * Splits the partitions in halves down to single ones and merges the halves' results on the way back up.
+     */
+    private static class PartitionQueryTask<T> extends RecursiveTask<T> {
+        private final List<RatingPartition> partitions;
+        private final Function<RatingPartition, T> query;
+        private final BinaryOperator<T> merge;
+
+        private PartitionQueryTask(List<RatingPartition> partitions, Function<RatingPartition, T> query, BinaryOperator<T> merge) {
+            this.partitions = partitions;
+            this.query = query;
+            this.merge = merge;
+        }
+
+        @Override
+        protected T compute() {
+            if (partitions.size() == 1) {
+                return query.apply(partitions.get(0));
+            }
+            int middle = partitions.size() / 2;
+            PartitionQueryTask<T> first = new PartitionQueryTask<>(partitions.subList(0, middle), query, merge);
+            first.fork();
+            T second = new PartitionQueryTask<>(partitions.subList(middle, partitions.size()), query, merge).compute();
+            return merge.apply(first.join(), second);
+        }
+    }
+
+    /**
+     * Ticket scores of one or more partitions and the smallest last ticket id of those that stopped at the limit.
+     */
+    private static class TicketPage {
+        private final List<PartialTicketScore> ticketScores;
+        private final OptionalLong lastTicketId;
+
+        private TicketPage() {
+            this(List.of(), OptionalLong.empty());
+        }
+
+        private TicketPage(List<PartialTicketScore> ticketScores, OptionalLong lastTicketId) {
+            this.ticketScores = ticketScores;
+            this.lastTicketId = lastTicketId;
+        }
+
+        private TicketPage merge(TicketPage other) {
+            OptionalLong mergedLastTicketId = lastTicketId.isEmpty() ? other.lastTicketId
+                    : other.lastTicketId.isEmpty() ? lastTicketId
+                    : OptionalLong.of(Math.min(lastTicketId.getAsLong(), other.lastTicketId.getAsLong()));
+            return new TicketPage(mergeTicketScores(ticketScores, other.ticketScores), mergedLastTicketId);
+        }
+    }
+
+    private static class PartialTicketScore implements Comparable<PartialTicketScore> {
+        private final long ticketId;
+        private final long categoryId;
+        private final TicketScore ticketScore;
+
+        private PartialTicketScore(long ticketId, long categoryId, TicketScore ticketScore) {
+            this.ticketId = ticketId;
+            this.categoryId = categoryId;
+            this.ticketScore = ticketScore;
+        }
+
+        private PartialTicketScore plus(PartialTicketScore other) {
+            TicketScore sum = new TicketScore();
+            sum.setTicketId(ticketId);
+            sum.setCategoryName(ticketScore.getCategoryName());
+            sum.setWeight(ticketScore.getWeight());
+            sum.setScoreSum(ticketScore.getScoreSum() + other.ticketScore.getScoreSum());
+            sum.setRatingsCount(ticketScore.getRatingsCount() + other.ticketScore.getRatingsCount());
+            return new PartialTicketScore(ticketId, categoryId, sum);
+        }
+
+        @Override
+        public int compareTo(PartialTicketScore other) {
+            int order = Long.compare(ticketId, other.ticketId);
+            return order != 0 ? order : Long.compare(categoryId, other.categoryId);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package klaus.demo.ticket.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Cuts the queried ranges of possibly overlapping periods at every range boundary, so that
+ * select_score_totals_of_periods.sql searches each segment once on the created_at_epoch index and reads every
+ * rating once however many periods cover it. The counts of a segment are then added to each period covering it.
+ */
+class PeriodSegments {
+
+    private final List<long[]> ranges = new ArrayList<>();
+    private final List<Object[]> segments = new ArrayList<>();
+    private final List<int[]> coveringPeriods = new ArrayList<>();
+
+    /**
+     * Both ends are epoch seconds and inclusive.
+     */
+    void add(int periodIndex, long dateFrom, long dateTo) {
+        if (dateFrom <= dateTo) {
+            ranges.add(new long[]{periodIndex, dateFrom, dateTo});
+            segments.clear();
+            coveringPeriods.clear();
+        }
+    }
+
+    boolean isEmpty() {
+        return ranges.isEmpty();
+    }
+
+    /**
+     * Rows of (segment index, date from, date to) for the segments VALUES of the query.
+     */
+    List<Object[]> getSegments() {
+        if (segments.isEmpty()) {
+            cut();
+        }
+        return segments;
+    }
+
+    int[] getPeriodIndexes(int segmentIndex) {
+        if (segments.isEmpty()) {
+            cut();
+        }
+        return coveringPeriods.get(segmentIndex);
+    }
+
+    private void cut() {
+        TreeSet<Long> boundaries = new TreeSet<>();
+        for (long[] range : ranges) {
+            boundaries.add(range[1]);
+            boundaries.add(range[2] + 1);
+        }
+
+        long segmentFrom = boundaries.pollFirst();
+        for (long nextFrom : boundaries) {
+            long from = segmentFrom;
+            long segmentTo = nextFrom - 1;
+            int[] periodIndexes = ranges.stream()
+                    .filter(range -> range[1] <= from && range[2] >= segmentTo)
+                    .mapToInt(range -> (int) range[0])
+                    .toArray();
+            if (periodIndexes.length > 0) {
+                segments.add(new Object[]{segments.size(), from, segmentTo});
+                coveringPeriods.add(periodIndexes);
+            }
+            segmentFrom = nextFrom;
+        }
+    }
+}
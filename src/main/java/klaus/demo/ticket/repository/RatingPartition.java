@@ -0,0 +1,86 @@
+package klaus.demo.ticket.repository;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import klaus.demo.ticket.cancellation.CancellationCounters;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteDataSource;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * One month of ratings in its own SQLite file with its own small read pool. Months before the current one
+ * are not written anymore, results covering the whole of such a partition are kept for good.
+ */
+class RatingPartition implements AutoCloseable {
+    private final YearMonth month;
+    private final HikariDataSource dataSource;
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final Map<String, Object> cachedResults = new ConcurrentHashMap<>();
+
+    RatingPartition(YearMonth month, Path file, int poolSize, CancellationCounters cancellationCounters) {
+        this.month = month;
+
+        SQLiteConfig readConfig = new SQLiteConfig();
+        readConfig.setReadOnly(true);
+        SQLiteDataSource sqliteDataSource = new SQLiteDataSource(readConfig);
+        sqliteDataSource.setUrl("jdbc:sqlite:" + file.toAbsolutePath());
+
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName("sqlite-" + month);
+        hikariConfig.setDataSource(sqliteDataSource);
+        hikariConfig.setMaximumPoolSize(poolSize);
+        hikariConfig.setMinimumIdle(0);
+        this.dataSource = new HikariDataSource(hikariConfig);
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(new CancellableJdbcTemplate(dataSource, cancellationCounters));
+    }
+
+    YearMonth getMonth() {
+        return month;
+    }
+
+    NamedParameterJdbcTemplate getJdbcTemplate() {
+        return jdbcTemplate;
+    }
+
+    LocalDateTime getStart() {
+        return month.atDay(1).atStartOfDay();
+    }
+
+    LocalDateTime getEnd() {
+        return month.atEndOfMonth().atTime(LocalTime.of(23, 59, 59));
+    }
+
+    boolean isImmutable() {
+        return month.isBefore(YearMonth.now(ZoneOffset.UTC));
+    }
+
+    boolean isCoveredBy(LocalDateTime dateFrom, LocalDateTime dateTo) {
+        return !dateFrom.isAfter(getStart()) && !dateTo.isBefore(getEnd());
+    }
+
+    /**
+     * Loads without caching unless the partition is immutable and the range covers all of it.
+     * Cached values are shared, callers must not modify them.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T getWholePartitionResult(String key, LocalDateTime dateFrom, LocalDateTime dateTo, Supplier<T> loader) {
+        if (!isImmutable() || !isCoveredBy(dateFrom, dateTo)) {
+            return loader.get();
+        }
+        return (T) cachedResults.computeIfAbsent(key, ignored -> loader.get());
+    }
+
+    @Override
+    public void close() {
+        dataSource.close();
+    }
+}
@@ -0,0 +1,88 @@
+package klaus.demo.ticket.repository;
+
+import klaus.demo.ticket.domain.Rating;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteDataSource;
+
+import java.sql.SQLException;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import static klaus.demo.util.ResourceReader.getResourceAsString;
+
+/**
+ * Writes ratings over one dedicated connection, outside of the read-only pool. SQLite allows a single writer
+ * at a time, so batches are written one after the other, each in its own transaction.
+ */
+@Component
+@DependsOn("ratingsSchema")
+public class RatingWriter {
+    private static final DateTimeFormatter CREATED_AT_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    private final String url;
+    private final int busyTimeoutMillis;
+
+    private NamedParameterJdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+
+    public RatingWriter(@Value("${spring.datasource.url}") String url,
+                        @Value("${ticket.ingest.busy-timeout-millis:5000}") int busyTimeoutMillis) {
+        this.url = url;
+        this.busyTimeoutMillis = busyTimeoutMillis;
+    }
+
+    /**
+     * Returns the rowid of the last rating written, the batch takes the rowids right before it.
+     */
+    public synchronized long insert(List<Rating> ratings) {
+        if (jdbcTemplate == null) {
+            open();
+        }
+
+        SqlParameterSource[] parameters = ratings.stream()
+                .map(rating -> new MapSqlParameterSource()
+                        .addValue("rating", rating.getRating())
+                        .addValue("ticketId", rating.getTicketId())
+                        .addValue("categoryId", rating.getCategoryId())
+                        .addValue("reviewerId", rating.getReviewerId())
+                        .addValue("revieweeId", rating.getRevieweeId())
+                        .addValue("createdAt", rating.getCreatedAt().format(CREATED_AT_FORMAT))
+                        .addValue("createdAtEpoch", rating.getCreatedAt().toEpochSecond(ZoneOffset.UTC)))
+                .toArray(SqlParameterSource[]::new);
+        Long lastRowId = transactionTemplate.execute(status -> {
+            jdbcTemplate.batchUpdate(getResourceAsString("sql/insert_rating.sql", this.getClass()), parameters);
+            return jdbcTemplate.queryForObject(
+                    getResourceAsString("sql/select_last_insert_rowid.sql", this.getClass()),
+                    EmptySqlParameterSource.INSTANCE, Long.class);
+        });
+        return lastRowId == null ? 0 : lastRowId;
+    }
+
+    private void open() {
+        SQLiteConfig config = new SQLiteConfig();
+        // waits for a checkpoint or another process holding the write lock instead of failing the batch
+        config.setBusyTimeout(busyTimeoutMillis);
+        SQLiteDataSource sqliteDataSource = new SQLiteDataSource(config);
+        sqliteDataSource.setUrl(url);
+
+        SingleConnectionDataSource dataSource;
+        try {
+            dataSource = new SingleConnectionDataSource(sqliteDataSource.getConnection(), true);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not open write connection to " + url, e);
+        }
+        jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+}
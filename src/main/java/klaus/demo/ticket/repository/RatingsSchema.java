@@ -0,0 +1,240 @@
+package klaus.demo.ticket.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteDataSource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import static klaus.demo.util.ResourceReader.getResourceAsString;
+
+/**
+ * Keeps every ratings query in sql/ a range scan over an index. The queries filter on an integer
+ * {@code created_at_epoch} column that triggers keep in step with {@code created_at}, and covering indexes on
+ * (created_at_epoch, rating_category_id, rating, ticket_id) and (ticket_id, created_at_epoch, ...) answer them
+ * without touching the table. At startup the plan of every query is checked with EXPLAIN QUERY PLAN, the
+ * migrations run when a query would scan the ratings table or cannot be planned, and queries that still scan
+ * afterwards are logged as errors.
+ * <p>
+ * Rollups and their snapshots pick up new ratings by rowid. Updates and deletes of counted ratings are recorded
+ * by triggers in {@code rating_changes}, one row per changed epoch day with the version of its last change, so
+ * the days changed since a version can be rebuilt.
+ */
+@Component
+public class RatingsSchema {
+    private static final String QUERIES = "classpath*:klaus/demo/ticket/repository/sql/select_*.sql";
+    // counting every rating has no range to search
+    private static final Set<String> FULL_SCAN_QUERIES = Set.of("select_ratings_count.sql");
+    private static final Pattern RATINGS_TABLE = Pattern.compile("\\b(TABLE\\s+)?(main\\.)?ratings\\b");
+    private static final List<String> MIGRATIONS = List.of(
+            "sql/migration/update_created_at_epoch.sql",
+            "sql/migration/create_created_at_epoch_insert_trigger.sql",
+            "sql/migration/create_created_at_epoch_update_trigger.sql",
+            "sql/migration/create_created_at_epoch_index.sql",
+            "sql/migration/create_ticket_id_index.sql");
+    // databases migrated by earlier versions refuse the changes that are tracked now
+    private static final List<String> CHANGE_TRACKING_MIGRATIONS = List.of(
+            "sql/migration/drop_append_only_update_trigger.sql",
+            "sql/migration/drop_append_only_delete_trigger.sql",
+            "sql/migration/create_rating_changes_table.sql",
+            "sql/migration/create_rating_changes_version_index.sql",
+            "sql/migration/create_rating_changes_update_trigger.sql",
+            "sql/migration/create_rating_changes_delete_trigger.sql");
+    private static final List<String> CHANGE_TRIGGERS = List.of("ratings_changes_update", "ratings_changes_delete");
+
+    Logger logger = LoggerFactory.getLogger(RatingsSchema.class);
+
+    private final boolean migrate;
+    private final int busyTimeoutMillis;
+
+    public RatingsSchema(NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+                         @Value("${spring.datasource.url}") String url,
+                         @Value("${ticket.schema.migrate:true}") boolean migrate,
+                         @Value("${ticket.ingest.busy-timeout-millis:5000}") int busyTimeoutMillis) {
+        this.migrate = migrate;
+        this.busyTimeoutMillis = busyTimeoutMillis;
+        ensureRangeScans(url, namedParameterJdbcTemplate);
+        ensureChangeTracking(url, namedParameterJdbcTemplate);
+    }
+
+    /**
+     * The template may be read-only, migrations go through their own writable connection to the url.
+     */
+    public void ensureRangeScans(String url, NamedParameterJdbcTemplate readTemplate) {
+        if (!hasTable(readTemplate, "ratings")) {
+            logger.warn("No ratings table in " + url + ", query plans not checked");
+            return;
+        }
+
+        Map<String, String> tableScans = findTableScans(readTemplate);
+        if (tableScans.isEmpty()) {
+            return;
+        }
+        if (!migrate) {
+            logTableScans(url, tableScans);
+            return;
+        }
+
+        logger.info("Queries " + tableScans.keySet() + " do not range scan " + url + ", adding created_at_epoch and covering indexes");
+        long started = System.nanoTime();
+        runMigrations(url, jdbcTemplate -> {
+            if (!hasCreatedAtEpochColumn(jdbcTemplate)) {
+                jdbcTemplate.update(getResourceAsString("sql/migration/add_created_at_epoch_column.sql", this.getClass()),
+                        EmptySqlParameterSource.INSTANCE);
+            }
+            for (String migration : MIGRATIONS) {
+                jdbcTemplate.update(getResourceAsString(migration, this.getClass()), EmptySqlParameterSource.INSTANCE);
+            }
+        });
+        logger.info("Migrated " + url + " in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+        logTableScans(url, findTableScans(readTemplate));
+    }
+
+    /**
+     * Only for the main database, monthly partitions are written by whatever produces them.
+     */
+    public void ensureChangeTracking(String url, NamedParameterJdbcTemplate readTemplate) {
+        if (!hasTable(readTemplate, "ratings")) {
+            return;
+        }
+
+        List<String> missing = new ArrayList<>();
+        if (!hasTable(readTemplate, "rating_changes")) {
+            missing.add("rating_changes");
+        }
+        for (String trigger : CHANGE_TRIGGERS) {
+            if (!hasTrigger(readTemplate, trigger)) {
+                missing.add(trigger);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        if (!migrate) {
+            logger.error(missing + " missing on " + url + ", updated or deleted ratings will leave rollups and cached results stale");
+            return;
+        }
+
+        logger.info("Adding " + missing + " to track changed ratings in " + url);
+        runMigrations(url, jdbcTemplate -> {
+            for (String migration : CHANGE_TRACKING_MIGRATIONS) {
+                jdbcTemplate.update(getResourceAsString(migration, this.getClass()), EmptySqlParameterSource.INSTANCE);
+            }
+        });
+    }
+
+    /**
+     * Query file name to the plan step that scans the ratings table, or to the error planning it.
+     */
+    Map<String, String> findTableScans(NamedParameterJdbcTemplate jdbcTemplate) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource()
+                .addValue("dateFrom", 0L)
+                .addValue("dateTo", 0L)
+                .addValue("bucket", "DAY")
+                .addValue("afterTicketId", 0L)
+                .addValue("ticketLimit", 1)
+                .addValue("rowIdFrom", 0L)
+                .addValue("rowIdTo", 0L)
+                .addValue("rowId", 0L)
+                .addValue("segments", List.<Object[]>of(new Object[]{0, 0L, 0L}));
+
+        Map<String, String> tableScans = new LinkedHashMap<>();
+        for (String query : getQueryFileNames()) {
+            String sql = getResourceAsString("sql/" + query, this.getClass());
+            if (FULL_SCAN_QUERIES.contains(query) || !RATINGS_TABLE.matcher(sql).find()) {
+                continue;
+            }
+            try {
+                List<String> plan = jdbcTemplate.query("EXPLAIN QUERY PLAN " + sql, parameters,
+                        (resultSet, rowNum) -> resultSet.getString("detail"));
+                plan.stream()
+                        .filter(step -> RATINGS_TABLE.matcher(step).find() && !step.startsWith("SEARCH"))
+                        .findFirst()
+                        .ifPresent(step -> tableScans.put(query, step));
+            } catch (DataAccessException e) {
+                tableScans.put(query, e.getMostSpecificCause().getMessage());
+            }
+        }
+        return tableScans;
+    }
+
+    private void runMigrations(String url, Consumer<NamedParameterJdbcTemplate> migrations) {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setBusyTimeout(busyTimeoutMillis);
+        SQLiteDataSource sqliteDataSource = new SQLiteDataSource(config);
+        sqliteDataSource.setUrl(url);
+
+        SingleConnectionDataSource dataSource;
+        try {
+            dataSource = new SingleConnectionDataSource(sqliteDataSource.getConnection(), false);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not open connection to migrate " + url, e);
+        }
+        try {
+            NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+            new TransactionTemplate(new DataSourceTransactionManager(dataSource))
+                    .executeWithoutResult(status -> migrations.accept(jdbcTemplate));
+        } finally {
+            dataSource.destroy();
+        }
+    }
+
+    private void logTableScans(String url, Map<String, String> tableScans) {
+        tableScans.forEach((query, step) -> logger.error("QUERY PLAN REGRESSION: " + query + " on " + url
+                + " does not range scan an index: " + step));
+    }
+
+    private static boolean hasTable(NamedParameterJdbcTemplate jdbcTemplate, String name) {
+        Integer tables = jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM sqlite_master WHERE type = 'table' and name = :name",
+                new MapSqlParameterSource("name", name), Integer.class);
+        return tables != null && tables > 0;
+    }
+
+    private static boolean hasTrigger(NamedParameterJdbcTemplate jdbcTemplate, String name) {
+        Integer triggers = jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM sqlite_master WHERE type = 'trigger' and name = :name",
+                new MapSqlParameterSource("name", name), Integer.class);
+        return triggers != null && triggers > 0;
+    }
+
+    private static boolean hasCreatedAtEpochColumn(NamedParameterJdbcTemplate jdbcTemplate) {
+        List<String> columns = jdbcTemplate.query("PRAGMA table_info(ratings)", EmptySqlParameterSource.INSTANCE,
+                (resultSet, rowNum) -> resultSet.getString("name"));
+        return columns.contains("created_at_epoch");
+    }
+
+    private static List<String> getQueryFileNames() {
+        List<String> fileNames = new ArrayList<>();
+        try {
+            for (Resource resource : new PathMatchingResourcePatternResolver().getResources(QUERIES)) {
+                fileNames.add(resource.getFilename());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not list " + QUERIES, e);
+        }
+        fileNames.sort(String::compareTo);
+        return fileNames;
+    }
+}
@@ -0,0 +1,190 @@
+package klaus.demo.ticket.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static klaus.demo.ticket.domain.RatingCategory.MAX_RATING;
+
+/**
+ * Binary copy of the {@link DailyRollupStore} rollups, big-endian:
+ * magic, version, watermark rowid, change version, fingerprint of the watermark row, record count, then per (day, category)
+ * the epoch day, category id and ratings count per rating value in epoch day order, and a CRC32 of everything before it.
+ * Files are written next to the target and moved over it, so a reader sees either the old or the new snapshot.
+ * A read snapshot keeps the file mapped and its records are read in place, they are never copied onto the heap.
+ */
+final class RollupSnapshot {
+    static final int VERSION = 2;
+    private static final int MAGIC = 0x4B524C53;
+    private static final int HEADER_BYTES = Integer.BYTES * 2 + Long.BYTES * 3 + Integer.BYTES;
+    private static final int RECORD_BYTES = Long.BYTES * (2 + MAX_RATING + 1);
+
+    private final long watermark;
+    private final long changeVersion;
+    private final long fingerprint;
+    private final ByteBuffer records;
+    private final int recordCount;
+
+    private RollupSnapshot(long watermark, long changeVersion, long fingerprint, ByteBuffer records, int recordCount) {
+        this.watermark = watermark;
+        this.changeVersion = changeVersion;
+        this.fingerprint = fingerprint;
+        this.records = records;
+        this.recordCount = recordCount;
+    }
+
+    long getWatermark() {
+        return watermark;
+    }
+
+    long getChangeVersion() {
+        return changeVersion;
+    }
+
+    long getFingerprint() {
+        return fingerprint;
+    }
+
+    int getRecordCount() {
+        return recordCount;
+    }
+
+    long getEpochDay(int record) {
+        return records.getLong(record * RECORD_BYTES);
+    }
+
+    long getCategoryId(int record) {
+        return records.getLong(record * RECORD_BYTES + Long.BYTES);
+    }
+
+    /**
+     * Absolute reads only, so any number of readers can share the buffer.
+     */
+    void readCounts(int record, long[] counts) {
+        int offset = record * RECORD_BYTES + Long.BYTES * 2;
+        for (int rating = 0; rating <= MAX_RATING; rating++) {
+            counts[rating] = records.getLong(offset + rating * Long.BYTES);
+        }
+    }
+
+    /**
+     * The first record of the day or of the next day with records, the record count when there is none.
+     */
+    int findFirstRecord(long epochDay) {
+        int low = 0;
+        int high = recordCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getEpochDay(middle) < epochDay) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The records are handed over by the caller, in epoch day order and as many as recordCount.
+     */
+    static void write(Path file, long watermark, long changeVersion, long fingerprint, int recordCount,
+                      Consumer<RecordConsumer> records) throws IOException {
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 checksum = new CRC32();
+            DataOutputStream output = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)), checksum));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(watermark);
+            output.writeLong(changeVersion);
+            output.writeLong(fingerprint);
+            output.writeInt(recordCount);
+            int[] writtenRecords = new int[1];
+            try {
+                records.accept((epochDay, categoryId, counts) -> {
+                    try {
+                        output.writeLong(epochDay);
+                        output.writeLong(categoryId);
+                        for (long count : counts) {
+                            output.writeLong(count);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    writtenRecords[0]++;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (writtenRecords[0] != recordCount) {
+                throw new IOException("Rollup snapshot " + file + " was to hold " + recordCount + " records, got " + writtenRecords[0]);
+            }
+            output.writeLong(checksum.getValue());
+            output.flush();
+            channel.force(true);
+        }
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Maps the file instead of reading it through a stream, the checksum and the day order of the records are
+     * checked once and the records are then read straight from the page cache.
+     */
+    static RollupSnapshot read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + Long.BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("Rollup snapshot " + file + " has an invalid size of " + size + " bytes");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            int checkedBytes = (int) size - Long.BYTES;
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer.duplicate().limit(checkedBytes));
+            if (checksum.getValue() != buffer.getLong(checkedBytes)) {
+                throw new IOException("Rollup snapshot " + file + " is corrupt, checksum mismatch");
+            }
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(file + " is not a rollup snapshot");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Rollup snapshot " + file + " has version " + version + ", expected " + VERSION);
+            }
+            long watermark = buffer.getLong();
+            long changeVersion = buffer.getLong();
+            long fingerprint = buffer.getLong();
+            int recordCount = buffer.getInt();
+            if ((long) recordCount * RECORD_BYTES != checkedBytes - HEADER_BYTES) {
+                throw new IOException("Rollup snapshot " + file + " does not hold " + recordCount + " records");
+            }
+
+            RollupSnapshot snapshot = new RollupSnapshot(watermark, changeVersion, fingerprint,
+                    buffer.slice().limit(recordCount * RECORD_BYTES), recordCount);
+            for (int record = 1; record < recordCount; record++) {
+                if (snapshot.getEpochDay(record) < snapshot.getEpochDay(record - 1)) {
+                    throw new IOException("Rollup snapshot " + file + " is not in epoch day order");
+                }
+            }
+            return snapshot;
+        }
+    }
+
+    interface RecordConsumer {
+        void accept(long epochDay, long categoryId, long[] counts);
+    }
+}
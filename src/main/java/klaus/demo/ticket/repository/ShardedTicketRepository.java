@@ -0,0 +1,387 @@
+package klaus.demo.ticket.repository;
+
+import com.google.protobuf.Empty;
+import com.google.protobuf.Timestamp;
+import io.grpc.Context;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import klaus.demo.BucketPartialRequest;
+import klaus.demo.CategoryBucketPartial;
+import klaus.demo.CategoryBucketPartials;
+import klaus.demo.CategoryDistributionPartial;
+import klaus.demo.DateRange;
+import klaus.demo.DistributionPartials;
+import klaus.demo.Granularity;
+import klaus.demo.MultiDateRange;
+import klaus.demo.PartialAggregateServiceGrpc;
+import klaus.demo.PartialAggregateServiceGrpc.PartialAggregateServiceFutureStub;
+import klaus.demo.RatingsWatermark;
+import klaus.demo.ScoreCountPartial;
+import klaus.demo.ScoreTotalPartial;
+import klaus.demo.ScoreTotalPartials;
+import klaus.demo.TicketPartial;
+import klaus.demo.TicketPartialRequest;
+import klaus.demo.TicketPartials;
+import klaus.demo.ticket.domain.CategoryBucketScore;
+import klaus.demo.ticket.domain.CategoryScoreDistribution;
+import klaus.demo.ticket.domain.Period;
+import klaus.demo.ticket.domain.Rating;
+import klaus.demo.ticket.domain.ScoreTotal;
+import klaus.demo.ticket.domain.TicketScore;
+import klaus.demo.ticket.domain.TimeBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Coordinator over instances that each hold part of the ratings, listed in {@code ticket.shards.targets}.
+ * Every query goes out to all shards at once through their PartialAggregateService and the sums and counts
+ * that come back are added up, so the merged averages are the ones a single instance holding all ratings would
+ * compute. Ticket rows are merged as they stream in, in ticket order. A query fails when any shard fails,
+ * a partial answer would be silently wrong. Shards are matched up by category name, not id.
+ */
+@Repository
+@ConditionalOnProperty(name = "ticket.repository.engine", havingValue = "sharded")
+public class ShardedTicketRepository implements TicketRepository, DisposableBean {
+    Logger logger = LoggerFactory.getLogger(ShardedTicketRepository.class);
+
+    private final List<String> shardNames;
+    private final List<ManagedChannel> channels;
+    private final long deadlineMillis;
+
+    @Autowired
+    public ShardedTicketRepository(@Value("${ticket.shards.targets:}") String targets,
+                                   @Value("${ticket.shards.deadline-millis:30000}") long deadlineMillis) {
+        this(createChannels(targets), deadlineMillis);
+        logger.info("Coordinating " + channels.size() + " shards: " + targets);
+    }
+
+    /**
+     * Shard names only show up in logs and errors.
+     */
+    ShardedTicketRepository(Map<String, ManagedChannel> shards, long deadlineMillis) {
+        if (shards.isEmpty()) {
+            throw new IllegalStateException("The sharded engine needs at least one shard in ticket.shards.targets");
+        }
+        this.shardNames = new ArrayList<>(shards.keySet());
+        this.channels = new ArrayList<>(shards.values());
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    @Override
+    public void streamCategoryScoresOfTicketsBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo, Consumer<TicketScore> ticketScoreConsumer) {
+        streamTicketScores(TicketPartialRequest.newBuilder()
+                .setRange(getDateRange(dateFrom, dateTo))
+                .build(), Integer.MAX_VALUE, ticketScoreConsumer);
+    }
+
+    /**
+     * Every shard returns its own first page, a ticket on the merged page is on the page of every shard
+     * it has ratings in. The merged page ends at the last ticket of a shard that stopped at the limit, tickets
+     * after it may have ratings further down that shard.
+     */
+    @Override
+    public OptionalLong streamCategoryScoresOfTicketsPage(LocalDateTime dateFrom, LocalDateTime dateTo, long afterTicketId, int ticketLimit,
+                                                          Consumer<TicketScore> ticketScoreConsumer) {
+        return streamTicketScores(TicketPartialRequest.newBuilder()
+                .setRange(getDateRange(dateFrom, dateTo))
+                .setAfterTicketId(afterTicketId)
+                .setTicketLimit(ticketLimit)
+                .build(), ticketLimit, ticketScoreConsumer);
+    }
+
+    @Override
+    public List<CategoryBucketScore> getCategoryBucketScoresBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo, TimeBucket bucket) {
+        BucketPartialRequest request = BucketPartialRequest.newBuilder()
+                .setRange(getDateRange(dateFrom, dateTo))
+                .setGranularity(Granularity.valueOf(bucket.name()))
+                .build();
+
+        Map<String, CategoryBucketScore> bucketScores = new LinkedHashMap<>();
+        for (CategoryBucketPartials shardPartials : queryShards(stub -> stub.getCategoryBucketPartials(request))) {
+            for (CategoryBucketPartial partial : shardPartials.getPartialsList()) {
+                CategoryBucketScore bucketScore = bucketScores.computeIfAbsent(partial.getCategoryName() + "|" + partial.getBucketStart(), key -> {
+                    CategoryBucketScore newBucketScore = new CategoryBucketScore();
+                    newBucketScore.setCategoryName(partial.getCategoryName());
+                    newBucketScore.setBucketStart(partial.getBucketStart());
+                    return newBucketScore;
+                });
+                bucketScore.setScoreSum(bucketScore.getScoreSum() + partial.getScoreSum());
+                bucketScore.setRatingsCount(bucketScore.getRatingsCount() + partial.getRatingsCount());
+            }
+        }
+        // shards list the buckets they have, a category's buckets from several shards need putting back in order
+        List<CategoryBucketScore> merged = new ArrayList<>(bucketScores.values());
+        merged.sort(Comparator.comparingLong(CategoryBucketScore::getBucketStart));
+        return merged;
+    }
+
+    @Override
+    public ScoreTotal getScoreTotalBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo) {
+        return getScoreTotalsOfPeriods(List.of(new Period(dateFrom, dateTo))).get(0);
+    }
+
+    @Override
+    public List<CategoryScoreDistribution> getCategoryScoreDistributionsBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo) {
+        DateRange request = getDateRange(dateFrom, dateTo);
+
+        Map<String, CategoryScoreDistribution> distributions = new LinkedHashMap<>();
+        for (DistributionPartials shardPartials : queryShards(stub -> stub.getDistributionPartials(request))) {
+            for (CategoryDistributionPartial partial : shardPartials.getPartialsList()) {
+                CategoryScoreDistribution distribution = distributions.computeIfAbsent(partial.getCategoryName(), categoryName -> {
+                    CategoryScoreDistribution newDistribution = new CategoryScoreDistribution();
+                    newDistribution.setCategoryName(categoryName);
+                    return newDistribution;
+                });
+                for (ScoreCountPartial scoreCount : partial.getHistogramList()) {
+                    distribution.add(scoreCount.getScore(), scoreCount.getCount());
+                }
+            }
+        }
+        return new ArrayList<>(distributions.values());
+    }
+
+    @Override
+    public List<ScoreTotal> getScoreTotalsOfPeriods(List<Period> periods) {
+        MultiDateRange.Builder requestBuilder = MultiDateRange.newBuilder();
+        for (Period period : periods) {
+            requestBuilder.addPeriods(getDateRange(period.getDateFrom(), period.getDateTo()));
+        }
+        MultiDateRange request = requestBuilder.build();
+
+        List<ScoreTotal> scoreTotals = new ArrayList<>();
+        for (int i = 0; i < periods.size(); i++) {
+            scoreTotals.add(new ScoreTotal());
+        }
+        for (ScoreTotalPartials shardPartials : queryShards(stub -> stub.getScoreTotalPartials(request))) {
+            if (shardPartials.getPartialsCount() != periods.size()) {
+                throw Status.INTERNAL
+                        .withDescription("A shard returned " + shardPartials.getPartialsCount() + " totals for " + periods.size() + " periods")
+                        .asRuntimeException();
+            }
+            for (int i = 0; i < periods.size(); i++) {
+                ScoreTotalPartial partial = shardPartials.getPartials(i);
+                scoreTotals.get(i).add(partial.getScoreSum(), partial.getRatingsCount(), partial.getWeightedScoreSum(), partial.getWeightSum());
+            }
+        }
+        return scoreTotals;
+    }
+
+    /**
+     * The sum of the watermarks of all shards, it moves whenever one of them does.
+     */
+    @Override
+    public long getRatingsWatermark() {
+        long watermark = 0;
+        for (RatingsWatermark shardWatermark : queryShards(stub -> stub.getRatingsWatermark(Empty.getDefaultInstance()))) {
+            watermark += shardWatermark.getWatermark();
+        }
+        return watermark;
+    }
+
+    /**
+     * Never called, see {@link #acceptsWrittenRatings()}.
+     */
+    @Override
+    public void addWrittenRatings(List<Rating> ratings, long lastRowId) {
+    }
+
+    /**
+     * The coordinator holds no ratings, {@link RatingWriter} would write to a database no query reads. Ratings
+     * are ingested on the shards directly, their watermarks move and with them the one above.
+     */
+    @Override
+    public boolean acceptsWrittenRatings() {
+        return false;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        channels.forEach(ManagedChannel::shutdown);
+        for (ManagedChannel channel : channels) {
+            if (!channel.awaitTermination(5, TimeUnit.SECONDS)) {
+                channel.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Calls go out to all shards before waiting on the first one. They are made in the current context, so
+     * they inherit the deadline of the call being answered and are cancelled along with it.
+     */
+    private <T> List<T> queryShards(Function<PartialAggregateServiceFutureStub, ? extends Future<T>> call) {
+        List<Future<T>> futures = new ArrayList<>();
+        for (ManagedChannel channel : channels) {
+            futures.add(call.apply(PartialAggregateServiceGrpc.newFutureStub(channel).withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS)));
+        }
+        try {
+            List<T> results = new ArrayList<>();
+            for (int shard = 0; shard < futures.size(); shard++) {
+                results.add(getShardResult(shardNames.get(shard), futures.get(shard)));
+            }
+            return results;
+        } finally {
+            // no need to wait for the other shards once one has failed
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    private static <T> T getShardResult(String shardName, Future<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw Status.fromThrowable(e.getCause()).augmentDescription("shard " + shardName).asRuntimeException();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Status.CANCELLED.withDescription("Interrupted while waiting for shard " + shardName).withCause(e).asRuntimeException();
+        }
+    }
+
+    private OptionalLong streamTicketScores(TicketPartialRequest request, int ticketLimit, Consumer<TicketScore> ticketScoreConsumer) {
+        OptionalLong[] lastTicketId = new OptionalLong[1];
+        Context.CancellableContext context = Context.current().withCancellation();
+        try {
+            context.run(() -> lastTicketId[0] = mergeTicketPartials(request, ticketLimit, ticketScoreConsumer));
+            return lastTicketId[0];
+        } finally {
+            // stops the shards still streaming once the page is full or the consumer failed
+            context.cancel(null);
+        }
+    }
+
+    /**
+     * A shard's last ticket id is only known once its stream ended, a shard still streaming has not reached the end
+     * of its page yet.
+     */
+    private OptionalLong mergeTicketPartials(TicketPartialRequest request, int ticketLimit, Consumer<TicketScore> ticketScoreConsumer) {
+        List<ShardTicketStream> streams = new ArrayList<>();
+        for (int shard = 0; shard < channels.size(); shard++) {
+            streams.add(new ShardTicketStream(shardNames.get(shard), PartialAggregateServiceGrpc.newBlockingStub(channels.get(shard))
+                    .withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS)
+                    .streamTicketPartials(request)));
+        }
+
+        long lastTicketId = 0;
+        for (int tickets = 0; tickets < ticketLimit; tickets++) {
+            Long ticketId = null;
+            for (ShardTicketStream stream : streams) {
+                if (stream.hasNext() && (ticketId == null || stream.peek().getTicketId() < ticketId)) {
+                    ticketId = stream.peek().getTicketId();
+                }
+            }
+            OptionalLong shardsLastTicketId = getLastTicketId(streams);
+            if (ticketId == null || (shardsLastTicketId.isPresent() && ticketId > shardsLastTicketId.getAsLong())) {
+                return shardsLastTicketId;
+            }
+
+            Map<String, TicketScore> categoryScores = new LinkedHashMap<>();
+            for (ShardTicketStream stream : streams) {
+                while (stream.hasNext() && stream.peek().getTicketId() == ticketId) {
+                    TicketPartial partial = stream.next();
+                    TicketScore ticketScore = categoryScores.computeIfAbsent(partial.getCategoryName(), categoryName -> {
+                        TicketScore newTicketScore = new TicketScore();
+                        newTicketScore.setTicketId(partial.getTicketId());
+                        newTicketScore.setCategoryName(categoryName);
+                        newTicketScore.setWeight(partial.getWeight());
+                        return newTicketScore;
+                    });
+                    ticketScore.setScoreSum(ticketScore.getScoreSum() + partial.getScoreSum());
+                    ticketScore.setRatingsCount(ticketScore.getRatingsCount() + partial.getRatingsCount());
+                }
+            }
+            categoryScores.values().forEach(ticketScoreConsumer);
+            lastTicketId = ticketId;
+        }
+        return OptionalLong.of(lastTicketId);
+    }
+
+    /**
+     * The smallest last ticket id of the shards that ended their stream at the limit.
+     */
+    private static OptionalLong getLastTicketId(List<ShardTicketStream> streams) {
+        return streams.stream()
+                .filter(stream -> !stream.hasNext() && stream.pageFull)
+                .mapToLong(stream -> stream.lastTicketId)
+                .min();
+    }
+
+    private static DateRange getDateRange(LocalDateTime dateFrom, LocalDateTime dateTo) {
+        return DateRange.newBuilder()
+                .setPeriodFrom(Timestamp.newBuilder().setSeconds(dateFrom.toEpochSecond(ZoneOffset.UTC)))
+                .setPeriodTo(Timestamp.newBuilder().setSeconds(dateTo.toEpochSecond(ZoneOffset.UTC)))
+                .build();
+    }
+
+    private static Map<String, ManagedChannel> createChannels(String targets) {
+        Map<String, ManagedChannel> channels = new LinkedHashMap<>();
+        for (String target : targets.split(",")) {
+            if (!target.isBlank()) {
+                channels.put(target.trim(), ManagedChannelBuilder.forTarget(target.trim())
+                        .usePlaintext()
+                        .build());
+            }
+        }
+        return channels;
+    }
+
+    /**
+     * The rows of one shard's stream one at a time, with the next one visible before taking it.
+     */
+    private static class ShardTicketStream {
+        private final String shard;
+        private final Iterator<TicketPartials> messages;
+        private List<TicketPartial> partials = List.of();
+        private int next;
+        private boolean pageFull;
+        private long lastTicketId;
+
+        private ShardTicketStream(String shard, Iterator<TicketPartials> messages) {
+            this.shard = shard;
+            this.messages = messages;
+        }
+
+        boolean hasNext() {
+            try {
+                while (next == partials.size() && messages.hasNext()) {
+                    TicketPartials message = messages.next();
+                    partials = message.getPartialsList();
+                    next = 0;
+                    pageFull = message.getPageFull();
+                    lastTicketId = message.getLastTicketId();
+                }
+            } catch (StatusRuntimeException e) {
+                throw e.getStatus().augmentDescription("shard " + shard).asRuntimeException();
+            }
+            return next < partials.size();
+        }
+
+        TicketPartial peek() {
+            return partials.get(next);
+        }
+
+        TicketPartial next() {
+            return partials.get(next++);
+        }
+    }
+}
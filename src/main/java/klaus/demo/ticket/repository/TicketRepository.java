@@ -1,50 +1,79 @@
 package klaus.demo.ticket.repository;
 
-import klaus.demo.ticket.domain.CategoryScore;
+import klaus.demo.ticket.domain.CategoryBucketScore;
+import klaus.demo.ticket.domain.CategoryScoreDistribution;
+import klaus.demo.ticket.domain.Period;
+import klaus.demo.ticket.domain.Rating;
+import klaus.demo.ticket.domain.ScoreTotal;
 import klaus.demo.ticket.domain.TicketScore;
-import org.springframework.jdbc.core.SingleColumnRowMapper;
-import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
-import org.springframework.stereotype.Repository;
+import klaus.demo.ticket.domain.TimeBucket;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.OptionalLong;
+import java.util.function.Consumer;
 
-import static klaus.demo.util.ResourceReader.getResourceAsString;
-import static org.springframework.jdbc.core.BeanPropertyRowMapper.newInstance;
+/**
+ * Read side of the ratings store. Implementations are picked with {@code ticket.repository.engine}.
+ */
+public interface TicketRepository {
 
-@Repository
-public class TicketRepository {
-    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    /**
+     * Hands one (ticket, category) total at a time to the consumer, ordered by ticket id.
+     */
+    void streamCategoryScoresOfTicketsBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo, Consumer<TicketScore> ticketScoreConsumer);
 
-    public TicketRepository(NamedParameterJdbcTemplate namedParameterJdbcTemplate) {
-        this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
-    }
+    /**
+     * Same as {@link #streamCategoryScoresOfTicketsBetweenDates} limited to the first {@code ticketLimit}
+     * tickets with an id greater than {@code afterTicketId}. Returns the id of the last ticket the page went through
+     * when it stopped at the limit, empty when no tickets are left in the range. Tickets whose ratings all have unknown
+     * categories or off scale ratings count towards the limit without being handed to the consumer, so the
+     * next page goes on after that id rather than after the last ticket handed over.
+     */
+    OptionalLong streamCategoryScoresOfTicketsPage(LocalDateTime dateFrom, LocalDateTime dateTo, long afterTicketId, int ticketLimit,
+                                                   Consumer<TicketScore> ticketScoreConsumer);
 
-    public List<CategoryScore> getCategoryScoresBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo) {
-        return namedParameterJdbcTemplate.query(
-                getResourceAsString("sql/select_category_scores_between_dates.sql", this.getClass()),
-                new MapSqlParameterSource()
-                        .addValue("dateFrom", dateFrom.toString())
-                        .addValue("dateTo", dateTo.toString()),
-                newInstance(CategoryScore.class));
-    }
+    /**
+     * One row per (category, bucket) with ratings in the range.
+     */
+    List<CategoryBucketScore> getCategoryBucketScoresBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo, TimeBucket bucket);
 
-    public List<Integer> getScoresBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo) {
-        return namedParameterJdbcTemplate.query(
-                getResourceAsString("sql/select_ratings_between_dates.sql", this.getClass()),
-                new MapSqlParameterSource()
-                        .addValue("dateFrom", dateFrom.toString())
-                        .addValue("dateTo", dateTo.toString()), SingleColumnRowMapper.newInstance(Integer.class) );
-    }
+    ScoreTotal getScoreTotalBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo);
+
+    /**
+     * Ratings per score of every category with ratings in the range.
+     */
+    List<CategoryScoreDistribution> getCategoryScoreDistributionsBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo);
 
-    public List<TicketScore> getCategoryScoresOfTicketsBetweenDates(LocalDateTime dateFrom, LocalDateTime dateTo) {
-        return namedParameterJdbcTemplate.query(
-                getResourceAsString("sql/select_category_scores_of_tickets.sql", this.getClass()),
-                new MapSqlParameterSource()
-                        .addValue("dateFrom", dateFrom.toString())
-                        .addValue("dateTo", dateTo.toString()),
-                newInstance(TicketScore.class));
+    /**
+     * One total per period in the order given, answered together rather than one query per period. Periods may overlap.
+     */
+    List<ScoreTotal> getScoreTotalsOfPeriods(List<Period> periods);
+
+    /**
+     * A value that changes whenever ratings are written, used to tell when cached results may be stale.
+     */
+    long getRatingsWatermark();
+
+    /**
+     * A value that changes whenever counted ratings are updated or deleted, results of closed ranges may then be
+     * stale as well. Engines that do not track changes keep it at 0.
+     */
+    default long getRatingsChangeVersion() {
+        return 0;
     }
 
+    /**
+     * Called after {@link RatingWriter} committed the ratings, lastRowId is the rowid of the last one and the batch
+     * takes the rowids right before it. Implementations fold them into what they keep in memory.
+     */
+    void addWrittenRatings(List<Rating> ratings, long lastRowId);
+
+    /**
+     * False when the ratings are read from somewhere {@link RatingWriter} does not write to, ingest calls are
+     * then refused rather than committing ratings no query would see.
+     */
+    default boolean acceptsWrittenRatings() {
+        return true;
+    }
 }
@@ -0,0 +1,2 @@
+INSERT INTO main.ratings(rating, ticket_id, rating_category_id, reviewer_id, reviewee_id, created_at, created_at_epoch)
+VALUES (:rating, :ticketId, :categoryId, :reviewerId, :revieweeId, :createdAt, :createdAtEpoch);
@@ -0,0 +1 @@
+ALTER TABLE main.ratings ADD COLUMN created_at_epoch integer;
@@ -0,0 +1,2 @@
+CREATE INDEX IF NOT EXISTS main.ratings_created_at_epoch_covering
+    ON ratings (created_at_epoch, rating_category_id, rating, ticket_id);
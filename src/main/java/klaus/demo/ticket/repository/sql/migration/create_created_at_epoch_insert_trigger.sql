@@ -0,0 +1,8 @@
+CREATE TRIGGER IF NOT EXISTS main.ratings_created_at_epoch_insert
+    AFTER INSERT
+    ON ratings
+    WHEN NEW.created_at_epoch IS NULL
+        and NEW.created_at IS NOT NULL
+BEGIN
+    UPDATE ratings SET created_at_epoch = CAST(strftime('%s', NEW.created_at) AS INTEGER) WHERE rowid = NEW.rowid;
+END;
@@ -0,0 +1,6 @@
+CREATE TRIGGER IF NOT EXISTS main.ratings_created_at_epoch_update
+    AFTER UPDATE OF created_at
+    ON ratings
+BEGIN
+    UPDATE ratings SET created_at_epoch = CAST(strftime('%s', NEW.created_at) AS INTEGER) WHERE rowid = NEW.rowid;
+END;
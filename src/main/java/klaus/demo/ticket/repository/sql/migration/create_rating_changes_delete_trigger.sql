@@ -0,0 +1,8 @@
+CREATE TRIGGER IF NOT EXISTS main.ratings_changes_delete
+    AFTER DELETE
+    ON ratings
+    WHEN OLD.created_at_epoch IS NOT NULL
+BEGIN
+    INSERT OR REPLACE INTO rating_changes(epoch_day, version)
+    VALUES (OLD.created_at_epoch / 86400, (SELECT coalesce(max(version), 0) + 1 FROM rating_changes));
+END;
@@ -0,0 +1,5 @@
+CREATE TABLE IF NOT EXISTS main.rating_changes
+(
+    epoch_day integer primary key,
+    version   integer not null
+);
@@ -0,0 +1,11 @@
+CREATE TRIGGER IF NOT EXISTS main.ratings_changes_update
+    AFTER UPDATE OF rating, rating_category_id, created_at_epoch
+    ON ratings
+    WHEN OLD.created_at_epoch IS NOT NULL
+BEGIN
+    INSERT OR REPLACE INTO rating_changes(epoch_day, version)
+    VALUES (OLD.created_at_epoch / 86400, (SELECT coalesce(max(version), 0) + 1 FROM rating_changes));
+    INSERT OR REPLACE INTO rating_changes(epoch_day, version)
+    SELECT NEW.created_at_epoch / 86400, (SELECT coalesce(max(version), 0) + 1 FROM rating_changes)
+    WHERE NEW.created_at_epoch IS NOT NULL;
+END;
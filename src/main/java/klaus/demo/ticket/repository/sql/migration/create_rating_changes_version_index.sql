@@ -0,0 +1,2 @@
+CREATE INDEX IF NOT EXISTS main.rating_changes_version
+    ON rating_changes (version);
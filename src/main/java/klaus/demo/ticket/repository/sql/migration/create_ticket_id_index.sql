@@ -0,0 +1,2 @@
+CREATE INDEX IF NOT EXISTS main.ratings_ticket_id_covering
+    ON ratings (ticket_id, created_at_epoch, rating_category_id, rating);
@@ -0,0 +1 @@
+DROP TRIGGER IF EXISTS main.ratings_append_only_delete;
@@ -0,0 +1,4 @@
+UPDATE main.ratings
+SET created_at_epoch = CAST(strftime('%s', created_at) AS INTEGER)
+WHERE created_at_epoch IS NULL
+  and created_at IS NOT NULL;
@@ -0,0 +1,11 @@
+SELECT rating_category_id as category_id,
+       (CASE :bucket
+            WHEN 'MONTH' THEN CAST(strftime('%s', created_at_epoch, 'unixepoch', 'start of month') AS INTEGER)
+            WHEN 'WEEK' THEN ((created_at_epoch / 86400 + 3) / 7 * 7 - 3) * 86400
+            ELSE created_at_epoch / 86400 * 86400 END) as bucket_start,
+       rating,
+       COUNT(*)           as ratings_count
+FROM main.ratings
+WHERE created_at_epoch >= :dateFrom
+  and created_at_epoch <= :dateTo
+GROUP BY category_id, bucket_start, rating
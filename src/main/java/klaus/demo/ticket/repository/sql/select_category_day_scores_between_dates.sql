@@ -0,0 +1,9 @@
+SELECT rating_category_id              as category_id,
+       created_at_epoch / 86400 * 86400 as bucket_start,
+       rating,
+       COUNT(*)                        as ratings_count
+FROM main.ratings
+WHERE created_at_epoch >= :dateFrom
+  and created_at_epoch <= :dateTo
+  and ratings.rowid <= :rowIdTo
+GROUP BY category_id, bucket_start, rating
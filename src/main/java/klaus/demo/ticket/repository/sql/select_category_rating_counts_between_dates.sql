@@ -0,0 +1,7 @@
+SELECT rating_category_id as category_id,
+       rating,
+       COUNT(*)           as ratings_count
+FROM main.ratings
+WHERE created_at_epoch >= :dateFrom
+  and created_at_epoch <= :dateTo
+GROUP BY category_id, rating;
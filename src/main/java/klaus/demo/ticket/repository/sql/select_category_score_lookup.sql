@@ -0,0 +1,12 @@
+WITH rating_values(rating) AS (VALUES (0), (1), (2), (3), (4), (5))
+SELECT rating_categories.id     as category_id,
+       rating_categories.name   as category_name,
+       rating_categories.weight as weight,
+       rating_values.rating     as rating,
+       (CASE
+            WHEN rating_categories.weight != 0 THEN ROUND(
+                        (((rating_values.rating * rating_categories.weight) / 5) * 100) / rating_categories.weight)
+            ELSE 0 END)         as score
+FROM rating_categories
+         CROSS JOIN rating_values
+ORDER BY category_id, rating;
@@ -0,0 +1,17 @@
+WITH page_tickets AS (SELECT DISTINCT ticket_id
+                      FROM main.ratings
+                      WHERE ticket_id > :afterTicketId
+                        and created_at_epoch >= :dateFrom
+                        and created_at_epoch <= :dateTo
+                      ORDER BY ticket_id
+                      LIMIT :ticketLimit)
+SELECT ratings.ticket_id          as ticket_id,
+       ratings.rating_category_id as category_id,
+       ratings.rating             as rating,
+       COUNT(*)                   as ratings_count
+FROM page_tickets
+         JOIN main.ratings ON ratings.ticket_id = page_tickets.ticket_id
+WHERE ratings.created_at_epoch >= :dateFrom
+  and ratings.created_at_epoch <= :dateTo
+GROUP BY ratings.ticket_id, category_id, rating
+ORDER BY ratings.ticket_id, category_id;
@@ -0,0 +1 @@
+SELECT last_insert_rowid();
@@ -0,0 +1,6 @@
+SELECT ticket_id,
+       rating_category_id,
+       rating,
+       created_at_epoch
+FROM main.ratings
+WHERE ratings.rowid = :rowId
@@ -0,0 +1,4 @@
+SELECT epoch_day,
+       version
+FROM main.rating_changes
+WHERE version > :changeVersion
@@ -0,0 +1,4 @@
+SELECT count(*)
+FROM sqlite_master
+WHERE type = 'table'
+  and name = 'rating_changes'
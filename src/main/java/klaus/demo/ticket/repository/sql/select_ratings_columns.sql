@@ -0,0 +1,8 @@
+SELECT rowid as row_id,
+       created_at_epoch,
+       rating_category_id,
+       rating,
+       ticket_id
+FROM main.ratings
+WHERE created_at_epoch IS NOT NULL
+ORDER BY created_at_epoch;
@@ -0,0 +1,2 @@
+SELECT count(*)
+FROM main.ratings;
\ No newline at end of file
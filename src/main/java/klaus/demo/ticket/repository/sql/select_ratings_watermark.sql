@@ -0,0 +1,2 @@
+SELECT max(rowid)
+FROM main.ratings;
\ No newline at end of file
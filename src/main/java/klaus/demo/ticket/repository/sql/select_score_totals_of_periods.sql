@@ -0,0 +1,10 @@
+WITH segments(segment_index, date_from, date_to) AS (VALUES :segments)
+SELECT segments.segment_index     as segment_index,
+       ratings.rating_category_id as category_id,
+       ratings.rating             as rating,
+       COUNT(*)                   as ratings_count
+FROM segments
+         CROSS JOIN main.ratings
+WHERE ratings.created_at_epoch >= segments.date_from
+  and ratings.created_at_epoch <= segments.date_to
+GROUP BY segments.segment_index, category_id, rating;
@@ -0,0 +1,50 @@
+package klaus.demo.ticket.service;
+
+import io.grpc.CompressorRegistry;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Compresses the responses of the listed methods, small unary responses are not worth the CPU. grpc-java
+ * only compresses when the client listed the encoding in grpc-accept-encoding, other clients get the
+ * responses uncompressed as before.
+ */
+@Component
+public class CompressionServerInterceptor implements ServerInterceptor {
+    private static final String LARGE_RESULT_METHODS = "ticket.TicketService/GetScoresByTickets,"
+            + "ticket.TicketService/GetScoresByTicketsBatched,"
+            + "ticket.TicketService/GetScoresByTicketsPage,"
+            + "ticket.TicketService/GetAggregatedCategoriesBatched,"
+            + "ticket.PartialAggregateService/StreamTicketPartials";
+
+    private final String compression;
+    private final Set<String> compressedMethods;
+
+    public CompressionServerInterceptor(@Value("${ticket.grpc.compression:gzip}") String compression,
+                                        @Value("${ticket.grpc.compressed-methods:" + LARGE_RESULT_METHODS + "}") String compressedMethods) {
+        if (!compression.isEmpty() && CompressorRegistry.getDefaultInstance().lookupCompressor(compression) == null) {
+            throw new IllegalStateException("Unknown gRPC compression " + compression);
+        }
+        this.compression = compression;
+        this.compressedMethods = Arrays.stream(compressedMethods.split(","))
+                .map(String::trim)
+                .filter(method -> !method.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        if (!compression.isEmpty() && compressedMethods.contains(call.getMethodDescriptor().getFullMethodName())) {
+            call.setCompression(compression);
+        }
+        return next.startCall(call, headers);
+    }
+}
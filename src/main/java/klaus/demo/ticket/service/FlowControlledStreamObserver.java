@@ -0,0 +1,70 @@
+package klaus.demo.ticket.service;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * Blocks the producing thread in {@link #onNext} until the transport is ready for more messages,
+ * so a slow client holds back whatever is feeding the stream instead of growing the outbound buffer.
+ * Must be created on the call's handler thread, as it registers the ready and cancel handlers.
+ */
+public class FlowControlledStreamObserver<T> implements StreamObserver<T> {
+    private static final long READY_RECHECK_MILLIS = 1000;
+
+    private final ServerCallStreamObserver<T> delegate;
+    private final Object readyLock = new Object();
+
+    public FlowControlledStreamObserver(ServerCallStreamObserver<T> delegate) {
+        this.delegate = delegate;
+        delegate.setOnReadyHandler(this::signalReady);
+        delegate.setOnCancelHandler(this::signalReady);
+    }
+
+    @Override
+    public void onNext(T value) {
+        awaitReady();
+        delegate.onNext(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        if (!delegate.isCancelled()) {
+            delegate.onError(t);
+        }
+    }
+
+    @Override
+    public void onCompleted() {
+        if (!delegate.isCancelled()) {
+            delegate.onCompleted();
+        }
+    }
+
+    private void awaitReady() {
+        synchronized (readyLock) {
+            while (!delegate.isReady()) {
+                throwIfCancelled();
+                try {
+                    readyLock.wait(READY_RECHECK_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw Status.CANCELLED.withDescription("Interrupted while waiting for the client").withCause(e).asRuntimeException();
+                }
+            }
+        }
+        throwIfCancelled();
+    }
+
+    private void throwIfCancelled() {
+        if (delegate.isCancelled()) {
+            throw Status.CANCELLED.withDescription("Call cancelled by the client").asRuntimeException();
+        }
+    }
+
+    private void signalReady() {
+        synchronized (readyLock) {
+            readyLock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package klaus.demo.ticket.service;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Collects messages into batches that are handed on once they hold {@code maxMessages} messages or their
+ * encoded size reaches {@code maxBytes}. The message that crosses the byte budget still goes into the batch,
+ * a batch is only ever empty when nothing was added.
+ */
+class MessageBatcher<T extends MessageLite> implements Consumer<T> {
+    private final int maxMessages;
+    private final int maxBytes;
+    private final Consumer<List<T>> batchConsumer;
+    private List<T> batch = new ArrayList<>();
+    private int batchBytes;
+
+    MessageBatcher(int maxMessages, int maxBytes, Consumer<List<T>> batchConsumer) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.batchConsumer = batchConsumer;
+    }
+
+    @Override
+    public void accept(T message) {
+        batch.add(message);
+        // the size as a repeated field of the batch message, tag and length prefix included
+        batchBytes += CodedOutputStream.computeMessageSize(1, message);
+        if (batch.size() >= maxMessages || batchBytes >= maxBytes) {
+            flush();
+        }
+    }
+
+    void flush() {
+        if (!batch.isEmpty()) {
+            List<T> fullBatch = batch;
+            batch = new ArrayList<>();
+            batchBytes = 0;
+            batchConsumer.accept(fullBatch);
+        }
+    }
+}
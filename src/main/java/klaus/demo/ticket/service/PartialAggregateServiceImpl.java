@@ -0,0 +1,212 @@
+package klaus.demo.ticket.service;
+
+import com.google.protobuf.Empty;
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import klaus.demo.*;
+import klaus.demo.ticket.cancellation.CallCancellation;
+import klaus.demo.ticket.cancellation.CancellationCounters;
+import klaus.demo.ticket.domain.CategoryBucketScore;
+import klaus.demo.ticket.domain.CategoryScoreDistribution;
+import klaus.demo.ticket.domain.Period;
+import klaus.demo.ticket.domain.ScoreTotal;
+import klaus.demo.ticket.domain.TicketScore;
+import klaus.demo.ticket.domain.TimeBucket;
+import klaus.demo.ticket.repository.TicketRepository;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Answers a coordinator with the sums and counts of this instance's ratings, see
+ * {@link klaus.demo.ticket.repository.ShardedTicketRepository} for the other side.
+ */
+@Service
+public class PartialAggregateServiceImpl extends PartialAggregateServiceGrpc.PartialAggregateServiceImplBase {
+    private static final int TICKET_PARTIALS_PER_MESSAGE = 1000;
+
+    private final TicketRepository ticketRepository;
+    private final Executor streamingExecutor;
+    private final CancellationCounters cancellationCounters;
+
+    public PartialAggregateServiceImpl(TicketRepository ticketRepository,
+                                       @Qualifier("ticketStreamingExecutor") Executor streamingExecutor,
+                                       CancellationCounters cancellationCounters) {
+        this.ticketRepository = ticketRepository;
+        this.streamingExecutor = streamingExecutor;
+        this.cancellationCounters = cancellationCounters;
+    }
+
+    @Override
+    public void getCategoryBucketPartials(BucketPartialRequest request, StreamObserver<CategoryBucketPartials> responseObserver) {
+        TimeBucket bucket;
+        try {
+            bucket = TimeBucket.valueOf(request.getGranularity().name());
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("Granularity must be DAY, WEEK or MONTH, got " + request.getGranularity())
+                    .asRuntimeException());
+            return;
+        }
+
+        CategoryBucketPartials.Builder response = CategoryBucketPartials.newBuilder();
+        try {
+            for (CategoryBucketScore bucketScore : ticketRepository.getCategoryBucketScoresBetweenDates(
+                    getDateTime(request.getRange().getPeriodFrom().getSeconds()), getDateTime(request.getRange().getPeriodTo().getSeconds()), bucket)) {
+                response.addPartials(CategoryBucketPartial.newBuilder()
+                        .setCategoryName(bucketScore.getCategoryName())
+                        .setBucketStart(bucketScore.getBucketStart())
+                        .setScoreSum(bucketScore.getScoreSum())
+                        .setRatingsCount(bucketScore.getRatingsCount())
+                        .build());
+            }
+        } catch (RuntimeException e) {
+            onFailure(responseObserver, e);
+            return;
+        }
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void getScoreTotalPartials(MultiDateRange request, StreamObserver<ScoreTotalPartials> responseObserver) {
+        List<Period> periods = new ArrayList<>();
+        for (DateRange range : request.getPeriodsList()) {
+            periods.add(new Period(getDateTime(range.getPeriodFrom().getSeconds()), getDateTime(range.getPeriodTo().getSeconds())));
+        }
+
+        ScoreTotalPartials.Builder response = ScoreTotalPartials.newBuilder();
+        try {
+            for (ScoreTotal scoreTotal : ticketRepository.getScoreTotalsOfPeriods(periods)) {
+                response.addPartials(ScoreTotalPartial.newBuilder()
+                        .setScoreSum(scoreTotal.getScoreSum())
+                        .setRatingsCount(scoreTotal.getRatingsCount())
+                        .setWeightedScoreSum(scoreTotal.getWeightedScoreSum())
+                        .setWeightSum(scoreTotal.getWeightSum())
+                        .build());
+            }
+        } catch (RuntimeException e) {
+            onFailure(responseObserver, e);
+            return;
+        }
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void getDistributionPartials(DateRange request, StreamObserver<DistributionPartials> responseObserver) {
+        DistributionPartials.Builder response = DistributionPartials.newBuilder();
+        try {
+            for (CategoryScoreDistribution distribution : ticketRepository.getCategoryScoreDistributionsBetweenDates(
+                    getDateTime(request.getPeriodFrom().getSeconds()), getDateTime(request.getPeriodTo().getSeconds()))) {
+                CategoryDistributionPartial.Builder partial = CategoryDistributionPartial.newBuilder()
+                        .setCategoryName(distribution.getCategoryName());
+                for (int score = 0; score <= CategoryScoreDistribution.MAX_SCORE; score++) {
+                    if (distribution.getCount(score) > 0) {
+                        partial.addHistogram(ScoreCountPartial.newBuilder()
+                                .setScore(score)
+                                .setCount(distribution.getCount(score))
+                                .build());
+                    }
+                }
+                response.addPartials(partial.build());
+            }
+        } catch (RuntimeException e) {
+            onFailure(responseObserver, e);
+            return;
+        }
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void streamTicketPartials(TicketPartialRequest request, StreamObserver<TicketPartials> responseObserver) {
+        if (request.getTicketLimit() < 0) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("Ticket limit must not be negative, got " + request.getTicketLimit())
+                    .asRuntimeException());
+            return;
+        }
+        if (!(responseObserver instanceof ServerCallStreamObserver)) {
+            streamTicketPartials(request, responseObserver);
+            return;
+        }
+
+        StreamObserver<TicketPartials> flowControlledObserver =
+                new FlowControlledStreamObserver<>((ServerCallStreamObserver<TicketPartials>) responseObserver);
+        try {
+            streamingExecutor.execute(Context.current().wrap(() -> streamTicketPartials(request, flowControlledObserver)));
+        } catch (RejectedExecutionException e) {
+            responseObserver.onError(Status.RESOURCE_EXHAUSTED.withDescription("Too many streaming calls in progress").asRuntimeException());
+        }
+    }
+
+    private void streamTicketPartials(TicketPartialRequest request, StreamObserver<TicketPartials> responseObserver) {
+        LocalDateTime periodFrom = getDateTime(request.getRange().getPeriodFrom().getSeconds());
+        LocalDateTime periodTo = getDateTime(request.getRange().getPeriodTo().getSeconds());
+        TicketPartials.Builder message = TicketPartials.newBuilder();
+        try {
+            if (request.getTicketLimit() == 0) {
+                ticketRepository.streamCategoryScoresOfTicketsBetweenDates(periodFrom, periodTo,
+                        ticketScore -> addTicketPartial(message, ticketScore, responseObserver));
+            } else {
+                ticketRepository.streamCategoryScoresOfTicketsPage(periodFrom, periodTo, request.getAfterTicketId(), request.getTicketLimit(),
+                        ticketScore -> addTicketPartial(message, ticketScore, responseObserver))
+                        .ifPresent(lastTicketId -> message.setPageFull(true).setLastTicketId(lastTicketId));
+            }
+            if (message.getPartialsCount() > 0 || message.getPageFull()) {
+                responseObserver.onNext(message.build());
+            }
+        } catch (RuntimeException e) {
+            onFailure(responseObserver, e);
+            return;
+        }
+        responseObserver.onCompleted();
+    }
+
+    private static void addTicketPartial(TicketPartials.Builder message, TicketScore ticketScore, StreamObserver<TicketPartials> responseObserver) {
+        message.addPartials(TicketPartial.newBuilder()
+                .setTicketId(ticketScore.getTicketId())
+                .setCategoryName(ticketScore.getCategoryName())
+                .setScoreSum(ticketScore.getScoreSum())
+                .setRatingsCount(ticketScore.getRatingsCount())
+                .setWeight(ticketScore.getWeight())
+                .build());
+        if (message.getPartialsCount() == TICKET_PARTIALS_PER_MESSAGE) {
+            responseObserver.onNext(message.build());
+            message.clear();
+        }
+    }
+
+    @Override
+    public void getRatingsWatermark(Empty request, StreamObserver<RatingsWatermark> responseObserver) {
+        long watermark;
+        try {
+            watermark = ticketRepository.getRatingsWatermark();
+        } catch (RuntimeException e) {
+            onFailure(responseObserver, e);
+            return;
+        }
+        responseObserver.onNext(RatingsWatermark.newBuilder().setWatermark(watermark).build());
+        responseObserver.onCompleted();
+    }
+
+    private void onFailure(StreamObserver<?> responseObserver, RuntimeException e) {
+        if (CallCancellation.isCancelled()) {
+            cancellationCounters.callAbandoned();
+        }
+        responseObserver.onError(Status.fromThrowable(e).asRuntimeException());
+    }
+
+    private static LocalDateTime getDateTime(long epochSecond) {
+        return LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+    }
+}
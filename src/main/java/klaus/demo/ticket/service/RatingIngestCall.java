@@ -0,0 +1,178 @@
+package klaus.demo.ticket.service;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import klaus.demo.IngestSummary;
+import klaus.demo.RatingRecord;
+import klaus.demo.ticket.domain.Rating;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One IngestRatings call. Ratings are gathered into a batch that is handed to the writer once it is full or
+ * the linger time after its first rating has passed. The next rating is only requested from the client while
+ * fewer than maxPendingBatches of its batches wait for their commit, a client sending faster than SQLite
+ * commits is held back by gRPC flow control instead of filling the heap.
+ */
+class RatingIngestCall implements StreamObserver<RatingRecord> {
+    Logger logger = LoggerFactory.getLogger(RatingIngestCall.class);
+
+    private final ServerCallStreamObserver<IngestSummary> responseObserver;
+    private final RatingIngestServiceImpl service;
+    private final ScheduledExecutorService writerExecutor;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final int maxPendingBatches;
+
+    private List<Rating> batch = new ArrayList<>();
+    private ScheduledFuture<?> lingerFlush;
+    private int pendingBatches;
+    private boolean awaitingCapacity;
+    private boolean halfClosed;
+    private boolean finished;
+    private long acceptedCount;
+    private long committedCount;
+    private long rejectedCount;
+
+    RatingIngestCall(ServerCallStreamObserver<IngestSummary> responseObserver, RatingIngestServiceImpl service,
+                     ScheduledExecutorService writerExecutor, int batchSize, long lingerMillis, int maxPendingBatches) {
+        this.responseObserver = responseObserver;
+        this.service = service;
+        this.writerExecutor = writerExecutor;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.maxPendingBatches = maxPendingBatches;
+    }
+
+    @Override
+    public synchronized void onNext(RatingRecord record) {
+        if (finished) {
+            return;
+        }
+
+        Rating rating = service.toRating(record);
+        if (rating == null) {
+            rejectedCount++;
+        } else {
+            acceptedCount++;
+            batch.add(rating);
+            if (batch.size() >= batchSize) {
+                flush();
+            } else if (batch.size() == 1) {
+                lingerFlush = writerExecutor.schedule(this::flushLingering, lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (pendingBatches < maxPendingBatches) {
+            responseObserver.request(1);
+        } else {
+            awaitingCapacity = true;
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        cancel();
+    }
+
+    /**
+     * The client went away, ratings already handed to the writer are still committed.
+     */
+    synchronized void cancel() {
+        if (finished) {
+            return;
+        }
+        logger.debug("Ingest call cancelled with " + batch.size() + " ratings not yet handed to the writer");
+        finish();
+        batch = new ArrayList<>();
+    }
+
+    @Override
+    public synchronized void onCompleted() {
+        if (finished) {
+            return;
+        }
+        halfClosed = true;
+        if (!batch.isEmpty()) {
+            flush();
+        }
+        completeIfDone();
+    }
+
+    private synchronized void flushLingering() {
+        lingerFlush = null;
+        if (!finished && !batch.isEmpty()) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (lingerFlush != null) {
+            lingerFlush.cancel(false);
+            lingerFlush = null;
+        }
+        List<Rating> fullBatch = batch;
+        batch = new ArrayList<>(batchSize);
+        pendingBatches++;
+        writerExecutor.execute(() -> write(fullBatch));
+    }
+
+    private void write(List<Rating> ratings) {
+        try {
+            service.write(ratings);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                if (!finished) {
+                    finish();
+                    responseObserver.onError(Status.fromThrowable(e)
+                            .augmentDescription("Committed " + committedCount + " of " + acceptedCount + " accepted ratings")
+                            .asRuntimeException());
+                }
+            }
+            return;
+        }
+
+        synchronized (this) {
+            committedCount += ratings.size();
+            pendingBatches--;
+            if (awaitingCapacity && !finished) {
+                awaitingCapacity = false;
+                responseObserver.request(1);
+            }
+            completeIfDone();
+        }
+    }
+
+    private void completeIfDone() {
+        if (finished || !halfClosed || pendingBatches > 0) {
+            return;
+        }
+        finish();
+        responseObserver.onNext(getSummary());
+        responseObserver.onCompleted();
+    }
+
+    private void finish() {
+        finished = true;
+        if (lingerFlush != null) {
+            lingerFlush.cancel(false);
+            lingerFlush = null;
+        }
+        service.recordSummary(getSummary());
+    }
+
+    private IngestSummary getSummary() {
+        return IngestSummary.newBuilder()
+                .setAcceptedCount(acceptedCount)
+                .setCommittedCount(committedCount)
+                .setRejectedCount(rejectedCount)
+                .build();
+    }
+}
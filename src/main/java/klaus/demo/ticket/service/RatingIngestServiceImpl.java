@@ -0,0 +1,157 @@
+package klaus.demo.ticket.service;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import klaus.demo.IngestSummary;
+import klaus.demo.RatingIngestServiceGrpc;
+import klaus.demo.RatingRecord;
+import klaus.demo.ticket.cache.ResultCache;
+import klaus.demo.ticket.domain.Rating;
+import klaus.demo.ticket.domain.RatingCategory;
+import klaus.demo.ticket.metrics.TicketMetrics;
+import klaus.demo.ticket.repository.CategoryDimension;
+import klaus.demo.ticket.repository.RatingWriter;
+import klaus.demo.ticket.repository.TicketRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ratings of all calls are written by one thread, SQLite takes one writer at a time and large transactions
+ * are far cheaper per rating than one commit each.
+ */
+@Service
+public class RatingIngestServiceImpl extends RatingIngestServiceGrpc.RatingIngestServiceImplBase implements DisposableBean {
+    Logger logger = LoggerFactory.getLogger(RatingIngestServiceImpl.class);
+
+    private final RatingWriter ratingWriter;
+    private final TicketRepository ticketRepository;
+    private final CategoryDimension categoryDimension;
+    private final ResultCache resultCache;
+    private final TicketMetrics ticketMetrics;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final int maxPendingBatches;
+    private final ScheduledExecutorService writerExecutor;
+
+    public RatingIngestServiceImpl(RatingWriter ratingWriter,
+                                   TicketRepository ticketRepository,
+                                   CategoryDimension categoryDimension,
+                                   ResultCache resultCache,
+                                   TicketMetrics ticketMetrics,
+                                   @Value("${ticket.ingest.batch-size:5000}") int batchSize,
+                                   @Value("${ticket.ingest.linger-millis:50}") long lingerMillis,
+                                   @Value("${ticket.ingest.max-pending-batches:2}") int maxPendingBatches) {
+        this.ratingWriter = ratingWriter;
+        this.ticketRepository = ticketRepository;
+        this.categoryDimension = categoryDimension;
+        this.resultCache = resultCache;
+        this.ticketMetrics = ticketMetrics;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.maxPendingBatches = maxPendingBatches;
+        this.writerExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "rating-writer"));
+    }
+
+    @Override
+    public StreamObserver<RatingRecord> ingestRatings(StreamObserver<IngestSummary> responseObserver) {
+        if (!ticketRepository.acceptsWrittenRatings()) {
+            responseObserver.onError(Status.FAILED_PRECONDITION
+                    .withDescription("Ratings are not read from the database this instance writes to, ingest them where they are stored")
+                    .asRuntimeException());
+            return new RejectedIngestCall();
+        }
+        ServerCallStreamObserver<IngestSummary> serverCallObserver = (ServerCallStreamObserver<IngestSummary>) responseObserver;
+        // ratings are requested one at a time by the call, only while its batches keep up
+        serverCallObserver.disableAutoInboundFlowControl();
+        RatingIngestCall call = new RatingIngestCall(serverCallObserver, this, writerExecutor, batchSize, lingerMillis, maxPendingBatches);
+        serverCallObserver.setOnCancelHandler(call::cancel);
+        serverCallObserver.request(1);
+        return call;
+    }
+
+    /**
+     * Null when the rating has no score or its category is unknown.
+     */
+    Rating toRating(RatingRecord record) {
+        if (!RatingCategory.isOnScale(record.getRating()) || categoryDimension.get(record.getRatingCategoryId()) == null) {
+            return null;
+        }
+        Rating rating = new Rating();
+        rating.setTicketId(record.getTicketId());
+        rating.setCategoryId(record.getRatingCategoryId());
+        rating.setRating(record.getRating());
+        rating.setCreatedAt(record.hasCreatedAt()
+                ? LocalDateTime.ofEpochSecond(record.getCreatedAt().getSeconds(), 0, ZoneOffset.UTC)
+                : LocalDateTime.now(ZoneOffset.UTC).withNano(0));
+        rating.setReviewerId(record.getReviewerId() == 0 ? null : record.getReviewerId());
+        rating.setRevieweeId(record.getRevieweeId() == 0 ? null : record.getRevieweeId());
+        return rating;
+    }
+
+    /**
+     * Runs on the writer thread. Cached results of closed ranges are only dropped when the batch reaches into one,
+     * open ranges follow the watermark.
+     */
+    void write(List<Rating> ratings) {
+        long started = System.nanoTime();
+        long lastRowId = ratingWriter.insert(ratings);
+        ticketMetrics.recordIngestBatch(ratings.size(), System.nanoTime() - started);
+
+        ticketRepository.addWrittenRatings(ratings, lastRowId);
+        long oldestCreatedAt = ratings.stream()
+                .mapToLong(rating -> rating.getCreatedAt().toEpochSecond(ZoneOffset.UTC))
+                .min()
+                .orElse(Long.MAX_VALUE);
+        if (resultCache.isClosed(oldestCreatedAt)) {
+            resultCache.invalidateAll();
+        } else {
+            resultCache.advanceWatermark(ticketRepository.getRatingsWatermark());
+        }
+    }
+
+    void recordSummary(IngestSummary summary) {
+        ticketMetrics.recordIngestedRatings(TicketMetrics.ACCEPTED, summary.getAcceptedCount());
+        ticketMetrics.recordIngestedRatings(TicketMetrics.COMMITTED, summary.getCommittedCount());
+        ticketMetrics.recordIngestedRatings(TicketMetrics.REJECTED, summary.getRejectedCount());
+    }
+
+    /**
+     * The gRPC server has drained its calls by now, batches still queued are written before the context closes.
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        writerExecutor.shutdown();
+        if (!writerExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+            logger.warn("Rating writer did not finish its batches in 30 s");
+            writerExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Ignores whatever the client still sends on a call that was already refused.
+     */
+    private static class RejectedIngestCall implements StreamObserver<RatingRecord> {
+        @Override
+        public void onNext(RatingRecord record) {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package klaus.demo.ticket.service;
+
+import com.google.protobuf.MessageLite;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Limits of the messages sent by the batched RPCs. Every message costs framing and a flush on its own,
+ * batches keep that per thousands of results instead of per result, while the byte budget keeps a message
+ * well below what clients accept by default.
+ */
+@Component
+public class ResponseBatching {
+    private final int maxMessages;
+    private final int maxBytes;
+
+    public ResponseBatching(@Value("${ticket.streaming.batch-max-messages:1000}") int maxMessages,
+                            @Value("${ticket.streaming.batch-max-bytes:262144}") int maxBytes) {
+        if (maxMessages < 1 || maxBytes < 1) {
+            throw new IllegalStateException("Batches need room for at least one message, got " + maxMessages + " messages and " + maxBytes + " bytes");
+        }
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+    }
+
+    <T extends MessageLite> MessageBatcher<T> newBatcher(Consumer<List<T>> batchConsumer) {
+        return new MessageBatcher<>(maxMessages, maxBytes, batchConsumer);
+    }
+}
@@ -0,0 +1,74 @@
+package klaus.demo.ticket.service;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import klaus.demo.CategoryScore;
+import klaus.demo.ScoreUpdate;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * One SubscribeScores call. Remembers what the client was last sent, so an update only carries the scores
+ * that changed since. A client that is not ready is skipped, the changes of the passes it missed go out
+ * together in one update once it is.
+ */
+class ScoreSubscription {
+    private final long windowSeconds;
+    private final ServerCallStreamObserver<ScoreUpdate> responseObserver;
+
+    private final Map<String, CategoryScore> sentCategoryScores = new HashMap<>();
+    private Integer sentOverallScore;
+    private boolean closed;
+
+    ScoreSubscription(long windowSeconds, ServerCallStreamObserver<ScoreUpdate> responseObserver) {
+        this.windowSeconds = windowSeconds;
+        this.responseObserver = responseObserver;
+    }
+
+    long getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    synchronized void publish(WindowScores scores) {
+        if (closed || !responseObserver.isReady()) {
+            return;
+        }
+
+        ScoreUpdate.Builder update = ScoreUpdate.newBuilder().setRange(scores.getRange());
+        if (sentOverallScore == null || sentOverallScore != scores.getOverallScore()) {
+            update.setOverallScoreChanged(true).setOverallScore(scores.getOverallScore());
+        }
+        for (CategoryScore categoryScore : scores.getCategoryScores().values()) {
+            if (!categoryScore.equals(sentCategoryScores.get(categoryScore.getCategoryName()))) {
+                update.addChangedCategories(categoryScore);
+            }
+        }
+        Iterator<String> sentCategoryNames = sentCategoryScores.keySet().iterator();
+        while (sentCategoryNames.hasNext()) {
+            String categoryName = sentCategoryNames.next();
+            if (!scores.getCategoryScores().containsKey(categoryName)) {
+                update.addChangedCategories(CategoryScore.newBuilder().setCategoryName(categoryName));
+                sentCategoryNames.remove();
+            }
+        }
+        if (sentOverallScore != null && !update.getOverallScoreChanged() && update.getChangedCategoriesCount() == 0) {
+            return;
+        }
+
+        responseObserver.onNext(update.build());
+        sentOverallScore = scores.getOverallScore();
+        sentCategoryScores.putAll(scores.getCategoryScores());
+    }
+
+    synchronized void complete() {
+        if (!closed) {
+            closed = true;
+            responseObserver.onCompleted();
+        }
+    }
+
+    synchronized void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,155 @@
+package klaus.demo.ticket.service;
+
+import com.google.protobuf.Timestamp;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import klaus.demo.CategoryScore;
+import klaus.demo.DateRange;
+import klaus.demo.ScoreSubscriptionRequest;
+import klaus.demo.ScoreSubscriptionServiceGrpc;
+import klaus.demo.ScoreUpdate;
+import klaus.demo.ticket.domain.CategoryScoreDistribution;
+import klaus.demo.ticket.metrics.TicketMetrics;
+import klaus.demo.ticket.repository.TicketRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.stream.Collectors.groupingBy;
+import static klaus.demo.ticket.metrics.TicketMetrics.QUERY;
+
+/**
+ * One detection pass per interval serves every subscription: the ratings watermark is read once and the scores
+ * of each distinct window are only computed again when it moved, or when the window slid on for long enough
+ * that ratings may have dropped out of it. Changes between passes are coalesced into one update.
+ */
+@Service
+public class ScoreSubscriptionServiceImpl extends ScoreSubscriptionServiceGrpc.ScoreSubscriptionServiceImplBase {
+    Logger logger = LoggerFactory.getLogger(ScoreSubscriptionServiceImpl.class);
+
+    private static final long MAX_WINDOW_SECONDS = Duration.ofDays(366).getSeconds();
+    private static final String SUBSCRIBE_SCORES = "SubscribeScores";
+
+    private final TicketRepository ticketRepository;
+    private final TicketMetrics ticketMetrics;
+    private final long maxStalenessSeconds;
+    private final int maxSubscriptions;
+
+    private final Set<ScoreSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+    // only touched by the detection pass
+    private final Map<Long, WindowScores> windowScores = new HashMap<>();
+
+    public ScoreSubscriptionServiceImpl(TicketRepository ticketRepository,
+                                        TicketMetrics ticketMetrics,
+                                        @Value("${ticket.subscriptions.max-staleness-seconds:60}") long maxStalenessSeconds,
+                                        @Value("${ticket.subscriptions.max-subscriptions:1000}") int maxSubscriptions) {
+        this.ticketRepository = ticketRepository;
+        this.ticketMetrics = ticketMetrics;
+        this.maxStalenessSeconds = maxStalenessSeconds;
+        this.maxSubscriptions = maxSubscriptions;
+    }
+
+    /**
+     * The first update goes out with the next detection pass, the call itself does not query anything.
+     */
+    @Override
+    public void subscribeScores(ScoreSubscriptionRequest request, StreamObserver<ScoreUpdate> responseObserver) {
+        if (request.getWindowSeconds() <= 0 || request.getWindowSeconds() > MAX_WINDOW_SECONDS) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("Window must be between 1 and " + MAX_WINDOW_SECONDS + " seconds, got " + request.getWindowSeconds())
+                    .asRuntimeException());
+            return;
+        }
+        if (subscriptions.size() >= maxSubscriptions) {
+            responseObserver.onError(Status.RESOURCE_EXHAUSTED.withDescription("Too many score subscriptions").asRuntimeException());
+            return;
+        }
+
+        ServerCallStreamObserver<ScoreUpdate> serverCallObserver = (ServerCallStreamObserver<ScoreUpdate>) responseObserver;
+        ScoreSubscription subscription = new ScoreSubscription(request.getWindowSeconds(), serverCallObserver);
+        serverCallObserver.setOnCancelHandler(() -> {
+            subscription.close();
+            subscriptions.remove(subscription);
+        });
+        subscriptions.add(subscription);
+    }
+
+    @Scheduled(fixedDelayString = "${ticket.subscriptions.interval-millis:1000}")
+    public void publishScores() {
+        if (subscriptions.isEmpty()) {
+            windowScores.clear();
+            return;
+        }
+
+        long watermark = ticketRepository.getRatingsWatermark();
+        long now = Instant.now().getEpochSecond();
+        Map<Long, List<ScoreSubscription>> subscriptionsByWindow = subscriptions.stream()
+                .collect(groupingBy(ScoreSubscription::getWindowSeconds));
+        windowScores.keySet().retainAll(subscriptionsByWindow.keySet());
+
+        subscriptionsByWindow.forEach((windowSeconds, windowSubscriptions) -> {
+            WindowScores scores = windowScores.get(windowSeconds);
+            if (scores == null || scores.getWatermark() != watermark
+                    || now - scores.getRange().getPeriodTo().getSeconds() >= maxStalenessSeconds) {
+                try {
+                    scores = getWindowScores(windowSeconds, now, watermark);
+                } catch (RuntimeException e) {
+                    logger.warn("Could not compute scores of the last " + windowSeconds + " s, retrying with the next pass", e);
+                    return;
+                }
+                windowScores.put(windowSeconds, scores);
+            }
+            for (ScoreSubscription subscription : windowSubscriptions) {
+                subscription.publish(scores);
+            }
+        });
+    }
+
+    /**
+     * Subscriptions do not end on their own, the server completes them so that its shutdown does not wait for them.
+     */
+    public void completeSubscriptions() {
+        for (ScoreSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+        subscriptions.clear();
+    }
+
+    private WindowScores getWindowScores(long windowSeconds, long now, long watermark) {
+        LocalDateTime periodFrom = LocalDateTime.ofEpochSecond(now - windowSeconds, 0, ZoneOffset.UTC);
+        LocalDateTime periodTo = LocalDateTime.ofEpochSecond(now, 0, ZoneOffset.UTC);
+
+        int overallScore = ticketMetrics.recordPhase(SUBSCRIBE_SCORES, QUERY,
+                () -> ticketRepository.getScoreTotalBetweenDates(periodFrom, periodTo)).getAverageScore();
+        List<CategoryScoreDistribution> distributions = ticketMetrics.recordPhase(SUBSCRIBE_SCORES, QUERY,
+                () -> ticketRepository.getCategoryScoreDistributionsBetweenDates(periodFrom, periodTo));
+        Map<String, CategoryScore> categoryScores = new TreeMap<>();
+        for (CategoryScoreDistribution distribution : distributions) {
+            categoryScores.put(distribution.getCategoryName(), CategoryScore.newBuilder()
+                    .setCategoryName(distribution.getCategoryName())
+                    .setRatingsCount((int) distribution.getRatingsCount())
+                    .setScore(distribution.getAverageScore())
+                    .build());
+        }
+
+        DateRange range = DateRange.newBuilder()
+                .setPeriodFrom(Timestamp.newBuilder().setSeconds(now - windowSeconds))
+                .setPeriodTo(Timestamp.newBuilder().setSeconds(now))
+                .build();
+        return new WindowScores(range, watermark, overallScore, categoryScores);
+    }
+}
@@ -0,0 +1,48 @@
+package klaus.demo.ticket.service;
+
+import klaus.demo.DateRange;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque resume position of GetScoresByTicketsPage: the last ticket id sent and the range it was sent for,
+ * so a token can't be used to continue a different range.
+ */
+final class TicketPageToken {
+
+    private TicketPageToken() {
+    }
+
+    static String encode(long lastTicketId, DateRange range) {
+        String token = lastTicketId + ":" + range.getPeriodFrom().getSeconds() + ":" + range.getPeriodTo().getSeconds();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The ticket id to continue after, {@link Long#MIN_VALUE} for an empty token.
+     */
+    static long decode(String pageToken, DateRange range) {
+        if (pageToken.isEmpty()) {
+            return Long.MIN_VALUE;
+        }
+
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(pageToken), StandardCharsets.UTF_8).split(":");
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed page token");
+        }
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Malformed page token");
+        }
+        try {
+            if (Long.parseLong(parts[1]) != range.getPeriodFrom().getSeconds() || Long.parseLong(parts[2]) != range.getPeriodTo().getSeconds()) {
+                throw new IllegalArgumentException("Page token belongs to a different range");
+            }
+            return Long.parseLong(parts[0]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed page token");
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package klaus.demo.ticket.service;
+
+import klaus.demo.RankOrder;
+import klaus.demo.RankedTicket;
+import klaus.demo.ticket.domain.ScoreTotal;
+import klaus.demo.ticket.domain.TicketScore;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Folds (ticket, category) rows ordered by ticket id into one score per ticket and keeps only the
+ * {@code limit} best or worst tickets in a bounded heap, whose head is the kept ticket that goes first.
+ * The score over all categories is weighted by category like the overall quality score.
+ */
+class TicketRanker implements Consumer<TicketScore> {
+    private final int limit;
+    private final String categoryName;
+    private final Comparator<RankedTicket> rankOrder;
+    private final PriorityQueue<RankedTicket> heap;
+    private long currentTicketId;
+    private ScoreTotal currentScore = new ScoreTotal();
+
+    /**
+     * @param categoryName ranks by the score of this category only, all categories count when empty
+     */
+    TicketRanker(int limit, RankOrder order, String categoryName) {
+        this.limit = limit;
+        this.categoryName = categoryName;
+        Comparator<RankedTicket> byScore = Comparator.comparingInt(RankedTicket::getScore);
+        this.rankOrder = (order == RankOrder.TOP ? byScore.reversed() : byScore).thenComparingLong(RankedTicket::getTicketId);
+        this.heap = new PriorityQueue<>(limit + 1, rankOrder.reversed());
+    }
+
+    @Override
+    public void accept(TicketScore ticketScore) {
+        if (!categoryName.isEmpty() && !categoryName.equals(ticketScore.getCategoryName())) {
+            return;
+        }
+        if (currentScore.getRatingsCount() > 0 && currentTicketId != ticketScore.getTicketId()) {
+            flush();
+        }
+        currentTicketId = ticketScore.getTicketId();
+        currentScore.add(ticketScore.getScoreSum(), ticketScore.getRatingsCount(), ticketScore.getWeight());
+    }
+
+    List<RankedTicket> getRankedTickets() {
+        flush();
+        List<RankedTicket> rankedTickets = new ArrayList<>(heap);
+        rankedTickets.sort(rankOrder);
+        return rankedTickets;
+    }
+
+    private void flush() {
+        if (currentScore.getRatingsCount() == 0) {
+            return;
+        }
+        heap.add(RankedTicket.newBuilder()
+                .setTicketId(currentTicketId)
+                .setScore(currentScore.getAverageScore())
+                .setRatingsCount((int) currentScore.getRatingsCount())
+                .build());
+        if (heap.size() > limit) {
+            heap.poll();
+        }
+        currentScore = new ScoreTotal();
+    }
+}
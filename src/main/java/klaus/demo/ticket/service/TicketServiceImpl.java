@@ -1,136 +1,412 @@
 package klaus.demo.ticket.service;
 
 import com.google.protobuf.Timestamp;
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import klaus.demo.*;
-import klaus.demo.ticket.domain.CategoryScore;
+import klaus.demo.ticket.cache.ResultCache;
+import klaus.demo.ticket.cancellation.CallCancellation;
+import klaus.demo.ticket.cancellation.CancellationCounters;
+import klaus.demo.ticket.domain.CategoryBucketScore;
+import klaus.demo.ticket.domain.CategoryScoreDistribution;
+import klaus.demo.ticket.domain.Period;
+import klaus.demo.ticket.domain.ScoreTotal;
 import klaus.demo.ticket.domain.TicketScore;
+import klaus.demo.ticket.domain.TimeBucket;
+import klaus.demo.ticket.metrics.TicketMetrics;
 import klaus.demo.ticket.repository.TicketRepository;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
-import java.time.DayOfWeek;
-import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
-import java.time.temporal.WeekFields;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.OptionalLong;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
 import static java.time.temporal.ChronoUnit.MONTHS;
 import static java.util.stream.Collectors.groupingBy;
+import static klaus.demo.ticket.metrics.TicketMetrics.AGGREGATION;
+import static klaus.demo.ticket.metrics.TicketMetrics.QUERY;
 
 @Service
 public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
-    public TicketServiceImpl(TicketRepository ticketRepository) {
+    private static final int MAX_TREND_PERIODS = 100;
+    private static final int DEFAULT_TICKET_PAGE_SIZE = 100;
+    private static final int MAX_TICKET_PAGE_SIZE = 1000;
+    private static final int DEFAULT_RANK_LIMIT = 50;
+    private static final int MAX_RANK_LIMIT = 1000;
+    private static final List<Double> DEFAULT_PERCENTILES = List.of(10.0, 50.0, 90.0);
+    private static final int MAX_PERCENTILES = 100;
+    private static final int MAX_SERIES_BUCKETS = 10000;
+    private static final int NO_SCORE = -1;
+
+    private static final String SCORES_BY_TICKETS = "GetScoresByTickets";
+    private static final String SCORES_BY_TICKETS_BATCHED = "GetScoresByTicketsBatched";
+    private static final String SCORES_BY_TICKETS_PAGE = "GetScoresByTicketsPage";
+    private static final String RANKED_TICKETS = "GetRankedTickets";
+    private static final String AGGREGATED_CATEGORIES = "GetAggregatedCategories";
+    private static final String AGGREGATED_CATEGORIES_BATCHED = "GetAggregatedCategoriesBatched";
+    private static final String AGGREGATED_CATEGORY_SERIES = "GetAggregatedCategorySeries";
+    private static final String OVERALL_QUALITY_SCORE = "GetOverallQualityScore";
+    private static final String PERIOD_OVER_PERIOD_SCORE_CHANGE = "GetPeriodOverPeriodScoreChange";
+    private static final String PERIOD_SCORE_TREND = "GetPeriodScoreTrend";
+    private static final String SCORE_DISTRIBUTION = "GetScoreDistribution";
+
+    public TicketServiceImpl(TicketRepository ticketRepository,
+                             @Qualifier("ticketStreamingExecutor") Executor streamingExecutor,
+                             ResultCache resultCache,
+                             CancellationCounters cancellationCounters,
+                             TicketMetrics ticketMetrics,
+                             ResponseBatching responseBatching) {
         this.ticketRepository = ticketRepository;
+        this.streamingExecutor = streamingExecutor;
+        this.resultCache = resultCache;
+        this.cancellationCounters = cancellationCounters;
+        this.ticketMetrics = ticketMetrics;
+        this.responseBatching = responseBatching;
     }
 
     private final TicketRepository ticketRepository;
+    private final Executor streamingExecutor;
+    private final ResultCache resultCache;
+    private final CancellationCounters cancellationCounters;
+    private final TicketMetrics ticketMetrics;
+    private final ResponseBatching responseBatching;
 
     @Override
     public void getScoresByTickets(DateRange request, StreamObserver<TicketValuesResponse> responseObserver) {
+        streamOnExecutor(responseObserver, observer -> streamScoresByTickets(SCORES_BY_TICKETS, request, observer, observer::onNext, () -> {
+        }));
+    }
+
+    @Override
+    public void getScoresByTicketsBatched(DateRange request, StreamObserver<TicketValuesBatch> responseObserver) {
+        streamOnExecutor(responseObserver, observer -> {
+            MessageBatcher<TicketValuesResponse> batcher = responseBatching.newBatcher(
+                    tickets -> observer.onNext(TicketValuesBatch.newBuilder().addAllTickets(tickets).build()));
+            streamScoresByTickets(SCORES_BY_TICKETS_BATCHED, request, observer, batcher, batcher::flush);
+        });
+    }
+
+    /**
+     * Runs the stream on the streaming executor, where it can block while the client is not ready for more
+     * without holding up one of the gRPC executor threads.
+     */
+    private <T> void streamOnExecutor(StreamObserver<T> responseObserver, Consumer<StreamObserver<T>> stream) {
+        if (!(responseObserver instanceof ServerCallStreamObserver)) {
+            stream.accept(responseObserver);
+            return;
+        }
+
+        StreamObserver<T> flowControlledObserver = new FlowControlledStreamObserver<>((ServerCallStreamObserver<T>) responseObserver);
+        try {
+            // the call's context carries its cancellation and deadline over to the streaming thread
+            streamingExecutor.execute(Context.current().wrap(() -> stream.accept(flowControlledObserver)));
+        } catch (RejectedExecutionException e) {
+            responseObserver.onError(Status.RESOURCE_EXHAUSTED.withDescription("Too many streaming calls in progress").asRuntimeException());
+        }
+    }
+
+    private void streamScoresByTickets(String rpc, DateRange request, StreamObserver<?> responseObserver,
+                                       Consumer<TicketValuesResponse> ticketConsumer, Runnable onLastTicket) {
         LocalDateTime periodFrom = LocalDateTime.ofEpochSecond(request.getPeriodFrom().getSeconds(), 0, ZoneOffset.UTC);
         LocalDateTime periodTo = LocalDateTime.ofEpochSecond(request.getPeriodTo().getSeconds(), 0, ZoneOffset.UTC);
+        try {
+            TicketValuesAssembler assembler = new TicketValuesAssembler(ticketConsumer);
+            streamTicketScores(rpc, assembler,
+                    consumer -> ticketRepository.streamCategoryScoresOfTicketsBetweenDates(periodFrom, periodTo, consumer));
+            assembler.flush();
+            onLastTicket.run();
+        } catch (RuntimeException e) {
+            onFailure(responseObserver, e);
+            return;
+        }
 
-        ticketRepository.getCategoryScoresOfTicketsBetweenDates(periodFrom, periodTo).stream()
-                .collect(groupingBy(TicketScore::getTicketId, groupingBy(TicketScore::getCategoryName)))
-                .forEach((ticketId, categoriesScores) -> {
-                    Set<CategoryScoreValue> categoryScoreValues = new HashSet<>();
-                    categoriesScores.forEach((categoryName, ticketScores) -> {
-                        CategoryScoreValue categoryScoreValue = CategoryScoreValue.newBuilder()
-                                .setCategoryName(categoryName)
-                                .setScore(ticketScores.stream().mapToInt(TicketScore::getScore).sum() / ticketScores.size())
-                                .build();
-                        categoryScoreValues.add(categoryScoreValue);
-                    });
-                    TicketValuesResponse response = TicketValuesResponse.newBuilder()
-                            .setTicketId(ticketId)
-                            .addAllCategoryScores(categoryScoreValues)
-                            .build();
-                    responseObserver.onNext(response);
+        responseObserver.onCompleted();
+    }
 
-                });
+    @Override
+    public void getScoresByTicketsPage(TicketPageRequest request, StreamObserver<TicketPageResponse> responseObserver) {
+        int pageSize = request.getPageSize() == 0 ? DEFAULT_TICKET_PAGE_SIZE : request.getPageSize();
+        if (pageSize < 0 || pageSize > MAX_TICKET_PAGE_SIZE) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("Page size must be between 1 and " + MAX_TICKET_PAGE_SIZE + ", got " + pageSize)
+                    .asRuntimeException());
+            return;
+        }
+        long afterTicketId;
+        try {
+            afterTicketId = TicketPageToken.decode(request.getPageToken(), request.getRange());
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+            return;
+        }
+
+        LocalDateTime periodFrom = LocalDateTime.ofEpochSecond(request.getRange().getPeriodFrom().getSeconds(), 0, ZoneOffset.UTC);
+        LocalDateTime periodTo = LocalDateTime.ofEpochSecond(request.getRange().getPeriodTo().getSeconds(), 0, ZoneOffset.UTC);
+        TicketPageResponse.Builder response = TicketPageResponse.newBuilder();
+        // tickets without a scored rating are not sent but still count towards the page, see TicketRepository
+        OptionalLong[] lastTicketId = new OptionalLong[1];
+        try {
+            TicketValuesAssembler assembler = new TicketValuesAssembler(response::addTickets);
+            streamTicketScores(SCORES_BY_TICKETS_PAGE, assembler, consumer -> lastTicketId[0] =
+                    ticketRepository.streamCategoryScoresOfTicketsPage(periodFrom, periodTo, afterTicketId, pageSize, consumer));
+            assembler.flush();
+        } catch (RuntimeException e) {
+            onFailure(responseObserver, e);
+            return;
+        }
 
+        lastTicketId[0].ifPresent(ticketId -> response.setNextPageToken(TicketPageToken.encode(ticketId, request.getRange())));
+        responseObserver.onNext(response.build());
         responseObserver.onCompleted();
     }
 
+    @Override
+    public void getRankedTickets(TicketRankRequest request, StreamObserver<TicketRankResponse> responseObserver) {
+        int limit = request.getLimit() == 0 ? DEFAULT_RANK_LIMIT : request.getLimit();
+        if (limit < 0 || limit > MAX_RANK_LIMIT) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("Limit must be between 1 and " + MAX_RANK_LIMIT + ", got " + limit)
+                    .asRuntimeException());
+            return;
+        }
+
+        LocalDateTime periodFrom = LocalDateTime.ofEpochSecond(request.getRange().getPeriodFrom().getSeconds(), 0, ZoneOffset.UTC);
+        LocalDateTime periodTo = LocalDateTime.ofEpochSecond(request.getRange().getPeriodTo().getSeconds(), 0, ZoneOffset.UTC);
+        String cacheKey = "GetRankedTickets/" + request.getRange().getPeriodFrom().getSeconds() + "/" + request.getRange().getPeriodTo().getSeconds()
+                + "/" + limit + "/" + request.getOrder() + "/" + request.getCategoryName();
+        TicketRankResponse response;
+        try {
+            response = resultCache.get(cacheKey, resultCache.isClosed(request.getRange().getPeriodTo().getSeconds()), () -> {
+                TicketRanker ranker = new TicketRanker(limit, request.getOrder(), request.getCategoryName());
+                streamTicketScores(RANKED_TICKETS, ranker,
+                        consumer -> ticketRepository.streamCategoryScoresOfTicketsBetweenDates(periodFrom, periodTo, consumer));
+                return ticketMetrics.recordPhase(RANKED_TICKETS, AGGREGATION, () -> TicketRankResponse.newBuilder()
+                        .addAllTickets(ranker.getRankedTickets())
+                        .build());
+            });
+        } catch (RuntimeException e) {
+            onFailure(responseObserver, e);
+            return;
+        }
+        responseObserver.onNext(response);
+        responseObserver.onCompleted();
+    }
+
+    /**
+     * Rows are handed to the consumer while the query is still running, so for streamed results
+     * the query phase also covers the work the consumer does per row.
+     */
+    private void streamTicketScores(String rpc, Consumer<TicketScore> ticketScoreConsumer, Consumer<Consumer<TicketScore>> query) {
+        long[] rows = new long[1];
+        ticketMetrics.recordPhase(rpc, QUERY, () -> query.accept(ticketScore -> {
+            rows[0]++;
+            ticketScoreConsumer.accept(ticketScore);
+        }));
+        ticketMetrics.recordRows(rpc, rows[0]);
+    }
+
+    /**
+     * Failures of a call that has already been cancelled are most likely the cancellation itself
+     * interrupting the query or the stream, those are counted as abandoned work.
+     */
+    private void onFailure(StreamObserver<?> responseObserver, RuntimeException e) {
+        if (CallCancellation.isCancelled()) {
+            cancellationCounters.callAbandoned();
+        }
+        responseObserver.onError(Status.fromThrowable(e).asRuntimeException());
+    }
+
     @Override
     public void getAggregatedCategories(DateRange request, StreamObserver<CategoryResultResponse> responseObserver) {
+        List<CategoryResultResponse> responses;
+        try {
+            responses = getCategoryResultResponses(AGGREGATED_CATEGORIES, request);
+        } catch (RuntimeException e) {
+            onFailure(responseObserver, e);
+            return;
+        }
+        responses.forEach(responseObserver::onNext);
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void getAggregatedCategoriesBatched(DateRange request, StreamObserver<CategoryResultBatch> responseObserver) {
+        List<CategoryResultResponse> responses;
+        try {
+            responses = getCategoryResultResponses(AGGREGATED_CATEGORIES_BATCHED, request);
+        } catch (RuntimeException e) {
+            onFailure(responseObserver, e);
+            return;
+        }
+        MessageBatcher<CategoryResultResponse> batcher = responseBatching.newBatcher(
+                categories -> responseObserver.onNext(CategoryResultBatch.newBuilder().addAllCategories(categories).build()));
+        responses.forEach(batcher);
+        batcher.flush();
+        responseObserver.onCompleted();
+    }
+
+    /**
+     * Both the batched and the single category RPC are answered from the same cache entries.
+     */
+    private List<CategoryResultResponse> getCategoryResultResponses(String rpc, DateRange request) {
         LocalDateTime periodFrom = LocalDateTime.ofEpochSecond(request.getPeriodFrom().getSeconds(), 0, ZoneOffset.UTC);
         LocalDateTime periodTo = LocalDateTime.ofEpochSecond(request.getPeriodTo().getSeconds(), 0, ZoneOffset.UTC);
-        boolean isGreaterThanOneMonth = periodFrom.plus(1, MONTHS).isBefore(periodTo);
-
-        if (isGreaterThanOneMonth) {
-            WeekFields weekFields = WeekFields.of(LocalDate.MAX.getDayOfWeek(), 7);
-            List<CategoryScore> categoryScoreBetweenDates = ticketRepository.getCategoryScoresBetweenDates(periodFrom, periodTo);
-            categoryScoreBetweenDates.stream()
-                    .collect(groupingBy(CategoryScore::getCategoryName, groupingBy(categoryScore -> categoryScore.getParsedDate().toLocalDate().atStartOfDay().with(DayOfWeek.MONDAY).get(weekFields.weekOfYear()))))
-                    .forEach((categoryName, weekdayListMap) -> {
-                        Set<DateScore> dateScores = new HashSet<>();
-                        Set<CategoryScore> categoryScores = new HashSet<>();
-                        weekdayListMap.forEach((weekOfDay, scores) -> {
-                            Timestamp timestamp = Timestamp.newBuilder()
-                                    .setSeconds(scores.get(0).getParsedDate().toLocalDate().atStartOfDay().with(DayOfWeek.MONDAY).toEpochSecond(ZoneOffset.UTC))
-                                    .build();
-                            DateScore dateScore = DateScore.newBuilder()
-                                    .setDate(timestamp)
-                                    .setScore(scores.stream().mapToInt(CategoryScore::getScore).sum() / scores.size())
-                                    .build();
-                            categoryScores.addAll(scores);
-                            dateScores.add(dateScore);
-                        });
-                        CategoryResultResponse response = CategoryResultResponse.newBuilder()
-                                .setCategoryName(categoryName)
-                                .setRatingsCount(categoryScores.size())
-                                .addAllDateScores(dateScores)
-                                .setTotalScore(dateScores.stream().mapToInt(DateScore::getScore).sum() / dateScores.size())
+        TimeBucket bucket = getTimeBucket(request.getGranularity(), periodFrom, periodTo);
+
+        String cacheKey = "GetAggregatedCategories/" + request.getPeriodFrom().getSeconds() + "/" + request.getPeriodTo().getSeconds() + "/" + bucket;
+        return resultCache.get(cacheKey, resultCache.isClosed(request.getPeriodTo().getSeconds()),
+                () -> getCategoryResultResponses(rpc, periodFrom, periodTo, bucket));
+    }
+
+    private List<CategoryResultResponse> getCategoryResultResponses(String rpc, LocalDateTime periodFrom, LocalDateTime periodTo, TimeBucket bucket) {
+        List<CategoryBucketScore> categoryBucketScores = ticketMetrics.recordPhase(rpc, QUERY,
+                () -> ticketRepository.getCategoryBucketScoresBetweenDates(periodFrom, periodTo, bucket));
+        ticketMetrics.recordRows(rpc, categoryBucketScores.size());
+        return ticketMetrics.recordPhase(rpc, AGGREGATION, () -> getCategoryResultResponses(categoryBucketScores));
+    }
+
+    private static List<CategoryResultResponse> getCategoryResultResponses(List<CategoryBucketScore> categoryBucketScores) {
+        List<CategoryResultResponse> responses = new ArrayList<>();
+        categoryBucketScores.stream()
+                .collect(groupingBy(CategoryBucketScore::getCategoryName))
+                .forEach((categoryName, bucketScores) -> {
+                    List<DateScore> dateScores = new ArrayList<>();
+                    long ratingsCount = 0;
+                    for (CategoryBucketScore bucketScore : bucketScores) {
+                        Timestamp timestamp = Timestamp.newBuilder()
+                                .setSeconds(bucketScore.getBucketStart())
                                 .build();
-                        responseObserver.onNext(response);
-                    });
-        } else {
-            List<CategoryScore> categoryScoreBetweenDates = ticketRepository.getCategoryScoresBetweenDates(periodFrom, periodTo);
-            categoryScoreBetweenDates.stream()
-                    .collect(groupingBy(CategoryScore::getCategoryName, groupingBy(categoryScore -> categoryScore.getParsedDate().toLocalDate())))
-                    .forEach((categoryName, dateScoresMap) -> {
-                        Set<DateScore> dateScores = new HashSet<>();
-                        Set<CategoryScore> categoryScores = new HashSet<>();
-                        dateScoresMap.forEach((localDate, scores) -> {
-                            Timestamp timestamp = Timestamp.newBuilder()
-                                    .setSeconds(localDate.atStartOfDay().toEpochSecond(ZoneOffset.UTC))
-                                    .build();
-                            DateScore dateScore = DateScore.newBuilder()
-                                    .setDate(timestamp)
-                                    .setScore(scores.stream().mapToInt(CategoryScore::getScore).sum()/scores.size())
-                                    .build();
-                            categoryScores.addAll(scores);
-                            dateScores.add(dateScore);
-                        });
-                        CategoryResultResponse response = CategoryResultResponse.newBuilder()
-                                .setCategoryName(categoryName)
-                                .setRatingsCount(categoryScores.size())
-                                .addAllDateScores(dateScores)
-                                .setTotalScore(dateScores.stream().mapToInt(DateScore::getScore).sum() / dateScores.size())
+                        DateScore dateScore = DateScore.newBuilder()
+                                .setDate(timestamp)
+                                .setScore(bucketScore.getAverageScore())
                                 .build();
-                        responseObserver.onNext(response);
-                    });
+                        ratingsCount += bucketScore.getRatingsCount();
+                        dateScores.add(dateScore);
+                    }
+                    CategoryResultResponse response = CategoryResultResponse.newBuilder()
+                            .setCategoryName(categoryName)
+                            .setRatingsCount((int) ratingsCount)
+                            .addAllDateScores(dateScores)
+                            .setTotalScore(dateScores.stream().mapToInt(DateScore::getScore).sum() / dateScores.size())
+                            .build();
+                    responses.add(response);
+                });
+        return responses;
+    }
+
+    @Override
+    public void getAggregatedCategorySeries(DateRange request, StreamObserver<CategorySeriesResponse> responseObserver) {
+        LocalDateTime periodFrom = LocalDateTime.ofEpochSecond(request.getPeriodFrom().getSeconds(), 0, ZoneOffset.UTC);
+        LocalDateTime periodTo = LocalDateTime.ofEpochSecond(request.getPeriodTo().getSeconds(), 0, ZoneOffset.UTC);
+        TimeBucket bucket = getTimeBucket(request.getGranularity(), periodFrom, periodTo);
+        long firstBucket = bucket.getBucketNumber(request.getPeriodFrom().getSeconds());
+        long bucketCount = Math.max(0, bucket.getBucketNumber(request.getPeriodTo().getSeconds()) - firstBucket + 1);
+        if (bucketCount > MAX_SERIES_BUCKETS) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("At most " + MAX_SERIES_BUCKETS + " " + bucket + " buckets fit in a series, got " + bucketCount)
+                    .asRuntimeException());
+            return;
         }
 
+        String cacheKey = AGGREGATED_CATEGORY_SERIES + "/" + request.getPeriodFrom().getSeconds() + "/" + request.getPeriodTo().getSeconds() + "/" + bucket;
+        CategorySeriesResponse response;
+        try {
+            response = resultCache.get(cacheKey, resultCache.isClosed(request.getPeriodTo().getSeconds()), () -> {
+                List<CategoryBucketScore> categoryBucketScores = ticketMetrics.recordPhase(AGGREGATED_CATEGORY_SERIES, QUERY,
+                        () -> ticketRepository.getCategoryBucketScoresBetweenDates(periodFrom, periodTo, bucket));
+                ticketMetrics.recordRows(AGGREGATED_CATEGORY_SERIES, categoryBucketScores.size());
+                return ticketMetrics.recordPhase(AGGREGATED_CATEGORY_SERIES, AGGREGATION,
+                        () -> getCategorySeriesResponse(categoryBucketScores, bucket, firstBucket, (int) bucketCount));
+            });
+        } catch (RuntimeException e) {
+            onFailure(responseObserver, e);
+            return;
+        }
+        responseObserver.onNext(response);
         responseObserver.onCompleted();
     }
 
+    /**
+     * Scores go straight into one array per category at their offset from the first bucket, buckets are
+     * consecutive numbers so there is nothing to sort or look up.
+     */
+    private static CategorySeriesResponse getCategorySeriesResponse(List<CategoryBucketScore> categoryBucketScores, TimeBucket bucket,
+                                                                    long firstBucket, int bucketCount) {
+        Map<String, CategorySeriesScores> seriesByCategory = new LinkedHashMap<>();
+        for (CategoryBucketScore bucketScore : categoryBucketScores) {
+            long offset = bucket.getBucketNumber(bucketScore.getBucketStart()) - firstBucket;
+            if (offset < 0 || offset >= bucketCount) {
+                continue;
+            }
+            CategorySeriesScores series = seriesByCategory.computeIfAbsent(bucketScore.getCategoryName(),
+                    categoryName -> new CategorySeriesScores(bucketCount));
+            series.scores[(int) offset] = bucketScore.getAverageScore();
+            series.ratingsCount += bucketScore.getRatingsCount();
+            series.scoreSum += bucketScore.getAverageScore();
+            series.scoredBuckets++;
+        }
+
+        CategorySeriesResponse.Builder response = CategorySeriesResponse.newBuilder()
+                .setSeriesStart(bucket.getBucketStart(firstBucket))
+                .setGranularity(Granularity.valueOf(bucket.name()));
+        seriesByCategory.forEach((categoryName, series) -> {
+            CategorySeries.Builder categorySeries = CategorySeries.newBuilder()
+                    .setCategoryName(categoryName)
+                    .setRatingsCount((int) series.ratingsCount)
+                    .setTotalScore((int) (series.scoreSum / series.scoredBuckets));
+            for (int score : series.scores) {
+                categorySeries.addScores(score);
+            }
+            response.addCategories(categorySeries);
+        });
+        return response.build();
+    }
+
+    private static TimeBucket getTimeBucket(Granularity granularity, LocalDateTime periodFrom, LocalDateTime periodTo) {
+        switch (granularity) {
+            case DAY:
+                return TimeBucket.DAY;
+            case WEEK:
+                return TimeBucket.WEEK;
+            case MONTH:
+                return TimeBucket.MONTH;
+            default:
+                boolean isGreaterThanOneMonth = periodFrom.plus(1, MONTHS).isBefore(periodTo);
+                return isGreaterThanOneMonth ? TimeBucket.WEEK : TimeBucket.DAY;
+        }
+    }
+
     @Override
     public void getOverallQualityScore(DateRange request, StreamObserver<QualityResponse> responseObserver) {
         LocalDateTime periodFrom = LocalDateTime.ofEpochSecond(request.getPeriodFrom().getSeconds(), 0, ZoneOffset.UTC);
         LocalDateTime periodTo = LocalDateTime.ofEpochSecond(request.getPeriodTo().getSeconds(), 0, ZoneOffset.UTC);
-        List<Integer> scoresBetweenDates = ticketRepository.getScoresBetweenDates(periodFrom, periodTo);
-        int sum = scoresBetweenDates.stream().mapToInt(Integer::intValue).sum();
-        int score = scoresBetweenDates.isEmpty() ? 0 : sum / scoresBetweenDates.size();
 
-        QualityResponse response = QualityResponse.newBuilder()
-                .setScore(score)
-                .build();
+        String cacheKey = "GetOverallQualityScore/" + request.getPeriodFrom().getSeconds() + "/" + request.getPeriodTo().getSeconds();
+        QualityResponse response;
+        try {
+            response = resultCache.get(cacheKey, resultCache.isClosed(request.getPeriodTo().getSeconds()), () -> {
+                int score = ticketMetrics.recordPhase(OVERALL_QUALITY_SCORE, QUERY,
+                        () -> ticketRepository.getScoreTotalBetweenDates(periodFrom, periodTo)).getAverageScore();
+                return QualityResponse.newBuilder()
+                        .setScore(score)
+                        .build();
+            });
+        } catch (RuntimeException e) {
+            onFailure(responseObserver, e);
+            return;
+        }
         responseObserver.onNext(response);
         responseObserver.onCompleted();
     }
@@ -142,11 +418,32 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
         LocalDateTime selectedPeriodFrom = LocalDateTime.ofEpochSecond(request.getSelectedPeriod().getPeriodFrom().getSeconds(), 0, ZoneOffset.UTC);
         LocalDateTime selectedPeriodTo = LocalDateTime.ofEpochSecond(request.getSelectedPeriod().getPeriodTo().getSeconds(), 0, ZoneOffset.UTC);
 
-        List<Integer> previousPeriodScores = ticketRepository.getScoresBetweenDates(previousPeriodFrom, previousPeriodTo);
-        List<Integer> selectedPeriodScores = ticketRepository.getScoresBetweenDates(selectedPeriodFrom, selectedPeriodTo);
+        String cacheKey = "GetPeriodOverPeriodScoreChange/" + request.getPreviousPeriod().getPeriodFrom().getSeconds() + "/" + request.getPreviousPeriod().getPeriodTo().getSeconds()
+                + "/" + request.getSelectedPeriod().getPeriodFrom().getSeconds() + "/" + request.getSelectedPeriod().getPeriodTo().getSeconds();
+        boolean closedRange = resultCache.isClosed(Math.max(request.getPreviousPeriod().getPeriodTo().getSeconds(), request.getSelectedPeriod().getPeriodTo().getSeconds()));
+        PeriodChangeResponse response;
+        try {
+            response = resultCache.get(cacheKey, closedRange,
+                    () -> getPeriodChangeResponse(previousPeriodFrom, previousPeriodTo, selectedPeriodFrom, selectedPeriodTo));
+        } catch (RuntimeException e) {
+            onFailure(responseObserver, e);
+            return;
+        }
+        responseObserver.onNext(response);
+        responseObserver.onCompleted();
+    }
+
+    private PeriodChangeResponse getPeriodChangeResponse(LocalDateTime previousPeriodFrom, LocalDateTime previousPeriodTo,
+                                                         LocalDateTime selectedPeriodFrom, LocalDateTime selectedPeriodTo) {
+        List<ScoreTotal> scoreTotals = ticketMetrics.recordPhase(PERIOD_OVER_PERIOD_SCORE_CHANGE, QUERY,
+                () -> ticketRepository.getScoreTotalsOfPeriods(List.of(
+                        new Period(previousPeriodFrom, previousPeriodTo), new Period(selectedPeriodFrom, selectedPeriodTo))));
+        int previousPeriodPercentage = scoreTotals.get(0).getAverageScore();
+        int selectedPeriodPercentage = scoreTotals.get(1).getAverageScore();
+        return PeriodChangeResponse.newBuilder().setPeriodChangeScore(getPercentageChange(previousPeriodPercentage, selectedPeriodPercentage)).build();
+    }
 
-        int previousPeriodPercentage = previousPeriodScores.isEmpty() ? 0 : previousPeriodScores.stream().mapToInt(Integer::intValue).sum() / previousPeriodScores.size();
-        int selectedPeriodPercentage = selectedPeriodScores.isEmpty() ? 0 : selectedPeriodScores.stream().mapToInt(Integer::intValue).sum() / selectedPeriodScores.size();
+    private static int getPercentageChange(int previousPeriodPercentage, int selectedPeriodPercentage) {
         double increase = (double)selectedPeriodPercentage - previousPeriodPercentage;
         int percentageChange = 0;
         if (selectedPeriodPercentage != 0) {
@@ -154,9 +451,136 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
         } else if (previousPeriodPercentage != 0) {
             percentageChange = (int)((increase / previousPeriodPercentage) * 100);
         }
+        return percentageChange;
+    }
+
+    @Override
+    public void getPeriodScoreTrend(MultiDateRange request, StreamObserver<PeriodTrendResponse> responseObserver) {
+        if (request.getPeriodsCount() > MAX_TREND_PERIODS) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("At most " + MAX_TREND_PERIODS + " periods can be compared, got " + request.getPeriodsCount())
+                    .asRuntimeException());
+            return;
+        }
 
-        PeriodChangeResponse response = PeriodChangeResponse.newBuilder().setPeriodChangeScore(percentageChange).build();
+        StringBuilder cacheKey = new StringBuilder("GetPeriodScoreTrend");
+        long lastPeriodTo = Long.MIN_VALUE;
+        for (DateRange period : request.getPeriodsList()) {
+            cacheKey.append('/').append(period.getPeriodFrom().getSeconds()).append('/').append(period.getPeriodTo().getSeconds());
+            lastPeriodTo = Math.max(lastPeriodTo, period.getPeriodTo().getSeconds());
+        }
+        PeriodTrendResponse response;
+        try {
+            response = resultCache.get(cacheKey.toString(), resultCache.isClosed(lastPeriodTo),
+                    () -> getPeriodTrendResponse(request.getPeriodsList()));
+        } catch (RuntimeException e) {
+            onFailure(responseObserver, e);
+            return;
+        }
         responseObserver.onNext(response);
         responseObserver.onCompleted();
     }
+
+    private PeriodTrendResponse getPeriodTrendResponse(List<DateRange> dateRanges) {
+        List<Period> periods = new ArrayList<>();
+        for (DateRange dateRange : dateRanges) {
+            periods.add(new Period(
+                    LocalDateTime.ofEpochSecond(dateRange.getPeriodFrom().getSeconds(), 0, ZoneOffset.UTC),
+                    LocalDateTime.ofEpochSecond(dateRange.getPeriodTo().getSeconds(), 0, ZoneOffset.UTC)));
+        }
+        List<ScoreTotal> scoreTotals = ticketMetrics.recordPhase(PERIOD_SCORE_TREND, QUERY, () -> ticketRepository.getScoreTotalsOfPeriods(periods));
+        return ticketMetrics.recordPhase(PERIOD_SCORE_TREND, AGGREGATION, () -> getPeriodTrendResponse(dateRanges, scoreTotals));
+    }
+
+    private static PeriodTrendResponse getPeriodTrendResponse(List<DateRange> dateRanges, List<ScoreTotal> scoreTotals) {
+        PeriodTrendResponse.Builder response = PeriodTrendResponse.newBuilder();
+        for (int i = 0; i < dateRanges.size(); i++) {
+            int score = scoreTotals.get(i).getAverageScore();
+            int percentageChange = i == 0 ? 0 : getPercentageChange(scoreTotals.get(i - 1).getAverageScore(), score);
+            response.addPeriodScores(PeriodScore.newBuilder()
+                    .setPeriod(dateRanges.get(i))
+                    .setScore(score)
+                    .setRatingsCount((int) scoreTotals.get(i).getRatingsCount())
+                    .setPeriodChangeScore(percentageChange)
+                    .build());
+        }
+        return response.build();
+    }
+
+    @Override
+    public void getScoreDistribution(DistributionRequest request, StreamObserver<DistributionResponse> responseObserver) {
+        List<Double> percentiles = request.getPercentilesCount() == 0 ? DEFAULT_PERCENTILES : request.getPercentilesList();
+        if (percentiles.size() > MAX_PERCENTILES) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("At most " + MAX_PERCENTILES + " percentiles can be requested, got " + percentiles.size())
+                    .asRuntimeException());
+            return;
+        }
+        for (double percentile : percentiles) {
+            if (!(percentile > 0 && percentile <= 100)) {
+                responseObserver.onError(Status.INVALID_ARGUMENT
+                        .withDescription("Percentiles must be above 0 and at most 100, got " + percentile)
+                        .asRuntimeException());
+                return;
+            }
+        }
+
+        LocalDateTime periodFrom = LocalDateTime.ofEpochSecond(request.getRange().getPeriodFrom().getSeconds(), 0, ZoneOffset.UTC);
+        LocalDateTime periodTo = LocalDateTime.ofEpochSecond(request.getRange().getPeriodTo().getSeconds(), 0, ZoneOffset.UTC);
+        String cacheKey = "GetScoreDistribution/" + request.getRange().getPeriodFrom().getSeconds() + "/" + request.getRange().getPeriodTo().getSeconds()
+                + "/" + percentiles;
+        DistributionResponse response;
+        try {
+            response = resultCache.get(cacheKey, resultCache.isClosed(request.getRange().getPeriodTo().getSeconds()), () -> {
+                List<CategoryScoreDistribution> distributions = ticketMetrics.recordPhase(SCORE_DISTRIBUTION, QUERY,
+                        () -> ticketRepository.getCategoryScoreDistributionsBetweenDates(periodFrom, periodTo));
+                ticketMetrics.recordRows(SCORE_DISTRIBUTION, distributions.size());
+                return ticketMetrics.recordPhase(SCORE_DISTRIBUTION, AGGREGATION, () -> getDistributionResponse(distributions, percentiles));
+            });
+        } catch (RuntimeException e) {
+            onFailure(responseObserver, e);
+            return;
+        }
+        responseObserver.onNext(response);
+        responseObserver.onCompleted();
+    }
+
+    private static DistributionResponse getDistributionResponse(List<CategoryScoreDistribution> distributions, List<Double> percentiles) {
+        DistributionResponse.Builder response = DistributionResponse.newBuilder();
+        distributions.stream()
+                .sorted(Comparator.comparing(CategoryScoreDistribution::getCategoryName))
+                .forEach(distribution -> {
+                    CategoryDistribution.Builder categoryDistribution = CategoryDistribution.newBuilder()
+                            .setCategoryName(distribution.getCategoryName())
+                            .setRatingsCount((int) distribution.getRatingsCount());
+                    for (double percentile : percentiles) {
+                        categoryDistribution.addPercentiles(PercentileScore.newBuilder()
+                                .setPercentile(percentile)
+                                .setScore(distribution.getPercentileScore(percentile))
+                                .build());
+                    }
+                    for (int score = 0; score <= CategoryScoreDistribution.MAX_SCORE; score++) {
+                        if (distribution.getCount(score) > 0) {
+                            categoryDistribution.addHistogram(ScoreCount.newBuilder()
+                                    .setScore(score)
+                                    .setCount((int) distribution.getCount(score))
+                                    .build());
+                        }
+                    }
+                    response.addCategories(categoryDistribution.build());
+                });
+        return response.build();
+    }
+
+    private static final class CategorySeriesScores {
+        private final int[] scores;
+        private long ratingsCount;
+        private long scoreSum;
+        private int scoredBuckets;
+
+        private CategorySeriesScores(int bucketCount) {
+            scores = new int[bucketCount];
+            Arrays.fill(scores, NO_SCORE);
+        }
+    }
 }
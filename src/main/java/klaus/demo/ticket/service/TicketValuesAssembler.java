@@ -0,0 +1,42 @@
+package klaus.demo.ticket.service;
+
+import klaus.demo.CategoryScoreValue;
+import klaus.demo.TicketValuesResponse;
+import klaus.demo.ticket.domain.TicketScore;
+
+import java.util.function.Consumer;
+
+/**
+ * Folds (ticket, category) rows ordered by ticket id into one response per ticket,
+ * sending each ticket as soon as the rows of the next one start.
+ */
+class TicketValuesAssembler implements Consumer<TicketScore> {
+    private final Consumer<TicketValuesResponse> ticketConsumer;
+    private TicketValuesResponse.Builder currentTicket;
+
+    TicketValuesAssembler(Consumer<TicketValuesResponse> ticketConsumer) {
+        this.ticketConsumer = ticketConsumer;
+    }
+
+    @Override
+    public void accept(TicketScore ticketScore) {
+        if (currentTicket != null && currentTicket.getTicketId() != ticketScore.getTicketId()) {
+            flush();
+        }
+        if (currentTicket == null) {
+            currentTicket = TicketValuesResponse.newBuilder()
+                    .setTicketId(ticketScore.getTicketId());
+        }
+        currentTicket.addCategoryScores(CategoryScoreValue.newBuilder()
+                .setCategoryName(ticketScore.getCategoryName())
+                .setScore(ticketScore.getAverageScore())
+                .build());
+    }
+
+    void flush() {
+        if (currentTicket != null) {
+            ticketConsumer.accept(currentTicket.build());
+            currentTicket = null;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package klaus.demo.ticket.service;
+
+import klaus.demo.CategoryScore;
+import klaus.demo.DateRange;
+
+import java.util.Map;
+
+/**
+ * Scores of one rolling window as computed by one detection pass, shared by every subscription to that window.
+ */
+class WindowScores {
+    private final DateRange range;
+    private final long watermark;
+    private final int overallScore;
+    private final Map<String, CategoryScore> categoryScores;
+
+    WindowScores(DateRange range, long watermark, int overallScore, Map<String, CategoryScore> categoryScores) {
+        this.range = range;
+        this.watermark = watermark;
+        this.overallScore = overallScore;
+        this.categoryScores = categoryScores;
+    }
+
+    DateRange getRange() {
+        return range;
+    }
+
+    long getWatermark() {
+        return watermark;
+    }
+
+    int getOverallScore() {
+        return overallScore;
+    }
+
+    Map<String, CategoryScore> getCategoryScores() {
+        return categoryScores;
+    }
+}
@@ -0,0 +1,83 @@
+package klaus.demo.ticket.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultCacheTest {
+
+    @Test
+    void shouldKeepClosedRangesWhenWatermarkAdvances() {
+        ResultCache resultCache = new ResultCache(10, Duration.ofMinutes(1), Duration.ofDays(1));
+        resultCache.get("open", false, () -> 1);
+        resultCache.get("closed", true, () -> 2);
+
+        resultCache.advanceWatermark(5);
+
+        assertEquals(1, resultCache.size());
+        assertEquals(2, (int) resultCache.get("closed", true, () -> 20));
+        assertEquals(10, (int) resultCache.get("open", false, () -> 10));
+        assertEquals(1, resultCache.getInvalidations());
+    }
+
+    @Test
+    void shouldDropClosedRangesWhenAllInvalidated() {
+        ResultCache resultCache = new ResultCache(10, Duration.ofMinutes(1), Duration.ofDays(1));
+        resultCache.get("open", false, () -> 1);
+        resultCache.get("closed", true, () -> 2);
+
+        resultCache.invalidateAll();
+
+        assertEquals(0, resultCache.size());
+        assertEquals(20, (int) resultCache.get("closed", true, () -> 20));
+        assertEquals(2, resultCache.getInvalidations());
+    }
+
+    @Test
+    void shouldNotStoreResultLoadedBeforeInvalidation() {
+        ResultCache resultCache = new ResultCache(10, Duration.ofMinutes(1), Duration.ofDays(1));
+
+        resultCache.get("closed", true, () -> {
+            resultCache.invalidateAll();
+            return 1;
+        });
+
+        assertEquals(0, resultCache.size());
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedEntry() {
+        ResultCache resultCache = new ResultCache(2, Duration.ofMinutes(1), Duration.ofDays(1));
+        resultCache.get("first", false, () -> 1);
+        resultCache.get("second", false, () -> 2);
+        resultCache.get("first", false, () -> 10);
+        resultCache.get("third", false, () -> 3);
+
+        assertEquals(1, resultCache.getEvictions());
+        assertEquals(1, (int) resultCache.get("first", false, () -> 10));
+        assertEquals(20, (int) resultCache.get("second", false, () -> 20));
+    }
+
+    @Test
+    void shouldExpireOpenRangesAfterTimeToLive() {
+        ResultCache resultCache = new ResultCache(10, Duration.ZERO, Duration.ofDays(1));
+        resultCache.get("open", false, () -> 1);
+        resultCache.get("closed", true, () -> 2);
+
+        assertEquals(10, (int) resultCache.get("open", false, () -> 10));
+        assertEquals(2, (int) resultCache.get("closed", true, () -> 20));
+        assertEquals(1, resultCache.getExpirations());
+    }
+
+    @Test
+    void shouldTreatRangesEndingBeforeLagAsClosed() {
+        ResultCache resultCache = new ResultCache(10, Duration.ofMinutes(1), Duration.ofDays(1));
+        long now = Instant.now().getEpochSecond();
+
+        assertTrue(resultCache.isClosed(now - 2 * 86400));
+        assertFalse(resultCache.isClosed(now - 3600));
+    }
+}
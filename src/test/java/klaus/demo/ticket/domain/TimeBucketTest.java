@@ -0,0 +1,45 @@
+package klaus.demo.ticket.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TimeBucketTest {
+
+    @Test
+    void shouldReturnStartOfDay() {
+        assertEquals(epochSecond("2019-07-17T00:00:00"), TimeBucket.DAY.getBucketStartOf(epochSecond("2019-07-17T15:49:14")));
+    }
+
+    @Test
+    void shouldReturnMondayOfWeek() {
+        assertEquals(epochSecond("2019-07-15T00:00:00"), TimeBucket.WEEK.getBucketStartOf(epochSecond("2019-07-17T15:49:14")));
+        assertEquals(epochSecond("2019-07-15T00:00:00"), TimeBucket.WEEK.getBucketStartOf(epochSecond("2019-07-21T23:59:59")));
+        assertEquals(epochSecond("2019-12-30T00:00:00"), TimeBucket.WEEK.getBucketStartOf(epochSecond("2020-01-02T08:00:00")));
+    }
+
+    @Test
+    void shouldReturnFirstDayOfMonth() {
+        assertEquals(epochSecond("2019-07-01T00:00:00"), TimeBucket.MONTH.getBucketStartOf(epochSecond("2019-07-17T15:49:14")));
+        assertEquals(epochSecond("2020-02-01T00:00:00"), TimeBucket.MONTH.getBucketStartOf(epochSecond("2020-02-29T23:59:59")));
+        assertEquals(epochSecond("2020-03-01T00:00:00"), TimeBucket.MONTH.getBucketStartOf(epochSecond("2020-03-01T00:00:00")));
+    }
+
+    @Test
+    void shouldNumberConsecutiveBuckets() {
+        long july = TimeBucket.MONTH.getBucketNumber(epochSecond("2019-07-17T15:49:14"));
+        long december = TimeBucket.MONTH.getBucketNumber(epochSecond("2019-12-31T23:59:59"));
+        long january = TimeBucket.MONTH.getBucketNumber(epochSecond("2020-01-01T00:00:00"));
+
+        assertEquals(5, december - july);
+        assertEquals(1, january - december);
+        assertEquals(epochSecond("2020-01-01T00:00:00"), TimeBucket.MONTH.getBucketStart(january));
+    }
+
+    private long epochSecond(String dateTime) {
+        return LocalDateTime.parse(dateTime).toEpochSecond(ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,76 @@
+package klaus.demo.ticket.metrics;
+
+import com.google.protobuf.Timestamp;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import klaus.demo.DateRange;
+import klaus.demo.QualityResponse;
+import klaus.demo.TicketServiceGrpc;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsServerInterceptorTest {
+    private static final String METHOD = "ticket.TicketService/GetOverallQualityScore";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private Server server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        TicketServiceGrpc.TicketServiceImplBase service = new TicketServiceGrpc.TicketServiceImplBase() {
+            @Override
+            public void getOverallQualityScore(DateRange request, StreamObserver<QualityResponse> responseObserver) {
+                if (request.getPeriodFrom().getSeconds() < 0) {
+                    responseObserver.onError(Status.INVALID_ARGUMENT.asRuntimeException());
+                    return;
+                }
+                responseObserver.onNext(QualityResponse.newBuilder().setScore(42).build());
+                responseObserver.onCompleted();
+            }
+        };
+        String serverName = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(serverName)
+                .directExecutor()
+                .addService(ServerInterceptors.intercept(service, new MetricsServerInterceptor(meterRegistry)))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    void shouldRecordCallsByStatusAndMessages() {
+        TicketServiceGrpc.TicketServiceBlockingStub stub = TicketServiceGrpc.newBlockingStub(channel);
+        DateRange failingRequest = DateRange.newBuilder()
+                .setPeriodFrom(Timestamp.newBuilder().setSeconds(-1))
+                .build();
+
+        assertEquals(42, stub.getOverallQualityScore(DateRange.getDefaultInstance()).getScore());
+        assertEquals(42, stub.getOverallQualityScore(DateRange.getDefaultInstance()).getScore());
+        assertThrows(StatusRuntimeException.class, () -> stub.getOverallQualityScore(failingRequest));
+
+        assertEquals(2, meterRegistry.get("grpc.server.calls").tag("method", METHOD).tag("status", "OK").timer().count());
+        assertEquals(1, meterRegistry.get("grpc.server.calls").tag("status", "INVALID_ARGUMENT").timer().count());
+        assertEquals(3, meterRegistry.get("grpc.server.messages.received").counter().count());
+        assertEquals(2, meterRegistry.get("grpc.server.messages.sent").counter().count());
+        assertEquals(2, meterRegistry.get("grpc.server.serialization").timer().count());
+        assertEquals(2 * QualityResponse.newBuilder().setScore(42).build().getSerializedSize(),
+                meterRegistry.get("grpc.server.bytes.sent").counter().count());
+    }
+}
@@ -0,0 +1,69 @@
+package klaus.demo.ticket.repository;
+
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import klaus.demo.ticket.cancellation.CancellationCounters;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.sqlite.SQLiteDataSource;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CancellableJdbcTemplateTest {
+    private static final String ENDLESS_QUERY = "WITH RECURSIVE counter(x) AS (SELECT 1 UNION ALL SELECT x + 1 FROM counter) SELECT count(*) FROM counter";
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final CancellationCounters cancellationCounters = new CancellationCounters();
+
+    @AfterEach
+    void shutdownScheduler() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    @Timeout(10)
+    void shouldInterruptRunningQueryWhenDeadlineExpires() {
+        CancellableJdbcTemplate jdbcTemplate = new CancellableJdbcTemplate(getDataSource(), cancellationCounters);
+        Context.CancellableContext context = Context.current()
+                .withDeadline(Deadline.after(200, TimeUnit.MILLISECONDS), scheduler);
+
+        StatusRuntimeException exception = assertThrows(StatusRuntimeException.class,
+                () -> context.run(() -> jdbcTemplate.queryForObject(ENDLESS_QUERY, Long.class)));
+
+        assertEquals(Status.Code.DEADLINE_EXCEEDED, exception.getStatus().getCode());
+        assertEquals(1, cancellationCounters.getInterruptedQueries());
+    }
+
+    @Test
+    void shouldNotStartQueryOfCancelledCall() {
+        CancellableJdbcTemplate jdbcTemplate = new CancellableJdbcTemplate(getDataSource(), cancellationCounters);
+        Context.CancellableContext context = Context.current().withCancellation();
+        context.cancel(null);
+
+        StatusRuntimeException exception = assertThrows(StatusRuntimeException.class,
+                () -> context.run(() -> jdbcTemplate.queryForObject("SELECT 1", Long.class)));
+
+        assertEquals(Status.Code.CANCELLED, exception.getStatus().getCode());
+        assertEquals(0, cancellationCounters.getInterruptedQueries());
+    }
+
+    @Test
+    void shouldRunQueriesOutsideOfCalls() {
+        CancellableJdbcTemplate jdbcTemplate = new CancellableJdbcTemplate(getDataSource(), cancellationCounters);
+
+        assertEquals(1L, jdbcTemplate.queryForObject("SELECT 1", Long.class));
+    }
+
+    private static SQLiteDataSource getDataSource() {
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite::memory:");
+        return dataSource;
+    }
+}
@@ -0,0 +1,64 @@
+package klaus.demo.ticket.repository;
+
+import klaus.demo.ticket.domain.RatingCategory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CategoryDimensionTest {
+    private SingleConnectionDataSource dataSource;
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new SingleConnectionDataSource("jdbc:sqlite::memory:", true);
+        jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+        jdbcTemplate.getJdbcTemplate().execute("CREATE TABLE rating_categories(id integer primary key autoincrement, name text not null, weight real not null)");
+        jdbcTemplate.getJdbcTemplate().execute("INSERT INTO rating_categories(name, weight) VALUES ('Spelling', 1), ('Tone', 0.7), ('Randomness', 0)");
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSource.destroy();
+    }
+
+    @Test
+    void shouldPrecomputeScoresOfEveryRating() {
+        CategoryDimension categoryDimension = new CategoryDimension(jdbcTemplate);
+
+        assertEquals(3, categoryDimension.getAll().size());
+        RatingCategory tone = categoryDimension.get(2);
+        assertEquals("Tone", tone.getName());
+        assertEquals(0.7, tone.getWeight());
+        assertEquals(0, tone.getScore(0));
+        assertEquals(60, tone.getScore(3));
+        assertEquals(100, tone.getScore(5));
+        assertEquals(0, categoryDimension.get(3).getScore(5));
+    }
+
+    @Test
+    void shouldNotScoreUnknownCategoriesOrRatingsOutsideScale() {
+        CategoryDimension categoryDimension = new CategoryDimension(jdbcTemplate);
+
+        assertNotNull(categoryDimension.getScoredCategory(1, 5));
+        assertNull(categoryDimension.getScoredCategory(1, 6));
+        assertNull(categoryDimension.getScoredCategory(1, -1));
+        assertNull(categoryDimension.getScoredCategory(4, 3));
+    }
+
+    @Test
+    void shouldReportChangeOnlyWhenCategoriesChanged() {
+        CategoryDimension categoryDimension = new CategoryDimension(jdbcTemplate);
+        assertFalse(categoryDimension.refresh());
+
+        jdbcTemplate.getJdbcTemplate().execute("UPDATE rating_categories SET weight = 2 WHERE name = 'Tone'");
+
+        assertTrue(categoryDimension.refresh());
+        assertEquals(2, categoryDimension.get(2).getWeight());
+        assertFalse(categoryDimension.refresh());
+    }
+}
@@ -0,0 +1,231 @@
+package klaus.demo.ticket.repository;
+
+import klaus.demo.ticket.domain.CategoryBucketScore;
+import klaus.demo.ticket.domain.CategoryScoreDistribution;
+import klaus.demo.ticket.domain.Rating;
+import klaus.demo.ticket.domain.ScoreTotal;
+import klaus.demo.ticket.domain.TicketScore;
+import klaus.demo.ticket.domain.TimeBucket;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static klaus.demo.ticket.domain.TimeBucket.SECONDS_PER_DAY;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnarTicketRepositoryTest {
+    private static final LocalDateTime JULY_START = LocalDateTime.parse("2019-07-01T00:00:00");
+    private static final LocalDateTime JULY_END = LocalDateTime.parse("2019-07-31T23:59:59");
+
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp(@TempDir Path directory) {
+        jdbcTemplate = new NamedParameterJdbcTemplate(new DriverManagerDataSource("jdbc:sqlite:" + directory.resolve("ratings.db")));
+        jdbcTemplate.getJdbcTemplate().execute("CREATE TABLE rating_categories(id integer primary key autoincrement, name text not null, weight real not null)");
+        jdbcTemplate.getJdbcTemplate().update("INSERT INTO rating_categories(name, weight) VALUES ('Spelling', 1), ('Tone', 0.7)");
+        jdbcTemplate.getJdbcTemplate().execute("CREATE TABLE ratings(id integer primary key autoincrement, rating integer not null, ticket_id integer not null, "
+                + "rating_category_id integer not null, reviewer_id integer, reviewee_id integer, created_at datetime, created_at_epoch integer)");
+    }
+
+    @Test
+    void shouldIncludeBothEndsOfRange() {
+        insertJulyRatings();
+        ColumnarTicketRepository repository = createRepository();
+
+        assertEquals(5, repository.getScoreTotalBetweenDates(JULY_START, JULY_END).getRatingsCount());
+        assertEquals(2, repository.getScoreTotalBetweenDates(LocalDateTime.parse("2019-07-03T10:00:00"), LocalDateTime.parse("2019-07-03T12:00:00"))
+                .getRatingsCount());
+        assertEquals(0, repository.getScoreTotalBetweenDates(LocalDateTime.parse("2019-07-03T10:00:01"), LocalDateTime.parse("2019-07-03T11:59:59"))
+                .getRatingsCount());
+        assertEquals(0, repository.getScoreTotalBetweenDates(JULY_END, JULY_START).getRatingsCount());
+        assertEquals(0, repository.getScoreTotalBetweenDates(LocalDateTime.parse("2020-01-01T00:00:00"), LocalDateTime.parse("2020-12-31T00:00:00"))
+                .getRatingsCount());
+    }
+
+    @Test
+    void shouldSumScoresOfRange() {
+        insertJulyRatings();
+
+        ScoreTotal scoreTotal = createRepository().getScoreTotalBetweenDates(JULY_START, JULY_END);
+
+        assertEquals(100 + 60 + 80 + 20 + 40, scoreTotal.getScoreSum());
+        assertEquals(5, scoreTotal.getRatingsCount());
+        // Spelling scores 240 in 4 ratings at weight 1, Tone 60 in 1 rating at weight 0.7
+        assertEquals((240 + 60 * 0.7) / (4 + 0.7), scoreTotal.getWeightedScoreSum() / scoreTotal.getWeightSum(), 1e-9);
+    }
+
+    @Test
+    void shouldBucketScoresByDayWeekAndMonth() {
+        insertJulyRatings();
+        ColumnarTicketRepository repository = createRepository();
+
+        List<CategoryBucketScore> dayScores = repository.getCategoryBucketScoresBetweenDates(JULY_START, JULY_END, TimeBucket.DAY);
+        assertEquals(List.of("Spelling", "Spelling", "Spelling", "Spelling", "Tone"),
+                dayScores.stream().map(CategoryBucketScore::getCategoryName).collect(toList()));
+        assertEquals(getBucketStarts("2019-07-01", "2019-07-03", "2019-07-08", "2019-07-31", "2019-07-03"),
+                dayScores.stream().map(CategoryBucketScore::getBucketStart).collect(toList()));
+        assertEquals(List.of(100L, 80L, 20L, 40L, 60L), dayScores.stream().map(CategoryBucketScore::getScoreSum).collect(toList()));
+
+        List<CategoryBucketScore> weekScores = repository.getCategoryBucketScoresBetweenDates(JULY_START, JULY_END, TimeBucket.WEEK);
+        assertEquals(getBucketStarts("2019-07-01", "2019-07-08", "2019-07-29", "2019-07-01"),
+                weekScores.stream().map(CategoryBucketScore::getBucketStart).collect(toList()));
+        assertEquals(List.of(180L, 20L, 40L, 60L), weekScores.stream().map(CategoryBucketScore::getScoreSum).collect(toList()));
+        assertEquals(List.of(2L, 1L, 1L, 1L), weekScores.stream().map(CategoryBucketScore::getRatingsCount).collect(toList()));
+
+        List<CategoryBucketScore> monthScores = repository.getCategoryBucketScoresBetweenDates(JULY_START, JULY_END, TimeBucket.MONTH);
+        assertEquals(getBucketStarts("2019-07-01", "2019-07-01"), monthScores.stream().map(CategoryBucketScore::getBucketStart).collect(toList()));
+        assertEquals(List.of(240L, 60L), monthScores.stream().map(CategoryBucketScore::getScoreSum).collect(toList()));
+    }
+
+    @Test
+    void shouldStreamTicketScoresInTicketOrder() {
+        insertJulyRatings();
+
+        List<TicketScore> ticketScores = new ArrayList<>();
+        createRepository().streamCategoryScoresOfTicketsBetweenDates(JULY_START, JULY_END, ticketScores::add);
+
+        assertEquals(List.of(1L, 1L, 2L, 3L), ticketScores.stream().map(TicketScore::getTicketId).collect(toList()));
+        assertEquals(List.of("Spelling", "Tone", "Spelling", "Spelling"), ticketScores.stream().map(TicketScore::getCategoryName).collect(toList()));
+        assertEquals(List.of(80L, 60L, 120L, 40L), ticketScores.stream().map(TicketScore::getScoreSum).collect(toList()));
+        assertEquals(List.of(1L, 1L, 2L, 1L), ticketScores.stream().map(TicketScore::getRatingsCount).collect(toList()));
+    }
+
+    @Test
+    void shouldCountScoresOfEachCategory() {
+        insertJulyRatings();
+
+        List<CategoryScoreDistribution> distributions = createRepository().getCategoryScoreDistributionsBetweenDates(JULY_START, JULY_END);
+
+        assertEquals(List.of("Spelling", "Tone"), distributions.stream().map(CategoryScoreDistribution::getCategoryName).collect(toList()));
+        assertEquals(4, distributions.get(0).getRatingsCount());
+        assertEquals(List.of(1L, 1L, 0L, 1L, 1L), List.of(distributions.get(0).getCount(20), distributions.get(0).getCount(40),
+                distributions.get(0).getCount(60), distributions.get(0).getCount(80), distributions.get(0).getCount(100)));
+        assertEquals(1, distributions.get(1).getCount(60));
+    }
+
+    @Test
+    void shouldSkipUnknownCategoriesAndOffScaleRatings() {
+        insertRating(3, 9, 5, "2019-07-04T10:00:00");
+        insertRating(3, 1, 7, "2019-07-04T10:00:00");
+        insertRating(3, 1, 5, "2019-07-04T10:00:00");
+
+        assertEquals(1, createRepository().getScoreTotalBetweenDates(JULY_START, JULY_END).getRatingsCount());
+    }
+
+    @Test
+    void shouldReportFootprintOfLoadedRatings() {
+        insertJulyRatings();
+        ColumnarTicketRepository repository = createRepository();
+
+        // 7 ratings of 4 + 2 + 1 + 8 bytes and the id of each category
+        assertEquals(7 * 15 + 2 * 8, repository.getFootprintBytes());
+        assertTrue(repository.getFootprintReport().contains("holds 7 ratings in 2 categories"));
+    }
+
+    @Test
+    void shouldMergeWrittenRatingsIntoTheColumns() {
+        insertRating(1, 1, 5, "2019-07-02T10:00:00");
+        insertRating(1, 1, 5, "2019-07-05T10:00:00");
+        ColumnarTicketRepository repository = createRepository();
+        assertEquals(2, repository.getRatingsWatermark());
+
+        repository.addWrittenRatings(List.of(getRating(2, 1, "2019-07-06T10:00:00"), getRating(3, 3, "2019-07-07T10:00:00")), 4);
+        assertEquals(4, repository.getRatingsWatermark());
+        assertEquals(4, repository.getScoreTotalBetweenDates(JULY_START, JULY_END).getRatingsCount());
+
+        // older than the newest rating in the columns, merged in between
+        repository.addWrittenRatings(List.of(getRating(4, 0, "2019-07-03T10:00:00")), 5);
+        List<CategoryBucketScore> dayScores = repository.getCategoryBucketScoresBetweenDates(JULY_START, JULY_END, TimeBucket.DAY);
+        assertEquals(List.of(100L, 0L, 100L, 20L, 60L), dayScores.stream().map(CategoryBucketScore::getScoreSum).collect(toList()));
+        assertEquals(1, repository.getScoreTotalBetweenDates(LocalDateTime.parse("2019-07-03T00:00:00"), LocalDateTime.parse("2019-07-03T23:59:59"))
+                .getRatingsCount());
+
+        List<TicketScore> ticketScores = new ArrayList<>();
+        repository.streamCategoryScoresOfTicketsBetweenDates(JULY_START, JULY_END, ticketScores::add);
+        assertEquals(List.of(1L, 2L, 3L, 4L), ticketScores.stream().map(TicketScore::getTicketId).collect(toList()));
+
+        // fits the spare capacity of the merged columns
+        repository.addWrittenRatings(List.of(getRating(5, 5, "2019-07-08T10:00:00")), 6);
+        assertEquals(6, repository.getScoreTotalBetweenDates(JULY_START, JULY_END).getRatingsCount());
+        assertEquals(1, repository.getScoreTotalBetweenDates(LocalDateTime.parse("2019-07-08T00:00:00"), JULY_END).getRatingsCount());
+    }
+
+    @Test
+    void shouldNotAddRatingsAlreadyLoaded() {
+        insertRating(1, 1, 5, "2019-07-02T10:00:00");
+        insertRating(1, 1, 5, "2019-07-05T10:00:00");
+        ColumnarTicketRepository repository = createRepository();
+
+        repository.addWrittenRatings(List.of(getRating(1, 5, "2019-07-05T10:00:00"), getRating(2, 4, "2019-07-06T10:00:00")), 3);
+
+        assertEquals(3, repository.getRatingsWatermark());
+        assertEquals(3, repository.getScoreTotalBetweenDates(JULY_START, JULY_END).getRatingsCount());
+    }
+
+    @Test
+    void shouldKeepWrittenRatingsOfCategoryAddedAfterLoading() {
+        insertRating(1, 1, 5, "2019-07-02T10:00:00");
+        CategoryDimension categoryDimension = new CategoryDimension(jdbcTemplate);
+        ColumnarTicketRepository repository = new ColumnarTicketRepository(jdbcTemplate, categoryDimension);
+        jdbcTemplate.getJdbcTemplate().update("INSERT INTO rating_categories(name, weight) VALUES ('Grammar', 1)");
+        categoryDimension.refresh();
+
+        Rating grammar = getRating(1, 4, "2019-07-03T10:00:00");
+        grammar.setCategoryId(3);
+        repository.addWrittenRatings(List.of(grammar), 2);
+
+        assertEquals(2, repository.getScoreTotalBetweenDates(JULY_START, JULY_END).getRatingsCount());
+        List<TicketScore> ticketScores = new ArrayList<>();
+        repository.streamCategoryScoresOfTicketsBetweenDates(JULY_START, JULY_END, ticketScores::add);
+        assertEquals(List.of("Spelling", "Grammar"), ticketScores.stream().map(TicketScore::getCategoryName).collect(toList()));
+        assertEquals(80, ticketScores.get(1).getScoreSum());
+        assertTrue(repository.getFootprintReport().contains("in 3 categories"));
+    }
+
+    private ColumnarTicketRepository createRepository() {
+        return new ColumnarTicketRepository(jdbcTemplate, new CategoryDimension(jdbcTemplate));
+    }
+
+    /**
+     * Five ratings in July, both range ends included, and one on either side of it.
+     */
+    private void insertJulyRatings() {
+        insertRating(4, 1, 5, "2019-06-30T23:59:59");
+        insertRating(2, 1, 5, "2019-07-01T00:00:00");
+        insertRating(1, 2, 3, "2019-07-03T10:00:00");
+        insertRating(1, 1, 4, "2019-07-03T12:00:00");
+        insertRating(2, 1, 1, "2019-07-08T09:00:00");
+        insertRating(3, 1, 2, "2019-07-31T23:59:59");
+        insertRating(4, 1, 5, "2019-08-01T00:00:00");
+    }
+
+    private static List<Long> getBucketStarts(String... days) {
+        return Arrays.stream(days).map(day -> LocalDate.parse(day).toEpochDay() * SECONDS_PER_DAY).collect(toList());
+    }
+
+    private void insertRating(long ticketId, long categoryId, int rating, String createdAt) {
+        jdbcTemplate.getJdbcTemplate().update("INSERT INTO ratings(rating, ticket_id, rating_category_id, created_at, created_at_epoch) VALUES (?, ?, ?, ?, ?)",
+                rating, ticketId, categoryId, createdAt, LocalDateTime.parse(createdAt).toEpochSecond(ZoneOffset.UTC));
+    }
+
+    private static Rating getRating(long ticketId, int rating, String createdAt) {
+        Rating newRating = new Rating();
+        newRating.setTicketId(ticketId);
+        newRating.setCategoryId(1);
+        newRating.setRating(rating);
+        newRating.setCreatedAt(LocalDateTime.parse(createdAt));
+        return newRating;
+    }
+}
@@ -0,0 +1,161 @@
+package klaus.demo.ticket.repository;
+
+import klaus.demo.ticket.domain.CategoryBucketScore;
+import klaus.demo.ticket.domain.CategoryRatingCount;
+import klaus.demo.ticket.domain.CategoryScoreDistribution;
+import klaus.demo.ticket.domain.RatingCategory;
+import klaus.demo.ticket.domain.ScoreTotal;
+import klaus.demo.ticket.domain.TimeBucket;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static klaus.demo.ticket.domain.TimeBucket.SECONDS_PER_DAY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+class DailyRollupStoreTest {
+
+    private final static String FIRST_CATEGORY = "HELLO";
+    private final static String SECOND_CATEGORY = "WORLD";
+    private final static int[] SCORES = {0, 20, 40, 60, 80, 100};
+
+    private final CategoryDimension categoryDimension = mock(CategoryDimension.class);
+
+    @BeforeEach
+    void setUp() {
+        doReturn(new RatingCategory(1, FIRST_CATEGORY, 1, SCORES)).when(categoryDimension).get(1L);
+        doReturn(new RatingCategory(2, SECOND_CATEGORY, 2, SCORES)).when(categoryDimension).get(2L);
+    }
+
+    @Test
+    void shouldMergeRatingCountsOfSameCategoryAndDay() {
+        DailyRollupStore rollupStore = new DailyRollupStore();
+        rollupStore.addAll(List.of(getRatingCount(1, "2019-07-17", 2, 2)), 10);
+        rollupStore.addAll(List.of(getRatingCount(1, "2019-07-17", 3, 1)), 12);
+
+        List<CategoryBucketScore> dayScores = rollupStore.getCategoryBucketScores(epochDay("2019-07-17"), epochDay("2019-07-17"), TimeBucket.DAY, categoryDimension);
+
+        assertEquals(1, dayScores.size());
+        assertEquals(FIRST_CATEGORY, dayScores.get(0).getCategoryName());
+        assertEquals(140, dayScores.get(0).getScoreSum());
+        assertEquals(3, dayScores.get(0).getRatingsCount());
+        assertEquals(12, rollupStore.getWatermark());
+    }
+
+    @Test
+    void shouldReturnOnlyDaysWithinRange() {
+        DailyRollupStore rollupStore = new DailyRollupStore();
+        rollupStore.addAll(List.of(
+                getRatingCount(1, "2019-07-16", 5, 1),
+                getRatingCount(1, "2019-07-17", 1, 1),
+                getRatingCount(2, "2019-07-18", 2, 1),
+                getRatingCount(2, "2019-07-19", 5, 1)), 4);
+
+        List<CategoryBucketScore> dayScores = rollupStore.getCategoryBucketScores(epochDay("2019-07-17"), epochDay("2019-07-18"), TimeBucket.DAY, categoryDimension);
+        ScoreTotal scoreTotal = rollupStore.getScoreTotal(epochDay("2019-07-17"), epochDay("2019-07-18"), categoryDimension);
+
+        assertEquals(2, dayScores.size());
+        assertTrue(dayScores.stream().anyMatch(dayScore -> epochDay("2019-07-17") * SECONDS_PER_DAY == dayScore.getBucketStart() && FIRST_CATEGORY.equals(dayScore.getCategoryName())));
+        assertTrue(dayScores.stream().anyMatch(dayScore -> epochDay("2019-07-18") * SECONDS_PER_DAY == dayScore.getBucketStart() && SECOND_CATEGORY.equals(dayScore.getCategoryName())));
+        assertEquals(60, scoreTotal.getScoreSum());
+        assertEquals(2, scoreTotal.getRatingsCount());
+        // (20 * 1 + 40 * 2) / (1 + 2)
+        assertEquals(33, scoreTotal.getAverageScore());
+    }
+
+    @Test
+    void shouldMergeDaysOfSameWeekWhenWeeklyBucketsRequested() {
+        DailyRollupStore rollupStore = new DailyRollupStore();
+        rollupStore.addAll(List.of(
+                getRatingCount(1, "2019-07-17", 1, 1),
+                getRatingCount(1, "2019-07-19", 2, 1),
+                getRatingCount(1, "2019-07-22", 3, 3)), 5);
+
+        List<CategoryBucketScore> weekScores = rollupStore.getCategoryBucketScores(epochDay("2019-07-15"), epochDay("2019-07-28"), TimeBucket.WEEK, categoryDimension);
+
+        assertEquals(2, weekScores.size());
+        CategoryBucketScore firstWeek = weekScores.stream().filter(weekScore -> epochDay("2019-07-15") * SECONDS_PER_DAY == weekScore.getBucketStart()).findFirst().orElseThrow();
+        CategoryBucketScore secondWeek = weekScores.stream().filter(weekScore -> epochDay("2019-07-22") * SECONDS_PER_DAY == weekScore.getBucketStart()).findFirst().orElseThrow();
+        assertEquals(2, firstWeek.getRatingsCount());
+        assertEquals(30, firstWeek.getAverageScore());
+        assertEquals(3, secondWeek.getRatingsCount());
+        assertEquals(60, secondWeek.getAverageScore());
+    }
+
+    @Test
+    void shouldApplyCurrentCategoryWeightsWhenRead() {
+        DailyRollupStore rollupStore = new DailyRollupStore();
+        rollupStore.addAll(List.of(
+                getRatingCount(1, "2019-07-17", 5, 1),
+                getRatingCount(2, "2019-07-17", 0, 1)), 2);
+        assertEquals(33, rollupStore.getScoreTotal(epochDay("2019-07-17"), epochDay("2019-07-17"), categoryDimension).getAverageScore());
+
+        doReturn(new RatingCategory(2, SECOND_CATEGORY, 0, new int[6])).when(categoryDimension).get(2L);
+
+        assertEquals(100, rollupStore.getScoreTotal(epochDay("2019-07-17"), epochDay("2019-07-17"), categoryDimension).getAverageScore());
+    }
+
+    @Test
+    void shouldLeaveOutUnknownCategoriesAndRatingsOutsideScale() {
+        DailyRollupStore rollupStore = new DailyRollupStore();
+        rollupStore.addAll(List.of(
+                getRatingCount(1, "2019-07-17", 4, 1),
+                getRatingCount(1, "2019-07-17", 7, 1),
+                getRatingCount(3, "2019-07-17", 1, 1)), 3);
+
+        ScoreTotal scoreTotal = rollupStore.getScoreTotal(epochDay("2019-07-17"), epochDay("2019-07-17"), categoryDimension);
+
+        assertEquals(1, scoreTotal.getRatingsCount());
+        assertEquals(80, scoreTotal.getAverageScore());
+        assertEquals(1, rollupStore.getCategoryBucketScores(epochDay("2019-07-17"), epochDay("2019-07-17"), TimeBucket.DAY, categoryDimension).size());
+    }
+
+    @Test
+    void shouldMergeDaysIntoScoreDistributionPerCategory() {
+        DailyRollupStore rollupStore = new DailyRollupStore();
+        rollupStore.addAll(List.of(
+                getRatingCount(1, "2019-07-16", 5, 4),
+                getRatingCount(1, "2019-07-17", 1, 1),
+                getRatingCount(1, "2019-07-18", 1, 2),
+                getRatingCount(1, "2019-07-18", 4, 1),
+                getRatingCount(2, "2019-07-18", 2, 1)), 5);
+
+        List<CategoryScoreDistribution> distributions = rollupStore.getCategoryScoreDistributions(epochDay("2019-07-17"), epochDay("2019-07-18"), categoryDimension);
+
+        assertEquals(2, distributions.size());
+        CategoryScoreDistribution first = distributions.stream().filter(distribution -> FIRST_CATEGORY.equals(distribution.getCategoryName())).findFirst().orElseThrow();
+        assertEquals(4, first.getRatingsCount());
+        assertEquals(3, first.getCount(20));
+        assertEquals(1, first.getCount(80));
+        assertEquals(0, first.getCount(100));
+        assertEquals(20, first.getPercentileScore(50));
+        assertEquals(80, first.getPercentileScore(90));
+    }
+
+    @Test
+    void shouldReturnNothingWhenRangeIsEmpty() {
+        DailyRollupStore rollupStore = new DailyRollupStore();
+        rollupStore.addAll(List.of(getRatingCount(1, "2019-07-17", 1, 1)), 1);
+
+        assertTrue(rollupStore.getCategoryBucketScores(epochDay("2019-07-18"), epochDay("2019-07-17"), TimeBucket.DAY, categoryDimension).isEmpty());
+        assertEquals(0, rollupStore.getScoreTotal(epochDay("2019-07-18"), epochDay("2019-07-17"), categoryDimension).getRatingsCount());
+    }
+
+    private long epochDay(String day) {
+        return LocalDate.parse(day).toEpochDay();
+    }
+
+    private CategoryRatingCount getRatingCount(long categoryId, String day, int rating, long ratingsCount) {
+        CategoryRatingCount ratingCount = new CategoryRatingCount();
+        ratingCount.setCategoryId(categoryId);
+        ratingCount.setBucketStart(epochDay(day) * SECONDS_PER_DAY);
+        ratingCount.setRating(rating);
+        ratingCount.setRatingsCount(ratingsCount);
+        return ratingCount;
+    }
+}
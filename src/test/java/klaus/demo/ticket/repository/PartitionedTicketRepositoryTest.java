@@ -0,0 +1,148 @@
+package klaus.demo.ticket.repository;
+
+import klaus.demo.ticket.cancellation.CancellationCounters;
+import klaus.demo.ticket.domain.Period;
+import klaus.demo.ticket.domain.ScoreTotal;
+import klaus.demo.ticket.domain.TicketScore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionedTicketRepositoryTest {
+    private static final LocalDateTime JULY_START = LocalDateTime.parse("2019-07-01T00:00:00");
+    private static final LocalDateTime JULY_END = LocalDateTime.parse("2019-07-31T23:59:59");
+    private static final LocalDateTime AUGUST_END = LocalDateTime.parse("2019-08-31T23:59:59");
+
+    @TempDir
+    Path directory;
+
+    private SingleConnectionDataSource categoriesDataSource;
+    private JdbcTemplate july;
+    private JdbcTemplate august;
+    private PartitionedTicketRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        categoriesDataSource = new SingleConnectionDataSource("jdbc:sqlite::memory:", true);
+        NamedParameterJdbcTemplate categoriesTemplate = new NamedParameterJdbcTemplate(categoriesDataSource);
+        categoriesTemplate.getJdbcTemplate().execute("CREATE TABLE rating_categories(id integer primary key autoincrement, name text not null, weight real not null)");
+        categoriesTemplate.getJdbcTemplate().execute("INSERT INTO rating_categories(name, weight) VALUES ('Spelling', 1), ('Tone', 0.7)");
+
+        july = createPartition("ratings-2019-07.db");
+        august = createPartition("ratings-2019-08.db");
+        july.update("INSERT INTO ratings(id, rating, ticket_id, rating_category_id, created_at) VALUES (1, 5, 1, 1, '2019-07-31T22:00:00')");
+        july.update("INSERT INTO ratings(id, rating, ticket_id, rating_category_id, created_at) VALUES (2, 5, 2, 2, '2019-07-15T10:00:00')");
+        august.update("INSERT INTO ratings(id, rating, ticket_id, rating_category_id, created_at) VALUES (3, 0, 1, 1, '2019-08-01T01:00:00')");
+
+        repository = new PartitionedTicketRepository(new CategoryDimension(categoriesTemplate), new CancellationCounters(),
+                new RatingsSchema(categoriesTemplate, "jdbc:sqlite::memory:", true, 1000), directory.toString(), 1, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.destroy();
+        categoriesDataSource.destroy();
+    }
+
+    @Test
+    void shouldMergeScoresOfAllPartitionsInRange() {
+        ScoreTotal scoreTotal = repository.getScoreTotalBetweenDates(JULY_START, AUGUST_END);
+        assertEquals(3, scoreTotal.getRatingsCount());
+        assertEquals(200, scoreTotal.getScoreSum());
+        assertEquals(62, scoreTotal.getAverageScore());
+
+        List<TicketScore> ticketScores = new ArrayList<>();
+        repository.streamCategoryScoresOfTicketsBetweenDates(JULY_START, AUGUST_END, ticketScores::add);
+        assertEquals(2, ticketScores.size());
+        assertEquals(1L, ticketScores.get(0).getTicketId());
+        assertEquals("Spelling", ticketScores.get(0).getCategoryName());
+        assertEquals(100, ticketScores.get(0).getScoreSum());
+        assertEquals(2, ticketScores.get(0).getRatingsCount());
+        assertEquals(2L, ticketScores.get(1).getTicketId());
+        assertEquals(3, repository.getRatingsWatermark());
+    }
+
+    @Test
+    void shouldClipRangeToEachPartition() {
+        assertEquals(1, repository.getScoreTotalBetweenDates(LocalDateTime.parse("2019-07-31T12:00:00"), LocalDateTime.parse("2019-08-01T00:30:00"))
+                .getRatingsCount());
+        assertEquals(1, repository.getScoreTotalBetweenDates(LocalDateTime.parse("2019-08-01T00:00:00"), AUGUST_END).getRatingsCount());
+        assertEquals(0, repository.getScoreTotalBetweenDates(LocalDateTime.parse("2019-09-01T00:00:00"), LocalDateTime.parse("2019-12-31T00:00:00"))
+                .getRatingsCount());
+    }
+
+    @Test
+    void shouldLimitPageToFirstTicketsOverAllPartitions() {
+        List<TicketScore> ticketScores = new ArrayList<>();
+        repository.streamCategoryScoresOfTicketsPage(JULY_START, AUGUST_END, 0, 1, ticketScores::add);
+
+        assertEquals(1, ticketScores.size());
+        assertEquals(1L, ticketScores.get(0).getTicketId());
+        assertEquals(2, ticketScores.get(0).getRatingsCount());
+    }
+
+    @Test
+    void shouldEndPageBeforeTicketsPastAFullPartitionPage() {
+        // ticket 5 has no scored rating and fills July's page of one, ticket 6 is on both partitions
+        july.update("INSERT INTO ratings(id, rating, ticket_id, rating_category_id, created_at) VALUES (4, 5, 5, 99, '2019-07-20T10:00:00')");
+        july.update("INSERT INTO ratings(id, rating, ticket_id, rating_category_id, created_at) VALUES (5, 5, 6, 1, '2019-07-21T10:00:00')");
+        august.update("INSERT INTO ratings(id, rating, ticket_id, rating_category_id, created_at) VALUES (6, 4, 6, 1, '2019-08-02T10:00:00')");
+
+        List<TicketScore> firstPage = new ArrayList<>();
+        OptionalLong firstPageEnd = repository.streamCategoryScoresOfTicketsPage(JULY_START, AUGUST_END, 2, 1, firstPage::add);
+        List<TicketScore> secondPage = new ArrayList<>();
+        OptionalLong secondPageEnd = repository.streamCategoryScoresOfTicketsPage(JULY_START, AUGUST_END, 5, 1, secondPage::add);
+
+        assertTrue(firstPage.isEmpty());
+        assertEquals(OptionalLong.of(5), firstPageEnd);
+        assertEquals(1, secondPage.size());
+        assertEquals(6L, secondPage.get(0).getTicketId());
+        assertEquals(2, secondPage.get(0).getRatingsCount());
+        assertEquals(OptionalLong.of(6), secondPageEnd);
+    }
+
+    @Test
+    void shouldAddUpPeriodsOverAllPartitions() {
+        List<ScoreTotal> scoreTotals = repository.getScoreTotalsOfPeriods(List.of(
+                new Period(JULY_START, AUGUST_END),
+                new Period(LocalDateTime.parse("2019-07-31T12:00:00"), LocalDateTime.parse("2019-08-01T00:30:00")),
+                new Period(LocalDateTime.parse("2019-08-01T00:00:00"), AUGUST_END),
+                new Period(LocalDateTime.parse("2019-09-01T00:00:00"), LocalDateTime.parse("2019-12-31T00:00:00")),
+                new Period(AUGUST_END, JULY_START)));
+
+        assertEquals(List.of(3L, 1L, 1L, 0L, 0L), scoreTotals.stream().map(ScoreTotal::getRatingsCount).collect(toList()));
+        assertEquals(200, scoreTotals.get(0).getScoreSum());
+        assertEquals(62, scoreTotals.get(0).getAverageScore());
+        assertEquals(0, scoreTotals.get(2).getScoreSum());
+    }
+
+    @Test
+    void shouldKeepResultsCoveringWholePastPartition() {
+        assertEquals(2, repository.getScoreTotalBetweenDates(JULY_START, JULY_END).getRatingsCount());
+        july.update("DELETE FROM ratings WHERE id = 2");
+
+        assertEquals(2, repository.getScoreTotalBetweenDates(JULY_START, JULY_END).getRatingsCount());
+        assertEquals(1, repository.getScoreTotalBetweenDates(JULY_START.plusDays(1), JULY_END).getRatingsCount());
+    }
+
+    private JdbcTemplate createPartition(String fileName) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:sqlite:" + directory.resolve(fileName)));
+        jdbcTemplate.execute("CREATE TABLE ratings(id integer primary key autoincrement, rating integer not null, ticket_id integer not null, "
+                + "rating_category_id integer not null, reviewer_id integer, reviewee_id integer, created_at datetime)");
+        return jdbcTemplate;
+    }
+}
@@ -0,0 +1,40 @@
+package klaus.demo.ticket.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PeriodSegmentsTest {
+
+    @Test
+    void shouldCutOverlappingPeriodsIntoSegmentsCoveredByThem() {
+        PeriodSegments periodSegments = new PeriodSegments();
+        periodSegments.add(0, 0, 9);
+        periodSegments.add(1, 5, 14);
+        periodSegments.add(2, 20, 20);
+
+        List<List<Object>> segments = periodSegments.getSegments().stream().map(List::of).collect(toList());
+        assertEquals(List.of(
+                List.of(0, 0L, 4L),
+                List.of(1, 5L, 9L),
+                List.of(2, 10L, 14L),
+                List.of(3, 20L, 20L)), segments);
+        assertArrayEquals(new int[]{0}, periodSegments.getPeriodIndexes(0));
+        assertArrayEquals(new int[]{0, 1}, periodSegments.getPeriodIndexes(1));
+        assertArrayEquals(new int[]{1}, periodSegments.getPeriodIndexes(2));
+        assertArrayEquals(new int[]{2}, periodSegments.getPeriodIndexes(3));
+    }
+
+    @Test
+    void shouldLeaveOutEmptyRanges() {
+        PeriodSegments periodSegments = new PeriodSegments();
+        periodSegments.add(0, 10, 9);
+
+        assertTrue(periodSegments.isEmpty());
+    }
+}
@@ -0,0 +1,64 @@
+package klaus.demo.ticket.repository;
+
+import klaus.demo.ticket.domain.Rating;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RatingWriterTest {
+    private String url;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp(@TempDir Path tempDir) {
+        url = "jdbc:sqlite:" + tempDir.resolve("ratings.db");
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(url));
+        jdbcTemplate.execute("CREATE TABLE ratings(id integer primary key autoincrement, rating integer not null, ticket_id integer not null, "
+                + "rating_category_id integer not null, reviewer_id integer, reviewee_id integer, created_at datetime, "
+                + "created_at_epoch integer)");
+    }
+
+    @Test
+    void shouldInsertBatchAndReturnLastRowId() {
+        RatingWriter ratingWriter = new RatingWriter(url, 1000);
+
+        assertEquals(2, ratingWriter.insert(List.of(getRating(4, null), getRating(5, 7L))));
+        assertEquals(3, ratingWriter.insert(List.of(getRating(1, null))));
+
+        assertEquals(3, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM ratings", Integer.class));
+        assertEquals("2019-07-17T15:49:14", jdbcTemplate.queryForObject("SELECT created_at FROM ratings WHERE id = 1", String.class));
+        assertEquals(1563378554L, jdbcTemplate.queryForObject("SELECT created_at_epoch FROM ratings WHERE id = 1", Long.class));
+        assertNull(jdbcTemplate.queryForObject("SELECT reviewer_id FROM ratings WHERE id = 1", Long.class));
+        assertEquals(7L, jdbcTemplate.queryForObject("SELECT reviewer_id FROM ratings WHERE id = 2", Long.class));
+    }
+
+    @Test
+    void shouldRollBackWholeBatchWhenOneRatingFails() {
+        RatingWriter ratingWriter = new RatingWriter(url, 1000);
+        Rating rejected = getRating(3, null);
+        jdbcTemplate.execute("CREATE TRIGGER reject_rating_three BEFORE INSERT ON ratings WHEN NEW.rating = 3 "
+                + "BEGIN SELECT RAISE(ABORT, 'rejected'); END");
+
+        assertThrows(RuntimeException.class, () -> ratingWriter.insert(List.of(getRating(4, null), rejected)));
+
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM ratings", Integer.class));
+    }
+
+    private static Rating getRating(int value, Long reviewerId) {
+        Rating rating = new Rating();
+        rating.setTicketId(123);
+        rating.setCategoryId(1);
+        rating.setRating(value);
+        rating.setCreatedAt(LocalDateTime.parse("2019-07-17T15:49:14"));
+        rating.setReviewerId(reviewerId);
+        return rating;
+    }
+}
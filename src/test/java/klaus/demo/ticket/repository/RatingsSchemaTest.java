@@ -0,0 +1,82 @@
+package klaus.demo.ticket.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RatingsSchemaTest {
+    private String url;
+    private JdbcTemplate jdbcTemplate;
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @BeforeEach
+    void setUp(@TempDir Path tempDir) {
+        url = "jdbc:sqlite:" + tempDir.resolve("ratings.db");
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(url));
+        namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        jdbcTemplate.execute("CREATE TABLE ratings(id integer primary key autoincrement, rating integer not null, ticket_id integer not null, "
+                + "rating_category_id integer not null, reviewer_id integer, reviewee_id integer, created_at datetime)");
+        jdbcTemplate.execute("CREATE INDEX ratings_created_at ON ratings(created_at)");
+        jdbcTemplate.update("INSERT INTO ratings(rating, ticket_id, rating_category_id, created_at) VALUES (5, 1, 1, '2019-07-17T15:49:14')");
+    }
+
+    @Test
+    void shouldMigrateUntilEveryQueryRangeScans() {
+        RatingsSchema ratingsSchema = new RatingsSchema(namedParameterJdbcTemplate, url, true, 1000);
+
+        assertEquals(Map.of(), ratingsSchema.findTableScans(namedParameterJdbcTemplate));
+        assertEquals(1563378554L, jdbcTemplate.queryForObject("SELECT created_at_epoch FROM ratings WHERE id = 1", Long.class));
+
+        jdbcTemplate.update("INSERT INTO ratings(rating, ticket_id, rating_category_id, created_at) VALUES (4, 2, 1, '2019-07-18T00:00:00')");
+        jdbcTemplate.update("INSERT INTO ratings(rating, ticket_id, rating_category_id) VALUES (3, 3, 1)");
+        jdbcTemplate.update("UPDATE ratings SET created_at = '2019-07-17T00:00:00' WHERE id = 3");
+        assertEquals(1563408000L, jdbcTemplate.queryForObject("SELECT created_at_epoch FROM ratings WHERE id = 2", Long.class));
+        assertEquals(1563321600L, jdbcTemplate.queryForObject("SELECT created_at_epoch FROM ratings WHERE id = 3", Long.class));
+    }
+
+    @Test
+    void shouldRecordDaysOfChangedRatings() {
+        new RatingsSchema(namedParameterJdbcTemplate, url, true, 1000);
+
+        jdbcTemplate.update("UPDATE ratings SET reviewer_id = 7 WHERE id = 1");
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM rating_changes", Integer.class));
+
+        jdbcTemplate.update("UPDATE ratings SET created_at = '2019-07-01T00:00:00' WHERE id = 1");
+        assertEquals(List.of(18078L, 18094L), jdbcTemplate.queryForList("SELECT epoch_day FROM rating_changes ORDER BY epoch_day", Long.class));
+
+        jdbcTemplate.update("DELETE FROM ratings WHERE id = 1");
+        assertEquals(18078L, jdbcTemplate.queryForObject("SELECT epoch_day FROM rating_changes ORDER BY version DESC LIMIT 1", Long.class));
+    }
+
+    @Test
+    void shouldOnlyReportScansWhenMigrationsAreDisabled() {
+        RatingsSchema ratingsSchema = new RatingsSchema(namedParameterJdbcTemplate, url, false, 1000);
+
+        Map<String, String> tableScans = ratingsSchema.findTableScans(namedParameterJdbcTemplate);
+        assertTrue(tableScans.containsKey("select_category_rating_counts_between_dates.sql"));
+        assertFalse(tableScans.containsKey("select_ratings_count.sql"));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM pragma_table_info('ratings') WHERE name = 'created_at_epoch'",
+                Integer.class));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM sqlite_master WHERE name = 'rating_changes'", Integer.class));
+    }
+
+    @Test
+    void shouldNotMigrateWhenEveryQueryRangeScans() {
+        new RatingsSchema(namedParameterJdbcTemplate, url, true, 1000);
+        jdbcTemplate.execute("DROP TRIGGER ratings_created_at_epoch_update");
+
+        new RatingsSchema(namedParameterJdbcTemplate, url, true, 1000);
+
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM sqlite_master WHERE name = 'ratings_created_at_epoch_update'",
+                Integer.class));
+    }
+}
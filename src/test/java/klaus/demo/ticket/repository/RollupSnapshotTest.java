@@ -0,0 +1,187 @@
+package klaus.demo.ticket.repository;
+
+import klaus.demo.ticket.cancellation.CancellationCounters;
+import klaus.demo.ticket.domain.CategoryRatingCount;
+import klaus.demo.ticket.domain.ScoreTotal;
+import klaus.demo.ticket.domain.TimeBucket;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static klaus.demo.ticket.domain.TimeBucket.SECONDS_PER_DAY;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RollupSnapshotTest {
+    private static final LocalDateTime JULY_START = LocalDateTime.parse("2019-07-01T00:00:00");
+    private static final LocalDateTime JULY_END = LocalDateTime.parse("2019-07-31T23:59:59");
+
+    @TempDir
+    Path directory;
+
+    private Path snapshotFile;
+    private String url;
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        snapshotFile = directory.resolve("rollups.snapshot");
+        url = "jdbc:sqlite:" + directory.resolve("ratings.db");
+        jdbcTemplate = new NamedParameterJdbcTemplate(new DriverManagerDataSource(url));
+        jdbcTemplate.getJdbcTemplate().execute("CREATE TABLE rating_categories(id integer primary key autoincrement, name text not null, weight real not null)");
+        jdbcTemplate.getJdbcTemplate().update("INSERT INTO rating_categories(name, weight) VALUES ('Spelling', 1), ('Tone', 0.7)");
+        jdbcTemplate.getJdbcTemplate().execute("CREATE TABLE ratings(id integer primary key autoincrement, rating integer not null, ticket_id integer not null, "
+                + "rating_category_id integer not null, reviewer_id integer, reviewee_id integer, created_at datetime, created_at_epoch integer)");
+    }
+
+    @Test
+    void shouldReadWhatWasWritten() throws IOException {
+        DailyRollupStore rollupStore = new DailyRollupStore();
+        rollupStore.addAll(List.of(getRatingCount(1, "2019-07-17", 2, 3), getRatingCount(2, "2019-07-17", 5, 1),
+                getRatingCount(1, "2019-07-18", 0, 4)), 8);
+        rollupStore.writeSnapshot(snapshotFile, 42);
+
+        RollupSnapshot snapshot = RollupSnapshot.read(snapshotFile);
+
+        assertEquals(8, snapshot.getWatermark());
+        assertEquals(42, snapshot.getFingerprint());
+        assertEquals(3, snapshot.getRecordCount());
+        long july17 = LocalDate.parse("2019-07-17").toEpochDay();
+        assertEquals(0, snapshot.findFirstRecord(july17));
+        assertEquals(2, snapshot.findFirstRecord(july17 + 1));
+        assertEquals(3, snapshot.findFirstRecord(july17 + 2));
+        assertRecord(snapshot, 0, july17, 1, new long[]{0, 0, 3, 0, 0, 0});
+        assertRecord(snapshot, 1, july17, 2, new long[]{0, 0, 0, 0, 0, 1});
+        assertRecord(snapshot, 2, july17 + 1, 1, new long[]{4, 0, 0, 0, 0, 0});
+    }
+
+    @Test
+    void shouldAddCountsSinceSnapshotToItsRecords() throws IOException {
+        CategoryDimension categoryDimension = new CategoryDimension(jdbcTemplate);
+        DailyRollupStore rollupStore = new DailyRollupStore();
+        rollupStore.addAll(List.of(getRatingCount(1, "2019-07-17", 2, 3), getRatingCount(2, "2019-07-17", 5, 1),
+                getRatingCount(1, "2019-07-18", 0, 4)), 8);
+        rollupStore.writeSnapshot(snapshotFile, 42);
+
+        rollupStore.addAll(List.of(getRatingCount(1, "2019-07-17", 2, 1)), 9);
+        rollupStore.rebuildDays(List.of(LocalDate.parse("2019-07-18").toEpochDay()), List.of(getRatingCount(1, "2019-07-18", 5, 2)), 9, 1);
+
+        long july17 = LocalDate.parse("2019-07-17").toEpochDay();
+        ScoreTotal scoreTotal = rollupStore.getScoreTotal(july17, july17 + 1, categoryDimension);
+        assertEquals(7, scoreTotal.getRatingsCount());
+        assertEquals(4 * 40 + 100 + 2 * 100, scoreTotal.getScoreSum());
+        assertEquals(2, rollupStore.getScoreTotal(july17 + 1, july17 + 1, categoryDimension).getRatingsCount());
+
+        rollupStore.writeSnapshot(snapshotFile, 43);
+        DailyRollupStore restarted = new DailyRollupStore();
+        restarted.load(RollupSnapshot.read(snapshotFile));
+        ScoreTotal restartedScoreTotal = restarted.getScoreTotal(july17, july17 + 1, categoryDimension);
+        assertEquals(7, restartedScoreTotal.getRatingsCount());
+        assertEquals(4 * 40 + 100 + 2 * 100, restartedScoreTotal.getScoreSum());
+        assertEquals(1, restarted.getChangeVersion());
+    }
+
+    @Test
+    void shouldRejectCorruptSnapshot() throws IOException {
+        DailyRollupStore rollupStore = new DailyRollupStore();
+        rollupStore.addAll(List.of(getRatingCount(1, "2019-07-17", 2, 3)), 3);
+        rollupStore.writeSnapshot(snapshotFile, 42);
+
+        byte[] bytes = Files.readAllBytes(snapshotFile);
+        bytes[30] ^= 1;
+        Files.write(snapshotFile, bytes);
+
+        assertThrows(IOException.class, () -> RollupSnapshot.read(snapshotFile));
+    }
+
+    @Test
+    void shouldCatchUpFromSnapshotWatermarkOnRestart() throws IOException {
+        insertRating(1, 1, 5, "2019-07-01T10:00:00");
+        insertRating(2, 2, 3, "2019-07-02T10:00:00");
+        JdbcTicketRepository repository = createRepository();
+        repository.writeSnapshot();
+        assertEquals(2, RollupSnapshot.read(snapshotFile).getWatermark());
+
+        insertRating(3, 1, 1, "2019-07-03T10:00:00");
+        JdbcTicketRepository restarted = createRepository();
+
+        ScoreTotal scoreTotal = restarted.getScoreTotalBetweenDates(JULY_START, JULY_END);
+        assertEquals(3, scoreTotal.getRatingsCount());
+        assertEquals(100 + 60 + 20, scoreTotal.getScoreSum());
+        assertEquals(3, restarted.getCategoryBucketScoresBetweenDates(JULY_START, JULY_END, TimeBucket.DAY).size());
+    }
+
+    @Test
+    void shouldIgnoreSnapshotOfAnotherDatabase() {
+        insertRating(1, 1, 5, "2019-07-01T10:00:00");
+        createRepository().writeSnapshot();
+
+        jdbcTemplate.getJdbcTemplate().update("DELETE FROM ratings");
+        jdbcTemplate.getJdbcTemplate().update("DELETE FROM sqlite_sequence");
+        insertRating(7, 2, 1, "2019-07-05T10:00:00");
+        JdbcTicketRepository restarted = createRepository();
+
+        ScoreTotal scoreTotal = restarted.getScoreTotalBetweenDates(JULY_START, JULY_END);
+        assertEquals(1, scoreTotal.getRatingsCount());
+        assertEquals(20, scoreTotal.getScoreSum());
+    }
+
+    @Test
+    void shouldRebuildDaysOfChangedRatings() {
+        new RatingsSchema(jdbcTemplate, url, true, 1000);
+        insertRating(1, 1, 5, "2019-07-01T10:00:00");
+        insertRating(2, 2, 3, "2019-07-02T10:00:00");
+        insertRating(3, 1, 1, "2019-07-03T10:00:00");
+        JdbcTicketRepository repository = createRepository();
+        repository.writeSnapshot();
+
+        jdbcTemplate.getJdbcTemplate().update("UPDATE ratings SET rating = 0 WHERE id = 1");
+        jdbcTemplate.getJdbcTemplate().update("DELETE FROM ratings WHERE id = 2");
+        insertRating(4, 1, 5, "2019-07-01T12:00:00");
+
+        ScoreTotal scoreTotal = repository.getScoreTotalBetweenDates(JULY_START, JULY_END);
+        assertEquals(3, scoreTotal.getRatingsCount());
+        assertEquals(0 + 20 + 100, scoreTotal.getScoreSum());
+        assertEquals(2, repository.getCategoryBucketScoresBetweenDates(JULY_START, JULY_END, TimeBucket.DAY).size());
+
+        ScoreTotal restartedScoreTotal = createRepository().getScoreTotalBetweenDates(JULY_START, JULY_END);
+        assertEquals(3, restartedScoreTotal.getRatingsCount());
+        assertEquals(0 + 20 + 100, restartedScoreTotal.getScoreSum());
+    }
+
+    private JdbcTicketRepository createRepository() {
+        return new JdbcTicketRepository(jdbcTemplate, new CategoryDimension(jdbcTemplate), new CancellationCounters(), true, 500,
+                snapshotFile.toString());
+    }
+
+    private void insertRating(long ticketId, long categoryId, int rating, String createdAt) {
+        jdbcTemplate.getJdbcTemplate().update("INSERT INTO ratings(rating, ticket_id, rating_category_id, created_at, created_at_epoch) VALUES (?, ?, ?, ?, ?)",
+                rating, ticketId, categoryId, createdAt, LocalDateTime.parse(createdAt).toEpochSecond(ZoneOffset.UTC));
+    }
+
+    private static void assertRecord(RollupSnapshot snapshot, int record, long epochDay, long categoryId, long[] counts) {
+        assertEquals(epochDay, snapshot.getEpochDay(record));
+        assertEquals(categoryId, snapshot.getCategoryId(record));
+        long[] readCounts = new long[counts.length];
+        snapshot.readCounts(record, readCounts);
+        assertArrayEquals(counts, readCounts);
+    }
+
+    private static CategoryRatingCount getRatingCount(long categoryId, String day, int rating, long ratingsCount) {
+        CategoryRatingCount ratingCount = new CategoryRatingCount();
+        ratingCount.setCategoryId(categoryId);
+        ratingCount.setBucketStart(LocalDate.parse(day).toEpochDay() * SECONDS_PER_DAY);
+        ratingCount.setRating(rating);
+        ratingCount.setRatingsCount(ratingsCount);
+        return ratingCount;
+    }
+}
@@ -0,0 +1,225 @@
+package klaus.demo.ticket.repository;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import klaus.demo.ticket.cancellation.CancellationCounters;
+import klaus.demo.ticket.domain.CategoryBucketScore;
+import klaus.demo.ticket.domain.CategoryScoreDistribution;
+import klaus.demo.ticket.domain.Period;
+import klaus.demo.ticket.domain.ScoreTotal;
+import klaus.demo.ticket.domain.TicketScore;
+import klaus.demo.ticket.domain.TimeBucket;
+import klaus.demo.ticket.service.PartialAggregateServiceImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedTicketRepositoryTest {
+    private static final LocalDateTime JULY_START = LocalDateTime.parse("2019-07-01T00:00:00");
+    private static final LocalDateTime JULY_END = LocalDateTime.parse("2019-07-31T23:59:59");
+
+    @TempDir
+    Path directory;
+
+    private final ExecutorService streamingExecutor = Executors.newFixedThreadPool(4);
+    private final List<Server> servers = new ArrayList<>();
+    private final Map<String, ManagedChannel> channels = new LinkedHashMap<>();
+    private NamedParameterJdbcTemplate first;
+    private JdbcTicketRepository singleRepository;
+    private ShardedTicketRepository shardedRepository;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // the shards number their categories differently, they are matched up by name
+        first = createDatabase("first.db", "Spelling", "Tone");
+        insertRating(first, 1, 1, 5, "2019-07-01T10:00:00");
+        insertRating(first, 1, 2, 3, "2019-07-02T10:00:00");
+        insertRating(first, 3, 1, 2, "2019-07-03T10:00:00");
+        NamedParameterJdbcTemplate second = createDatabase("second.db", "Tone", "Spelling");
+        insertRating(second, 2, 1, 4, "2019-07-01T12:00:00");
+        insertRating(second, 3, 2, 4, "2019-07-03T12:00:00");
+        insertRating(second, 3, 1, 1, "2019-07-10T12:00:00");
+
+        NamedParameterJdbcTemplate single = createDatabase("single.db", "Spelling", "Tone");
+        insertRating(single, 1, 1, 5, "2019-07-01T10:00:00");
+        insertRating(single, 1, 2, 3, "2019-07-02T10:00:00");
+        insertRating(single, 3, 1, 2, "2019-07-03T10:00:00");
+        insertRating(single, 2, 2, 4, "2019-07-01T12:00:00");
+        insertRating(single, 3, 1, 4, "2019-07-03T12:00:00");
+        insertRating(single, 3, 2, 1, "2019-07-10T12:00:00");
+        singleRepository = createRepository(single);
+
+        startShard("first", createRepository(first));
+        startShard("second", createRepository(second));
+        shardedRepository = new ShardedTicketRepository(channels, 5000);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        shardedRepository.destroy();
+        for (Server server : servers) {
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+        streamingExecutor.shutdownNow();
+    }
+
+    @Test
+    void shouldMergeAggregatesLikeOneInstanceWithAllRatings() {
+        ScoreTotal expectedTotal = singleRepository.getScoreTotalBetweenDates(JULY_START, JULY_END);
+        ScoreTotal scoreTotal = shardedRepository.getScoreTotalBetweenDates(JULY_START, JULY_END);
+        assertEquals(6, scoreTotal.getRatingsCount());
+        assertEquals(expectedTotal.getScoreSum(), scoreTotal.getScoreSum());
+        assertEquals(expectedTotal.getAverageScore(), scoreTotal.getAverageScore());
+
+        List<Period> periods = List.of(new Period(JULY_START, JULY_START.plusDays(2)), new Period(JULY_START.plusDays(2), JULY_END));
+        assertEquals(getTotals(singleRepository.getScoreTotalsOfPeriods(periods)), getTotals(shardedRepository.getScoreTotalsOfPeriods(periods)));
+
+        for (TimeBucket bucket : TimeBucket.values()) {
+            assertEquals(getBuckets(singleRepository.getCategoryBucketScoresBetweenDates(JULY_START, JULY_END, bucket)),
+                    getBuckets(shardedRepository.getCategoryBucketScoresBetweenDates(JULY_START, JULY_END, bucket)));
+        }
+
+        assertEquals(getDistributions(singleRepository.getCategoryScoreDistributionsBetweenDates(JULY_START, JULY_END)),
+                getDistributions(shardedRepository.getCategoryScoreDistributionsBetweenDates(JULY_START, JULY_END)));
+        assertEquals(6, shardedRepository.getRatingsWatermark());
+    }
+
+    @Test
+    void shouldMergeTicketRowsOfAllShardsInTicketOrder() {
+        List<TicketScore> expected = new ArrayList<>();
+        singleRepository.streamCategoryScoresOfTicketsBetweenDates(JULY_START, JULY_END, expected::add);
+        List<TicketScore> ticketScores = new ArrayList<>();
+        shardedRepository.streamCategoryScoresOfTicketsBetweenDates(JULY_START, JULY_END, ticketScores::add);
+
+        assertEquals(List.of(1L, 1L, 2L, 3L, 3L), ticketScores.stream().map(TicketScore::getTicketId).collect(toList()));
+        assertEquals(getTicketScores(expected), getTicketScores(ticketScores));
+    }
+
+    @Test
+    void shouldPageOverTicketsOfAllShards() {
+        List<TicketScore> firstPage = new ArrayList<>();
+        shardedRepository.streamCategoryScoresOfTicketsPage(JULY_START, JULY_END, Long.MIN_VALUE, 2, firstPage::add);
+        List<TicketScore> secondPage = new ArrayList<>();
+        shardedRepository.streamCategoryScoresOfTicketsPage(JULY_START, JULY_END, 2, 2, secondPage::add);
+
+        assertEquals(List.of(1L, 1L, 2L), firstPage.stream().map(TicketScore::getTicketId).collect(toList()));
+        assertEquals(List.of(3L, 3L), secondPage.stream().map(TicketScore::getTicketId).collect(toList()));
+        TicketScore spelling = secondPage.stream().filter(ticketScore -> "Spelling".equals(ticketScore.getCategoryName())).findFirst().orElseThrow();
+        assertEquals(2, spelling.getRatingsCount());
+    }
+
+    @Test
+    void shouldEndPageAtLastTicketOfFullShardPage() {
+        // ticket 0 has no scored rating but takes the first of the two tickets of the first shard's page
+        insertRating(first, 0, 99, 5, "2019-07-01T09:00:00");
+
+        List<TicketScore> firstPage = new ArrayList<>();
+        OptionalLong firstPageEnd = shardedRepository.streamCategoryScoresOfTicketsPage(JULY_START, JULY_END, Long.MIN_VALUE, 2, firstPage::add);
+        List<TicketScore> secondPage = new ArrayList<>();
+        OptionalLong secondPageEnd = shardedRepository.streamCategoryScoresOfTicketsPage(JULY_START, JULY_END, 1, 2, secondPage::add);
+
+        assertEquals(List.of(1L, 1L), firstPage.stream().map(TicketScore::getTicketId).collect(toList()));
+        assertEquals(OptionalLong.of(1), firstPageEnd);
+        assertEquals(List.of(2L, 3L, 3L), secondPage.stream().map(TicketScore::getTicketId).collect(toList()));
+        assertEquals(OptionalLong.of(3), secondPageEnd);
+    }
+
+    @Test
+    void shouldFailWhenAShardFails() throws Exception {
+        servers.get(1).shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                () -> shardedRepository.getScoreTotalBetweenDates(JULY_START, JULY_END));
+        assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+        assertTrue(e.getStatus().getDescription().contains("shard second"));
+
+        assertThrows(StatusRuntimeException.class,
+                () -> shardedRepository.streamCategoryScoresOfTicketsBetweenDates(JULY_START, JULY_END, ticketScore -> {
+                }));
+    }
+
+    private NamedParameterJdbcTemplate createDatabase(String fileName, String firstCategory, String secondCategory) {
+        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(
+                new DriverManagerDataSource("jdbc:sqlite:" + directory.resolve(fileName)));
+        jdbcTemplate.getJdbcTemplate().execute("CREATE TABLE rating_categories(id integer primary key autoincrement, name text not null, weight real not null)");
+        jdbcTemplate.getJdbcTemplate().update("INSERT INTO rating_categories(name, weight) VALUES (?, ?)", firstCategory, "Spelling".equals(firstCategory) ? 1 : 0.7);
+        jdbcTemplate.getJdbcTemplate().update("INSERT INTO rating_categories(name, weight) VALUES (?, ?)", secondCategory, "Spelling".equals(secondCategory) ? 1 : 0.7);
+        jdbcTemplate.getJdbcTemplate().execute("CREATE TABLE ratings(id integer primary key autoincrement, rating integer not null, ticket_id integer not null, "
+                + "rating_category_id integer not null, reviewer_id integer, reviewee_id integer, created_at datetime, created_at_epoch integer)");
+        return jdbcTemplate;
+    }
+
+    private static void insertRating(NamedParameterJdbcTemplate jdbcTemplate, long ticketId, long categoryId, int rating, String createdAt) {
+        jdbcTemplate.getJdbcTemplate().update("INSERT INTO ratings(rating, ticket_id, rating_category_id, created_at, created_at_epoch) VALUES (?, ?, ?, ?, ?)",
+                rating, ticketId, categoryId, createdAt, LocalDateTime.parse(createdAt).toEpochSecond(ZoneOffset.UTC));
+    }
+
+    private static JdbcTicketRepository createRepository(NamedParameterJdbcTemplate jdbcTemplate) {
+        return new JdbcTicketRepository(jdbcTemplate, new CategoryDimension(jdbcTemplate), new CancellationCounters(), false, 500, "");
+    }
+
+    private void startShard(String name, TicketRepository ticketRepository) throws Exception {
+        servers.add(InProcessServerBuilder.forName(name)
+                .addService(new PartialAggregateServiceImpl(ticketRepository, streamingExecutor, new CancellationCounters()))
+                .build()
+                .start());
+        channels.put(name, InProcessChannelBuilder.forName(name).build());
+    }
+
+    private static List<String> getTotals(List<ScoreTotal> scoreTotals) {
+        return scoreTotals.stream()
+                .map(scoreTotal -> scoreTotal.getScoreSum() + "/" + scoreTotal.getRatingsCount() + "/" + scoreTotal.getAverageScore())
+                .collect(toList());
+    }
+
+    private static List<String> getBuckets(List<CategoryBucketScore> bucketScores) {
+        return bucketScores.stream()
+                .map(bucketScore -> bucketScore.getCategoryName() + "/" + bucketScore.getBucketStart() + "/" + bucketScore.getScoreSum()
+                        + "/" + bucketScore.getRatingsCount())
+                .sorted()
+                .collect(toList());
+    }
+
+    private static List<String> getDistributions(List<CategoryScoreDistribution> distributions) {
+        List<String> histograms = new ArrayList<>();
+        for (CategoryScoreDistribution distribution : distributions) {
+            for (int score = 0; score <= CategoryScoreDistribution.MAX_SCORE; score++) {
+                if (distribution.getCount(score) > 0) {
+                    histograms.add(distribution.getCategoryName() + "/" + score + "/" + distribution.getCount(score));
+                }
+            }
+        }
+        histograms.sort(String::compareTo);
+        return histograms;
+    }
+
+    private static List<String> getTicketScores(List<TicketScore> ticketScores) {
+        return ticketScores.stream()
+                .map(ticketScore -> ticketScore.getTicketId() + "/" + ticketScore.getCategoryName() + "/" + ticketScore.getScoreSum()
+                        + "/" + ticketScore.getRatingsCount())
+                .sorted()
+                .collect(toList());
+    }
+}
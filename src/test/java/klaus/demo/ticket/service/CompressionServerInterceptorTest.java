@@ -0,0 +1,79 @@
+package klaus.demo.ticket.service;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.StreamObserver;
+import klaus.demo.DateRange;
+import klaus.demo.QualityResponse;
+import klaus.demo.TicketServiceGrpc;
+import klaus.demo.TicketValuesBatch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionServerInterceptorTest {
+    private static final Metadata.Key<String> ENCODING = Metadata.Key.of("grpc-encoding", Metadata.ASCII_STRING_MARSHALLER);
+
+    private Server server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        TicketServiceGrpc.TicketServiceImplBase service = new TicketServiceGrpc.TicketServiceImplBase() {
+            @Override
+            public void getScoresByTicketsBatched(DateRange request, StreamObserver<TicketValuesBatch> responseObserver) {
+                responseObserver.onNext(TicketValuesBatch.getDefaultInstance());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void getOverallQualityScore(DateRange request, StreamObserver<QualityResponse> responseObserver) {
+                responseObserver.onNext(QualityResponse.newBuilder().setScore(42).build());
+                responseObserver.onCompleted();
+            }
+        };
+        String serverName = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(serverName)
+                .directExecutor()
+                .addService(ServerInterceptors.intercept(service,
+                        new CompressionServerInterceptor("gzip", "ticket.TicketService/GetScoresByTicketsBatched, ticket.TicketService/GetScoresByTickets")))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    void shouldCompressOnlyListedMethods() {
+        AtomicReference<Metadata> headers = new AtomicReference<>();
+        AtomicReference<Metadata> trailers = new AtomicReference<>();
+        TicketServiceGrpc.TicketServiceBlockingStub stub = TicketServiceGrpc.newBlockingStub(channel)
+                .withInterceptors(MetadataUtils.newCaptureMetadataInterceptor(headers, trailers));
+
+        stub.getScoresByTicketsBatched(DateRange.getDefaultInstance()).forEachRemaining(batch -> {
+        });
+        assertEquals("gzip", headers.get().get(ENCODING));
+
+        assertEquals(42, stub.getOverallQualityScore(DateRange.getDefaultInstance()).getScore());
+        assertNull(headers.get().get(ENCODING));
+    }
+
+    @Test
+    void shouldRejectUnknownCompression() {
+        assertThrows(IllegalStateException.class, () -> new CompressionServerInterceptor("brotli", ""));
+    }
+}
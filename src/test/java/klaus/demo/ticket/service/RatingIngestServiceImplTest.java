@@ -0,0 +1,190 @@
+package klaus.demo.ticket.service;
+
+import com.google.protobuf.Timestamp;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.internal.testing.StreamRecorder;
+import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import klaus.demo.IngestSummary;
+import klaus.demo.RatingIngestServiceGrpc;
+import klaus.demo.RatingRecord;
+import klaus.demo.ticket.cache.ResultCache;
+import klaus.demo.ticket.domain.Rating;
+import klaus.demo.ticket.domain.RatingCategory;
+import klaus.demo.ticket.metrics.TicketMetrics;
+import klaus.demo.ticket.repository.CategoryDimension;
+import klaus.demo.ticket.repository.RatingWriter;
+import klaus.demo.ticket.repository.TicketRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(SpringExtension.class)
+class RatingIngestServiceImplTest {
+    private static final long CATEGORY_ID = 1;
+
+    @Mock
+    private RatingWriter ratingWriter;
+
+    @Mock
+    private TicketRepository ticketRepository;
+
+    @Mock
+    private CategoryDimension categoryDimension;
+
+    private final ResultCache resultCache = spy(new ResultCache(100, Duration.ofMinutes(1), Duration.ofDays(1)));
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private RatingIngestServiceImpl ingestService;
+    private Server server;
+    private ManagedChannel channel;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        channel.shutdownNow();
+        server.shutdownNow();
+        ingestService.destroy();
+    }
+
+    @Test
+    void shouldWriteFullBatchesAndReportCounts() throws Exception {
+        startServer(2, 60_000);
+        doReturn(2L, 4L, 5L).when(ratingWriter).insert(any());
+        StreamRecorder<IngestSummary> responseObserver = StreamRecorder.create();
+        StreamObserver<RatingRecord> requestObserver = RatingIngestServiceGrpc.newStub(channel).ingestRatings(responseObserver);
+
+        for (int i = 0; i < 5; i++) {
+            requestObserver.onNext(getRatingRecord(CATEGORY_ID, 3, Instant.now()));
+        }
+        requestObserver.onNext(getRatingRecord(CATEGORY_ID, 6, Instant.now()));
+        requestObserver.onNext(getRatingRecord(2, 3, Instant.now()));
+        requestObserver.onCompleted();
+
+        assertTrue(responseObserver.awaitCompletion(5, TimeUnit.SECONDS));
+        assertNull(responseObserver.getError());
+        IngestSummary summary = responseObserver.getValues().get(0);
+        assertEquals(5, summary.getAcceptedCount());
+        assertEquals(5, summary.getCommittedCount());
+        assertEquals(2, summary.getRejectedCount());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Rating>> batches = ArgumentCaptor.forClass(List.class);
+        verify(ratingWriter, times(3)).insert(batches.capture());
+        assertEquals(List.of(2, 2, 1), batches.getAllValues().stream().map(List::size).collect(toList()));
+        verify(ticketRepository).addWrittenRatings(any(), eq(4L));
+        verify(resultCache, never()).invalidateAll();
+        assertEquals(5, meterRegistry.get("ticket.ingest.ratings").tag("outcome", "committed").counter().count());
+    }
+
+    @Test
+    void shouldWriteLingeringBatchBeforeCallEnds() throws Exception {
+        startServer(100, 10);
+        doReturn(1L).when(ratingWriter).insert(any());
+        StreamRecorder<IngestSummary> responseObserver = StreamRecorder.create();
+        StreamObserver<RatingRecord> requestObserver = RatingIngestServiceGrpc.newStub(channel).ingestRatings(responseObserver);
+
+        requestObserver.onNext(getRatingRecord(CATEGORY_ID, 5, Instant.now()));
+
+        verify(ratingWriter, timeout(5000)).insert(any());
+        requestObserver.onCompleted();
+        assertTrue(responseObserver.awaitCompletion(5, TimeUnit.SECONDS));
+        assertEquals(1, responseObserver.getValues().get(0).getCommittedCount());
+        verify(ratingWriter, times(1)).insert(any());
+    }
+
+    @Test
+    void shouldDropAllCachedResultsWhenClosedRangeGetsRatings() throws Exception {
+        startServer(10, 60_000);
+        doReturn(1L).when(ratingWriter).insert(any());
+        StreamRecorder<IngestSummary> responseObserver = StreamRecorder.create();
+        StreamObserver<RatingRecord> requestObserver = RatingIngestServiceGrpc.newStub(channel).ingestRatings(responseObserver);
+
+        requestObserver.onNext(getRatingRecord(CATEGORY_ID, 4, Instant.parse("2019-07-17T15:49:14Z")));
+        requestObserver.onCompleted();
+
+        assertTrue(responseObserver.awaitCompletion(5, TimeUnit.SECONDS));
+        verify(resultCache).invalidateAll();
+        verify(resultCache, never()).advanceWatermark(anyLong());
+    }
+
+    @Test
+    void shouldFailCallWhenBatchCannotBeWritten() throws Exception {
+        startServer(10, 60_000);
+        doThrow(new IllegalStateException("disk full")).when(ratingWriter).insert(any());
+        StreamRecorder<IngestSummary> responseObserver = StreamRecorder.create();
+        StreamObserver<RatingRecord> requestObserver = RatingIngestServiceGrpc.newStub(channel).ingestRatings(responseObserver);
+
+        requestObserver.onNext(getRatingRecord(CATEGORY_ID, 4, Instant.now()));
+        requestObserver.onCompleted();
+
+        assertTrue(responseObserver.awaitCompletion(5, TimeUnit.SECONDS));
+        Status status = Status.fromThrowable(responseObserver.getError());
+        assertEquals(Status.Code.UNKNOWN, status.getCode());
+        assertTrue(status.getDescription().contains("Committed 0 of 1 accepted ratings"));
+        verify(ticketRepository, never()).addWrittenRatings(any(), anyLong());
+    }
+
+    @Test
+    void shouldRefuseCallWhenRepositoryDoesNotReadWrittenRatings() throws Exception {
+        startServer(10, 60_000);
+        doReturn(false).when(ticketRepository).acceptsWrittenRatings();
+        StreamRecorder<IngestSummary> responseObserver = StreamRecorder.create();
+        StreamObserver<RatingRecord> requestObserver = RatingIngestServiceGrpc.newStub(channel).ingestRatings(responseObserver);
+
+        requestObserver.onNext(getRatingRecord(CATEGORY_ID, 4, Instant.now()));
+        requestObserver.onCompleted();
+
+        assertTrue(responseObserver.awaitCompletion(5, TimeUnit.SECONDS));
+        assertEquals(Status.Code.FAILED_PRECONDITION, Status.fromThrowable(responseObserver.getError()).getCode());
+        verify(ratingWriter, never()).insert(any());
+    }
+
+    private void startServer(int batchSize, long lingerMillis) throws Exception {
+        doReturn(true).when(ticketRepository).acceptsWrittenRatings();
+        doReturn(new RatingCategory(CATEGORY_ID, "Spelling", 1, new int[]{0, 20, 40, 60, 80, 100}))
+                .when(categoryDimension).get(CATEGORY_ID);
+        ingestService = new RatingIngestServiceImpl(ratingWriter, ticketRepository, categoryDimension, resultCache,
+                new TicketMetrics(meterRegistry), batchSize, lingerMillis, 1);
+        String serverName = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(serverName)
+                .directExecutor()
+                .addService(ingestService)
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+    }
+
+    private static RatingRecord getRatingRecord(long categoryId, int rating, Instant createdAt) {
+        return RatingRecord.newBuilder()
+                .setTicketId(123)
+                .setRatingCategoryId(categoryId)
+                .setRating(rating)
+                .setCreatedAt(Timestamp.newBuilder().setSeconds(createdAt.getEpochSecond()))
+                .build();
+    }
+}
@@ -0,0 +1,158 @@
+package klaus.demo.ticket.service;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.internal.testing.StreamRecorder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import klaus.demo.CategoryScore;
+import klaus.demo.ScoreSubscriptionRequest;
+import klaus.demo.ScoreSubscriptionServiceGrpc;
+import klaus.demo.ScoreUpdate;
+import klaus.demo.ticket.domain.CategoryScoreDistribution;
+import klaus.demo.ticket.domain.ScoreTotal;
+import klaus.demo.ticket.metrics.TicketMetrics;
+import klaus.demo.ticket.repository.TicketRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(SpringExtension.class)
+class ScoreSubscriptionServiceImplTest {
+    private static final long DAY = 86400;
+
+    @Mock
+    private TicketRepository ticketRepository;
+
+    private ScoreSubscriptionServiceImpl subscriptionService;
+    private Server server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        subscriptionService = new ScoreSubscriptionServiceImpl(ticketRepository, new TicketMetrics(new SimpleMeterRegistry()), 3600, 2);
+        String serverName = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(serverName)
+                .directExecutor()
+                .addService(subscriptionService)
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    void shouldPushOnlyChangedScoresAfterFirstUpdate() throws Exception {
+        givenScores(10, 60, getDistribution("Spelling", 80, 2), getDistribution("Tone", 40, 1));
+        StreamRecorder<ScoreUpdate> responseObserver = subscribe(DAY);
+
+        subscriptionService.publishScores();
+        ScoreUpdate firstUpdate = responseObserver.getValues().get(0);
+        assertTrue(firstUpdate.getOverallScoreChanged());
+        assertEquals(60, firstUpdate.getOverallScore());
+        assertEquals(List.of(getCategoryScore("Spelling", 2, 80), getCategoryScore("Tone", 1, 40)), firstUpdate.getChangedCategoriesList());
+        assertEquals(DAY, firstUpdate.getRange().getPeriodTo().getSeconds() - firstUpdate.getRange().getPeriodFrom().getSeconds());
+
+        subscriptionService.publishScores();
+        assertEquals(1, responseObserver.getValues().size());
+
+        givenScores(11, 60, getDistribution("Spelling", 80, 2), getDistribution("Tone", 60, 2));
+        subscriptionService.publishScores();
+        ScoreUpdate secondUpdate = responseObserver.getValues().get(1);
+        assertFalse(secondUpdate.getOverallScoreChanged());
+        assertEquals(List.of(getCategoryScore("Tone", 2, 60)), secondUpdate.getChangedCategoriesList());
+
+        givenScores(12, 80, getDistribution("Spelling", 80, 2));
+        subscriptionService.publishScores();
+        ScoreUpdate thirdUpdate = responseObserver.getValues().get(2);
+        assertEquals(80, thirdUpdate.getOverallScore());
+        assertEquals(List.of(getCategoryScore("Tone", 0, 0)), thirdUpdate.getChangedCategoriesList());
+    }
+
+    @Test
+    void shouldShareOneComputationPerWindowAndPass() throws Exception {
+        givenScores(10, 60, getDistribution("Spelling", 80, 2));
+        StreamRecorder<ScoreUpdate> firstObserver = subscribe(DAY);
+        StreamRecorder<ScoreUpdate> secondObserver = subscribe(DAY);
+
+        subscriptionService.publishScores();
+        subscriptionService.publishScores();
+
+        assertEquals(1, firstObserver.getValues().size());
+        assertEquals(1, secondObserver.getValues().size());
+        verify(ticketRepository, times(1)).getScoreTotalBetweenDates(any(), any());
+        verify(ticketRepository, times(1)).getCategoryScoreDistributionsBetweenDates(any(), any());
+    }
+
+    @Test
+    void shouldRejectInvalidWindowAndTooManySubscriptions() throws Exception {
+        StreamRecorder<ScoreUpdate> invalidWindowObserver = subscribe(0);
+        assertTrue(invalidWindowObserver.awaitCompletion(5, TimeUnit.SECONDS));
+        assertEquals(Status.Code.INVALID_ARGUMENT, Status.fromThrowable(invalidWindowObserver.getError()).getCode());
+
+        subscribe(DAY);
+        subscribe(DAY);
+        StreamRecorder<ScoreUpdate> rejectedObserver = subscribe(DAY);
+        assertTrue(rejectedObserver.awaitCompletion(5, TimeUnit.SECONDS));
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(rejectedObserver.getError()).getCode());
+    }
+
+    @Test
+    void shouldCompleteSubscriptionsOnShutdown() throws Exception {
+        StreamRecorder<ScoreUpdate> responseObserver = subscribe(DAY);
+
+        subscriptionService.completeSubscriptions();
+
+        assertTrue(responseObserver.awaitCompletion(5, TimeUnit.SECONDS));
+        assertNull(responseObserver.getError());
+    }
+
+    private StreamRecorder<ScoreUpdate> subscribe(long windowSeconds) {
+        StreamRecorder<ScoreUpdate> responseObserver = StreamRecorder.create();
+        ScoreSubscriptionServiceGrpc.newStub(channel)
+                .subscribeScores(ScoreSubscriptionRequest.newBuilder().setWindowSeconds(windowSeconds).build(), responseObserver);
+        return responseObserver;
+    }
+
+    private void givenScores(long watermark, int overallScore, CategoryScoreDistribution... distributions) {
+        ScoreTotal scoreTotal = new ScoreTotal();
+        scoreTotal.add(overallScore, 1);
+        doReturn(watermark).when(ticketRepository).getRatingsWatermark();
+        doReturn(scoreTotal).when(ticketRepository).getScoreTotalBetweenDates(any(), any());
+        doReturn(List.of(distributions)).when(ticketRepository).getCategoryScoreDistributionsBetweenDates(any(), any());
+    }
+
+    private static CategoryScoreDistribution getDistribution(String categoryName, int score, long count) {
+        CategoryScoreDistribution distribution = new CategoryScoreDistribution();
+        distribution.setCategoryName(categoryName);
+        distribution.add(score, count);
+        return distribution;
+    }
+
+    private static CategoryScore getCategoryScore(String categoryName, int ratingsCount, int score) {
+        return CategoryScore.newBuilder()
+                .setCategoryName(categoryName)
+                .setRatingsCount(ratingsCount)
+                .setScore(score)
+                .build();
+    }
+}
@@ -1,26 +1,48 @@
 package klaus.demo.ticket.service;
 
 import com.google.protobuf.Timestamp;
+import io.grpc.Context;
+import io.grpc.Status;
 import io.grpc.internal.testing.StreamRecorder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import klaus.demo.*;
-import klaus.demo.ticket.domain.CategoryScore;
+import klaus.demo.ticket.cache.ResultCache;
+import klaus.demo.ticket.cancellation.CallCancellation;
+import klaus.demo.ticket.cancellation.CancellationCounters;
+import klaus.demo.ticket.domain.CategoryBucketScore;
+import klaus.demo.ticket.domain.CategoryScoreDistribution;
+import klaus.demo.ticket.domain.Period;
+import klaus.demo.ticket.domain.ScoreTotal;
 import klaus.demo.ticket.domain.TicketScore;
+import klaus.demo.ticket.domain.TimeBucket;
+import klaus.demo.ticket.metrics.TicketMetrics;
 import klaus.demo.ticket.repository.TicketRepository;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.List;
+import java.util.OptionalLong;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
-import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toList;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 @ExtendWith(SpringExtension.class)
 class TicketServiceImplTest {
@@ -28,6 +50,18 @@ class TicketServiceImplTest {
     @Mock
     private TicketRepository ticketRepository;
 
+    @Spy
+    private CancellationCounters cancellationCounters = new CancellationCounters();
+
+    @Spy
+    private ResultCache resultCache = new ResultCache(100, Duration.ofMinutes(1), Duration.ofDays(1));
+
+    @Spy
+    private TicketMetrics ticketMetrics = new TicketMetrics(new SimpleMeterRegistry());
+
+    @Spy
+    private ResponseBatching responseBatching = new ResponseBatching(2, 1 << 20);
+
     @InjectMocks
     private TicketServiceImpl ticketService;
 
@@ -39,11 +73,14 @@ class TicketServiceImplTest {
         LocalDateTime periodFrom = LocalDateTime.parse("2019-07-17T15:49:14");
         LocalDateTime periodTo = LocalDateTime.parse("2019-08-17T15:49:14");
         DateRange request = getDateRange(periodFrom, periodTo);
-        TicketScore tickerScore1 = getTickerScore(FIRST_CATEGORY, 10, 123L);
-        TicketScore tickerScore2 = getTickerScore(FIRST_CATEGORY, 30, 123L);
-        TicketScore tickerScore3 = getTickerScore(SECOND_CATEGORY, 10, 123L);
-        TicketScore tickerScore4 = getTickerScore(FIRST_CATEGORY, 20, 1234L);
-        doReturn(List.of(tickerScore1, tickerScore2, tickerScore3, tickerScore4)).when(ticketRepository).getCategoryScoresOfTicketsBetweenDates(periodFrom, periodTo);
+        TicketScore tickerScore1 = getTickerScore(FIRST_CATEGORY, 40, 2, 123L);
+        TicketScore tickerScore2 = getTickerScore(SECOND_CATEGORY, 10, 1, 123L);
+        TicketScore tickerScore3 = getTickerScore(FIRST_CATEGORY, 20, 1, 1234L);
+        doAnswer(invocation -> {
+            Consumer<TicketScore> ticketScoreConsumer = invocation.getArgument(2);
+            List.of(tickerScore1, tickerScore2, tickerScore3).forEach(ticketScoreConsumer);
+            return null;
+        }).when(ticketRepository).streamCategoryScoresOfTicketsBetweenDates(eq(periodFrom), eq(periodTo), any());
 
         StreamRecorder<TicketValuesResponse> responseObserver = StreamRecorder.create();
         ticketService.getScoresByTickets(request, responseObserver);
@@ -67,16 +104,292 @@ class TicketServiceImplTest {
         assertTrue(secondTicketScore.getCategoryScoresList().stream().anyMatch(s -> SECOND_CATEGORY.equals(s.getCategoryName())));
     }
 
+    @Test
+    void shouldBatchScoresByTicketsByCountAndBytes() throws Exception {
+        LocalDateTime periodFrom = LocalDateTime.parse("2019-07-17T15:49:14");
+        LocalDateTime periodTo = LocalDateTime.parse("2019-08-17T15:49:14");
+        DateRange request = getDateRange(periodFrom, periodTo);
+        doAnswer(invocation -> {
+            Consumer<TicketScore> ticketScoreConsumer = invocation.getArgument(2);
+            List.of(getTickerScore(FIRST_CATEGORY, 40, 2, 123L), getTickerScore(SECOND_CATEGORY, 10, 1, 123L),
+                    getTickerScore(FIRST_CATEGORY, 20, 1, 1234L), getTickerScore(FIRST_CATEGORY, 30, 1, 2000L)).forEach(ticketScoreConsumer);
+            return null;
+        }).when(ticketRepository).streamCategoryScoresOfTicketsBetweenDates(eq(periodFrom), eq(periodTo), any());
+
+        StreamRecorder<TicketValuesBatch> responseObserver = StreamRecorder.create();
+        ticketService.getScoresByTicketsBatched(request, responseObserver);
+        if (!responseObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+            fail("The call did not terminate in time");
+        }
+        assertNull(responseObserver.getError());
+        List<TicketValuesBatch> batches = responseObserver.getValues();
+        assertEquals(2, batches.size());
+        assertEquals(List.of(123L, 1234L), batches.get(0).getTicketsList().stream().map(TicketValuesResponse::getTicketId).collect(toList()));
+        assertEquals(2, batches.get(0).getTickets(0).getCategoryScoresCount());
+        assertEquals(List.of(2000L), batches.get(1).getTicketsList().stream().map(TicketValuesResponse::getTicketId).collect(toList()));
+
+        TicketServiceImpl oneTicketPerMessage = new TicketServiceImpl(ticketRepository, null, resultCache, cancellationCounters, ticketMetrics,
+                new ResponseBatching(1000, 1));
+        StreamRecorder<TicketValuesBatch> byteBudgetObserver = StreamRecorder.create();
+        oneTicketPerMessage.getScoresByTicketsBatched(request, byteBudgetObserver);
+        if (!byteBudgetObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+            fail("The call did not terminate in time");
+        }
+        assertEquals(3, byteBudgetObserver.getValues().size());
+    }
+
+    @Test
+    void shouldBatchAggregatedCategoriesFromSameCacheEntry() throws Exception {
+        LocalDateTime periodFrom = LocalDateTime.parse("2019-07-17T15:49:14");
+        LocalDateTime periodTo = LocalDateTime.parse("2019-07-20T15:49:14");
+        DateRange request = getDateRange(periodFrom, periodTo);
+        List<CategoryBucketScore> bucketScores = List.of(getCategoryBucketScore(FIRST_CATEGORY, 10, 1, "2019-07-17"),
+                getCategoryBucketScore(SECOND_CATEGORY, 20, 1, "2019-07-17"),
+                getCategoryBucketScore("THIRD", 30, 1, "2019-07-17"));
+        doReturn(bucketScores).when(ticketRepository).getCategoryBucketScoresBetweenDates(periodFrom, periodTo, TimeBucket.DAY);
+
+        StreamRecorder<CategoryResultResponse> singleObserver = StreamRecorder.create();
+        ticketService.getAggregatedCategories(request, singleObserver);
+        StreamRecorder<CategoryResultBatch> batchObserver = StreamRecorder.create();
+        ticketService.getAggregatedCategoriesBatched(request, batchObserver);
+        if (!batchObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+            fail("The call did not terminate in time");
+        }
+
+        assertNull(batchObserver.getError());
+        assertEquals(List.of(2, 1), batchObserver.getValues().stream().map(CategoryResultBatch::getCategoriesCount).collect(toList()));
+        assertEquals(singleObserver.getValues(), batchObserver.getValues().stream()
+                .flatMap(batch -> batch.getCategoriesList().stream())
+                .collect(toList()));
+        verify(ticketRepository, times(1)).getCategoryBucketScoresBetweenDates(periodFrom, periodTo, TimeBucket.DAY);
+    }
+
+    @Test
+    void shouldPackCategoryScoresIntoSeriesOfBuckets() throws Exception {
+        LocalDateTime periodFrom = LocalDateTime.parse("2019-07-17T15:49:14");
+        LocalDateTime periodTo = LocalDateTime.parse("2019-07-20T15:49:14");
+        List<CategoryBucketScore> bucketScores = List.of(getCategoryBucketScore(FIRST_CATEGORY, 90, 2, "2019-07-17"),
+                getCategoryBucketScore(SECOND_CATEGORY, 60, 1, "2019-07-18"),
+                getCategoryBucketScore(FIRST_CATEGORY, 80, 1, "2019-07-19"));
+        doReturn(bucketScores).when(ticketRepository).getCategoryBucketScoresBetweenDates(periodFrom, periodTo, TimeBucket.DAY);
+
+        StreamRecorder<CategorySeriesResponse> responseObserver = StreamRecorder.create();
+        ticketService.getAggregatedCategorySeries(getDateRange(periodFrom, periodTo), responseObserver);
+        if (!responseObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+            fail("The call did not terminate in time");
+        }
+
+        assertNull(responseObserver.getError());
+        CategorySeriesResponse response = responseObserver.getValues().get(0);
+        assertEquals(LocalDate.parse("2019-07-17").atStartOfDay().toEpochSecond(ZoneOffset.UTC), response.getSeriesStart());
+        assertEquals(Granularity.DAY, response.getGranularity());
+        CategorySeries first = response.getCategories(0);
+        assertEquals(FIRST_CATEGORY, first.getCategoryName());
+        assertEquals(List.of(45, -1, 80, -1), first.getScoresList());
+        assertEquals(3, first.getRatingsCount());
+        assertEquals(62, first.getTotalScore());
+        CategorySeries second = response.getCategories(1);
+        assertEquals(List.of(-1, 60, -1, -1), second.getScoresList());
+        assertEquals(60, second.getTotalScore());
+    }
+
+    @Test
+    void shouldRejectSeriesWithTooManyBuckets() throws Exception {
+        DateRange request = getDateRange(LocalDateTime.parse("1990-01-01T00:00:00"), LocalDateTime.parse("2019-07-17T15:49:14")).toBuilder()
+                .setGranularity(Granularity.DAY)
+                .build();
+
+        StreamRecorder<CategorySeriesResponse> responseObserver = StreamRecorder.create();
+        ticketService.getAggregatedCategorySeries(request, responseObserver);
+        if (!responseObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+            fail("The call did not terminate in time");
+        }
+
+        assertEquals(Status.Code.INVALID_ARGUMENT, Status.fromThrowable(responseObserver.getError()).getCode());
+    }
+
+    @Test
+    void shouldPageScoresByTicketsInTicketOrder() throws Exception {
+        LocalDateTime periodFrom = LocalDateTime.parse("2019-07-17T15:49:14");
+        LocalDateTime periodTo = LocalDateTime.parse("2019-08-17T15:49:14");
+        DateRange range = getDateRange(periodFrom, periodTo);
+        doAnswer(invocation -> {
+            Consumer<TicketScore> ticketScoreConsumer = invocation.getArgument(4);
+            List.of(getTickerScore(FIRST_CATEGORY, 40, 2, 123L), getTickerScore(SECOND_CATEGORY, 10, 1, 123L),
+                    getTickerScore(FIRST_CATEGORY, 20, 1, 1234L)).forEach(ticketScoreConsumer);
+            return OptionalLong.of(1234L);
+        }).when(ticketRepository).streamCategoryScoresOfTicketsPage(eq(periodFrom), eq(periodTo), eq(Long.MIN_VALUE), eq(2), any());
+        doAnswer(invocation -> {
+            Consumer<TicketScore> ticketScoreConsumer = invocation.getArgument(4);
+            ticketScoreConsumer.accept(getTickerScore(SECOND_CATEGORY, 30, 1, 2000L));
+            return OptionalLong.empty();
+        }).when(ticketRepository).streamCategoryScoresOfTicketsPage(eq(periodFrom), eq(periodTo), eq(1234L), eq(2), any());
+
+        StreamRecorder<TicketPageResponse> firstPageObserver = StreamRecorder.create();
+        ticketService.getScoresByTicketsPage(TicketPageRequest.newBuilder().setRange(range).setPageSize(2).build(), firstPageObserver);
+        if (!firstPageObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+            fail("The call did not terminate in time");
+        }
+        assertNull(firstPageObserver.getError());
+        TicketPageResponse firstPage = firstPageObserver.getValues().get(0);
+        assertEquals(2, firstPage.getTicketsCount());
+        assertEquals(123L, firstPage.getTickets(0).getTicketId());
+        assertEquals(2, firstPage.getTickets(0).getCategoryScoresCount());
+        assertEquals(1234L, firstPage.getTickets(1).getTicketId());
+        assertFalse(firstPage.getNextPageToken().isEmpty());
+
+        StreamRecorder<TicketPageResponse> secondPageObserver = StreamRecorder.create();
+        ticketService.getScoresByTicketsPage(TicketPageRequest.newBuilder()
+                .setRange(range)
+                .setPageSize(2)
+                .setPageToken(firstPage.getNextPageToken())
+                .build(), secondPageObserver);
+        if (!secondPageObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+            fail("The call did not terminate in time");
+        }
+        assertNull(secondPageObserver.getError());
+        TicketPageResponse secondPage = secondPageObserver.getValues().get(0);
+        assertEquals(1, secondPage.getTicketsCount());
+        assertEquals(2000L, secondPage.getTickets(0).getTicketId());
+        assertEquals(30, secondPage.getTickets(0).getCategoryScores(0).getScore());
+        assertTrue(secondPage.getNextPageToken().isEmpty());
+    }
+
+    @Test
+    void shouldContinueAfterTicketWithoutScoredRatings() throws Exception {
+        LocalDateTime periodFrom = LocalDateTime.parse("2019-07-17T15:49:14");
+        LocalDateTime periodTo = LocalDateTime.parse("2019-08-17T15:49:14");
+        DateRange range = getDateRange(periodFrom, periodTo);
+        // ticket 1234 is the second one of the page but has ratings of unknown categories only
+        doAnswer(invocation -> {
+            Consumer<TicketScore> ticketScoreConsumer = invocation.getArgument(4);
+            ticketScoreConsumer.accept(getTickerScore(FIRST_CATEGORY, 40, 2, 123L));
+            return OptionalLong.of(1234L);
+        }).when(ticketRepository).streamCategoryScoresOfTicketsPage(eq(periodFrom), eq(periodTo), eq(Long.MIN_VALUE), eq(2), any());
+
+        StreamRecorder<TicketPageResponse> responseObserver = StreamRecorder.create();
+        ticketService.getScoresByTicketsPage(TicketPageRequest.newBuilder().setRange(range).setPageSize(2).build(), responseObserver);
+        if (!responseObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+            fail("The call did not terminate in time");
+        }
+        assertNull(responseObserver.getError());
+        TicketPageResponse page = responseObserver.getValues().get(0);
+        assertEquals(1, page.getTicketsCount());
+        assertEquals(1234L, TicketPageToken.decode(page.getNextPageToken(), range));
+    }
+
+    @Test
+    void shouldRejectPageTokenOfDifferentRange() throws Exception {
+        DateRange range = getDateRange(LocalDateTime.parse("2019-07-17T15:49:14"), LocalDateTime.parse("2019-08-17T15:49:14"));
+        DateRange otherRange = getDateRange(LocalDateTime.parse("2019-07-18T15:49:14"), LocalDateTime.parse("2019-08-17T15:49:14"));
+
+        StreamRecorder<TicketPageResponse> responseObserver = StreamRecorder.create();
+        ticketService.getScoresByTicketsPage(TicketPageRequest.newBuilder()
+                .setRange(otherRange)
+                .setPageToken(TicketPageToken.encode(123L, range))
+                .build(), responseObserver);
+        if (!responseObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+            fail("The call did not terminate in time");
+        }
+        assertEquals(Status.Code.INVALID_ARGUMENT, Status.fromThrowable(responseObserver.getError()).getCode());
+    }
+
+    @Test
+    void shouldReturnWorstTicketsOverAllCategories() throws Exception {
+        LocalDateTime periodFrom = LocalDateTime.parse("2019-07-17T15:49:14");
+        LocalDateTime periodTo = LocalDateTime.parse("2019-08-17T15:49:14");
+        mockTicketScoresForRanking(periodFrom, periodTo);
+
+        TicketRankResponse response = getRankedTickets(TicketRankRequest.newBuilder()
+                .setRange(getDateRange(periodFrom, periodTo))
+                .setLimit(2)
+                .setOrder(RankOrder.BOTTOM)
+                .build());
+
+        assertEquals(2, response.getTicketsCount());
+        assertEquals(3L, response.getTickets(0).getTicketId());
+        assertEquals(10, response.getTickets(0).getScore());
+        assertEquals(1L, response.getTickets(1).getTicketId());
+        assertEquals(16, response.getTickets(1).getScore());
+        assertEquals(3, response.getTickets(1).getRatingsCount());
+    }
+
+    @Test
+    void shouldReturnBestTicketsOfOneCategory() throws Exception {
+        LocalDateTime periodFrom = LocalDateTime.parse("2019-07-17T15:49:14");
+        LocalDateTime periodTo = LocalDateTime.parse("2019-08-17T15:49:14");
+        mockTicketScoresForRanking(periodFrom, periodTo);
+
+        TicketRankResponse response = getRankedTickets(TicketRankRequest.newBuilder()
+                .setRange(getDateRange(periodFrom, periodTo))
+                .setLimit(2)
+                .setOrder(RankOrder.TOP)
+                .setCategoryName(SECOND_CATEGORY)
+                .build());
+
+        assertEquals(2, response.getTicketsCount());
+        assertEquals(2L, response.getTickets(0).getTicketId());
+        assertEquals(90, response.getTickets(0).getScore());
+        assertEquals(4L, response.getTickets(1).getTicketId());
+        assertEquals(60, response.getTickets(1).getScore());
+    }
+
+    @Test
+    void shouldWeightCategoriesInScoreOverAllCategories() throws Exception {
+        LocalDateTime periodFrom = LocalDateTime.parse("2019-07-17T15:49:14");
+        LocalDateTime periodTo = LocalDateTime.parse("2019-08-17T15:49:14");
+        TicketScore lightCategory = getTickerScore(SECOND_CATEGORY, 0, 1, 1L);
+        lightCategory.setWeight(0.25);
+        doAnswer(invocation -> {
+            Consumer<TicketScore> ticketScoreConsumer = invocation.getArgument(2);
+            List.of(getTickerScore(FIRST_CATEGORY, 100, 1, 1L), lightCategory, getTickerScore(FIRST_CATEGORY, 60, 1, 2L))
+                    .forEach(ticketScoreConsumer);
+            return null;
+        }).when(ticketRepository).streamCategoryScoresOfTicketsBetweenDates(eq(periodFrom), eq(periodTo), any());
+
+        TicketRankResponse response = getRankedTickets(TicketRankRequest.newBuilder()
+                .setRange(getDateRange(periodFrom, periodTo))
+                .setLimit(2)
+                .setOrder(RankOrder.BOTTOM)
+                .build());
+
+        // (100 * 1 + 0 * 0.25) / 1.25, unweighted ticket 1 would be at 50 and go first
+        assertEquals(List.of(2L, 1L), response.getTicketsList().stream().map(RankedTicket::getTicketId).collect(toList()));
+        assertEquals(80, response.getTickets(1).getScore());
+        assertEquals(2, response.getTickets(1).getRatingsCount());
+    }
+
+    private void mockTicketScoresForRanking(LocalDateTime periodFrom, LocalDateTime periodTo) {
+        doAnswer(invocation -> {
+            Consumer<TicketScore> ticketScoreConsumer = invocation.getArgument(2);
+            List.of(getTickerScore(FIRST_CATEGORY, 40, 2, 1L), getTickerScore(SECOND_CATEGORY, 10, 1, 1L),
+                    getTickerScore(FIRST_CATEGORY, 50, 1, 2L), getTickerScore(SECOND_CATEGORY, 90, 1, 2L),
+                    getTickerScore(FIRST_CATEGORY, 10, 1, 3L),
+                    getTickerScore(FIRST_CATEGORY, 20, 1, 4L), getTickerScore(SECOND_CATEGORY, 60, 1, 4L))
+                    .forEach(ticketScoreConsumer);
+            return null;
+        }).when(ticketRepository).streamCategoryScoresOfTicketsBetweenDates(eq(periodFrom), eq(periodTo), any());
+    }
+
+    private TicketRankResponse getRankedTickets(TicketRankRequest request) throws Exception {
+        StreamRecorder<TicketRankResponse> responseObserver = StreamRecorder.create();
+        ticketService.getRankedTickets(request, responseObserver);
+        if (!responseObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+            fail("The call did not terminate in time");
+        }
+        assertNull(responseObserver.getError());
+        return responseObserver.getValues().get(0);
+    }
+
     @Test
     void shouldReturnDailyCategoryScoreValues() throws Exception {
         LocalDateTime periodFrom = LocalDateTime.parse("2019-07-17T15:49:14");
         LocalDateTime periodTo = LocalDateTime.parse("2019-08-17T15:49:14");
         DateRange request = getDateRange(periodFrom, periodTo);
-        CategoryScore categoryScore1 = getCategoryScore(FIRST_CATEGORY, 10, "2019-07-17T15:50:14");
-        CategoryScore categoryScore2 = getCategoryScore(FIRST_CATEGORY, 20, "2019-07-17T17:49:14");
-        CategoryScore categoryScore3 = getCategoryScore(SECOND_CATEGORY, 30, "2019-07-18T15:49:14");
-        CategoryScore categoryScore4 = getCategoryScore(SECOND_CATEGORY, 30, "2019-07-19T15:49:14");
-        doReturn(List.of(categoryScore1, categoryScore2, categoryScore3, categoryScore4)).when(ticketRepository).getCategoryScoresBetweenDates(periodFrom, periodTo);
+        CategoryBucketScore dayScore1 = getCategoryBucketScore(FIRST_CATEGORY, 30, 2, "2019-07-17");
+        CategoryBucketScore dayScore2 = getCategoryBucketScore(SECOND_CATEGORY, 30, 1, "2019-07-18");
+        CategoryBucketScore dayScore3 = getCategoryBucketScore(SECOND_CATEGORY, 30, 1, "2019-07-19");
+        doReturn(List.of(dayScore1, dayScore2, dayScore3)).when(ticketRepository).getCategoryBucketScoresBetweenDates(periodFrom, periodTo, TimeBucket.DAY);
 
         StreamRecorder<CategoryResultResponse> responseObserver = StreamRecorder.create();
         ticketService.getAggregatedCategories(request, responseObserver);
@@ -92,14 +405,14 @@ class TicketServiceImplTest {
         assertEquals(2, firstResponse.getRatingsCount());
         assertEquals(1, firstResponse.getDateScoresCount());
         assertEquals(15, firstResponse.getDateScoresList().get(0).getScore());
-        assertEquals(categoryScore1.getParsedDate().toLocalDate().atStartOfDay().toEpochSecond(ZoneOffset.UTC), firstResponse.getDateScoresList().get(0).getDate().getSeconds());
+        assertEquals(dayScore1.getBucketStart(), firstResponse.getDateScoresList().get(0).getDate().getSeconds());
 
         assertEquals(2, secondResponse.getRatingsCount());
         assertEquals(2, secondResponse.getDateScoresCount());
         assertEquals(30, secondResponse.getDateScoresList().get(0).getScore());
         assertEquals(30, secondResponse.getDateScoresList().get(1).getScore());
-        assertTrue(secondResponse.getDateScoresList().stream().anyMatch(d -> d.getDate().getSeconds() == categoryScore3.getParsedDate().toLocalDate().atStartOfDay().toEpochSecond(ZoneOffset.UTC)));
-        assertTrue(secondResponse.getDateScoresList().stream().anyMatch(d -> d.getDate().getSeconds() == categoryScore4.getParsedDate().toLocalDate().atStartOfDay().toEpochSecond(ZoneOffset.UTC)));
+        assertTrue(secondResponse.getDateScoresList().stream().anyMatch(d -> d.getDate().getSeconds() == dayScore2.getBucketStart()));
+        assertTrue(secondResponse.getDateScoresList().stream().anyMatch(d -> d.getDate().getSeconds() == dayScore3.getBucketStart()));
     }
 
     @Test
@@ -107,11 +420,10 @@ class TicketServiceImplTest {
         LocalDateTime periodFrom = LocalDateTime.parse("2019-07-17T15:49:14");
         LocalDateTime periodTo = LocalDateTime.parse("2019-08-18T15:49:14");
         DateRange request = getDateRange(periodFrom, periodTo);
-        CategoryScore categoryScore1 = getCategoryScore(FIRST_CATEGORY, 10, "2019-07-17T15:50:14");
-        CategoryScore categoryScore2 = getCategoryScore(FIRST_CATEGORY, 20, "2019-07-26T17:49:14");
-        CategoryScore categoryScore3 = getCategoryScore(SECOND_CATEGORY, 30, "2019-08-13T15:49:14");
-        CategoryScore categoryScore4 = getCategoryScore(SECOND_CATEGORY, 30, "2019-08-13T15:49:14");
-        doReturn(List.of(categoryScore1, categoryScore2, categoryScore3, categoryScore4)).when(ticketRepository).getCategoryScoresBetweenDates(periodFrom, periodTo);
+        CategoryBucketScore weekScore1 = getCategoryBucketScore(FIRST_CATEGORY, 10, 1, "2019-07-15");
+        CategoryBucketScore weekScore2 = getCategoryBucketScore(FIRST_CATEGORY, 20, 1, "2019-07-22");
+        CategoryBucketScore weekScore3 = getCategoryBucketScore(SECOND_CATEGORY, 60, 2, "2019-08-12");
+        doReturn(List.of(weekScore1, weekScore2, weekScore3)).when(ticketRepository).getCategoryBucketScoresBetweenDates(periodFrom, periodTo, TimeBucket.WEEK);
 
         StreamRecorder<CategoryResultResponse> responseObserver = StreamRecorder.create();
         ticketService.getAggregatedCategories(request, responseObserver);
@@ -128,13 +440,13 @@ class TicketServiceImplTest {
         assertEquals(2, firstResponse.getDateScoresCount());
         assertTrue(firstResponse.getDateScoresList().stream().anyMatch(dateScore -> dateScore.getScore() == 10));
         assertTrue(firstResponse.getDateScoresList().stream().anyMatch(dateScore -> dateScore.getScore() == 20));
-        assertTrue(firstResponse.getDateScoresList().stream().anyMatch(dateScore -> dateScore.getDate().getSeconds() == categoryScore1.getParsedDate().toLocalDate().atStartOfDay().with(DayOfWeek.MONDAY).toEpochSecond(ZoneOffset.UTC)));
-        assertTrue(firstResponse.getDateScoresList().stream().anyMatch(dateScore -> dateScore.getDate().getSeconds() == categoryScore2.getParsedDate().toLocalDate().atStartOfDay().with(DayOfWeek.MONDAY).toEpochSecond(ZoneOffset.UTC)));
+        assertTrue(firstResponse.getDateScoresList().stream().anyMatch(dateScore -> dateScore.getDate().getSeconds() == weekScore1.getBucketStart()));
+        assertTrue(firstResponse.getDateScoresList().stream().anyMatch(dateScore -> dateScore.getDate().getSeconds() == weekScore2.getBucketStart()));
 
         assertEquals(2, secondResponse.getRatingsCount());
         assertEquals(1, secondResponse.getDateScoresCount());
         assertEquals(30, secondResponse.getDateScoresList().get(0).getScore());
-        assertEquals(categoryScore3.getParsedDate().toLocalDate().atStartOfDay().with(DayOfWeek.MONDAY).toEpochSecond(ZoneOffset.UTC), secondResponse.getDateScoresList().get(0).getDate().getSeconds());
+        assertEquals(weekScore3.getBucketStart(), secondResponse.getDateScoresList().get(0).getDate().getSeconds());
     }
 
     @Test
@@ -142,10 +454,9 @@ class TicketServiceImplTest {
         LocalDateTime periodFrom = LocalDateTime.parse("2019-07-17T15:49:14");
         LocalDateTime periodTo = LocalDateTime.parse("2019-08-18T15:49:14");
         DateRange request = getDateRange(periodFrom, periodTo);
-        CategoryScore categoryScore1 = getCategoryScore(FIRST_CATEGORY, 10, "2019-07-17T01:05:16");
-        CategoryScore categoryScore2 = getCategoryScore(FIRST_CATEGORY, 20, "2019-07-19T00:26:10");
-        CategoryScore categoryScore3 = getCategoryScore(SECOND_CATEGORY, 30, "2019-08-13T15:49:14");
-        doReturn(List.of(categoryScore1, categoryScore2, categoryScore3)).when(ticketRepository).getCategoryScoresBetweenDates(periodFrom, periodTo);
+        CategoryBucketScore weekScore1 = getCategoryBucketScore(FIRST_CATEGORY, 30, 2, "2019-07-15");
+        CategoryBucketScore weekScore2 = getCategoryBucketScore(SECOND_CATEGORY, 30, 1, "2019-08-12");
+        doReturn(List.of(weekScore1, weekScore2)).when(ticketRepository).getCategoryBucketScoresBetweenDates(periodFrom, periodTo, TimeBucket.WEEK);
 
         StreamRecorder<CategoryResultResponse> responseObserver = StreamRecorder.create();
         ticketService.getAggregatedCategories(request, responseObserver);
@@ -158,8 +469,36 @@ class TicketServiceImplTest {
         CategoryResultResponse firstResponse = results.stream().filter(response -> response.getCategoryName().equals(FIRST_CATEGORY)).findFirst().orElseThrow();
 
         assertEquals(1, firstResponse.getDateScoresCount());
-        assertEquals(categoryScore1.getParsedDate().toLocalDate().atStartOfDay().with(DayOfWeek.MONDAY).toEpochSecond(ZoneOffset.UTC), firstResponse.getDateScoresList().get(0).getDate().getSeconds());
-        assertEquals(categoryScore2.getParsedDate().toLocalDate().atStartOfDay().with(DayOfWeek.MONDAY).toEpochSecond(ZoneOffset.UTC), firstResponse.getDateScoresList().get(0).getDate().getSeconds());
+        assertEquals(LocalDate.parse("2019-07-17").atStartOfDay().with(DayOfWeek.MONDAY).toEpochSecond(ZoneOffset.UTC), firstResponse.getDateScoresList().get(0).getDate().getSeconds());
+        assertEquals(LocalDate.parse("2019-07-19").atStartOfDay().with(DayOfWeek.MONDAY).toEpochSecond(ZoneOffset.UTC), firstResponse.getDateScoresList().get(0).getDate().getSeconds());
+    }
+
+    @Test
+    void shouldReturnMonthlyCategoryScoreValuesWhenMonthGranularityRequested() throws Exception {
+        LocalDateTime periodFrom = LocalDateTime.parse("2019-07-17T15:49:14");
+        LocalDateTime periodTo = LocalDateTime.parse("2019-08-17T15:49:14");
+        DateRange request = getDateRange(periodFrom, periodTo).toBuilder()
+                .setGranularity(Granularity.MONTH)
+                .build();
+        CategoryBucketScore monthScore1 = getCategoryBucketScore(FIRST_CATEGORY, 60, 3, "2019-07-01");
+        CategoryBucketScore monthScore2 = getCategoryBucketScore(FIRST_CATEGORY, 40, 1, "2019-08-01");
+        doReturn(List.of(monthScore1, monthScore2)).when(ticketRepository).getCategoryBucketScoresBetweenDates(periodFrom, periodTo, TimeBucket.MONTH);
+
+        StreamRecorder<CategoryResultResponse> responseObserver = StreamRecorder.create();
+        ticketService.getAggregatedCategories(request, responseObserver);
+        if (!responseObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+            fail("The call did not terminate in time");
+        }
+        assertNull(responseObserver.getError());
+        List<CategoryResultResponse> results = responseObserver.getValues();
+        assertEquals(1, results.size());
+        CategoryResultResponse response = results.get(0);
+
+        assertEquals(4, response.getRatingsCount());
+        assertEquals(2, response.getDateScoresCount());
+        assertTrue(response.getDateScoresList().stream().anyMatch(dateScore -> dateScore.getScore() == 20 && dateScore.getDate().getSeconds() == monthScore1.getBucketStart()));
+        assertTrue(response.getDateScoresList().stream().anyMatch(dateScore -> dateScore.getScore() == 40 && dateScore.getDate().getSeconds() == monthScore2.getBucketStart()));
+        assertEquals(30, response.getTotalScore());
     }
 
     @Test
@@ -168,7 +507,7 @@ class TicketServiceImplTest {
         LocalDateTime periodTo = LocalDateTime.parse("2019-08-17T15:49:14");
         DateRange request = getDateRange(periodFrom, periodTo);
 
-        doReturn(List.of(10, 10)).when(ticketRepository).getScoresBetweenDates(periodFrom, periodTo);
+        doReturn(getScoreTotal(10, 10)).when(ticketRepository).getScoreTotalBetweenDates(periodFrom, periodTo);
 
         StreamRecorder<QualityResponse> responseObserver = StreamRecorder.create();
         ticketService.getOverallQualityScore(request, responseObserver);
@@ -183,13 +522,70 @@ class TicketServiceImplTest {
         assertEquals(10, response.getScore());
     }
 
+    @Test
+    void shouldAnswerRepeatedRequestFromCacheUntilWatermarkAdvances() throws Exception {
+        LocalDateTime periodFrom = LocalDateTime.parse("2019-07-17T15:49:14");
+        LocalDateTime periodTo = LocalDateTime.parse("2019-08-17T15:49:14");
+        DateRange request = getDateRange(periodFrom, periodTo);
+
+        doReturn(getScoreTotal(10, 10)).when(ticketRepository).getScoreTotalBetweenDates(periodFrom, periodTo);
+
+        ResultCache openRangeCache = new ResultCache(100, Duration.ofMinutes(1), Duration.ofDays(100000));
+        TicketServiceImpl service = new TicketServiceImpl(ticketRepository, null, openRangeCache, cancellationCounters, ticketMetrics,
+                responseBatching);
+        for (int i = 0; i < 3; i++) {
+            StreamRecorder<QualityResponse> responseObserver = StreamRecorder.create();
+            service.getOverallQualityScore(request, responseObserver);
+            if (!responseObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+                fail("The call did not terminate in time");
+            }
+            assertEquals(10, responseObserver.getValues().get(0).getScore());
+        }
+        verify(ticketRepository, times(1)).getScoreTotalBetweenDates(periodFrom, periodTo);
+
+        openRangeCache.advanceWatermark(1);
+        StreamRecorder<QualityResponse> responseObserver = StreamRecorder.create();
+        service.getOverallQualityScore(request, responseObserver);
+        if (!responseObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+            fail("The call did not terminate in time");
+        }
+        verify(ticketRepository, times(2)).getScoreTotalBetweenDates(periodFrom, periodTo);
+        assertEquals(2, openRangeCache.getHits());
+        assertEquals(2, openRangeCache.getMisses());
+        assertEquals(1, openRangeCache.getInvalidations());
+    }
+
+    @Test
+    void shouldFailAndCountAbandonedCallWhenCancelledDuringQuery() throws Exception {
+        LocalDateTime periodFrom = LocalDateTime.parse("2019-07-17T15:49:14");
+        LocalDateTime periodTo = LocalDateTime.parse("2019-08-17T15:49:14");
+        DateRange request = getDateRange(periodFrom, periodTo);
+
+        Context.CancellableContext context = Context.current().withCancellation();
+        doAnswer(invocation -> {
+            context.cancel(null);
+            CallCancellation.throwIfCancelled();
+            return getScoreTotal(10);
+        }).when(ticketRepository).getScoreTotalBetweenDates(periodFrom, periodTo);
+
+        StreamRecorder<QualityResponse> responseObserver = StreamRecorder.create();
+        context.run(() -> ticketService.getOverallQualityScore(request, responseObserver));
+        if (!responseObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+            fail("The call did not terminate in time");
+        }
+        assertEquals(Status.Code.CANCELLED, Status.fromThrowable(responseObserver.getError()).getCode());
+        assertTrue(responseObserver.getValues().isEmpty());
+        assertEquals(1, cancellationCounters.getAbandonedCalls());
+        assertEquals(0, resultCache.size());
+    }
+
     @Test
     void shouldReturnOverallQualityScoreZeroWhenNoScoresFound() throws Exception {
         LocalDateTime periodFrom = LocalDateTime.parse("2019-07-17T15:49:14");
         LocalDateTime periodTo = LocalDateTime.parse("2019-08-17T15:49:14");
         DateRange request = getDateRange(periodFrom, periodTo);
 
-        doReturn(emptyList()).when(ticketRepository).getScoresBetweenDates(periodFrom, periodTo);
+        doReturn(getScoreTotal()).when(ticketRepository).getScoreTotalBetweenDates(periodFrom, periodTo);
 
         StreamRecorder<QualityResponse> responseObserver = StreamRecorder.create();
         ticketService.getOverallQualityScore(request, responseObserver);
@@ -217,8 +613,7 @@ class TicketServiceImplTest {
                 .setSelectedPeriod(selectedPeriod)
                 .build();
 
-        doReturn(List.of(10, 10, 30, 50)).when(ticketRepository).getScoresBetweenDates(previousPeriodFrom, previousPeriodTo);
-        doReturn(List.of(10, 30, 30, 50)).when(ticketRepository).getScoresBetweenDates(selectedPeriodFrom, selectedPeriodTo);
+        doReturn(List.of(getScoreTotal(10, 10, 30, 50), getScoreTotal(10, 30, 30, 50))).when(ticketRepository).getScoreTotalsOfPeriods(any());
 
         StreamRecorder<PeriodChangeResponse> responseObserver = StreamRecorder.create();
         ticketService.getPeriodOverPeriodScoreChange(request, responseObserver);
@@ -231,6 +626,12 @@ class TicketServiceImplTest {
         PeriodChangeResponse response = results.get(0);
 
         assertEquals(16, response.getPeriodChangeScore());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Period>> periods = ArgumentCaptor.forClass(List.class);
+        verify(ticketRepository, times(1)).getScoreTotalsOfPeriods(periods.capture());
+        assertEquals(List.of(previousPeriodFrom, selectedPeriodFrom), periods.getValue().stream().map(Period::getDateFrom).collect(toList()));
+        assertEquals(List.of(previousPeriodTo, selectedPeriodTo), periods.getValue().stream().map(Period::getDateTo).collect(toList()));
     }
 
     @Test
@@ -246,8 +647,7 @@ class TicketServiceImplTest {
                 .setSelectedPeriod(selectedPeriod)
                 .build();
 
-        doReturn(List.of(10, 50, 73, 50)).when(ticketRepository).getScoresBetweenDates(previousPeriodFrom, previousPeriodTo);
-        doReturn(List.of(10, 20, 30, 50)).when(ticketRepository).getScoresBetweenDates(selectedPeriodFrom, selectedPeriodTo);
+        doReturn(List.of(getScoreTotal(10, 50, 73, 50), getScoreTotal(10, 20, 30, 50))).when(ticketRepository).getScoreTotalsOfPeriods(any());
 
         StreamRecorder<PeriodChangeResponse> responseObserver = StreamRecorder.create();
         ticketService.getPeriodOverPeriodScoreChange(request, responseObserver);
@@ -275,8 +675,7 @@ class TicketServiceImplTest {
                 .setSelectedPeriod(selectedPeriod)
                 .build();
 
-        doReturn(List.of(10, 50, 73, 50)).when(ticketRepository).getScoresBetweenDates(previousPeriodFrom, previousPeriodTo);
-        doReturn(emptyList()).when(ticketRepository).getScoresBetweenDates(selectedPeriodFrom, selectedPeriodTo);
+        doReturn(List.of(getScoreTotal(10, 50, 73, 50), getScoreTotal())).when(ticketRepository).getScoreTotalsOfPeriods(any());
 
         StreamRecorder<PeriodChangeResponse> responseObserver = StreamRecorder.create();
         ticketService.getPeriodOverPeriodScoreChange(request, responseObserver);
@@ -304,8 +703,7 @@ class TicketServiceImplTest {
                 .setSelectedPeriod(selectedPeriod)
                 .build();
 
-        doReturn(emptyList()).when(ticketRepository).getScoresBetweenDates(previousPeriodFrom, previousPeriodTo);
-        doReturn(emptyList()).when(ticketRepository).getScoresBetweenDates(selectedPeriodFrom, selectedPeriodTo);
+        doReturn(List.of(getScoreTotal(), getScoreTotal())).when(ticketRepository).getScoreTotalsOfPeriods(any());
 
         StreamRecorder<PeriodChangeResponse> responseObserver = StreamRecorder.create();
         ticketService.getPeriodOverPeriodScoreChange(request, responseObserver);
@@ -320,6 +718,124 @@ class TicketServiceImplTest {
         assertEquals(0, response.getPeriodChangeScore());
     }
 
+    @Test
+    void shouldReturnScoreTrendOfAllPeriodsFromOneRepositoryCall() throws Exception {
+        LocalDateTime firstPeriodFrom = LocalDateTime.parse("2019-07-01T00:00:00");
+        MultiDateRange.Builder request = MultiDateRange.newBuilder();
+        for (int week = 0; week < 3; week++) {
+            request.addPeriods(getDateRange(firstPeriodFrom.plusWeeks(week), firstPeriodFrom.plusWeeks(week + 1).minusSeconds(1)));
+        }
+
+        doReturn(List.of(getScoreTotal(10, 10), getScoreTotal(30), getScoreTotal(20, 40, 30)))
+                .when(ticketRepository).getScoreTotalsOfPeriods(any());
+
+        StreamRecorder<PeriodTrendResponse> responseObserver = StreamRecorder.create();
+        ticketService.getPeriodScoreTrend(request.build(), responseObserver);
+        if (!responseObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+            fail("The call did not terminate in time");
+        }
+        assertNull(responseObserver.getError());
+        List<PeriodScore> periodScores = responseObserver.getValues().get(0).getPeriodScoresList();
+        assertEquals(3, periodScores.size());
+
+        assertEquals(10, periodScores.get(0).getScore());
+        assertEquals(2, periodScores.get(0).getRatingsCount());
+        assertEquals(0, periodScores.get(0).getPeriodChangeScore());
+        assertEquals(30, periodScores.get(1).getScore());
+        assertEquals(66, periodScores.get(1).getPeriodChangeScore());
+        assertEquals(30, periodScores.get(2).getScore());
+        assertEquals(3, periodScores.get(2).getRatingsCount());
+        assertEquals(0, periodScores.get(2).getPeriodChangeScore());
+        assertEquals(request.getPeriods(1), periodScores.get(1).getPeriod());
+        verify(ticketRepository, times(1)).getScoreTotalsOfPeriods(any());
+    }
+
+    @Test
+    void shouldRejectScoreTrendWithTooManyPeriods() throws Exception {
+        MultiDateRange.Builder request = MultiDateRange.newBuilder();
+        for (int i = 0; i < 101; i++) {
+            request.addPeriods(getDateRange(LocalDateTime.parse("2019-07-01T00:00:00"), LocalDateTime.parse("2019-07-08T00:00:00")));
+        }
+
+        StreamRecorder<PeriodTrendResponse> responseObserver = StreamRecorder.create();
+        ticketService.getPeriodScoreTrend(request.build(), responseObserver);
+        if (!responseObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+            fail("The call did not terminate in time");
+        }
+        assertEquals(Status.Code.INVALID_ARGUMENT, Status.fromThrowable(responseObserver.getError()).getCode());
+    }
+
+    @Test
+    void shouldReturnScoreDistributionsOrderedByCategory() throws Exception {
+        LocalDateTime periodFrom = LocalDateTime.parse("2019-07-17T15:49:14");
+        LocalDateTime periodTo = LocalDateTime.parse("2019-08-17T15:49:14");
+        DistributionRequest request = DistributionRequest.newBuilder()
+                .setRange(getDateRange(periodFrom, periodTo))
+                .addPercentiles(50)
+                .addPercentiles(90)
+                .build();
+        doReturn(List.of(getScoreDistribution(SECOND_CATEGORY, 100), getScoreDistribution(FIRST_CATEGORY, 0, 20, 20, 60, 100)))
+                .when(ticketRepository).getCategoryScoreDistributionsBetweenDates(periodFrom, periodTo);
+
+        StreamRecorder<DistributionResponse> responseObserver = StreamRecorder.create();
+        ticketService.getScoreDistribution(request, responseObserver);
+        if (!responseObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+            fail("The call did not terminate in time");
+        }
+        assertNull(responseObserver.getError());
+        List<CategoryDistribution> distributions = responseObserver.getValues().get(0).getCategoriesList();
+        assertEquals(2, distributions.size());
+
+        CategoryDistribution first = distributions.get(0);
+        assertEquals(FIRST_CATEGORY, first.getCategoryName());
+        assertEquals(5, first.getRatingsCount());
+        assertEquals(50, first.getPercentiles(0).getPercentile());
+        assertEquals(20, first.getPercentiles(0).getScore());
+        assertEquals(100, first.getPercentiles(1).getScore());
+        assertEquals(4, first.getHistogramCount());
+        assertEquals(20, first.getHistogram(1).getScore());
+        assertEquals(2, first.getHistogram(1).getCount());
+        assertEquals(SECOND_CATEGORY, distributions.get(1).getCategoryName());
+    }
+
+    @Test
+    void shouldReturnDefaultPercentilesWhenNoneRequested() throws Exception {
+        LocalDateTime periodFrom = LocalDateTime.parse("2019-07-17T15:49:14");
+        LocalDateTime periodTo = LocalDateTime.parse("2019-08-17T15:49:14");
+        DistributionRequest request = DistributionRequest.newBuilder()
+                .setRange(getDateRange(periodFrom, periodTo))
+                .build();
+        doReturn(List.of(getScoreDistribution(FIRST_CATEGORY, 0, 40, 40, 40, 40, 60, 60, 80, 80, 100)))
+                .when(ticketRepository).getCategoryScoreDistributionsBetweenDates(periodFrom, periodTo);
+
+        StreamRecorder<DistributionResponse> responseObserver = StreamRecorder.create();
+        ticketService.getScoreDistribution(request, responseObserver);
+        if (!responseObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+            fail("The call did not terminate in time");
+        }
+        assertNull(responseObserver.getError());
+        List<PercentileScore> percentiles = responseObserver.getValues().get(0).getCategories(0).getPercentilesList();
+        assertEquals(3, percentiles.size());
+        assertEquals(0, percentiles.get(0).getScore());
+        assertEquals(40, percentiles.get(1).getScore());
+        assertEquals(80, percentiles.get(2).getScore());
+    }
+
+    @Test
+    void shouldRejectPercentileOutsideRange() throws Exception {
+        DistributionRequest request = DistributionRequest.newBuilder()
+                .setRange(getDateRange(LocalDateTime.parse("2019-07-01T00:00:00"), LocalDateTime.parse("2019-07-08T00:00:00")))
+                .addPercentiles(0)
+                .build();
+
+        StreamRecorder<DistributionResponse> responseObserver = StreamRecorder.create();
+        ticketService.getScoreDistribution(request, responseObserver);
+        if (!responseObserver.awaitCompletion(5, TimeUnit.SECONDS)) {
+            fail("The call did not terminate in time");
+        }
+        assertEquals(Status.Code.INVALID_ARGUMENT, Status.fromThrowable(responseObserver.getError()).getCode());
+    }
+
     private DateRange getDateRange(LocalDateTime periodFrom, LocalDateTime periodTo) {
         Timestamp periodFromTimestamp = Timestamp.newBuilder()
                 .setSeconds(periodFrom.toEpochSecond(ZoneOffset.UTC))
@@ -334,19 +850,38 @@ class TicketServiceImplTest {
                 .build();
     }
 
-    private TicketScore getTickerScore(String categoryName, int score, Long ticketId) {
+    private TicketScore getTickerScore(String categoryName, long scoreSum, long ratingsCount, Long ticketId) {
         TicketScore ticketScore = new TicketScore();
         ticketScore.setCategoryName(categoryName);
-        ticketScore.setScore(score);
+        ticketScore.setScoreSum(scoreSum);
+        ticketScore.setRatingsCount(ratingsCount);
         ticketScore.setTicketId(ticketId);
         return ticketScore;
     }
 
-    private CategoryScore getCategoryScore(String categoryName, int score, String createdAt) {
-        CategoryScore categoryScore = new CategoryScore();
-        categoryScore.setCategoryName(categoryName);
-        categoryScore.setScore(score);
-        categoryScore.setCreatedAt(createdAt);
-        return categoryScore;
+    private CategoryBucketScore getCategoryBucketScore(String categoryName, long scoreSum, long ratingsCount, String bucket) {
+        CategoryBucketScore categoryBucketScore = new CategoryBucketScore();
+        categoryBucketScore.setCategoryName(categoryName);
+        categoryBucketScore.setScoreSum(scoreSum);
+        categoryBucketScore.setRatingsCount(ratingsCount);
+        categoryBucketScore.setBucketStart(LocalDate.parse(bucket).atStartOfDay().toEpochSecond(ZoneOffset.UTC));
+        return categoryBucketScore;
+    }
+
+    private ScoreTotal getScoreTotal(int... scores) {
+        ScoreTotal scoreTotal = new ScoreTotal();
+        for (int score : scores) {
+            scoreTotal.add(score, 1);
+        }
+        return scoreTotal;
+    }
+
+    private CategoryScoreDistribution getScoreDistribution(String categoryName, int... scores) {
+        CategoryScoreDistribution distribution = new CategoryScoreDistribution();
+        distribution.setCategoryName(categoryName);
+        for (int score : scores) {
+            distribution.add(score, 1);
+        }
+        return distribution;
     }
-}
\ No newline at end of file
+}
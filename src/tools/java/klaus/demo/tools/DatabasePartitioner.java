@@ -0,0 +1,96 @@
+package klaus.demo.tools;
+
+import klaus.demo.ticket.repository.RatingsSchema;
+import org.sqlite.SQLiteDataSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.YearMonth;
+
+import static klaus.demo.util.ResourceReader.getResourceAsString;
+
+/**
+ * Splits the {@code ratings} table of a database into one file per month, the layout the partitioned engine reads.
+ * Ratings keep their ids, {@code rating_categories} stays in the source database the service is pointed at.
+ *
+ * <pre>
+ * ./gradlew partitionDataset -Pargs="--input=build/datasets/ratings.db --output=build/datasets/partitions"
+ * </pre>
+ */
+public class DatabasePartitioner {
+
+    public static void main(String[] args) throws Exception {
+        ToolArguments arguments = new ToolArguments(args);
+        Path input = Paths.get(arguments.get("input", "build/datasets/ratings.db"));
+        Path output = Paths.get(arguments.get("output", "build/datasets/partitions"));
+
+        long started = System.nanoTime();
+        int partitions = partition(input, output);
+        System.out.printf("Wrote %d monthly partitions of %s to %s in %.1f s%n", partitions, input, output,
+                (System.nanoTime() - started) / 1e9);
+    }
+
+    /**
+     * Replaces the partition files of every month with ratings in {@code input}.
+     */
+    public static int partition(Path input, Path output) throws Exception {
+        Files.createDirectories(output);
+        SQLiteDataSource sourceDataSource = new SQLiteDataSource();
+        sourceDataSource.setUrl("jdbc:sqlite:" + input.toAbsolutePath());
+
+        YearMonth first;
+        YearMonth last;
+        try (Connection connection = sourceDataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet range = statement.executeQuery("SELECT min(created_at), max(created_at) FROM ratings")) {
+            if (!range.next() || range.getString(1) == null) {
+                return 0;
+            }
+            first = YearMonth.parse(range.getString(1).substring(0, 7));
+            last = YearMonth.parse(range.getString(2).substring(0, 7));
+        }
+
+        int partitions = 0;
+        for (YearMonth month = first; !month.isAfter(last); month = month.plusMonths(1)) {
+            Path file = output.resolve("ratings-" + month + ".db");
+            Files.deleteIfExists(file);
+            writePartition(input, file, month);
+            partitions++;
+        }
+        return partitions;
+    }
+
+    private static void writePartition(Path input, Path file, YearMonth month) throws SQLException {
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + file.toAbsolutePath());
+        try (Connection connection = dataSource.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA journal_mode = OFF");
+                statement.execute("PRAGMA synchronous = OFF");
+                statement.execute("CREATE TABLE ratings(id integer primary key autoincrement, rating integer not null, ticket_id integer not null, "
+                        + "rating_category_id integer not null, reviewer_id integer, reviewee_id integer, created_at datetime, "
+                        + "created_at_epoch integer)");
+                statement.execute("ATTACH DATABASE '" + input.toAbsolutePath().toString().replace("'", "''") + "' AS source");
+            }
+            try (PreparedStatement copy = connection.prepareStatement(
+                    "INSERT INTO main.ratings SELECT id, rating, ticket_id, rating_category_id, reviewer_id, reviewee_id, created_at, "
+                            + "CAST(strftime('%s', created_at) AS INTEGER) FROM source.ratings WHERE created_at >= ? AND created_at < ?")) {
+                copy.setString(1, month.atDay(1) + "T00:00:00");
+                copy.setString(2, month.plusMonths(1).atDay(1) + "T00:00:00");
+                copy.executeUpdate();
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("DETACH DATABASE source");
+                statement.execute(getResourceAsString("sql/migration/create_created_at_epoch_index.sql", RatingsSchema.class));
+                statement.execute(getResourceAsString("sql/migration/create_ticket_id_index.sql", RatingsSchema.class));
+                statement.execute("PRAGMA journal_mode = WAL");
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package klaus.demo.tools;
+
+import klaus.demo.ticket.repository.RatingsSchema;
+import org.sqlite.SQLiteDataSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static klaus.demo.util.ResourceReader.getResourceAsString;
+
+/**
+ * Writes a SQLite database with the {@code ratings} and {@code rating_categories} tables the service reads.
+ * Tickets are spread evenly over the time span and each gets its ratings within an hour of its start,
+ * so ticket ids grow with time like they do in production.
+ *
+ * <pre>
+ * ./gradlew generateDataset -Pargs="--output=build/datasets/ratings.db --tickets=200000 --ratings-per-ticket=5
+ *     --from=2019-01-01 --days=365 --categories=Spelling:1,Grammar:0.7,GDPR:1.2,Randomness:0"
+ * </pre>
+ * Instead of {@code --categories}, {@code --category-count=20 --max-weight=2} generates categories with random
+ * weights between 0 and the maximum, a tenth of them weighted 0.
+ */
+public class DatasetGenerator {
+    private static final DateTimeFormatter CREATED_AT_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+    private static final int BATCH_SIZE = 10_000;
+    private static final int MAX_RATING = 5;
+    private static final int RATING_WINDOW_SECONDS = 3600;
+
+    private final int tickets;
+    private final int ratingsPerTicket;
+    private final Map<String, Double> categoryWeights;
+    private final LocalDateTime from;
+    private final int days;
+    private final long seed;
+
+    public DatasetGenerator(int tickets, int ratingsPerTicket, Map<String, Double> categoryWeights, LocalDateTime from, int days, long seed) {
+        this.tickets = tickets;
+        this.ratingsPerTicket = ratingsPerTicket;
+        this.categoryWeights = categoryWeights;
+        this.from = from;
+        this.days = days;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ToolArguments arguments = new ToolArguments(args);
+        long seed = arguments.getLong("seed", 42);
+        Map<String, Double> categoryWeights = arguments.has("category-count")
+                ? getRandomCategoryWeights(arguments.getInt("category-count", 4), arguments.getDouble("max-weight", 2), seed)
+                : arguments.getWeights("categories", "Spelling:1,Grammar:0.7,GDPR:1.2,Randomness:0");
+        DatasetGenerator generator = new DatasetGenerator(
+                arguments.getInt("tickets", 200_000),
+                arguments.getInt("ratings-per-ticket", 5),
+                categoryWeights,
+                LocalDate.parse(arguments.get("from", "2019-01-01")).atStartOfDay(),
+                arguments.getInt("days", 365),
+                seed);
+
+        Path output = Paths.get(arguments.get("output", "build/datasets/ratings.db"));
+        long started = System.nanoTime();
+        generator.generate(output);
+        System.out.printf("Wrote %d ratings of %d tickets in %d categories to %s in %.1f s%n",
+                (long) generator.tickets * generator.ratingsPerTicket, generator.tickets, categoryWeights.size(), output,
+                (System.nanoTime() - started) / 1e9);
+    }
+
+    /**
+     * Replaces the file at {@code output} with a new database.
+     */
+    public void generate(Path output) throws Exception {
+        if (output.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(output.toAbsolutePath().getParent());
+        }
+        Files.deleteIfExists(output);
+
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + output.toAbsolutePath());
+        try (Connection connection = dataSource.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA journal_mode = OFF");
+                statement.execute("PRAGMA synchronous = OFF");
+                statement.execute("CREATE TABLE rating_categories(id integer primary key autoincrement, name text not null, weight real not null)");
+                statement.execute("CREATE TABLE ratings(id integer primary key autoincrement, rating integer not null, ticket_id integer not null, "
+                        + "rating_category_id integer not null, reviewer_id integer, reviewee_id integer, created_at datetime, "
+                        + "created_at_epoch integer)");
+            }
+            connection.setAutoCommit(false);
+            insertCategories(connection);
+            insertRatings(connection);
+            connection.commit();
+            // indexed once all rows are in, the same covering indexes the service would migrate to
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(getResourceAsString("sql/migration/create_created_at_epoch_index.sql", RatingsSchema.class));
+                statement.execute(getResourceAsString("sql/migration/create_ticket_id_index.sql", RatingsSchema.class));
+            }
+            connection.commit();
+        }
+    }
+
+    private void insertCategories(Connection connection) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO rating_categories(name, weight) VALUES (?, ?)")) {
+            for (Map.Entry<String, Double> category : categoryWeights.entrySet()) {
+                insert.setString(1, category.getKey());
+                insert.setDouble(2, category.getValue());
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private void insertRatings(Connection connection) throws SQLException {
+        Random random = new Random(seed);
+        long spanSeconds = days * 86400L;
+        int batched = 0;
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO ratings(rating, ticket_id, rating_category_id, reviewer_id, reviewee_id, created_at, created_at_epoch) "
+                        + "VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+            for (int ticket = 0; ticket < tickets; ticket++) {
+                LocalDateTime ticketStart = from.plusSeconds(spanSeconds * ticket / tickets);
+                for (int i = 0; i < ratingsPerTicket; i++) {
+                    insert.setInt(1, random.nextInt(MAX_RATING + 1));
+                    insert.setLong(2, ticket + 1);
+                    insert.setInt(3, 1 + random.nextInt(categoryWeights.size()));
+                    insert.setInt(4, 1 + random.nextInt(100));
+                    insert.setInt(5, 1 + random.nextInt(100));
+                    LocalDateTime createdAt = ticketStart.plusSeconds(random.nextInt(RATING_WINDOW_SECONDS));
+                    insert.setString(6, createdAt.format(CREATED_AT_FORMAT));
+                    insert.setLong(7, createdAt.toEpochSecond(ZoneOffset.UTC));
+                    insert.addBatch();
+                    if (++batched == BATCH_SIZE) {
+                        insert.executeBatch();
+                        batched = 0;
+                    }
+                }
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private static Map<String, Double> getRandomCategoryWeights(int count, double maxWeight, long seed) {
+        Random random = new Random(seed);
+        Map<String, Double> weights = new LinkedHashMap<>();
+        for (int i = 1; i <= count; i++) {
+            double weight = random.nextInt(10) == 0 ? 0 : Math.round(random.nextDouble() * maxWeight * 10) / 10.0;
+            weights.put("Category " + i, weight);
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,234 @@
+package klaus.demo.tools;
+
+import com.google.protobuf.Timestamp;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import klaus.demo.DateRange;
+import klaus.demo.DoubleDateRange;
+import klaus.demo.TicketServiceGrpc;
+import klaus.demo.ticket.cache.ResultCache;
+import klaus.demo.ticket.cancellation.CancellationCounters;
+import klaus.demo.ticket.metrics.TicketMetrics;
+import klaus.demo.ticket.repository.CategoryDimension;
+import klaus.demo.ticket.repository.ColumnarTicketRepository;
+import klaus.demo.ticket.repository.JdbcTicketRepository;
+import klaus.demo.ticket.repository.RatingsSchema;
+import klaus.demo.ticket.repository.TicketRepository;
+import klaus.demo.ticket.service.ResponseBatching;
+import klaus.demo.ticket.service.TicketServiceImpl;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.sqlite.SQLiteDataSource;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load against TicketService: every worker sends its next request as soon as the previous
+ * one has been answered. Requests pick an RPC and a range length from weighted mixes, the range start
+ * is uniformly random within the dataset's time span.
+ *
+ * <pre>
+ * ./gradlew loadTest -Pargs="--target=localhost:50051 --concurrency=16 --duration-seconds=60"
+ * ./gradlew loadTest -Pargs="--database=build/datasets/ratings.db --engine=columnar --concurrency=16"
+ * </pre>
+ * With {@code --database} the service runs in this process over the given file instead of being reached over the network.
+ */
+public class LoadDriver {
+    private static final String AGGREGATED_CATEGORIES = "GetAggregatedCategories";
+    private static final String SCORES_BY_TICKETS = "GetScoresByTickets";
+    private static final String OVERALL_QUALITY_SCORE = "GetOverallQualityScore";
+    private static final String PERIOD_OVER_PERIOD = "GetPeriodOverPeriodScoreChange";
+
+    private final TicketServiceGrpc.TicketServiceBlockingStub stub;
+    private final Map<String, Double> rpcMix;
+    private final Map<String, Double> rangeDaysMix;
+    private final long spanFrom;
+    private final long spanSeconds;
+    private final Map<String, Histogram> latencies = new LinkedHashMap<>();
+    private final AtomicLong errors = new AtomicLong();
+
+    LoadDriver(TicketServiceGrpc.TicketServiceBlockingStub stub, Map<String, Double> rpcMix, Map<String, Double> rangeDaysMix,
+               LocalDate from, int days) {
+        this.stub = stub;
+        this.rpcMix = rpcMix;
+        this.rangeDaysMix = rangeDaysMix;
+        this.spanFrom = from.atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+        this.spanSeconds = days * 86400L;
+        for (String rpc : rpcMix.keySet()) {
+            if (!List.of(AGGREGATED_CATEGORIES, SCORES_BY_TICKETS, OVERALL_QUALITY_SCORE, PERIOD_OVER_PERIOD).contains(rpc)) {
+                throw new IllegalArgumentException("Unknown RPC " + rpc);
+            }
+            latencies.put(rpc, new ConcurrentHistogram(3));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ToolArguments arguments = new ToolArguments(args);
+        int concurrency = arguments.getInt("concurrency", 8);
+        ExecutorService serverExecutor = Executors.newFixedThreadPool(concurrency);
+        Server server = null;
+        ManagedChannel channel;
+        if (arguments.has("database")) {
+            server = InProcessServerBuilder.forName("load-driver")
+                    .executor(serverExecutor)
+                    .addService(createService(arguments, serverExecutor))
+                    .build()
+                    .start();
+            channel = InProcessChannelBuilder.forName("load-driver").build();
+        } else {
+            channel = ManagedChannelBuilder.forTarget(arguments.get("target", "localhost:50051")).usePlaintext().build();
+        }
+
+        try {
+            LoadDriver driver = new LoadDriver(TicketServiceGrpc.newBlockingStub(channel),
+                    arguments.getWeights("rpcs", AGGREGATED_CATEGORIES + ":40," + OVERALL_QUALITY_SCORE + ":30,"
+                            + PERIOD_OVER_PERIOD + ":20," + SCORES_BY_TICKETS + ":10"),
+                    arguments.getWeights("ranges", "1:40,7:30,30:20,365:10"),
+                    LocalDate.parse(arguments.get("from", "2019-01-01")),
+                    arguments.getInt("days", 365));
+            driver.run(concurrency,
+                    Duration.ofSeconds(arguments.getLong("warmup-seconds", 10)),
+                    Duration.ofSeconds(arguments.getLong("duration-seconds", 60)));
+        } finally {
+            channel.shutdownNow();
+            if (server != null) {
+                server.shutdownNow();
+            }
+            serverExecutor.shutdownNow();
+        }
+    }
+
+    private static TicketServiceImpl createService(ToolArguments arguments, ExecutorService serverExecutor) {
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + Paths.get(arguments.get("database", "")).toAbsolutePath());
+        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+        new RatingsSchema(jdbcTemplate, dataSource.getUrl(), true, 5000);
+        CancellationCounters cancellationCounters = new CancellationCounters();
+        CategoryDimension categoryDimension = new CategoryDimension(jdbcTemplate);
+        TicketRepository ticketRepository = "columnar".equals(arguments.get("engine", "jdbc"))
+                ? new ColumnarTicketRepository(jdbcTemplate, categoryDimension)
+                : new JdbcTicketRepository(jdbcTemplate, categoryDimension, cancellationCounters, true, 500, "");
+        ResultCache resultCache = new ResultCache(arguments.getInt("cache-entries", 0), Duration.ofSeconds(60), Duration.ofDays(1));
+        return new TicketServiceImpl(ticketRepository, serverExecutor, resultCache, cancellationCounters,
+                new TicketMetrics(new SimpleMeterRegistry()), new ResponseBatching(1000, 262144));
+    }
+
+    void run(int concurrency, Duration warmup, Duration duration) throws InterruptedException {
+        long measureFrom = System.nanoTime() + warmup.toNanos();
+        long measureTo = measureFrom + duration.toNanos();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            long seed = i;
+            Thread worker = new Thread(() -> runWorker(new Random(seed), measureFrom, measureTo), "load-worker-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        printReport(concurrency, duration);
+    }
+
+    private void runWorker(Random random, long measureFrom, long measureTo) {
+        while (true) {
+            String rpc = pick(rpcMix, random);
+            DateRange range = getRandomRange(random);
+            long started = System.nanoTime();
+            if (started >= measureTo) {
+                return;
+            }
+            try {
+                call(rpc, range, random);
+            } catch (RuntimeException e) {
+                if (started >= measureFrom) {
+                    errors.incrementAndGet();
+                }
+                continue;
+            }
+            if (started >= measureFrom) {
+                latencies.get(rpc).recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started));
+            }
+        }
+    }
+
+    private void call(String rpc, DateRange range, Random random) {
+        switch (rpc) {
+            case AGGREGATED_CATEGORIES:
+                stub.getAggregatedCategories(range).forEachRemaining(response -> {
+                });
+                break;
+            case SCORES_BY_TICKETS:
+                stub.getScoresByTickets(range).forEachRemaining(response -> {
+                });
+                break;
+            case OVERALL_QUALITY_SCORE:
+                stub.getOverallQualityScore(range);
+                break;
+            default:
+                stub.getPeriodOverPeriodScoreChange(DoubleDateRange.newBuilder()
+                        .setSelectedPeriod(range)
+                        .setPreviousPeriod(getRandomRange(random))
+                        .build());
+        }
+    }
+
+    private DateRange getRandomRange(Random random) {
+        long rangeSeconds = Math.min(spanSeconds, (long) (Double.parseDouble(pick(rangeDaysMix, random)) * 86400));
+        long periodFrom = spanFrom + (long) (random.nextDouble() * (spanSeconds - rangeSeconds));
+        return DateRange.newBuilder()
+                .setPeriodFrom(Timestamp.newBuilder().setSeconds(periodFrom))
+                .setPeriodTo(Timestamp.newBuilder().setSeconds(periodFrom + rangeSeconds - 1))
+                .build();
+    }
+
+    private static String pick(Map<String, Double> weights, Random random) {
+        double total = weights.values().stream().mapToDouble(Double::doubleValue).sum();
+        double point = random.nextDouble() * total;
+        String picked = null;
+        for (Map.Entry<String, Double> weight : weights.entrySet()) {
+            picked = weight.getKey();
+            point -= weight.getValue();
+            if (point < 0) {
+                break;
+            }
+        }
+        return picked;
+    }
+
+    private void printReport(int concurrency, Duration duration) {
+        double seconds = duration.toMillis() / 1000.0;
+        Histogram total = new Histogram(3);
+        System.out.printf("%d workers for %.0f s, %d errors%n", concurrency, seconds, errors.get());
+        System.out.printf("%-32s %10s %10s %10s %10s %10s %10s %10s%n", "rpc", "calls", "calls/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        latencies.forEach((rpc, histogram) -> {
+            printRow(rpc, histogram, seconds);
+            total.add(histogram);
+        });
+        printRow("all", total, seconds);
+    }
+
+    private static void printRow(String name, Histogram histogram, double seconds) {
+        System.out.printf("%-32s %10d %10.1f %10.2f %10.2f %10.2f %10.2f %10.2f%n", name, histogram.getTotalCount(),
+                histogram.getTotalCount() / seconds,
+                histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(90) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0);
+    }
+}
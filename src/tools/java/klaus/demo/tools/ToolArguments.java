@@ -0,0 +1,56 @@
+package klaus.demo.tools;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@code --name=value} command line arguments.
+ */
+class ToolArguments {
+    private final Map<String, String> values = new HashMap<>();
+
+    ToolArguments(String[] args) {
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            values.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+    }
+
+    boolean has(String name) {
+        return values.containsKey(name);
+    }
+
+    String get(String name, String defaultValue) {
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    int getInt(String name, int defaultValue) {
+        return has(name) ? Integer.parseInt(values.get(name)) : defaultValue;
+    }
+
+    long getLong(String name, long defaultValue) {
+        return has(name) ? Long.parseLong(values.get(name)) : defaultValue;
+    }
+
+    double getDouble(String name, double defaultValue) {
+        return has(name) ? Double.parseDouble(values.get(name)) : defaultValue;
+    }
+
+    /**
+     * Comma separated {@code key:number} pairs in the given order, e.g. {@code Spelling:1,GDPR:1.2}.
+     */
+    Map<String, Double> getWeights(String name, String defaultValue) {
+        Map<String, Double> weights = new LinkedHashMap<>();
+        for (String pair : get(name, defaultValue).split(",")) {
+            int separator = pair.lastIndexOf(':');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key:number in --" + name + ", got " + pair);
+            }
+            weights.put(pair.substring(0, separator).trim(), Double.parseDouble(pair.substring(separator + 1)));
+        }
+        return weights;
+    }
+}